@@ -64,6 +64,10 @@ android {
     buildFeatures {
         viewBinding = true
     }
+    testOptions {
+        // Robolectric necesita los recursos del módulo para levantar el Context de los tests de Room
+        unitTests.isIncludeAndroidResources = true
+    }
 }
 
 dependencies {
@@ -78,7 +82,14 @@ dependencies {
     implementation(libs.activity)
     annotationProcessor(libs.room.compiler)
     
+    // Paging 3 para la lista de gastos (PagingSource generado por Room)
+    implementation("androidx.room:room-paging:2.6.1")
+    implementation("androidx.paging:paging-runtime:3.3.2")
+    implementation("androidx.lifecycle:lifecycle-viewmodel-ktx:2.7.0")
+    
     implementation(libs.workmanager)
+    // CallbackToFutureAdapter para el SyncWorker (ListenableWorker)
+    implementation("androidx.concurrent:concurrent-futures:1.1.0")
     implementation(platform(libs.firebase.bom))
     implementation(libs.firebase.auth)
     implementation(libs.firebase.firestore)
@@ -97,6 +108,10 @@ dependencies {
     implementation("com.squareup.okhttp3:okhttp:4.12.0")
     
     testImplementation(libs.junit)
+    // Tests de Room en la JVM (ExpenseDaoTest): AndroidJUnit4 + ApplicationProvider sobre Robolectric
+    testImplementation("org.robolectric:robolectric:4.14.1")
+    testImplementation("androidx.test:core:1.5.0")
+    testImplementation("androidx.test.ext:junit:1.1.5")
     androidTestImplementation(libs.ext.junit)
     androidTestImplementation(libs.espresso.core)
 }
\ No newline at end of file
@@ -3,6 +3,8 @@ package com.example.gestorgastos;
 import android.app.Application;
 
 import com.google.firebase.FirebaseApp;
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.auth.FirebaseUser;
 
 import androidx.work.Constraints;
 import androidx.work.ExistingPeriodicWorkPolicy;
@@ -10,7 +12,9 @@ import androidx.work.NetworkType;
 import androidx.work.PeriodicWorkRequest;
 import androidx.work.WorkManager;
 
+import com.example.gestorgastos.data.local.DatabaseStartup;
 import com.example.gestorgastos.work.SyncWorker;
+import com.example.gestorgastos.work.TombstoneCompactionWorker;
 
 import java.util.concurrent.TimeUnit;
 
@@ -26,6 +30,10 @@ public class GestorGastosApp extends Application {
         // Inicializar Firebase
         FirebaseApp.initializeApp(this);
         
+        // Abrir la base en segundo plano (archivo de la cuenta, migraciones, totales mensuales y precalentado)
+        FirebaseUser currentUser = FirebaseAuth.getInstance().getCurrentUser();
+        DatabaseStartup.start(this, currentUser != null ? currentUser.getUid() : null);
+        
         // Configurar WorkManager para sincronización periódica
         setupWorkManager();
     }
@@ -43,10 +51,24 @@ public class GestorGastosApp extends Application {
                         .build();
 
         WorkManager.getInstance(this).enqueueUniquePeriodicWork(
-                "firestore_sync_work",
+                SyncWorker.UNIQUE_PERIODIC_WORK,
                 ExistingPeriodicWorkPolicy.KEEP,
                 syncRequest
         );
+
+        // Compactación diaria de filas eliminadas ya sincronizadas (no necesita red)
+        PeriodicWorkRequest compactionRequest =
+                new PeriodicWorkRequest.Builder(TombstoneCompactionWorker.class, 1, TimeUnit.DAYS)
+                        .setConstraints(new Constraints.Builder()
+                                .setRequiresBatteryNotLow(true)
+                                .build())
+                        .build();
+
+        WorkManager.getInstance(this).enqueueUniquePeriodicWork(
+                TombstoneCompactionWorker.UNIQUE_PERIODIC_WORK,
+                ExistingPeriodicWorkPolicy.KEEP,
+                compactionRequest
+        );
     }
 }
 
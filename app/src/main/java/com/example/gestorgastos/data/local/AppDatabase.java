@@ -1,28 +1,52 @@
 package com.example.gestorgastos.data.local;
 
 import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.util.Log;
 import androidx.room.Database;
 import androidx.room.Room;
 import androidx.room.RoomDatabase;
+import androidx.annotation.NonNull;
 import androidx.room.migration.Migration;
 import androidx.sqlite.db.SupportSQLiteDatabase;
 import com.example.gestorgastos.data.local.dao.CategoryDao;
 import com.example.gestorgastos.data.local.dao.ExpenseDao;
+import com.example.gestorgastos.data.local.dao.ExpenseMonthTotalDao;
 import com.example.gestorgastos.data.local.dao.PlanDao;
+import com.example.gestorgastos.data.local.dao.SyncOutboxDao;
 import com.example.gestorgastos.data.local.dao.UserDao;
 import com.example.gestorgastos.data.local.entity.CategoryEntity;
 import com.example.gestorgastos.data.local.entity.ExpenseEntity;
+import com.example.gestorgastos.data.local.entity.ExpenseMonthChangeEntity;
+import com.example.gestorgastos.data.local.entity.ExpenseMonthTotalEntity;
 import com.example.gestorgastos.data.local.entity.PlanEntity;
+import com.example.gestorgastos.data.local.entity.SyncOutboxEntity;
 import com.example.gestorgastos.data.local.entity.UserEntity;
+import com.example.gestorgastos.util.SyncPrefs;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashSet;
+import java.util.Set;
 
 @Database(
     entities = {
         UserEntity.class,
         PlanEntity.class,
         CategoryEntity.class,
-        ExpenseEntity.class
+        ExpenseEntity.class,
+        ExpenseMonthTotalEntity.class,
+        ExpenseMonthChangeEntity.class,
+        SyncOutboxEntity.class
     },
-    version = 3,
+    version = 13,
     exportSchema = false
 )
 public abstract class AppDatabase extends RoomDatabase {
@@ -31,27 +55,301 @@ public abstract class AppDatabase extends RoomDatabase {
     public abstract PlanDao planDao();
     public abstract CategoryDao categoryDao();
     public abstract ExpenseDao expenseDao();
+    public abstract ExpenseMonthTotalDao expenseMonthTotalDao();
+    public abstract SyncOutboxDao syncOutboxDao();
+    
+    // Archivo compartido por todas las cuentas en versiones anteriores; hoy solo se abre sin sesión iniciada
+    static final String SHARED_DATABASE_NAME = "gestor_gastos_database";
+    private static final String USER_DATABASE_PREFIX = "gestor_gastos_user_";
+    private static final String[] DATABASE_FILE_SUFFIXES = {"", "-wal", "-shm", "-journal"};
     
-    // Singleton
+    // Singleton: la base de la cuenta activa (un archivo por UID, ver openForUser)
     private static volatile AppDatabase INSTANCE;
+    private static volatile String instanceName;
+    // Cuenta con sesión al arrancar el proceso: DatabaseStartup abre su archivo en segundo plano.
+    // Si algo pide la base antes de que termine, se abre ese mismo archivo y no el de la cuenta anterior
+    private static volatile String startupUserUid;
     
     public static AppDatabase getDatabase(final Context context) {
         if (INSTANCE == null) {
             synchronized (AppDatabase.class) {
+                if (INSTANCE == null && startupUserUid != null) {
+                    openForUser(context, startupUserUid);
+                }
                 if (INSTANCE == null) {
-                    INSTANCE = Room.databaseBuilder(
-                        context.getApplicationContext(),
-                        AppDatabase.class,
-                        "gestor_gastos_database"
-                    )
-                    .addMigrations(MIGRATION_1_2, MIGRATION_2_3)
-                    .build();
+                    String userUid = SyncPrefs.getActiveDatabaseUid(context);
+                    instanceName = userUid != null ? USER_DATABASE_PREFIX + userUid : SHARED_DATABASE_NAME;
+                    INSTANCE = build(context, instanceName, pruneUidFor(context, userUid));
                 }
             }
         }
         return INSTANCE;
     }
     
+    private static AppDatabase build(Context context, String name, String pruneForUserUid) {
+        RoomDatabase.Builder<AppDatabase> builder = Room.databaseBuilder(
+                context.getApplicationContext(),
+                AppDatabase.class,
+                name
+            )
+            .addMigrations(MIGRATION_1_2, MIGRATION_2_3, MIGRATION_3_4, MIGRATION_4_5, MIGRATION_5_6, MIGRATION_6_7, MIGRATION_7_8, MIGRATION_8_9, MIGRATION_9_10, MIGRATION_10_11, MIGRATION_11_12, MIGRATION_12_13)
+            .addCallback(MONTH_TOTALS_CALLBACK);
+        // Builds depurables: latencia, filas e hilo de cada consulta (QueryStats, sección de diagnóstico en Configuración)
+        if ((context.getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0) {
+            QueryStats.setEnabled(true);
+            builder.openHelperFactory(new InstrumentedOpenHelperFactory());
+        }
+        if (pruneForUserUid != null) {
+            // Después de los triggers: el borrado de gastos ajusta los totales mensuales
+            builder.addCallback(pruneOtherUsersCallback(context.getApplicationContext(), pruneForUserUid));
+        }
+        return builder.build();
+    }
+    
+    /**
+     * Nombre del archivo de la base activa (se usa para nombrar archivos asociados, como el archivo frío)
+     */
+    static String getActiveDatabaseName(Context context) {
+        getDatabase(context);
+        return instanceName;
+    }
+    
+    /**
+     * Cambia a la base de la cuenta userUid (gestor_gastos_user_<uid>), cerrando la anterior.
+     * Se llama al iniciar sesión, antes de escribir nada del usuario. Es barato (no abre el archivo):
+     * Room lo abre en la primera consulta.
+     * La primera cuenta que se abre después de actualizar la app adopta el archivo compartido de
+     * versiones anteriores (con sus cambios pendientes de subir) y se le borran las filas de otras cuentas;
+     * las otras cuentas con cambios sin subir reciben su propia copia (ver adoptSharedDatabase).
+     */
+    public static void openForUser(Context context, String userUid) {
+        synchronized (AppDatabase.class) {
+            startupUserUid = null;
+            String name = USER_DATABASE_PREFIX + userUid;
+            if (INSTANCE != null && name.equals(instanceName)) {
+                return;
+            }
+            closeInstance();
+            boolean adopted = adoptSharedDatabase(context, userUid, name);
+            SyncPrefs.setActiveDatabaseUid(context, userUid);
+            instanceName = name;
+            INSTANCE = build(context, name, pruneUidFor(context, userUid));
+            Log.d("AppDatabase", "Base de la cuenta abierta: " + name + (adopted ? " (adoptó el archivo compartido)" : ""));
+            // Los totales de este archivo pudieron quedar en la zona anterior si cambió mientras estaba cerrado
+            DatabaseStartup.verifyMonthTotalsZoneAsync(context);
+        }
+    }
+    
+    /**
+     * Cierra la base de la cuenta al cerrar sesión. El archivo queda para la próxima vez que entre la cuenta.
+     */
+    public static void closeForSignOut(Context context) {
+        synchronized (AppDatabase.class) {
+            startupUserUid = null;
+            closeInstance();
+            SyncPrefs.setActiveDatabaseUid(context, null);
+        }
+    }
+    
+    /**
+     * Borra los archivos locales de una cuenta (eliminación de cuenta): reemplaza el borrado fila por fila.
+     */
+    public static void deleteUserDatabase(Context context, String userUid) {
+        synchronized (AppDatabase.class) {
+            String name = USER_DATABASE_PREFIX + userUid;
+            if (name.equals(instanceName)) {
+                closeInstance();
+                SyncPrefs.setActiveDatabaseUid(context, null);
+            }
+            context.deleteDatabase(name);
+            context.deleteDatabase(ExpenseArchive.archiveFileNameFor(name));
+            SyncPrefs.clearArchiveBoundary(context, ExpenseArchive.archiveFileNameFor(name));
+            SyncPrefs.clearMonthTotalsZoneId(context, name);
+        }
+    }
+    
+    /**
+     * Anota la cuenta que DatabaseStartup va a abrir (ver startupUserUid). No toca el archivo: se llama
+     * en el hilo principal, y la adopción del archivo compartido y la apertura corren en el de arranque.
+     */
+    static void setStartupUser(String userUid) {
+        synchronized (AppDatabase.class) {
+            if (INSTANCE == null) {
+                startupUserUid = userUid;
+            }
+        }
+    }
+    
+    private static String pruneUidFor(Context context, String userUid) {
+        return userUid != null && SyncPrefs.isPrunePending(context, userUid) ? userUid : null;
+    }
+    
+    private static void closeInstance() {
+        if (INSTANCE != null) {
+            INSTANCE.close();
+            INSTANCE = null;
+            instanceName = null;
+        }
+    }
+    
+    /**
+     * Renombra el archivo compartido (y su archivo frío) al de la cuenta, una sola vez por instalación.
+     * Devuelve true si lo adoptó.
+     * Antes, cada otra cuenta con cambios sin subir en el archivo recibe una copia completa como su propia base
+     * (gestor_gastos_user_<uid>): la poda al abrir solo borra filas ajenas, así que esos cambios no se pierden.
+     * Todas las otras cuentas olvidan su marca de agua: sus filas ya no están (o están sin el archivo frío)
+     * y la próxima descarga tiene que ser completa.
+     */
+    private static boolean adoptSharedDatabase(Context context, String userUid, String name) {
+        if (SyncPrefs.isSharedDatabaseAdopted(context)) {
+            return false;
+        }
+        File shared = context.getDatabasePath(SHARED_DATABASE_NAME);
+        if (!shared.exists() || context.getDatabasePath(name).exists()) {
+            SyncPrefs.setSharedDatabaseAdopted(context);
+            return false;
+        }
+        Set<String> otherUids;
+        Set<String> pendingUids;
+        try {
+            otherUids = queryUserUids(shared, OTHER_USERS_SQL, null, userUid);
+            pendingUids = queryUserUids(shared, OTHER_USERS_WITH_OUTBOX_SQL, OTHER_USERS_PENDING_SQL, userUid);
+        } catch (SQLiteException e) {
+            // Sin saber de quién son los cambios pendientes no se adopta; se reintenta en el próximo inicio de sesión
+            Log.e("AppDatabase", "No se pudo leer el archivo compartido", e);
+            return false;
+        }
+        for (String otherUid : pendingUids) {
+            String otherName = USER_DATABASE_PREFIX + otherUid;
+            if (context.getDatabasePath(otherName).exists()) {
+                Log.w("AppDatabase", "La cuenta " + otherUid + " ya tiene base propia, no se copia el archivo compartido");
+                continue;
+            }
+            try {
+                for (String suffix : DATABASE_FILE_SUFFIXES) {
+                    File from = context.getDatabasePath(SHARED_DATABASE_NAME + suffix);
+                    if (from.exists()) {
+                        copyFile(from, context.getDatabasePath(otherName + suffix));
+                    }
+                }
+                SyncPrefs.addPrunePending(context, otherUid);
+                Log.d("AppDatabase", "Cambios sin subir de " + otherUid + " copiados a " + otherName);
+            } catch (IOException e) {
+                // Sin copia completa no se adopta: el archivo compartido (y sus cambios) queda intacto
+                // y se vuelve a intentar en el próximo inicio de sesión
+                Log.e("AppDatabase", "No se pudo copiar el archivo compartido para " + otherUid, e);
+                for (String suffix : DATABASE_FILE_SUFFIXES) {
+                    context.getDatabasePath(otherName + suffix).delete();
+                }
+                return false;
+            }
+        }
+        for (String otherUid : otherUids) {
+            SyncPrefs.clearPullWatermarks(context, otherUid);
+        }
+        SyncPrefs.addPrunePending(context, userUid);
+        SyncPrefs.setSharedDatabaseAdopted(context);
+        for (String suffix : DATABASE_FILE_SUFFIXES) {
+            File from = context.getDatabasePath(SHARED_DATABASE_NAME + suffix);
+            if (from.exists() && !from.renameTo(context.getDatabasePath(name + suffix))) {
+                Log.w("AppDatabase", "No se pudo renombrar " + from.getName());
+            }
+        }
+        String sharedArchive = ExpenseArchive.archiveFileNameFor(SHARED_DATABASE_NAME);
+        String userArchive = ExpenseArchive.archiveFileNameFor(name);
+        for (String suffix : DATABASE_FILE_SUFFIXES) {
+            File from = context.getDatabasePath(sharedArchive + suffix);
+            if (from.exists() && !from.renameTo(context.getDatabasePath(userArchive + suffix))) {
+                Log.w("AppDatabase", "No se pudo renombrar " + from.getName());
+            }
+        }
+        SyncPrefs.setArchiveBoundaryMillis(context, userArchive, SyncPrefs.getArchiveBoundaryMillis(context, sharedArchive));
+        SyncPrefs.clearArchiveBoundary(context, sharedArchive);
+        return true;
+    }
+    
+    // Cuentas presentes en el archivo compartido, distintas de la que lo adopta
+    private static final String OTHER_USERS_SQL =
+            "SELECT userUid FROM expenses WHERE userUid != ?1 UNION SELECT userUid FROM categories WHERE userUid != ?1";
+    // Cuentas con entradas en sync_outbox (cambios sin subir)
+    private static final String OTHER_USERS_WITH_OUTBOX_SQL =
+            "SELECT e.userUid FROM sync_outbox o JOIN expenses e ON o.entityType = 'EXPENSE' AND e.idLocal = o.entityIdLocal " +
+            "WHERE e.userUid != ?1 UNION " +
+            "SELECT c.userUid FROM sync_outbox o JOIN categories c ON o.entityType = 'CATEGORY' AND c.idLocal = o.entityIdLocal " +
+            "WHERE c.userUid != ?1";
+    // Archivos anteriores a sync_outbox: lo pendiente se marcaba solo en syncState
+    private static final String OTHER_USERS_PENDING_SQL =
+            "SELECT userUid FROM expenses WHERE userUid != ?1 AND syncState != 'SYNCED' UNION " +
+            "SELECT userUid FROM categories WHERE userUid != ?1 AND syncState != 'SYNCED'";
+    
+    /**
+     * userUid distintos de exceptUid según sql, leídos del archivo sin pasar por Room (puede estar en una versión vieja).
+     * Si sql falla (una tabla que todavía no existía) se usa fallbackSql.
+     */
+    private static Set<String> queryUserUids(File file, String sql, String fallbackSql, String exceptUid) {
+        Set<String> uids = new HashSet<>();
+        SQLiteDatabase db = SQLiteDatabase.openDatabase(file.getPath(), null, SQLiteDatabase.OPEN_READONLY);
+        try {
+            Cursor cursor;
+            try {
+                cursor = db.rawQuery(sql, new String[] {exceptUid});
+            } catch (SQLiteException e) {
+                if (fallbackSql == null) {
+                    throw e;
+                }
+                cursor = db.rawQuery(fallbackSql, new String[] {exceptUid});
+            }
+            try {
+                while (cursor.moveToNext()) {
+                    if (!cursor.isNull(0)) {
+                        uids.add(cursor.getString(0));
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            db.close();
+        }
+        return uids;
+    }
+    
+    private static void copyFile(File from, File to) throws IOException {
+        try (InputStream in = new FileInputStream(from); OutputStream out = new FileOutputStream(to)) {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        }
+    }
+    
+    // En un archivo que salió del compartido quedan gastos y categorías de otras cuentas que usaron el dispositivo.
+    // La tabla users se conserva: para un admin es la caché del listado de usuarios.
+    // La marca de poda pendiente se borra recién cuando la poda se confirma
+    private static RoomDatabase.Callback pruneOtherUsersCallback(Context context, String userUid) {
+        return new RoomDatabase.Callback() {
+            @Override
+            public void onOpen(@NonNull SupportSQLiteDatabase db) {
+                Object[] args = {userUid};
+                db.beginTransaction();
+                try {
+                    db.execSQL("DELETE FROM expenses WHERE userUid != ?", args);
+                    db.execSQL("DELETE FROM categories WHERE userUid != ?", args);
+                    db.execSQL("DELETE FROM expense_month_totals WHERE userUid != ?", args);
+                    db.execSQL("DELETE FROM expense_month_changes WHERE userUid != ?", args);
+                    db.execSQL("DELETE FROM sync_outbox WHERE " +
+                            "(entityType = 'EXPENSE' AND entityIdLocal NOT IN (SELECT idLocal FROM expenses)) OR " +
+                            "(entityType = 'CATEGORY' AND entityIdLocal NOT IN (SELECT idLocal FROM categories))");
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                SyncPrefs.clearPrunePending(context, userUid);
+            }
+        };
+    }
+    
     // Migración de versión 1 a 2: agregar campo planExpiresAt
     static final Migration MIGRATION_1_2 = new Migration(1, 2) {
         @Override
@@ -68,4 +366,228 @@ public abstract class AppDatabase extends RoomDatabase {
             database.execSQL("ALTER TABLE users ADD COLUMN deletedAt INTEGER");
         }
     };
+    
+    // Migración de versión 3 a 4: tabla de totales mensuales mantenida por triggers
+    static final Migration MIGRATION_3_4 = new Migration(3, 4) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            database.execSQL("CREATE TABLE IF NOT EXISTS `expense_month_totals` (" +
+                    "`userUid` TEXT NOT NULL, `yearMonth` TEXT NOT NULL, `categoryRemoteId` TEXT NOT NULL, " +
+                    "`total` REAL NOT NULL, `expenseCount` INTEGER NOT NULL, " +
+                    "PRIMARY KEY(`userUid`, `yearMonth`, `categoryRemoteId`))");
+            database.execSQL("INSERT INTO expense_month_totals (userUid, yearMonth, categoryRemoteId, total, expenseCount) " +
+                    "SELECT userUid, " + yearMonthOf("fechaEpochMillis") + ", categoryRemoteId, SUM(monto), COUNT(*) " +
+                    "FROM expenses WHERE deletedAt IS NULL GROUP BY 1, 2, 3");
+        }
+    };
+    
+    // Migración de versión 4 a 5: montos en centavos (INTEGER) en lugar de REAL.
+    // SQLite no permite cambiar el tipo de una columna, así que se reconstruye la tabla;
+    // al borrar la tabla vieja caen también sus triggers, que se recrean en onOpen.
+    static final Migration MIGRATION_4_5 = new Migration(4, 5) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            database.execSQL("CREATE TABLE IF NOT EXISTS `expenses_new` (" +
+                    "`idLocal` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, `remoteId` TEXT, " +
+                    "`userUid` TEXT NOT NULL, `categoryRemoteId` TEXT NOT NULL, `montoCentavos` INTEGER NOT NULL, " +
+                    "`fechaEpochMillis` INTEGER NOT NULL, `updatedAt` INTEGER NOT NULL, `deletedAt` INTEGER, " +
+                    "`syncState` TEXT NOT NULL)");
+            database.execSQL("INSERT INTO expenses_new (idLocal, remoteId, userUid, categoryRemoteId, montoCentavos, " +
+                    "fechaEpochMillis, updatedAt, deletedAt, syncState) " +
+                    "SELECT idLocal, remoteId, userUid, categoryRemoteId, CAST(ROUND(monto * 100) AS INTEGER), " +
+                    "fechaEpochMillis, updatedAt, deletedAt, syncState FROM expenses");
+            database.execSQL("DROP TABLE expenses");
+            database.execSQL("ALTER TABLE expenses_new RENAME TO expenses");
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_expenses_userUid` ON `expenses` (`userUid`)");
+            database.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS `index_expenses_remoteId` ON `expenses` (`remoteId`)");
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_expenses_userUid_fechaEpochMillis` ON `expenses` (`userUid`, `fechaEpochMillis`)");
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_expenses_userUid_deletedAt` ON `expenses` (`userUid`, `deletedAt`)");
+            
+            database.execSQL("DROP TABLE IF EXISTS expense_month_totals");
+            database.execSQL("CREATE TABLE IF NOT EXISTS `expense_month_totals` (" +
+                    "`userUid` TEXT NOT NULL, `yearMonth` TEXT NOT NULL, `categoryRemoteId` TEXT NOT NULL, " +
+                    "`totalCentavos` INTEGER NOT NULL, `expenseCount` INTEGER NOT NULL, " +
+                    "PRIMARY KEY(`userUid`, `yearMonth`, `categoryRemoteId`))");
+            database.execSQL("INSERT INTO expense_month_totals (userUid, yearMonth, categoryRemoteId, totalCentavos, expenseCount) " +
+                    "SELECT userUid, " + yearMonthOf("fechaEpochMillis") + ", categoryRemoteId, SUM(montoCentavos), COUNT(*) " +
+                    "FROM expenses WHERE deletedAt IS NULL GROUP BY 1, 2, 3");
+        }
+    };
+    
+    // Migración de versión 5 a 6: cola sync_outbox. Se siembra con lo que estaba pendiente
+    // (o falló: antes nunca se reintentaba), categorías primero para que suban antes que sus gastos.
+    static final Migration MIGRATION_5_6 = new Migration(5, 6) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            database.execSQL("CREATE TABLE IF NOT EXISTS `sync_outbox` (" +
+                    "`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, `entityType` TEXT NOT NULL, " +
+                    "`entityIdLocal` INTEGER NOT NULL, `enqueuedAt` INTEGER NOT NULL)");
+            database.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS `index_sync_outbox_entityType_entityIdLocal` " +
+                    "ON `sync_outbox` (`entityType`, `entityIdLocal`)");
+            database.execSQL("INSERT INTO sync_outbox (entityType, entityIdLocal, enqueuedAt) " +
+                    "SELECT 'CATEGORY', idLocal, updatedAt FROM categories " +
+                    "WHERE syncState IN ('PENDING', 'ERROR') ORDER BY idLocal");
+            database.execSQL("INSERT INTO sync_outbox (entityType, entityIdLocal, enqueuedAt) " +
+                    "SELECT 'EXPENSE', idLocal, updatedAt FROM expenses " +
+                    "WHERE syncState IN ('PENDING', 'ERROR') ORDER BY idLocal");
+        }
+    };
+    
+    // Migración de versión 6 a 7: contador de intentos y próximo reintento en sync_outbox
+    static final Migration MIGRATION_6_7 = new Migration(6, 7) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE sync_outbox ADD COLUMN attemptCount INTEGER NOT NULL DEFAULT 0");
+            database.execSQL("ALTER TABLE sync_outbox ADD COLUMN nextAttemptAt INTEGER NOT NULL DEFAULT 0");
+        }
+    };
+    
+    // Migración de versión 7 a 8: ids de documento generados en el cliente.
+    // Las filas que todavía no llegaron a Firestore reciben un remoteId aleatorio (20 caracteres hex)
+    // y los gastos que apuntaban a una categoría con el fallback local_X pasan a usar su remoteId.
+    static final Migration MIGRATION_7_8 = new Migration(7, 8) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            database.execSQL("UPDATE categories SET remoteId = lower(hex(randomblob(10))) " +
+                    "WHERE remoteId IS NULL OR remoteId = ''");
+            // Encolar antes de reescribir la referencia: el documento remoto puede tener guardado local_X
+            database.execSQL("INSERT OR IGNORE INTO sync_outbox (entityType, entityIdLocal, enqueuedAt) " +
+                    "SELECT 'EXPENSE', idLocal, updatedAt FROM expenses " +
+                    "WHERE substr(categoryRemoteId, 1, 6) = 'local_' ORDER BY idLocal");
+            database.execSQL("UPDATE expenses SET categoryRemoteId = " +
+                    "(SELECT c.remoteId FROM categories c WHERE 'local_' || c.idLocal = expenses.categoryRemoteId) " +
+                    "WHERE substr(categoryRemoteId, 1, 6) = 'local_' " +
+                    "AND EXISTS (SELECT 1 FROM categories c WHERE 'local_' || c.idLocal = expenses.categoryRemoteId)");
+            database.execSQL("UPDATE expenses SET remoteId = lower(hex(randomblob(10))) " +
+                    "WHERE remoteId IS NULL OR remoteId = ''");
+        }
+    };
+    
+    // Migración de versión 8 a 9: registro de meses modificados (expense_month_changes), lo llenan los triggers
+    static final Migration MIGRATION_8_9 = new Migration(8, 9) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            database.execSQL("CREATE TABLE IF NOT EXISTS `expense_month_changes` (" +
+                    "`userUid` TEXT NOT NULL, `yearMonth` TEXT NOT NULL, `seq` INTEGER NOT NULL, " +
+                    "PRIMARY KEY(`userUid`, `yearMonth`))");
+        }
+    };
+    
+    // Índices para consultas que recorrían tablas enteras (EXPLAIN QUERY PLAN): el purgado de categorías
+    // y la espera de gastos por su categoría buscaban en expenses por categoryRemoteId con un SCAN por cada categoría,
+    // y los usuarios se buscaban por email y syncState sin índice
+    static final Migration MIGRATION_9_10 = new Migration(9, 10) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_expenses_categoryRemoteId` ON `expenses` (`categoryRemoteId`)");
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_users_email` ON `users` (`email`)");
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_users_syncState` ON `users` (`syncState`)");
+        }
+    };
+    
+    // Huella de creación de los gastos (ContentHash). Las filas existentes quedan en NULL: calcularla ahora
+    // chocaría con los duplicados que ya existen, y el índice único admite varios NULL
+    static final Migration MIGRATION_10_11 = new Migration(10, 11) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE `expenses` ADD COLUMN `contentHash` TEXT");
+            database.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS `index_expenses_userUid_contentHash` ON `expenses` (`userUid`, `contentHash`)");
+        }
+    };
+    
+    // Campos pendientes por entrada de sync_outbox. Las entradas existentes quedan en -1 (todos):
+    // no se sabe qué cambió y el primer envío sube el documento completo, como antes
+    static final Migration MIGRATION_11_12 = new Migration(11, 12) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE sync_outbox ADD COLUMN dirtyFields INTEGER NOT NULL DEFAULT -1");
+        }
+    };
+    
+    // Las categorías por defecto se insertaban PENDING sin entrada en sync_outbox y el push nunca las subía:
+    // se encolan (documento completo) todas las categorías sin confirmar que no estén ya en la cola
+    static final Migration MIGRATION_12_13 = new Migration(12, 13) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            database.execSQL("INSERT OR IGNORE INTO sync_outbox (entityType, entityIdLocal, enqueuedAt) " +
+                    "SELECT 'CATEGORY', idLocal, updatedAt FROM categories WHERE syncState != 'SYNCED' ORDER BY idLocal");
+        }
+    };
+    
+    // Los triggers no forman parte del esquema de Room: se crean (IF NOT EXISTS) en cada apertura,
+    // después de las migraciones, para que siempre correspondan a la forma actual de la tabla.
+    // recursive_triggers hace que un INSERT OR REPLACE sobre expenses dispare también el trigger de DELETE.
+    static final RoomDatabase.Callback MONTH_TOTALS_CALLBACK = new RoomDatabase.Callback() {
+        @Override
+        public void onOpen(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("PRAGMA recursive_triggers = ON");
+            createMonthTotalTriggers(db);
+            createMonthChangeTriggers(db);
+        }
+    };
+    
+    static String yearMonthOf(String fechaColumn) {
+        return "strftime('%Y-%m', " + fechaColumn + " / 1000, 'unixepoch', 'localtime')";
+    }
+    
+    private static String monthTotalKeyOf(String row) {
+        return "userUid = " + row + ".userUid AND yearMonth = " + yearMonthOf(row + ".fechaEpochMillis") +
+               " AND categoryRemoteId = " + row + ".categoryRemoteId";
+    }
+    
+    // Sin INSERT OR IGNORE: dentro de un trigger SQLite aplica la política de conflicto de la sentencia externa,
+    // y el @Insert(REPLACE) de ExpenseDao reemplazaría la fila de totales existente
+    private static String addToMonthTotals(String row) {
+        return "INSERT INTO expense_month_totals (userUid, yearMonth, categoryRemoteId, totalCentavos, expenseCount) " +
+               "SELECT " + row + ".userUid, " + yearMonthOf(row + ".fechaEpochMillis") + ", " + row + ".categoryRemoteId, 0, 0 " +
+               "WHERE NOT EXISTS (SELECT 1 FROM expense_month_totals WHERE " + monthTotalKeyOf(row) + "); " +
+               "UPDATE expense_month_totals SET totalCentavos = totalCentavos + " + row + ".montoCentavos, expenseCount = expenseCount + 1 " +
+               "WHERE " + monthTotalKeyOf(row) + "; ";
+    }
+    
+    private static String removeFromMonthTotals(String row) {
+        return "UPDATE expense_month_totals SET totalCentavos = totalCentavos - " + row + ".montoCentavos, expenseCount = expenseCount - 1 " +
+               "WHERE " + monthTotalKeyOf(row) + "; " +
+               "DELETE FROM expense_month_totals WHERE " + monthTotalKeyOf(row) + " AND expenseCount <= 0; ";
+    }
+    
+    // Marca el mes de la fila de totales como modificado con la siguiente secuencia.
+    // Mismo patrón que addToMonthTotals: sin INSERT OR IGNORE dentro de un trigger
+    private static String touchMonthChange(String row) {
+        String key = "userUid = " + row + ".userUid AND yearMonth = " + row + ".yearMonth";
+        return "INSERT INTO expense_month_changes (userUid, yearMonth, seq) " +
+               "SELECT " + row + ".userUid, " + row + ".yearMonth, 0 " +
+               "WHERE NOT EXISTS (SELECT 1 FROM expense_month_changes WHERE " + key + "); " +
+               "UPDATE expense_month_changes SET seq = (SELECT MAX(seq) FROM expense_month_changes) + 1 WHERE " + key + "; ";
+    }
+    
+    /**
+     * Cualquier cambio en expense_month_totals (venga de expenses, de un rebuild o del archivo frío)
+     * queda registrado por mes en expense_month_changes.
+     */
+    static void createMonthChangeTriggers(SupportSQLiteDatabase db) {
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS expense_month_totals_changed_insert AFTER INSERT ON expense_month_totals " +
+                "BEGIN " + touchMonthChange("NEW") + "END");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS expense_month_totals_changed_update AFTER UPDATE ON expense_month_totals " +
+                "BEGIN " + touchMonthChange("NEW") + "END");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS expense_month_totals_changed_delete AFTER DELETE ON expense_month_totals " +
+                "BEGIN " + touchMonthChange("OLD") + "END");
+    }
+    
+    static void createMonthTotalTriggers(SupportSQLiteDatabase db) {
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS expenses_month_totals_insert AFTER INSERT ON expenses " +
+                "WHEN NEW.deletedAt IS NULL BEGIN " + addToMonthTotals("NEW") + "END");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS expenses_month_totals_delete AFTER DELETE ON expenses " +
+                "WHEN OLD.deletedAt IS NULL BEGIN " + removeFromMonthTotals("OLD") + "END");
+        // Solo reacciona si cambia algo que afecta a los totales (no a syncState/remoteId/updatedAt);
+        // el soft delete sale por aquí al pasar deletedAt de NULL a un valor
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS expenses_month_totals_remove_old AFTER UPDATE ON expenses " +
+                "WHEN OLD.deletedAt IS NULL AND (NEW.deletedAt IS NOT NULL OR OLD.montoCentavos IS NOT NEW.montoCentavos " +
+                "OR OLD.fechaEpochMillis IS NOT NEW.fechaEpochMillis OR OLD.categoryRemoteId IS NOT NEW.categoryRemoteId " +
+                "OR OLD.userUid IS NOT NEW.userUid) BEGIN " + removeFromMonthTotals("OLD") + "END");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS expenses_month_totals_add_new AFTER UPDATE ON expenses " +
+                "WHEN NEW.deletedAt IS NULL AND (OLD.deletedAt IS NOT NULL OR OLD.montoCentavos IS NOT NEW.montoCentavos " +
+                "OR OLD.fechaEpochMillis IS NOT NEW.fechaEpochMillis OR OLD.categoryRemoteId IS NOT NEW.categoryRemoteId " +
+                "OR OLD.userUid IS NOT NEW.userUid) BEGIN " + addToMonthTotals("NEW") + "END");
+    }
 }
@@ -0,0 +1,131 @@
+package com.example.gestorgastos.data.local;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
+
+import com.example.gestorgastos.util.DateTimeUtil;
+import com.example.gestorgastos.util.SyncPrefs;
+
+import java.time.LocalDate;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Etapa de arranque de la base local, lanzada desde GestorGastosApp en un hilo propio:
+ * abre Room (y corre las migraciones pendientes), verifica la zona horaria de los totales mensuales
+ * y precalienta la caché de páginas de SQLite con las consultas de la primera pantalla del usuario actual.
+ * isReady() avisa cuando terminó, para que la UI no dispare su primera consulta contra una base sin abrir.
+ */
+public final class DatabaseStartup {
+    private static final String TAG = "DatabaseStartup";
+
+    // Filas que lee la carga inicial de la lista (3 páginas de 30, ver ExpenseViewModel)
+    private static final int WARM_UP_EXPENSES = 90;
+
+    private static final AtomicBoolean STARTED = new AtomicBoolean(false);
+    // Verificaciones de zona al cambiar de cuenta (AppDatabase.openForUser), fuera del hilo que la abre
+    private static final ExecutorService ZONE_CHECK_EXECUTOR = Executors.newSingleThreadExecutor();
+    private static final MutableLiveData<Boolean> READY = new MutableLiveData<>(false);
+
+    private DatabaseStartup() {
+    }
+
+    /**
+     * Lanza la etapa de arranque una sola vez por proceso. userUid es el usuario con sesión iniciada
+     * (o null): se abre su archivo (AppDatabase.openForUser, que la primera vez adopta el archivo compartido
+     * copiando y consultando archivos) y se precalientan sus datos, todo fuera del hilo principal.
+     */
+    public static void start(Context context, @Nullable String userUid) {
+        if (!STARTED.compareAndSet(false, true)) {
+            return;
+        }
+        Context appContext = context.getApplicationContext();
+        if (userUid != null) {
+            AppDatabase.setStartupUser(userUid);
+        }
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        executor.execute(() -> {
+            long startedAt = SystemClock.elapsedRealtime();
+            try {
+                if (userUid != null) {
+                    // Cada cuenta tiene su archivo: elegirlo antes de abrir
+                    AppDatabase.openForUser(appContext, userUid);
+                }
+                AppDatabase database = AppDatabase.getDatabase(appContext);
+                // getWritableDatabase abre el archivo y aplica las migraciones en este hilo
+                database.getOpenHelper().getWritableDatabase();
+                long openedAt = SystemClock.elapsedRealtime();
+
+                verifyMonthTotalsZone(appContext);
+                if (userUid != null) {
+                    warmUp(database, userUid);
+                }
+                Log.d(TAG, "Base lista: apertura " + (openedAt - startedAt) + " ms, total " +
+                      (SystemClock.elapsedRealtime() - startedAt) + " ms");
+            } catch (Exception e) {
+                // La UI no se bloquea por esto: las consultas abrirán la base por su cuenta
+                Log.e(TAG, "Error en el arranque de la base local", e);
+            } finally {
+                READY.postValue(true);
+                executor.shutdown();
+            }
+        });
+    }
+
+    /**
+     * true cuando la base ya está abierta y precalentada (o el arranque falló y no hay que esperar más)
+     */
+    public static LiveData<Boolean> isReady() {
+        return READY;
+    }
+
+    /**
+     * Verifica en segundo plano la zona de los totales de la base activa. La llama AppDatabase.openForUser:
+     * la base de otra cuenta pudo quedar calculada con la zona anterior a un cambio.
+     */
+    static void verifyMonthTotalsZoneAsync(Context context) {
+        Context appContext = context.getApplicationContext();
+        ZONE_CHECK_EXECUTOR.execute(() -> {
+            try {
+                verifyMonthTotalsZone(appContext);
+            } catch (Exception e) {
+                Log.e(TAG, "Error al verificar la zona de los totales mensuales", e);
+            }
+        });
+    }
+
+    /**
+     * Recalcula los totales mensuales de la base activa si cambió la zona horaria del dispositivo,
+     * porque los meses se asignan con la hora local vigente al escribir cada gasto.
+     * La zona se guarda por base: cada cuenta tiene su archivo y se recalcula cuando se abre.
+     */
+    private static synchronized void verifyMonthTotalsZone(Context context) {
+        String databaseName = AppDatabase.getActiveDatabaseName(context);
+        String currentZone = DateTimeUtil.getCurrentZoneId();
+        String storedZone = SyncPrefs.getMonthTotalsZoneId(context, databaseName);
+        if (storedZone != null && !storedZone.equals(currentZone)) {
+            Log.d(TAG, "Zona horaria cambió en " + databaseName + " (" + storedZone + " -> " + currentZone +
+                  "), recalculando totales mensuales");
+            ExpenseArchive.getInstance(context).rebuildMonthTotals();
+        }
+        SyncPrefs.setMonthTotalsZoneId(context, databaseName, currentZone);
+    }
+
+    /**
+     * Ejecuta las consultas de la primera pantalla para que las páginas de SQLite
+     * (índices y filas) ya estén en memoria cuando las pida la UI.
+     */
+    private static void warmUp(AppDatabase database, String userUid) {
+        LocalDate today = LocalDate.now();
+        database.categoryDao().getAllCategoriesByUserSync(userUid);
+        database.expenseDao().getExpensesPageBefore(userUid, Long.MAX_VALUE, Long.MAX_VALUE, WARM_UP_EXPENSES);
+        database.expenseMonthTotalDao().getCategorySumsForMonthSync(userUid,
+                DateTimeUtil.getYearMonthKey(today.getYear(), today.getMonthValue()));
+    }
+}
@@ -0,0 +1,296 @@
+package com.example.gestorgastos.data.local;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteException;
+import android.util.Log;
+
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.sqlite.db.SupportSQLiteStatement;
+
+import com.example.gestorgastos.data.local.entity.ExpenseEntity;
+import com.example.gestorgastos.util.SyncPrefs;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Archivo frío de gastos: un archivo SQLite aparte (<base de la cuenta>_archive.db) con la misma tabla expenses,
+ * que se adjunta (ATTACH ... AS cold) a la conexión de escritura de Room solo mientras dura una operación.
+ * La lista y el dashboard del mes solo tocan la base caliente; las consultas por rango pasan por
+ * getExpensesInRange, que une caliente y frío únicamente si el rango cruza el límite del archivo.
+ * Se archivan solo gastos confirmados en Firestore (SYNCED, sin entrada en sync_outbox) y no eliminados,
+ * así la copia fría nunca tiene cambios sin subir.
+ * Los totales de expense_month_totals siguen contando los gastos archivados.
+ * Todos los métodos tocan la base y deben llamarse fuera del hilo principal.
+ */
+public final class ExpenseArchive {
+    private static final String TAG = "ExpenseArchive";
+
+    private static final String SHARED_ARCHIVE_FILE_NAME = "gestor_gastos_archive.db";
+    private static final String SCHEMA = "cold";
+
+    // Columnas de ExpenseEntity; si la entidad cambia hay que actualizar también CREATE_TABLE
+    private static final String COLUMNS =
+            "idLocal, remoteId, userUid, categoryRemoteId, montoCentavos, fechaEpochMillis, updatedAt, deletedAt, syncState, contentHash";
+    // Al devolver una fila a la tabla caliente, su huella se descarta si ya la tiene otro gasto caliente
+    // (el índice único userUid + contentHash solo existe en la base caliente)
+    private static final String RESTORE_COLUMNS = COLUMNS.replace("contentHash",
+            "CASE WHEN EXISTS (SELECT 1 FROM main.expenses h WHERE h.userUid = " + SCHEMA + ".expenses.userUid " +
+            "AND h.contentHash = " + SCHEMA + ".expenses.contentHash) THEN NULL ELSE contentHash END");
+    private static final String CREATE_TABLE = "CREATE TABLE IF NOT EXISTS " + SCHEMA + ".expenses (" +
+            "idLocal INTEGER PRIMARY KEY NOT NULL, remoteId TEXT, userUid TEXT NOT NULL, " +
+            "categoryRemoteId TEXT NOT NULL, montoCentavos INTEGER NOT NULL, fechaEpochMillis INTEGER NOT NULL, " +
+            "updatedAt INTEGER NOT NULL, deletedAt INTEGER, syncState TEXT NOT NULL, contentHash TEXT)";
+    private static final String CREATE_INDEX = "CREATE INDEX IF NOT EXISTS " + SCHEMA +
+            ".index_expenses_userUid_fechaEpochMillis ON expenses (userUid, fechaEpochMillis)";
+    private static final String CREATE_REMOTE_ID_INDEX = "CREATE UNIQUE INDEX IF NOT EXISTS " + SCHEMA +
+            ".index_expenses_remoteId ON expenses (remoteId)";
+
+    private static final String ARCHIVABLE = " WHERE fechaEpochMillis < ? AND deletedAt IS NULL AND syncState = 'SYNCED' " +
+            "AND NOT EXISTS (SELECT 1 FROM main.sync_outbox WHERE sync_outbox.entityType = 'EXPENSE' " +
+            "AND sync_outbox.entityIdLocal = expenses.idLocal)";
+    // Una fila puede quedar en los dos archivos si el proceso muere entre los commits de cada uno
+    // (SQLite en WAL no garantiza atomicidad entre bases adjuntas): la copia caliente manda
+    private static final String NOT_IN_MAIN = " AND NOT EXISTS (SELECT 1 FROM main.expenses m WHERE m.idLocal = " +
+            SCHEMA + ".expenses.idLocal)";
+    private static final String IN_RANGE = " WHERE userUid = ? AND fechaEpochMillis >= ? AND fechaEpochMillis <= ? AND deletedAt IS NULL";
+
+    private static volatile ExpenseArchive INSTANCE;
+
+    private final Context appContext;
+    private final AppDatabase database;
+    private final String archiveName;
+    private final String archivePath;
+    // ATTACH/DETACH no son reentrantes: una operación sobre el archivo a la vez
+    private final Object lock = new Object();
+
+    private ExpenseArchive(Context context) {
+        this.appContext = context;
+        this.database = AppDatabase.getDatabase(context);
+        this.archiveName = archiveFileNameFor(AppDatabase.getActiveDatabaseName(context));
+        this.archivePath = context.getDatabasePath(archiveName).getAbsolutePath();
+    }
+
+    public static ExpenseArchive getInstance(Context context) {
+        // Se recrea si cambió la base activa (otra cuenta, ver AppDatabase.openForUser)
+        if (INSTANCE == null || INSTANCE.database != AppDatabase.getDatabase(context)) {
+            synchronized (ExpenseArchive.class) {
+                if (INSTANCE == null || INSTANCE.database != AppDatabase.getDatabase(context)) {
+                    INSTANCE = new ExpenseArchive(context.getApplicationContext());
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * Archivo frío asociado a la base databaseName (cada cuenta tiene el suyo)
+     */
+    static String archiveFileNameFor(String databaseName) {
+        return AppDatabase.SHARED_DATABASE_NAME.equals(databaseName)
+                ? SHARED_ARCHIVE_FILE_NAME : databaseName + "_archive.db";
+    }
+
+    /**
+     * true si alguna vez se archivaron gastos (puede haber filas en el archivo frío)
+     */
+    public boolean isActive() {
+        return SyncPrefs.getArchiveBoundaryMillis(appContext, archiveName) > 0;
+    }
+
+    /**
+     * Mueve al archivo frío los gastos con fecha anterior a beforeMillis y devuelve cuántos movió.
+     * Primero copia y confirma la copia; después borra de la tabla caliente solo lo que sigue siendo
+     * archivable. Si el proceso muere en el medio quedan duplicados (ocultos por NOT_IN_MAIN), nunca pérdidas.
+     */
+    public int archiveOlderThan(long beforeMillis) {
+        withArchive(db -> {
+            // Restos de una pasada anterior interrumpida
+            executeUpdateDelete(db, "DELETE FROM " + SCHEMA + ".expenses WHERE idLocal IN (SELECT idLocal FROM main.expenses)");
+            return executeUpdateDelete(db, "INSERT INTO " + SCHEMA + ".expenses (" + COLUMNS + ") SELECT " +
+                    COLUMNS + " FROM main.expenses" + ARCHIVABLE, beforeMillis);
+        });
+        int moved = withArchive(db -> {
+            // El borrado de la tabla caliente no debe descontar los gastos de expense_month_totals
+            db.execSQL("DROP TRIGGER IF EXISTS expenses_month_totals_delete");
+            int deleted = executeUpdateDelete(db, "DELETE FROM main.expenses" + ARCHIVABLE +
+                    " AND idLocal IN (SELECT idLocal FROM " + SCHEMA + ".expenses)", beforeMillis);
+            AppDatabase.createMonthTotalTriggers(db);
+            // Filas editadas entre las dos transacciones: siguen calientes, se descarta su copia
+            executeUpdateDelete(db, "DELETE FROM " + SCHEMA + ".expenses WHERE idLocal IN (SELECT idLocal FROM main.expenses)");
+            return deleted;
+        });
+        if (beforeMillis > SyncPrefs.getArchiveBoundaryMillis(appContext, archiveName)) {
+            SyncPrefs.setArchiveBoundaryMillis(appContext, archiveName, beforeMillis);
+        }
+        Log.d(TAG, moved + " gastos movidos al archivo frío (anteriores a " + beforeMillis + ")");
+        return moved;
+    }
+
+    /**
+     * Devuelve a la tabla caliente los gastos archivados con esos remoteId, para que la descarga
+     * desde Firestore los actualice en su lugar en vez de insertar una copia. Devuelve cuántos movió.
+     */
+    public int restoreByRemoteIds(List<String> remoteIds) {
+        if (!isActive() || remoteIds.isEmpty()) {
+            return 0;
+        }
+        Object[] args = remoteIds.toArray();
+        String inList = " WHERE remoteId IN (" + placeholders(args.length) + ")";
+        int restored = withArchive(db -> {
+            // Los gastos archivados ya cuentan en expense_month_totals: la inserción no debe sumarlos de nuevo
+            db.execSQL("DROP TRIGGER IF EXISTS expenses_month_totals_insert");
+            int copied = executeUpdateDelete(db, "INSERT INTO main.expenses (" + COLUMNS + ") SELECT " +
+                    RESTORE_COLUMNS + " FROM " + SCHEMA + ".expenses" + inList + NOT_IN_MAIN, args);
+            executeUpdateDelete(db, "DELETE FROM " + SCHEMA + ".expenses" + inList, args);
+            AppDatabase.createMonthTotalTriggers(db);
+            return copied;
+        });
+        if (restored > 0) {
+            Log.d(TAG, restored + " gastos devueltos del archivo frío por cambios en Firestore");
+        }
+        return restored;
+    }
+
+    /**
+     * Gastos no eliminados del rango [fromMillis, toMillis], ordenados por fecha descendente.
+     * Solo adjunta el archivo frío si el rango empieza antes del límite del archivo.
+     */
+    public List<ExpenseEntity> getExpensesInRange(String userUid, long fromMillis, long toMillis) {
+        long boundary = SyncPrefs.getArchiveBoundaryMillis(appContext, archiveName);
+        if (boundary <= 0 || fromMillis >= boundary) {
+            return database.expenseDao().getExpensesInRange(userUid, fromMillis, toMillis);
+        }
+        return withArchive(db -> {
+            List<ExpenseEntity> expenses = new ArrayList<>();
+            try (Cursor cursor = db.query("SELECT " + COLUMNS + " FROM main.expenses" + IN_RANGE +
+                    " UNION ALL SELECT " + COLUMNS + " FROM " + SCHEMA + ".expenses" + IN_RANGE + NOT_IN_MAIN +
+                    " ORDER BY fechaEpochMillis DESC, idLocal DESC",
+                    new Object[] {userUid, fromMillis, toMillis, userUid, fromMillis, toMillis})) {
+                while (cursor.moveToNext()) {
+                    expenses.add(readExpense(cursor));
+                }
+            }
+            return expenses;
+        });
+    }
+
+    /**
+     * Recalcula expense_month_totals desde la tabla caliente y el archivo frío
+     * (reemplaza a ExpenseMonthTotalDao.rebuild cuando hay archivo).
+     */
+    public void rebuildMonthTotals() {
+        if (!isActive()) {
+            database.expenseMonthTotalDao().rebuild();
+            return;
+        }
+        withArchive(db -> {
+            database.expenseMonthTotalDao().deleteAll();
+            db.execSQL("INSERT INTO main.expense_month_totals (userUid, yearMonth, categoryRemoteId, totalCentavos, expenseCount) " +
+                    "SELECT userUid, " + AppDatabase.yearMonthOf("fechaEpochMillis") + ", categoryRemoteId, SUM(montoCentavos), COUNT(*) " +
+                    "FROM (SELECT userUid, fechaEpochMillis, categoryRemoteId, montoCentavos FROM main.expenses WHERE deletedAt IS NULL " +
+                    "UNION ALL SELECT userUid, fechaEpochMillis, categoryRemoteId, montoCentavos FROM " + SCHEMA + ".expenses WHERE deletedAt IS NULL" + NOT_IN_MAIN + ") " +
+                    "GROUP BY 1, 2, 3");
+            return null;
+        });
+    }
+
+    private interface ArchiveWork<T> {
+        T run(SupportSQLiteDatabase db) throws Exception;
+    }
+
+    /**
+     * Adjunta el archivo frío, ejecuta work en una transacción de Room y lo desadjunta.
+     * El ATTACH queda en la conexión de escritura, que es la que usa la transacción; por eso
+     * todo lo que lee o escribe cold.* tiene que correr dentro de work.
+     */
+    private <T> T withArchive(ArchiveWork<T> work) {
+        synchronized (lock) {
+            SupportSQLiteDatabase db = database.getOpenHelper().getWritableDatabase();
+            attach(db);
+            try {
+                Callable<T> body = () -> work.run(db);
+                return database.runInTransaction(body);
+            } finally {
+                detach(db);
+            }
+        }
+    }
+
+    private void attach(SupportSQLiteDatabase db) {
+        // Se ejecuta como query y no con execSQL: SQLiteDatabase.execSQL desactiva WAL para siempre
+        // en cuanto ve un ATTACH, y eso serializaría todas las lecturas de la app
+        try (Cursor cursor = db.query("ATTACH DATABASE ? AS " + SCHEMA, new Object[] {archivePath})) {
+            cursor.moveToFirst();
+        } catch (SQLiteException e) {
+            // Quedó adjunto de una operación anterior que no llegó a desadjuntarlo
+            if (e.getMessage() == null || !e.getMessage().contains("already in use")) {
+                throw e;
+            }
+        }
+        db.execSQL(CREATE_TABLE);
+        addMissingColumns(db);
+        db.execSQL(CREATE_INDEX);
+        db.execSQL(CREATE_REMOTE_ID_INDEX);
+    }
+
+    // Archivos creados antes de que expenses tuviera contentHash
+    private static void addMissingColumns(SupportSQLiteDatabase db) {
+        try (Cursor cursor = db.query("PRAGMA " + SCHEMA + ".table_info(expenses)")) {
+            int nameIndex = cursor.getColumnIndexOrThrow("name");
+            while (cursor.moveToNext()) {
+                if ("contentHash".equals(cursor.getString(nameIndex))) {
+                    return;
+                }
+            }
+        }
+        db.execSQL("ALTER TABLE " + SCHEMA + ".expenses ADD COLUMN contentHash TEXT");
+    }
+
+    private void detach(SupportSQLiteDatabase db) {
+        try {
+            db.execSQL("DETACH DATABASE " + SCHEMA);
+        } catch (SQLiteException e) {
+            Log.w(TAG, "No se pudo desadjuntar el archivo frío", e);
+        }
+    }
+
+    private static int executeUpdateDelete(SupportSQLiteDatabase db, String sql, Object... args) throws Exception {
+        try (SupportSQLiteStatement statement = db.compileStatement(sql)) {
+            for (int i = 0; i < args.length; i++) {
+                Object arg = args[i];
+                if (arg instanceof Long) {
+                    statement.bindLong(i + 1, (Long) arg);
+                } else {
+                    statement.bindString(i + 1, String.valueOf(arg));
+                }
+            }
+            return statement.executeUpdateDelete();
+        }
+    }
+
+    private static String placeholders(int count) {
+        return String.join(", ", Collections.nCopies(count, "?"));
+    }
+
+    private static ExpenseEntity readExpense(Cursor cursor) {
+        ExpenseEntity expense = new ExpenseEntity();
+        expense.idLocal = cursor.getLong(cursor.getColumnIndexOrThrow("idLocal"));
+        int remoteIdIndex = cursor.getColumnIndexOrThrow("remoteId");
+        expense.remoteId = cursor.isNull(remoteIdIndex) ? null : cursor.getString(remoteIdIndex);
+        expense.userUid = cursor.getString(cursor.getColumnIndexOrThrow("userUid"));
+        expense.categoryRemoteId = cursor.getString(cursor.getColumnIndexOrThrow("categoryRemoteId"));
+        expense.montoCentavos = cursor.getLong(cursor.getColumnIndexOrThrow("montoCentavos"));
+        expense.fechaEpochMillis = cursor.getLong(cursor.getColumnIndexOrThrow("fechaEpochMillis"));
+        expense.updatedAt = cursor.getLong(cursor.getColumnIndexOrThrow("updatedAt"));
+        int deletedAtIndex = cursor.getColumnIndexOrThrow("deletedAt");
+        expense.deletedAt = cursor.isNull(deletedAtIndex) ? null : cursor.getLong(deletedAtIndex);
+        expense.syncState = cursor.getString(cursor.getColumnIndexOrThrow("syncState"));
+        int contentHashIndex = cursor.getColumnIndexOrThrow("contentHash");
+        expense.contentHash = cursor.isNull(contentHashIndex) ? null : cursor.getString(contentHashIndex);
+        return expense;
+    }
+}
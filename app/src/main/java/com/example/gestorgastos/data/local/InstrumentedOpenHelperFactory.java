@@ -0,0 +1,455 @@
+package com.example.gestorgastos.data.local;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteTransactionListener;
+import android.os.CancellationSignal;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.Pair;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.sqlite.db.SupportSQLiteOpenHelper;
+import androidx.sqlite.db.SupportSQLiteQuery;
+import androidx.sqlite.db.SupportSQLiteStatement;
+import androidx.sqlite.db.framework.FrameworkSQLiteOpenHelperFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Envuelve el SupportSQLiteOpenHelper de Room para medir cada consulta y sentencia y anotarla en QueryStats.
+ * RoomDatabase.QueryCallback no sirve para esto: se invoca antes de ejecutar y no trae duración ni filas.
+ * En las consultas el tiempo incluye getCount(), que llena la primera ventana del cursor
+ * (el trabajo real de SQLite, que Room haría igual en el primer moveToNext).
+ * La primera vez que aparece cada sentencia se revisa su EXPLAIN QUERY PLAN para marcar los recorridos
+ * de tablas completas en uso real; la regresión de planes con datos sembrados está en DaoQueryPlanTest.
+ */
+final class InstrumentedOpenHelperFactory implements SupportSQLiteOpenHelper.Factory {
+    private final SupportSQLiteOpenHelper.Factory delegate = new FrameworkSQLiteOpenHelperFactory();
+
+    @NonNull
+    @Override
+    public SupportSQLiteOpenHelper create(@NonNull SupportSQLiteOpenHelper.Configuration configuration) {
+        return new InstrumentedOpenHelper(delegate.create(configuration));
+    }
+
+    private static long elapsedSince(long startNanos) {
+        return SystemClock.elapsedRealtimeNanos() - startNanos;
+    }
+
+    private static final class InstrumentedOpenHelper implements SupportSQLiteOpenHelper {
+        private final SupportSQLiteOpenHelper delegate;
+        private InstrumentedDatabase writable;
+        private InstrumentedDatabase readable;
+
+        InstrumentedOpenHelper(SupportSQLiteOpenHelper delegate) {
+            this.delegate = delegate;
+        }
+
+        @Nullable
+        @Override
+        public String getDatabaseName() {
+            return delegate.getDatabaseName();
+        }
+
+        @Override
+        public void setWriteAheadLoggingEnabled(boolean enabled) {
+            delegate.setWriteAheadLoggingEnabled(enabled);
+        }
+
+        @NonNull
+        @Override
+        public synchronized SupportSQLiteDatabase getWritableDatabase() {
+            SupportSQLiteDatabase db = delegate.getWritableDatabase();
+            if (writable == null || writable.delegate != db) {
+                writable = new InstrumentedDatabase(db);
+            }
+            return writable;
+        }
+
+        @NonNull
+        @Override
+        public synchronized SupportSQLiteDatabase getReadableDatabase() {
+            SupportSQLiteDatabase db = delegate.getReadableDatabase();
+            if (readable == null || readable.delegate != db) {
+                readable = new InstrumentedDatabase(db);
+            }
+            return readable;
+        }
+
+        @Override
+        public void close() {
+            delegate.close();
+        }
+    }
+
+    private static final class InstrumentedDatabase implements SupportSQLiteDatabase {
+        final SupportSQLiteDatabase delegate;
+
+        InstrumentedDatabase(SupportSQLiteDatabase delegate) {
+            this.delegate = delegate;
+        }
+
+        // Parámetros sin enlazar valen NULL: no cambian la elección de índices
+        private void auditPlan(String sql) {
+            if (!QueryStats.shouldExplain(sql)) {
+                return;
+            }
+            List<String> fullScans = new ArrayList<>();
+            try (Cursor plan = delegate.query("EXPLAIN QUERY PLAN " + sql)) {
+                int detailColumn = plan.getColumnIndexOrThrow("detail");
+                while (plan.moveToNext()) {
+                    // "SCAN expenses" o, en SQLite anteriores a 3.24, "SCAN TABLE expenses"
+                    String detail = plan.getString(detailColumn).replace("SCAN TABLE ", "SCAN ");
+                    if (!detail.startsWith("SCAN ") || detail.startsWith("SCAN CONSTANT ROW")) {
+                        continue;
+                    }
+                    String table = detail.substring("SCAN ".length()).split(" ")[0];
+                    // Tablas internas de Room (invalidación) y de SQLite: se recorren a propósito
+                    if (!table.startsWith("room_") && !table.startsWith("sqlite_")) {
+                        fullScans.add(detail);
+                    }
+                }
+            } catch (RuntimeException e) {
+                Log.w("QueryStats", "No se pudo obtener el plan de: " + sql, e);
+                return;
+            }
+            QueryStats.recordPlan(sql, fullScans);
+        }
+
+        private static Cursor measured(String sql, long startNanos, Cursor cursor) {
+            int rows = cursor.getCount();
+            QueryStats.record(sql, elapsedSince(startNanos), rows);
+            return cursor;
+        }
+
+        @NonNull
+        @Override
+        public Cursor query(@NonNull String query) {
+            auditPlan(query);
+            long start = SystemClock.elapsedRealtimeNanos();
+            return measured(query, start, delegate.query(query));
+        }
+
+        @NonNull
+        @Override
+        public Cursor query(@NonNull String query, @NonNull Object[] bindArgs) {
+            auditPlan(query);
+            long start = SystemClock.elapsedRealtimeNanos();
+            return measured(query, start, delegate.query(query, bindArgs));
+        }
+
+        @NonNull
+        @Override
+        public Cursor query(@NonNull SupportSQLiteQuery query) {
+            auditPlan(query.getSql());
+            long start = SystemClock.elapsedRealtimeNanos();
+            return measured(query.getSql(), start, delegate.query(query));
+        }
+
+        @NonNull
+        @Override
+        public Cursor query(@NonNull SupportSQLiteQuery query, @Nullable CancellationSignal cancellationSignal) {
+            auditPlan(query.getSql());
+            long start = SystemClock.elapsedRealtimeNanos();
+            return measured(query.getSql(), start, delegate.query(query, cancellationSignal));
+        }
+
+        @NonNull
+        @Override
+        public SupportSQLiteStatement compileStatement(@NonNull String sql) {
+            auditPlan(sql);
+            return new InstrumentedStatement(sql, delegate.compileStatement(sql));
+        }
+
+        @Override
+        public void execSQL(@NonNull String sql) throws SQLException {
+            long start = SystemClock.elapsedRealtimeNanos();
+            delegate.execSQL(sql);
+            QueryStats.record(sql, elapsedSince(start), -1);
+        }
+
+        @Override
+        public void execSQL(@NonNull String sql, @NonNull Object[] bindArgs) throws SQLException {
+            long start = SystemClock.elapsedRealtimeNanos();
+            delegate.execSQL(sql, bindArgs);
+            QueryStats.record(sql, elapsedSince(start), -1);
+        }
+
+        @Override
+        public long insert(@NonNull String table, int conflictAlgorithm, @NonNull ContentValues values) throws SQLException {
+            long start = SystemClock.elapsedRealtimeNanos();
+            long rowId = delegate.insert(table, conflictAlgorithm, values);
+            QueryStats.record("INSERT INTO " + table + " (ContentValues)", elapsedSince(start), rowId >= 0 ? 1 : 0);
+            return rowId;
+        }
+
+        @Override
+        public int delete(@NonNull String table, @Nullable String whereClause, @Nullable Object[] whereArgs) {
+            long start = SystemClock.elapsedRealtimeNanos();
+            int rows = delegate.delete(table, whereClause, whereArgs);
+            QueryStats.record("DELETE FROM " + table + (whereClause != null ? " WHERE " + whereClause : ""),
+                    elapsedSince(start), rows);
+            return rows;
+        }
+
+        @Override
+        public int update(@NonNull String table, int conflictAlgorithm, @NonNull ContentValues values,
+                          @Nullable String whereClause, @Nullable Object[] whereArgs) {
+            long start = SystemClock.elapsedRealtimeNanos();
+            int rows = delegate.update(table, conflictAlgorithm, values, whereClause, whereArgs);
+            QueryStats.record("UPDATE " + table + " (ContentValues)" + (whereClause != null ? " WHERE " + whereClause : ""),
+                    elapsedSince(start), rows);
+            return rows;
+        }
+
+        // Resto de la interfaz: delegación directa
+
+        @Override
+        public void beginTransaction() {
+            delegate.beginTransaction();
+        }
+
+        @Override
+        public void beginTransactionNonExclusive() {
+            delegate.beginTransactionNonExclusive();
+        }
+
+        @Override
+        public void beginTransactionWithListener(@NonNull SQLiteTransactionListener transactionListener) {
+            delegate.beginTransactionWithListener(transactionListener);
+        }
+
+        @Override
+        public void beginTransactionWithListenerNonExclusive(@NonNull SQLiteTransactionListener transactionListener) {
+            delegate.beginTransactionWithListenerNonExclusive(transactionListener);
+        }
+
+        @Override
+        public void endTransaction() {
+            delegate.endTransaction();
+        }
+
+        @Override
+        public void setTransactionSuccessful() {
+            delegate.setTransactionSuccessful();
+        }
+
+        @Override
+        public boolean inTransaction() {
+            return delegate.inTransaction();
+        }
+
+        @Override
+        public boolean isDbLockedByCurrentThread() {
+            return delegate.isDbLockedByCurrentThread();
+        }
+
+        @Override
+        public boolean yieldIfContendedSafely() {
+            return delegate.yieldIfContendedSafely();
+        }
+
+        @Override
+        public boolean yieldIfContendedSafely(long sleepAfterYieldDelayMillis) {
+            return delegate.yieldIfContendedSafely(sleepAfterYieldDelayMillis);
+        }
+
+        @Override
+        public boolean isExecPerConnectionSQLSupported() {
+            return delegate.isExecPerConnectionSQLSupported();
+        }
+
+        @Override
+        public void execPerConnectionSQL(@NonNull String sql, @Nullable Object[] bindArgs) {
+            delegate.execPerConnectionSQL(sql, bindArgs);
+        }
+
+        @Override
+        public int getVersion() {
+            return delegate.getVersion();
+        }
+
+        @Override
+        public void setVersion(int version) {
+            delegate.setVersion(version);
+        }
+
+        @Override
+        public long getMaximumSize() {
+            return delegate.getMaximumSize();
+        }
+
+        @Override
+        public long setMaximumSize(long numBytes) {
+            return delegate.setMaximumSize(numBytes);
+        }
+
+        @Override
+        public long getPageSize() {
+            return delegate.getPageSize();
+        }
+
+        @Override
+        public void setPageSize(long numBytes) {
+            delegate.setPageSize(numBytes);
+        }
+
+        @Override
+        public boolean isReadOnly() {
+            return delegate.isReadOnly();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return delegate.isOpen();
+        }
+
+        @Override
+        public boolean needUpgrade(int newVersion) {
+            return delegate.needUpgrade(newVersion);
+        }
+
+        @Nullable
+        @Override
+        public String getPath() {
+            return delegate.getPath();
+        }
+
+        @Override
+        public void setLocale(@NonNull Locale locale) {
+            delegate.setLocale(locale);
+        }
+
+        @Override
+        public void setMaxSqlCacheSize(int cacheSize) {
+            delegate.setMaxSqlCacheSize(cacheSize);
+        }
+
+        @Override
+        public void setForeignKeyConstraintsEnabled(boolean enabled) {
+            delegate.setForeignKeyConstraintsEnabled(enabled);
+        }
+
+        @Override
+        public boolean enableWriteAheadLogging() {
+            return delegate.enableWriteAheadLogging();
+        }
+
+        @Override
+        public void disableWriteAheadLogging() {
+            delegate.disableWriteAheadLogging();
+        }
+
+        @Override
+        public boolean isWriteAheadLoggingEnabled() {
+            return delegate.isWriteAheadLoggingEnabled();
+        }
+
+        @Nullable
+        @Override
+        public List<Pair<String, String>> getAttachedDbs() {
+            return delegate.getAttachedDbs();
+        }
+
+        @Override
+        public boolean isDatabaseIntegrityOk() {
+            return delegate.isDatabaseIntegrityOk();
+        }
+
+        @Override
+        public void close() throws java.io.IOException {
+            delegate.close();
+        }
+    }
+
+    private static final class InstrumentedStatement implements SupportSQLiteStatement {
+        private final String sql;
+        private final SupportSQLiteStatement delegate;
+
+        InstrumentedStatement(String sql, SupportSQLiteStatement delegate) {
+            this.sql = sql;
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void execute() {
+            long start = SystemClock.elapsedRealtimeNanos();
+            delegate.execute();
+            QueryStats.record(sql, elapsedSince(start), -1);
+        }
+
+        @Override
+        public int executeUpdateDelete() {
+            long start = SystemClock.elapsedRealtimeNanos();
+            int rows = delegate.executeUpdateDelete();
+            QueryStats.record(sql, elapsedSince(start), rows);
+            return rows;
+        }
+
+        @Override
+        public long executeInsert() {
+            long start = SystemClock.elapsedRealtimeNanos();
+            long rowId = delegate.executeInsert();
+            QueryStats.record(sql, elapsedSince(start), rowId >= 0 ? 1 : 0);
+            return rowId;
+        }
+
+        @Override
+        public long simpleQueryForLong() {
+            long start = SystemClock.elapsedRealtimeNanos();
+            long value = delegate.simpleQueryForLong();
+            QueryStats.record(sql, elapsedSince(start), 1);
+            return value;
+        }
+
+        @Nullable
+        @Override
+        public String simpleQueryForString() {
+            long start = SystemClock.elapsedRealtimeNanos();
+            String value = delegate.simpleQueryForString();
+            QueryStats.record(sql, elapsedSince(start), 1);
+            return value;
+        }
+
+        @Override
+        public void bindNull(int index) {
+            delegate.bindNull(index);
+        }
+
+        @Override
+        public void bindLong(int index, long value) {
+            delegate.bindLong(index, value);
+        }
+
+        @Override
+        public void bindDouble(int index, double value) {
+            delegate.bindDouble(index, value);
+        }
+
+        @Override
+        public void bindString(int index, @NonNull String value) {
+            delegate.bindString(index, value);
+        }
+
+        @Override
+        public void bindBlob(int index, @NonNull byte[] value) {
+            delegate.bindBlob(index, value);
+        }
+
+        @Override
+        public void clearBindings() {
+            delegate.clearBindings();
+        }
+
+        @Override
+        public void close() throws java.io.IOException {
+            delegate.close();
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package com.example.gestorgastos.data.local;
+
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Estadísticas en memoria de las consultas a Room, por SQL: histograma de latencia, filas devueltas
+ * o afectadas e hilos que la ejecutaron. Las llena InstrumentedOpenHelperFactory (solo en builds
+ * depurables, ver AppDatabase.getDatabase) y las muestra la sección de diagnóstico de Configuración.
+ * Las consultas que corren en el hilo principal se cuentan aparte y se avisan en el log, igual que las
+ * que según EXPLAIN QUERY PLAN recorren una tabla entera (se revisa una vez por SQL, al verla por primera vez).
+ */
+public final class QueryStats {
+    private static final String TAG = "QueryStats";
+
+    // Listas IN (?, ?, ?) de largo variable: se agrupan en una sola clave
+    private static final Pattern PLACEHOLDER_LIST = Pattern.compile("\\?(\\s*,\\s*\\?)+");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private static final Pattern EXPLAINABLE = Pattern.compile("^(SELECT|WITH|INSERT|UPDATE|DELETE)\\b", Pattern.CASE_INSENSITIVE);
+    private static final int MAX_THREAD_NAMES = 4;
+
+    private static final Map<String, Entry> ENTRIES = new ConcurrentHashMap<>();
+    private static final Set<String> EXPLAINED = ConcurrentHashMap.newKeySet();
+    private static volatile boolean enabled;
+
+    private QueryStats() {
+    }
+
+    static void setEnabled(boolean value) {
+        enabled = value;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    static void record(String sql, long durationNanos, long rows) {
+        String key = normalize(sql);
+        boolean mainThread = Looper.getMainLooper().isCurrentThread();
+        if (mainThread) {
+            Log.w(TAG, "Consulta en el hilo principal (" + durationNanos / 1000 + " µs): " + key);
+        }
+        ENTRIES.computeIfAbsent(key, Entry::new)
+                .record(durationNanos / 1000, rows, Thread.currentThread().getName(), mainThread);
+    }
+
+    /**
+     * true la primera vez que se ve esta sentencia (de datos): hay que revisar su plan
+     */
+    static boolean shouldExplain(String sql) {
+        return EXPLAINABLE.matcher(sql.trim()).find() && EXPLAINED.add(normalize(sql));
+    }
+
+    /**
+     * Anota los pasos del plan que recorren una tabla completa (vacío si todos usan índice)
+     */
+    static void recordPlan(String sql, List<String> fullScans) {
+        if (fullScans.isEmpty()) {
+            return;
+        }
+        String key = normalize(sql);
+        Log.w(TAG, "Recorre tablas completas " + fullScans + ": " + key);
+        ENTRIES.computeIfAbsent(key, Entry::new).setFullScans(fullScans);
+    }
+
+    public static void reset() {
+        ENTRIES.clear();
+        EXPLAINED.clear();
+    }
+
+    /**
+     * Volcado en texto plano de las consultas ordenadas por tiempo total, para compartir o pegar en un reporte.
+     * limit acota cuántas consultas se incluyen (0 = todas).
+     */
+    public static String dump(int limit) {
+        List<Entry> entries = new ArrayList<>(ENTRIES.values());
+        Collections.sort(entries, (a, b) -> Long.compare(b.totalMicros(), a.totalMicros()));
+        if (limit > 0 && entries.size() > limit) {
+            entries = entries.subList(0, limit);
+        }
+        StringBuilder out = new StringBuilder();
+        out.append(entries.size()).append(" consultas (tiempos en µs)\n");
+        for (Entry entry : entries) {
+            entry.appendTo(out);
+        }
+        return out.toString();
+    }
+
+    private static String normalize(String sql) {
+        String oneLine = WHITESPACE.matcher(sql.trim()).replaceAll(" ");
+        return PLACEHOLDER_LIST.matcher(oneLine).replaceAll("?, ...");
+    }
+
+    private static final class Entry {
+        private final String sql;
+        private final LatencyHistogram histogram = new LatencyHistogram();
+        private final List<String> threadNames = new ArrayList<>();
+        private long totalRows;
+        private long mainThreadCount;
+        private List<String> fullScans = Collections.emptyList();
+
+        Entry(String sql) {
+            this.sql = sql;
+        }
+
+        synchronized void record(long micros, long rows, String threadName, boolean mainThread) {
+            histogram.record(micros);
+            if (rows > 0) {
+                totalRows += rows;
+            }
+            if (mainThread) {
+                mainThreadCount++;
+            }
+            if (threadNames.size() < MAX_THREAD_NAMES && !threadNames.contains(threadName)) {
+                threadNames.add(threadName);
+            }
+        }
+
+        synchronized void setFullScans(List<String> scans) {
+            fullScans = scans;
+        }
+
+        synchronized long totalMicros() {
+            return histogram.getTotal();
+        }
+
+        synchronized void appendTo(StringBuilder out) {
+            long count = histogram.getCount();
+            out.append('\n');
+            if (mainThreadCount > 0) {
+                out.append("[HILO PRINCIPAL x").append(mainThreadCount).append("] ");
+            }
+            for (String scan : fullScans) {
+                out.append('[').append(scan).append("] ");
+            }
+            out.append(sql).append('\n');
+            out.append(String.format(Locale.ROOT,
+                    "  n=%d total=%d p50=%d p95=%d p99=%d max=%d filas/consulta=%.1f\n",
+                    count, histogram.getTotal(), histogram.getPercentile(50), histogram.getPercentile(95),
+                    histogram.getPercentile(99), histogram.getMax(), count > 0 ? (double) totalRows / count : 0d));
+            out.append("  hilos: ").append(String.join(", ", threadNames)).append('\n');
+        }
+    }
+
+    /**
+     * Histograma log-lineal al estilo HDR: cada potencia de 2 se divide en SUB_BUCKETS partes iguales,
+     * así el error relativo de un percentil queda acotado (~12%) con memoria fija para cualquier rango.
+     */
+    static final class LatencyHistogram {
+        private static final int SUB_BUCKET_BITS = 3;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        private static final int MAGNITUDES = 64 - SUB_BUCKET_BITS;
+
+        private final long[] counts = new long[(MAGNITUDES + 1) * SUB_BUCKETS];
+        private long count;
+        private long total;
+        private long max;
+
+        void record(long value) {
+            long v = Math.max(0, value);
+            counts[indexOf(v)]++;
+            count++;
+            total += v;
+            max = Math.max(max, v);
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        long getTotal() {
+            return total;
+        }
+
+        long getMax() {
+            return max;
+        }
+
+        /**
+         * Límite superior del bucket que contiene el percentil pedido
+         */
+        long getPercentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long target = Math.max(1, (long) Math.ceil(count * percentile / 100d));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= target) {
+                    return Math.min(max, upperBoundOf(i));
+                }
+            }
+            return max;
+        }
+
+        // Valores menores que SUB_BUCKETS van uno por bucket; después, SUB_BUCKETS buckets por potencia de 2
+        private static int indexOf(long v) {
+            if (v < SUB_BUCKETS) {
+                return (int) v;
+            }
+            int magnitude = 63 - Long.numberOfLeadingZeros(v) - SUB_BUCKET_BITS + 1;
+            int subBucket = (int) (v >>> (magnitude - 1)) - SUB_BUCKETS;
+            return magnitude * SUB_BUCKETS + subBucket;
+        }
+
+        private static long upperBoundOf(int index) {
+            int magnitude = index / SUB_BUCKETS;
+            int subBucket = index % SUB_BUCKETS;
+            if (magnitude == 0) {
+                return subBucket;
+            }
+            return ((long) (SUB_BUCKETS + subBucket + 1) << (magnitude - 1)) - 1;
+        }
+    }
+}
@@ -5,6 +5,7 @@ import androidx.room.Dao;
 import androidx.room.Insert;
 import androidx.room.OnConflictStrategy;
 import androidx.room.Query;
+import androidx.room.Transaction;
 import androidx.room.Update;
 import com.example.gestorgastos.data.local.entity.CategoryEntity;
 import java.util.List;
@@ -26,6 +27,10 @@ public interface CategoryDao {
     @Query("SELECT * FROM categories WHERE userUid = :userUid AND isActive = 1 AND deletedAt IS NULL ORDER BY name ASC")
     List<CategoryEntity> getActiveCategoriesByUserSync(String userUid);
     
+    // Paginación por cursor sobre (userUid, idLocal); incluye soft-deleted. Primera página: afterIdLocal = 0.
+    @Query("SELECT * FROM categories WHERE userUid = :userUid AND idLocal > :afterIdLocal ORDER BY idLocal ASC LIMIT :limit")
+    List<CategoryEntity> getCategoriesPageAfterId(String userUid, long afterIdLocal, int limit);
+    
     @Query("SELECT * FROM categories WHERE remoteId = :remoteId LIMIT 1")
     CategoryEntity getCategoryByRemoteId(String remoteId);
     
@@ -35,24 +40,47 @@ public interface CategoryDao {
     @Query("SELECT * FROM categories WHERE idLocal = :idLocal AND deletedAt IS NULL LIMIT 1")
     CategoryEntity getCategoryByIdIncludingInactive(long idLocal);
     
+    // Prefetch de una página descargada: una sola consulta IN en lugar de una búsqueda por documento
+    @Query("SELECT * FROM categories WHERE remoteId IN (:remoteIds)")
+    List<CategoryEntity> getCategoriesByRemoteIds(List<String> remoteIds);
+    
     @Insert(onConflict = OnConflictStrategy.REPLACE)
     long insertCategory(CategoryEntity category);
     
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void insertCategories(List<CategoryEntity> categories);
+    
     @Update
     void updateCategory(CategoryEntity category);
     
+    @Update
+    void updateCategories(List<CategoryEntity> categories);
+    
+    /**
+     * Aplica una página descargada de Firestore en una sola transacción.
+     */
+    @Transaction
+    default void upsertCategories(List<CategoryEntity> toUpdate, List<CategoryEntity> toInsert) {
+        updateCategories(toUpdate);
+        insertCategories(toInsert);
+    }
+    
     @Query("UPDATE categories SET isActive = 0, deletedAt = :deletedAt, syncState = 'PENDING', updatedAt = :updatedAt WHERE idLocal = :idLocal")
     void softDeleteCategory(long idLocal, long deletedAt, long updatedAt);
     
-    @Query("SELECT * FROM categories WHERE syncState = 'PENDING'")
+    // Compactación: como en gastos, y además solo si ningún gasto (ni siquiera eliminado) la sigue referenciando
+    @Query("DELETE FROM categories WHERE deletedAt IS NOT NULL AND deletedAt < :deletedBefore AND syncState = 'SYNCED' " +
+           "AND NOT EXISTS (SELECT 1 FROM sync_outbox WHERE sync_outbox.entityType = 'CATEGORY' AND sync_outbox.entityIdLocal = categories.idLocal) " +
+           "AND NOT EXISTS (SELECT 1 FROM expenses WHERE expenses.categoryRemoteId = categories.remoteId)")
+    int purgeSyncedTombstones(long deletedBefore);
+    
+    // Pendientes de subir según sync_outbox (en orden FIFO), sin recorrer toda la tabla
+    @Query("SELECT categories.* FROM sync_outbox JOIN categories ON categories.idLocal = sync_outbox.entityIdLocal WHERE sync_outbox.entityType = 'CATEGORY' ORDER BY sync_outbox.id ASC")
     List<CategoryEntity> getPendingCategories();
     
     @Query("UPDATE categories SET syncState = :syncState WHERE idLocal = :idLocal")
     void updateSyncState(long idLocal, String syncState);
     
-    @Query("SELECT * FROM categories WHERE userUid = :userUid AND name = :name AND icono = :icono AND deletedAt IS NULL LIMIT 1")
-    CategoryEntity findCategoryByAttributes(String userUid, String name, String icono);
-    
     @Query("SELECT * FROM categories WHERE userUid = :userUid ORDER BY idLocal ASC")
     List<CategoryEntity> getAllCategoriesByUserDebug(String userUid);
 }
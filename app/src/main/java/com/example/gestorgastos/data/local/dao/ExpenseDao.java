@@ -1,10 +1,12 @@
 package com.example.gestorgastos.data.local.dao;
 
 import androidx.lifecycle.LiveData;
+import androidx.paging.PagingSource;
 import androidx.room.Dao;
 import androidx.room.Insert;
 import androidx.room.OnConflictStrategy;
 import androidx.room.Query;
+import androidx.room.Transaction;
 import androidx.room.Update;
 
 import com.example.gestorgastos.data.local.entity.ExpenseEntity;
@@ -20,37 +22,87 @@ public interface ExpenseDao {
     @Query("SELECT * FROM expenses WHERE userUid = :userUid AND deletedAt IS NULL ORDER BY fechaEpochMillis DESC")
     List<ExpenseEntity> getExpensesByUserSync(String userUid);
     
+    // Lista paginada: orden total por (fechaEpochMillis, idLocal) para que las páginas sean estables
+    @Query("SELECT * FROM expenses WHERE userUid = :userUid AND deletedAt IS NULL ORDER BY fechaEpochMillis DESC, idLocal DESC")
+    PagingSource<Integer, ExpenseEntity> getExpensesPagingSource(String userUid);
+    
+    // Paginación por cursor (keyset): seek sobre el índice (userUid, fechaEpochMillis) con idLocal como desempate.
+    // Primera página: beforeFechaEpochMillis = Long.MAX_VALUE y beforeIdLocal = Long.MAX_VALUE;
+    // las siguientes usan fechaEpochMillis/idLocal de la última fila recibida.
+    @Query("SELECT * FROM expenses WHERE userUid = :userUid AND deletedAt IS NULL AND (fechaEpochMillis < :beforeFechaEpochMillis OR (fechaEpochMillis = :beforeFechaEpochMillis AND idLocal < :beforeIdLocal)) ORDER BY fechaEpochMillis DESC, idLocal DESC LIMIT :limit")
+    List<ExpenseEntity> getExpensesPageBefore(String userUid, long beforeFechaEpochMillis, long beforeIdLocal, int limit);
+    
+    // Rango de fechas solo sobre la tabla caliente; si el rango cruza el límite del archivo frío
+    // se consulta a través de ExpenseArchive.getExpensesInRange
+    @Query("SELECT * FROM expenses WHERE userUid = :userUid AND fechaEpochMillis >= :fromMillis AND fechaEpochMillis <= :toMillis AND deletedAt IS NULL ORDER BY fechaEpochMillis DESC, idLocal DESC")
+    List<ExpenseEntity> getExpensesInRange(String userUid, long fromMillis, long toMillis);
+    
+    // Recorrido completo por idLocal (incluye soft-deleted) para exportaciones y el motor de sincronización.
+    // Primera página: afterIdLocal = 0.
+    @Query("SELECT * FROM expenses WHERE userUid = :userUid AND idLocal > :afterIdLocal ORDER BY idLocal ASC LIMIT :limit")
+    List<ExpenseEntity> getExpensesPageAfterId(String userUid, long afterIdLocal, int limit);
+    
     @Query("SELECT * FROM expenses WHERE idLocal = :idLocal LIMIT 1")
     ExpenseEntity getExpenseById(long idLocal);
     
     @Query("SELECT * FROM expenses WHERE remoteId = :remoteId LIMIT 1")
     ExpenseEntity getExpenseByRemoteId(String remoteId);
     
+    // Búsqueda puntual por huella de creación (índice único userUid + contentHash)
+    @Query("SELECT * FROM expenses WHERE userUid = :userUid AND contentHash = :contentHash LIMIT 1")
+    ExpenseEntity findByContentHash(String userUid, String contentHash);
+    
+    @Query("SELECT * FROM expenses WHERE userUid = :userUid AND contentHash IN (:contentHashes)")
+    List<ExpenseEntity> getExpensesByContentHashes(String userUid, List<String> contentHashes);
+    
+    @Query("UPDATE expenses SET contentHash = NULL WHERE idLocal = :idLocal")
+    void clearContentHash(long idLocal);
+    
+    // Prefetch de una página descargada: una sola consulta IN en lugar de una búsqueda por documento
+    @Query("SELECT * FROM expenses WHERE remoteId IN (:remoteIds)")
+    List<ExpenseEntity> getExpensesByRemoteIds(List<String> remoteIds);
+    
     @Insert(onConflict = OnConflictStrategy.REPLACE)
     long insertExpense(ExpenseEntity expense);
     
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void insertExpenses(List<ExpenseEntity> expenses);
+    
     @Update
     void updateExpense(ExpenseEntity expense);
     
+    @Update
+    void updateExpenses(List<ExpenseEntity> expenses);
+    
+    /**
+     * Aplica una página descargada de Firestore en una sola transacción:
+     * un commit (y un fsync) por página en lugar de uno por documento.
+     */
+    @Transaction
+    default void upsertExpenses(List<ExpenseEntity> toUpdate, List<ExpenseEntity> toInsert) {
+        updateExpenses(toUpdate);
+        insertExpenses(toInsert);
+    }
+    
     @Query("UPDATE expenses SET deletedAt = :deletedAt, syncState = 'PENDING', updatedAt = :updatedAt WHERE idLocal = :idLocal")
     void softDeleteExpense(long idLocal, long deletedAt, long updatedAt);
     
-    @Query("SELECT * FROM expenses WHERE syncState = 'PENDING'")
+    // Compactación: borra definitivamente los soft deletes ya confirmados en Firestore y sin nada en cola
+    @Query("DELETE FROM expenses WHERE deletedAt IS NOT NULL AND deletedAt < :deletedBefore AND syncState = 'SYNCED' " +
+           "AND NOT EXISTS (SELECT 1 FROM sync_outbox WHERE sync_outbox.entityType = 'EXPENSE' AND sync_outbox.entityIdLocal = expenses.idLocal)")
+    int purgeSyncedTombstones(long deletedBefore);
+    
+    // Pendientes de subir según sync_outbox (en orden FIFO), sin recorrer toda la tabla
+    @Query("SELECT expenses.* FROM sync_outbox JOIN expenses ON expenses.idLocal = sync_outbox.entityIdLocal WHERE sync_outbox.entityType = 'EXPENSE' ORDER BY sync_outbox.id ASC")
     List<ExpenseEntity> getPendingExpenses();
     
     @Query("UPDATE expenses SET syncState = :syncState WHERE idLocal = :idLocal")
     void updateSyncState(long idLocal, String syncState);
-
-    @Query("UPDATE expenses SET categoryRemoteId = :newRemoteId, syncState = 'PENDING' WHERE categoryRemoteId = :oldLocalRef")
-    void migrateCategoryRemoteId(String oldLocalRef, String newRemoteId);
-    
-    @Query("SELECT * FROM expenses WHERE userUid = :userUid AND categoryRemoteId = :categoryRemoteId AND monto = :monto AND fechaEpochMillis = :fechaEpochMillis AND deletedAt IS NULL LIMIT 1")
-    ExpenseEntity findExpenseByAttributes(String userUid, String categoryRemoteId, double monto, long fechaEpochMillis);
     
-    // Consultas para dashboard - temporalmente comentadas
-    // @Query("SELECT categoryRemoteId, SUM(monto) AS total FROM expenses WHERE userUid = :userUid AND fechaEpochMillis >= :monthStart AND fechaEpochMillis <= :monthEnd AND deletedAt IS NULL GROUP BY categoryRemoteId ORDER BY total DESC")
-    // LiveData<List<CategorySum>> sumByCategoryForMonth(String userUid, long monthStart, long monthEnd);
+    // Consultas para dashboard: agregación en SQLite acotada al rango del mes (usa el índice userUid + fechaEpochMillis)
+    @Query("SELECT categoryRemoteId, SUM(montoCentavos) AS totalCentavos FROM expenses WHERE userUid = :userUid AND fechaEpochMillis >= :monthStart AND fechaEpochMillis <= :monthEnd AND deletedAt IS NULL GROUP BY categoryRemoteId ORDER BY totalCentavos DESC")
+    LiveData<List<CategorySum>> sumByCategoryForMonth(String userUid, long monthStart, long monthEnd);
     
-    // @Query("SELECT SUM(monto) FROM expenses WHERE userUid = :userUid AND fechaEpochMillis >= :monthStart AND fechaEpochMillis <= :monthEnd AND deletedAt IS NULL")
-    // LiveData<Double> getTotalForMonth(String userUid, long monthStart, long monthEnd);
+    @Query("SELECT COALESCE(SUM(montoCentavos), 0) FROM expenses WHERE userUid = :userUid AND fechaEpochMillis >= :monthStart AND fechaEpochMillis <= :monthEnd AND deletedAt IS NULL")
+    LiveData<Long> getTotalForMonth(String userUid, long monthStart, long monthEnd);
 }
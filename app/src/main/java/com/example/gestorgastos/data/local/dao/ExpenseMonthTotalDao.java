@@ -0,0 +1,51 @@
+package com.example.gestorgastos.data.local.dao;
+
+import androidx.lifecycle.LiveData;
+import androidx.room.Dao;
+import androidx.room.Query;
+import androidx.room.Transaction;
+
+import com.example.gestorgastos.data.local.model.CategorySum;
+import com.example.gestorgastos.data.local.model.MonthChange;
+import com.example.gestorgastos.data.local.model.MonthTotal;
+
+import java.util.List;
+
+@Dao
+public interface ExpenseMonthTotalDao {
+    @Query("SELECT categoryRemoteId, totalCentavos FROM expense_month_totals WHERE userUid = :userUid AND yearMonth = :yearMonth AND expenseCount > 0 ORDER BY totalCentavos DESC")
+    LiveData<List<CategorySum>> getCategorySumsForMonth(String userUid, String yearMonth);
+    
+    @Query("SELECT categoryRemoteId, totalCentavos FROM expense_month_totals WHERE userUid = :userUid AND yearMonth = :yearMonth AND expenseCount > 0 ORDER BY totalCentavos DESC")
+    List<CategorySum> getCategorySumsForMonthSync(String userUid, String yearMonth);
+    
+    // Totales mensuales para tendencias: una fila por mes en [fromYearMonth, toYearMonth]
+    @Query("SELECT yearMonth, SUM(totalCentavos) AS totalCentavos, SUM(expenseCount) AS expenseCount FROM expense_month_totals WHERE userUid = :userUid AND yearMonth >= :fromYearMonth AND yearMonth <= :toYearMonth GROUP BY yearMonth ORDER BY yearMonth ASC")
+    LiveData<List<MonthTotal>> getMonthTotals(String userUid, String fromYearMonth, String toYearMonth);
+    
+    // Meses que cambiaron después de la secuencia afterSeq (ver MonthChangeTracker)
+    @Query("SELECT userUid, yearMonth, seq FROM expense_month_changes WHERE seq > :afterSeq")
+    List<MonthChange> getMonthChangesAfter(long afterSeq);
+    
+    @Query("SELECT COALESCE(MAX(seq), 0) FROM expense_month_changes")
+    long getLastMonthChangeSeq();
+    
+    @Query("DELETE FROM expense_month_totals")
+    void deleteAll();
+    
+    @Query("INSERT INTO expense_month_totals (userUid, yearMonth, categoryRemoteId, totalCentavos, expenseCount) " +
+           "SELECT userUid, strftime('%Y-%m', fechaEpochMillis / 1000, 'unixepoch', 'localtime'), categoryRemoteId, SUM(montoCentavos), COUNT(*) " +
+           "FROM expenses WHERE deletedAt IS NULL GROUP BY 1, 2, 3")
+    void backfillFromExpenses();
+    
+    /**
+     * Recalcula la tabla completa desde expenses.
+     * Necesario cuando cambia la zona horaria del dispositivo, porque los meses
+     * se asignan con la hora local vigente al momento de escribir cada gasto.
+     */
+    @Transaction
+    default void rebuild() {
+        deleteAll();
+        backfillFromExpenses();
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.gestorgastos.data.local.dao;
+
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
+import androidx.room.Query;
+
+import com.example.gestorgastos.data.local.entity.SyncOutboxEntity;
+
+import java.util.List;
+
+@Dao
+public interface SyncOutboxDao {
+    // Entrada co de una categoría que todavía no existe en Firestore: su alta (documento completo) no se confirmó.
+    // Un cambio parcial (renombrar, ícono, lápida) es sobre un documento que ya existe y no la cuenta;
+    // si ese documento falta, el reintento pasa a documento completo (NOT_FOUND) y vuelve a contar
+    String CATEGORY_CREATE_QUEUED = "co.entityType = 'CATEGORY' AND co.entityIdLocal = c.idLocal " +
+            "AND co.dirtyFields = " + SyncOutboxEntity.DIRTY_ALL;
+    
+    // Condición sobre una fila de sync_outbox: no es un gasto cuya categoría espera el alta en la cola
+    String NOT_WAITING_ON_CATEGORY = "NOT EXISTS (SELECT 1 FROM expenses e " +
+            "JOIN categories c ON c.remoteId = e.categoryRemoteId " +
+            "JOIN sync_outbox co ON " + CATEGORY_CREATE_QUEUED + " " +
+            "WHERE sync_outbox.entityType = 'EXPENSE' AND e.idLocal = sync_outbox.entityIdLocal)";
+    
+    // REPLACE: un cambio nuevo sobre una entidad ya encolada le da un id nuevo, así la
+    // confirmación de un envío anterior (delete por id viejo) no borra el cambio más reciente
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    long insert(SyncOutboxEntity entry);
+    
+    default long enqueue(String entityType, long entityIdLocal, long enqueuedAt) {
+        return enqueue(entityType, entityIdLocal, enqueuedAt, 0L, SyncOutboxEntity.DIRTY_ALL);
+    }
+    
+    // nextAttemptAt > 0 reserva la entrada para el envío del repositorio (ventana de WriteCoalescer):
+    // el SyncWorker no la toma antes, salvo que ese envío nunca ocurra (p. ej. la app se cerró).
+    // dirtyFields se suma a los de la entrada que reemplaza, que todavía no se subieron.
+    // Llamar dentro de la transacción del cambio
+    default long enqueue(String entityType, long entityIdLocal, long enqueuedAt, long nextAttemptAt, int dirtyFields) {
+        SyncOutboxEntity previous = getByEntity(entityType, entityIdLocal);
+        SyncOutboxEntity entry = new SyncOutboxEntity();
+        entry.entityType = entityType;
+        entry.entityIdLocal = entityIdLocal;
+        entry.enqueuedAt = enqueuedAt;
+        entry.nextAttemptAt = nextAttemptAt;
+        entry.dirtyFields = previous != null ? previous.dirtyFields | dirtyFields : dirtyFields;
+        return insert(entry);
+    }
+    
+    // Orden FIFO con cursor sobre id, solo entradas cuyo reintento ya venció. Primera página: afterId = 0.
+    @Query("SELECT * FROM sync_outbox WHERE entityType = :entityType AND id > :afterId AND nextAttemptAt <= :now ORDER BY id ASC LIMIT :limit")
+    List<SyncOutboxEntity> getDuePage(String entityType, long afterId, long now, int limit);
+    
+    @Query("SELECT * FROM sync_outbox WHERE id = :id LIMIT 1")
+    SyncOutboxEntity getById(long id);
+    
+    @Query("SELECT * FROM sync_outbox WHERE entityType = :entityType AND entityIdLocal = :entityIdLocal LIMIT 1")
+    SyncOutboxEntity getByEntity(String entityType, long entityIdLocal);
+    
+    @Query("UPDATE sync_outbox SET attemptCount = :attemptCount, nextAttemptAt = :nextAttemptAt WHERE id = :id")
+    void updateAttempt(long id, int attemptCount, long nextAttemptAt);
+    
+    @Query("UPDATE sync_outbox SET dirtyFields = :dirtyFields WHERE id = :id")
+    void updateDirtyFields(long id, int dirtyFields);
+    
+    // Como getDuePage para gastos, pero sin los que apuntan a una categoría cuya alta todavía espera en la cola:
+    // esos salen una sola vez, después de que Firestore confirme la categoría
+    @Query("SELECT * FROM sync_outbox WHERE entityType = 'EXPENSE' AND id > :afterId AND nextAttemptAt <= :now " +
+           "AND " + NOT_WAITING_ON_CATEGORY + " ORDER BY id ASC LIMIT :limit")
+    List<SyncOutboxEntity> getDueExpensesPage(long afterId, long now, int limit);
+    
+    // true si la categoría con ese remoteId tiene el alta sin confirmar en la cola
+    @Query("SELECT EXISTS(SELECT 1 FROM categories c JOIN sync_outbox co " +
+           "ON " + CATEGORY_CREATE_QUEUED + " WHERE c.remoteId = :categoryRemoteId)")
+    boolean isCategoryQueued(String categoryRemoteId);
+    
+    // true si hay gastos encolados esperando a la categoría con ese remoteId
+    @Query("SELECT EXISTS(SELECT 1 FROM expenses e JOIN sync_outbox o " +
+           "ON o.entityType = 'EXPENSE' AND o.entityIdLocal = e.idLocal WHERE e.categoryRemoteId = :categoryRemoteId)")
+    boolean hasExpensesQueuedForCategory(String categoryRemoteId);
+    
+    // Próximo reintento programado (null si la cola está vacía). Los gastos que esperan el alta de su categoría
+    // no cuentan: salen en la misma corrida que la categoría, cuando venza el reintento de ella
+    @Query("SELECT MIN(nextAttemptAt) FROM sync_outbox WHERE " + NOT_WAITING_ON_CATEGORY)
+    Long getNextAttemptAt();
+    
+    // Cuáles de estas filas tienen cambios locales todavía sin subir (la descarga no debe pisarlos)
+    @Query("SELECT entityIdLocal FROM sync_outbox WHERE entityType = :entityType AND entityIdLocal IN (:entityIdsLocal)")
+    List<Long> getQueuedIds(String entityType, List<Long> entityIdsLocal);
+    
+    @Query("DELETE FROM sync_outbox WHERE id = :id")
+    void delete(long id);
+    
+    // Descarta todo lo que no es un alta: cambios sobre documentos que ya estaban en Firestore (ver SyncWorker)
+    @Query("DELETE FROM sync_outbox WHERE dirtyFields != " + SyncOutboxEntity.DIRTY_ALL)
+    int deleteUpdatesOfExistingDocuments();
+}
@@ -30,6 +30,9 @@ public interface UserDao {
     @Query("DELETE FROM users WHERE uid = :uid")
     void deleteUserByUid(String uid);
     
+    @Query("UPDATE users SET syncState = :syncState WHERE uid = :uid")
+    void updateSyncState(String uid, String syncState);
+    
     @Query("UPDATE users SET deletedAt = :deletedAt, syncState = 'PENDING', updatedAt = :updatedAt WHERE uid = :uid")
     void softDeleteUser(String uid, long deletedAt, long updatedAt);
     
@@ -39,9 +42,16 @@ public interface UserDao {
     @Query("SELECT * FROM users WHERE (deletedAt IS NULL OR deletedAt = 0)")
     List<UserEntity> getAllUsersSync();
     
+    // Paginación por cursor sobre el índice único de uid. Primera página: afterUid = "".
+    @Query("SELECT * FROM users WHERE uid > :afterUid AND (deletedAt IS NULL OR deletedAt = 0) ORDER BY uid ASC LIMIT :limit")
+    List<UserEntity> getUsersPageAfter(String afterUid, int limit);
+    
     @Query("SELECT * FROM users WHERE syncState = 'PENDING' AND (deletedAt IS NULL OR deletedAt = 0)")
     List<UserEntity> getPendingUsers();
     
+    @Query("SELECT * FROM users WHERE syncState = 'PENDING' AND (deletedAt IS NULL OR deletedAt = 0) AND uid > :afterUid ORDER BY uid ASC LIMIT :limit")
+    List<UserEntity> getPendingUsersPage(String afterUid, int limit);
+    
     @Query("SELECT * FROM users WHERE syncState = 'PENDING' AND deletedAt IS NOT NULL AND deletedAt > 0")
     List<UserEntity> getPendingDeletions();
     
@@ -13,6 +13,12 @@ import androidx.room.PrimaryKey;
            @Index(value = {"userUid", "deletedAt"})
        })
 public class CategoryEntity {
+    // Campos del documento de Firestore, para SyncOutboxEntity.dirtyFields
+    public static final int FIELD_NAME = 1;
+    public static final int FIELD_ICON = 1 << 1;
+    public static final int FIELD_ACTIVE = 1 << 2;
+    public static final int FIELD_DELETED = 1 << 3;
+    
     @PrimaryKey(autoGenerate = true)
     public long idLocal;
     
@@ -11,9 +11,17 @@ import androidx.room.PrimaryKey;
            @Index(value = {"userUid"}),
            @Index(value = {"remoteId"}, unique = true),
            @Index(value = {"userUid", "fechaEpochMillis"}),
-           @Index(value = {"userUid", "deletedAt"})
+           @Index(value = {"userUid", "deletedAt"}),
+           @Index(value = {"categoryRemoteId"}),
+           @Index(value = {"userUid", "contentHash"}, unique = true)
        })
 public class ExpenseEntity {
+    // Campos del documento de Firestore, para SyncOutboxEntity.dirtyFields
+    public static final int FIELD_CATEGORY = 1;
+    public static final int FIELD_AMOUNT = 1 << 1; // amount y amount_minor
+    public static final int FIELD_FECHA = 1 << 2;
+    public static final int FIELD_DELETED = 1 << 3;
+    
     @PrimaryKey(autoGenerate = true)
     public long idLocal;
     
@@ -26,7 +34,7 @@ public class ExpenseEntity {
     @NonNull
     public String categoryRemoteId;
     
-    public double monto;
+    public long montoCentavos; // monto en centavos, ver Money
     
     public long fechaEpochMillis;
     
@@ -38,6 +46,10 @@ public class ExpenseEntity {
     @NonNull
     public String syncState = "PENDING"; // "PENDING" | "SYNCED" | "FAILED"
     
+    // Huella de la creación (ver ContentHash); null en gastos anteriores a la columna o que chocaban con otro
+    @Nullable
+    public String contentHash;
+    
     @Override
     public String toString() {
         return "ExpenseEntity{" +
@@ -45,11 +57,12 @@ public class ExpenseEntity {
                 ", remoteId='" + remoteId + '\'' +
                 ", userUid='" + userUid + '\'' +
                 ", categoryRemoteId='" + categoryRemoteId + '\'' +
-                ", monto=" + monto +
+                ", montoCentavos=" + montoCentavos +
                 ", fechaEpochMillis=" + fechaEpochMillis +
                 ", updatedAt=" + updatedAt +
                 ", deletedAt=" + deletedAt +
                 ", syncState='" + syncState + '\'' +
+                ", contentHash='" + contentHash + '\'' +
                 '}';
     }
 }
@@ -0,0 +1,21 @@
+package com.example.gestorgastos.data.local.entity;
+
+import androidx.annotation.NonNull;
+import androidx.room.Entity;
+
+/**
+ * Registro de qué meses cambiaron en expense_month_totals: una fila por usuario y mes con el número
+ * de secuencia del último cambio. Se mantiene con triggers sobre expense_month_totals (ver AppDatabase)
+ * y lo lee MonthChangeTracker para avisar solo a los observadores del mes afectado.
+ */
+@Entity(tableName = "expense_month_changes",
+       primaryKeys = {"userUid", "yearMonth"})
+public class ExpenseMonthChangeEntity {
+    @NonNull
+    public String userUid = "";
+    
+    @NonNull
+    public String yearMonth = ""; // "yyyy-MM", misma clave que expense_month_totals
+    
+    public long seq;
+}
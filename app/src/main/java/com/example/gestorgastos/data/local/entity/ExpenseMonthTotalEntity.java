@@ -0,0 +1,26 @@
+package com.example.gestorgastos.data.local.entity;
+
+import androidx.annotation.NonNull;
+import androidx.room.Entity;
+
+/**
+ * Totales pre-agregados de gastos por usuario, mes y categoría.
+ * Se mantiene exclusivamente con triggers de SQLite sobre la tabla expenses
+ * (ver AppDatabase); la app solo la lee.
+ */
+@Entity(tableName = "expense_month_totals",
+       primaryKeys = {"userUid", "yearMonth", "categoryRemoteId"})
+public class ExpenseMonthTotalEntity {
+    @NonNull
+    public String userUid = "";
+    
+    @NonNull
+    public String yearMonth = ""; // "yyyy-MM" en la zona horaria del dispositivo
+    
+    @NonNull
+    public String categoryRemoteId = "";
+    
+    public long totalCentavos;
+    
+    public int expenseCount;
+}
@@ -0,0 +1,45 @@
+package com.example.gestorgastos.data.local.entity;
+
+import androidx.annotation.NonNull;
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.Index;
+import androidx.room.PrimaryKey;
+
+/**
+ * Cola de cambios locales pendientes de subir a Firestore.
+ * Se escribe en la misma transacción que el cambio sobre la entidad y se vacía en orden FIFO (por id).
+ * Solo guarda la referencia: al sincronizar se lee el estado actual de la fila.
+ */
+@Entity(tableName = "sync_outbox",
+       indices = {
+           @Index(value = {"entityType", "entityIdLocal"}, unique = true)
+       })
+public class SyncOutboxEntity {
+    public static final String TYPE_EXPENSE = "EXPENSE";
+    public static final String TYPE_CATEGORY = "CATEGORY";
+    // Todos los campos: creación, entradas anteriores a dirtyFields o un envío parcial que no encontró el documento
+    public static final int DIRTY_ALL = -1;
+    
+    @PrimaryKey(autoGenerate = true)
+    public long id;
+    
+    @NonNull
+    public String entityType = TYPE_EXPENSE; // "EXPENSE" | "CATEGORY"
+    
+    public long entityIdLocal;
+    
+    public long enqueuedAt;
+    
+    // Reintentos con backoff (ver SyncRetryScheduler): una entrada solo se envía cuando nextAttemptAt <= ahora
+    @ColumnInfo(defaultValue = "0")
+    public int attemptCount;
+    
+    @ColumnInfo(defaultValue = "0")
+    public long nextAttemptAt;
+    
+    // Campos modificados desde el último envío confirmado (bits FIELD_* de ExpenseEntity / CategoryEntity):
+    // el envío sube solo esos campos. Un cambio nuevo sobre la misma fila acumula sus bits (ver SyncOutboxDao.enqueue)
+    @ColumnInfo(defaultValue = "-1")
+    public int dirtyFields = DIRTY_ALL;
+}
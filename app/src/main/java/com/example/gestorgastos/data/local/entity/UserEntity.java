@@ -6,7 +6,11 @@ import androidx.room.Entity;
 import androidx.room.Index;
 import androidx.room.PrimaryKey;
 
-@Entity(tableName = "users", indices = {@Index(value = {"uid"}, unique = true)})
+@Entity(tableName = "users", indices = {
+        @Index(value = {"uid"}, unique = true),
+        @Index(value = {"email"}),
+        @Index(value = {"syncState"})
+})
 public class UserEntity {
     @PrimaryKey(autoGenerate = true)
     public long idLocal;
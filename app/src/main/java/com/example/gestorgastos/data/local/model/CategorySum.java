@@ -6,13 +6,13 @@ public class CategorySum {
     @ColumnInfo(name = "categoryRemoteId")
     public String categoryRemoteId;
     
-    @ColumnInfo(name = "total")
-    public double total;
+    @ColumnInfo(name = "totalCentavos")
+    public long totalCentavos;
     
     // Constructor para facilitar la creación
-    public CategorySum(String categoryRemoteId, double total) {
+    public CategorySum(String categoryRemoteId, long totalCentavos) {
         this.categoryRemoteId = categoryRemoteId;
-        this.total = total;
+        this.totalCentavos = totalCentavos;
     }
     
     // Constructor vacío requerido por Room
@@ -0,0 +1,14 @@
+package com.example.gestorgastos.data.local.model;
+
+import androidx.room.ColumnInfo;
+
+public class MonthChange {
+    @ColumnInfo(name = "userUid")
+    public String userUid;
+    
+    @ColumnInfo(name = "yearMonth")
+    public String yearMonth;
+    
+    @ColumnInfo(name = "seq")
+    public long seq;
+}
@@ -0,0 +1,17 @@
+package com.example.gestorgastos.data.local.model;
+
+import androidx.room.ColumnInfo;
+
+public class MonthTotal {
+    @ColumnInfo(name = "yearMonth")
+    public String yearMonth;
+    
+    @ColumnInfo(name = "totalCentavos")
+    public long totalCentavos;
+    
+    @ColumnInfo(name = "expenseCount")
+    public int expenseCount;
+    
+    // Constructor vacío requerido por Room
+    public MonthTotal() {}
+}
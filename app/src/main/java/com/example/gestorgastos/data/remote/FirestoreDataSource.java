@@ -2,17 +2,37 @@ package com.example.gestorgastos.data.remote;
 
 import com.google.android.gms.tasks.Task;
 import com.google.firebase.Timestamp;
+import com.google.firebase.firestore.CollectionReference;
 import com.google.firebase.firestore.DocumentReference;
 import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.EventListener;
+import com.google.firebase.firestore.FieldPath;
 import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.FirebaseFirestoreException;
 import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.Query;
 import com.google.firebase.firestore.QuerySnapshot;
+import com.google.firebase.firestore.SetOptions;
+import com.google.firebase.firestore.Source;
 import com.google.firebase.firestore.WriteBatch;
 
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executor;
 
 public class FirestoreDataSource {
+    // Límite de operaciones por WriteBatch impuesto por Firestore
+    public static final int MAX_BATCH_WRITES = 500;
+    // Documentos por página al descargar categorías y gastos (memoria acotada en restauraciones grandes)
+    public static final int PULL_PAGE_SIZE = 500;
+    
+    private static final String AUTO_ID_ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789";
+    private static final int AUTO_ID_LENGTH = 20;
+    private static final SecureRandom RANDOM = new SecureRandom();
+    
     private final FirebaseFirestore firestore;
     
     public FirestoreDataSource() {
@@ -49,27 +69,25 @@ public class FirestoreDataSource {
         return firestore.collection("users").get();
     }
     
-    // Categories
-    public Task<DocumentReference> createCategory(String userUid, Map<String, Object> categoryData) {
-        return firestore.collection("users").document(userUid)
-                .collection("categories").add(categoryData);
+    public DocumentReference userRef(String uid) {
+        return firestore.collection("users").document(uid);
     }
     
-    public Task<QuerySnapshot> getCategories(String userUid) {
+    // Categories
+    // Crea o actualiza en el id generado en el cliente: repetir la escritura no duplica el documento
+    public Task<Void> setCategory(String userUid, String categoryId, Map<String, Object> categoryData) {
         return firestore.collection("users").document(userUid)
-                .collection("categories").get();
+                .collection("categories").document(categoryId).set(categoryData, SetOptions.merge());
     }
     
-    public Task<QuerySnapshot> getCategoriesAfter(String userUid, Timestamp lastSync) {
-        return firestore.collection("users").document(userUid)
-                .collection("categories")
-                .whereGreaterThan("updated_at", lastSync)
-                .get();
+    // Solo los campos indicados; falla con NOT_FOUND si el documento no existe (no crea uno a medias)
+    public Task<Void> updateCategory(String userUid, String categoryId, Map<String, Object> fields) {
+        return categoryRef(userUid, categoryId).update(fields);
     }
     
-    public Task<Void> updateCategory(String userUid, String categoryId, Map<String, Object> updates) {
-        return firestore.collection("users").document(userUid)
-                .collection("categories").document(categoryId).update(updates);
+    public Task<QuerySnapshot> getCategoriesPage(String userUid, Timestamp afterUpdatedAt, String afterDocId, int limit) {
+        return pageQuery(firestore.collection("users").document(userUid).collection("categories"),
+                afterUpdatedAt, afterDocId, limit).get(Source.SERVER);
     }
     
     public Task<Void> deleteCategory(String userUid, String categoryId) {
@@ -82,27 +100,26 @@ public class FirestoreDataSource {
                 .collection("categories").document(categoryId).get();
     }
     
-    // Expenses
-    public Task<DocumentReference> createExpense(String userUid, Map<String, Object> expenseData) {
+    public DocumentReference categoryRef(String userUid, String categoryId) {
         return firestore.collection("users").document(userUid)
-                .collection("expenses").add(expenseData);
+                .collection("categories").document(categoryId);
     }
     
-    public Task<QuerySnapshot> getExpenses(String userUid) {
+    // Expenses
+    // Crea o actualiza en el id generado en el cliente: repetir la escritura no duplica el documento
+    public Task<Void> setExpense(String userUid, String expenseId, Map<String, Object> expenseData) {
         return firestore.collection("users").document(userUid)
-                .collection("expenses").get();
+                .collection("expenses").document(expenseId).set(expenseData, SetOptions.merge());
     }
     
-    public Task<QuerySnapshot> getExpensesAfter(String userUid, Timestamp lastSync) {
-        return firestore.collection("users").document(userUid)
-                .collection("expenses")
-                .whereGreaterThan("updated_at", lastSync)
-                .get();
+    // Solo los campos indicados; falla con NOT_FOUND si el documento no existe (no crea uno a medias)
+    public Task<Void> updateExpense(String userUid, String expenseId, Map<String, Object> fields) {
+        return expenseRef(userUid, expenseId).update(fields);
     }
     
-    public Task<Void> updateExpense(String userUid, String expenseId, Map<String, Object> updates) {
-        return firestore.collection("users").document(userUid)
-                .collection("expenses").document(expenseId).update(updates);
+    public Task<QuerySnapshot> getExpensesPage(String userUid, Timestamp afterUpdatedAt, String afterDocId, int limit) {
+        return pageQuery(firestore.collection("users").document(userUid).collection("expenses"),
+                afterUpdatedAt, afterDocId, limit).get(Source.SERVER);
     }
     
     public Task<Void> deleteExpense(String userUid, String expenseId) {
@@ -110,6 +127,11 @@ public class FirestoreDataSource {
                 .collection("expenses").document(expenseId).delete();
     }
     
+    public DocumentReference expenseRef(String userUid, String expenseId) {
+        return firestore.collection("users").document(userUid)
+                .collection("expenses").document(expenseId);
+    }
+    
     // Plans
     public Task<QuerySnapshot> getPlans() {
         return firestore.collection("plans").get();
@@ -119,10 +141,80 @@ public class FirestoreDataSource {
         return firestore.collection("plans").document(planId).get();
     }
     
+    /**
+     * Página ordenada por (updated_at, id de documento) que empieza después del cursor.
+     * Sin afterUpdatedAt arranca desde el principio de la colección; sin afterDocId se saltan
+     * todos los documentos con updated_at igual al cursor (cursor heredado sin id).
+     * El índice simple de updated_at ya ordena por id de documento, no hace falta índice compuesto.
+     * Se lee siempre del servidor: una página armada desde la caché local podría adelantar
+     * la marca de agua por encima de documentos que todavía no se descargaron.
+     */
+    private static Query pageQuery(CollectionReference collection, Timestamp afterUpdatedAt, String afterDocId, int limit) {
+        return queryAfter(collection, afterUpdatedAt, afterDocId).limit(limit);
+    }
+    
+    private static Query queryAfter(CollectionReference collection, Timestamp afterUpdatedAt, String afterDocId) {
+        Query query = collection.orderBy("updated_at").orderBy(FieldPath.documentId());
+        if (afterUpdatedAt != null) {
+            query = afterDocId != null
+                    ? query.startAfter(afterUpdatedAt, afterDocId)
+                    : query.startAfter(afterUpdatedAt);
+        }
+        return query;
+    }
+    
+    /**
+     * Listener en tiempo real sobre los documentos de la colección del usuario (SyncPrefs.COLLECTION_*)
+     * posteriores al cursor, en el mismo orden que las páginas de descarga. Los eventos llegan en executor.
+     */
+    public ListenerRegistration listenAfter(String userUid, String collection, Timestamp afterUpdatedAt,
+                                            String afterDocId, Executor executor, EventListener<QuerySnapshot> listener) {
+        return queryAfter(firestore.collection("users").document(userUid).collection(collection),
+                afterUpdatedAt, afterDocId).addSnapshotListener(executor, listener);
+    }
+    
     // Batch operations
     public WriteBatch batch() {
         return firestore.batch();
     }
+    
+    /**
+     * Id de documento generado en el cliente al insertar en Room (mismo formato que los ids automáticos
+     * de Firestore: 20 caracteres alfanuméricos). Se guarda como remoteId antes de subir nada.
+     */
+    public static String newDocumentId() {
+        StringBuilder id = new StringBuilder(AUTO_ID_LENGTH);
+        for (int i = 0; i < AUTO_ID_LENGTH; i++) {
+            id.append(AUTO_ID_ALPHABET.charAt(RANDOM.nextInt(AUTO_ID_ALPHABET.length())));
+        }
+        return id.toString();
+    }
+    
+    /**
+     * Id de documento determinístico para el usuario y la clave dados (p. ej. categorías por defecto):
+     * dos dispositivos que crean la misma entidad sin conexión escriben el mismo documento.
+     */
+    public static String stableDocumentId(String userUid, String key) {
+        return UUID.nameUUIDFromBytes((userUid + "/" + key).getBytes(StandardCharsets.UTF_8))
+                .toString().replace("-", "");
+    }
+    
+    /**
+     * true si el documento no existe: un envío parcial (update) necesita que ya esté creado.
+     */
+    public static boolean isNotFound(Exception e) {
+        return e instanceof FirebaseFirestoreException
+                && ((FirebaseFirestoreException) e).getCode() == FirebaseFirestoreException.Code.NOT_FOUND;
+    }
+    
+    /**
+     * true si el error es de conectividad (UNAVAILABLE): reintentar fila por fila no serviría.
+     * Cualquier otro fallo de un batch (p. ej. NOT_FOUND de un documento) puede venir de una sola fila.
+     */
+    public static boolean isUnavailable(Exception e) {
+        return e instanceof FirebaseFirestoreException
+                && ((FirebaseFirestoreException) e).getCode() == FirebaseFirestoreException.Code.UNAVAILABLE;
+    }
 }
 
 
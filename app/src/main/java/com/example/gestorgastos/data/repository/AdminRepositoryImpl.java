@@ -9,10 +9,14 @@ import com.example.gestorgastos.data.local.dao.UserDao;
 import com.example.gestorgastos.data.local.entity.UserEntity;
 import com.example.gestorgastos.data.remote.FirestoreDataSource;
 import com.example.gestorgastos.util.DateTimeUtil;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+import com.google.android.gms.tasks.Tasks;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseUser;
 import com.google.firebase.firestore.DocumentSnapshot;
 import com.google.firebase.firestore.QuerySnapshot;
+import com.google.firebase.firestore.WriteBatch;
 import org.json.JSONObject;
 import org.json.JSONException;
 import java.io.IOException;
@@ -34,11 +38,8 @@ import java.util.concurrent.Executors;
 
 public class AdminRepositoryImpl implements AdminRepository {
     private static final String TAG = "AdminRepositoryImpl";
-    
-    private final UserDao userDao;
     private final FirestoreDataSource firestoreDataSource;
     private final ExecutorService executor;
-    private final LiveData<List<UserEntity>> allUsersLiveData;
     private final OkHttpClient httpClient = new OkHttpClient();
     private final Context context;
     private static final MediaType JSON_MEDIA_TYPE = MediaType.get("application/json; charset=utf-8");
@@ -50,18 +51,22 @@ public class AdminRepositoryImpl implements AdminRepository {
     
     public AdminRepositoryImpl(Context context) {
         this.context = context;
-        AppDatabase database = AppDatabase.getDatabase(context);
-        this.userDao = database.userDao();
         this.firestoreDataSource = new FirestoreDataSource();
         this.executor = Executors.newSingleThreadExecutor();
         
-        // Observar directamente desde Room (offline-first)
-        this.allUsersLiveData = userDao.getAllUsers();
-        
         // Cargar usuarios desde Firestore en background para sincronizar
         loadUsersFromFirestore();
     }
     
+    // La base se resuelve en cada operación: al cambiar de cuenta AppDatabase abre otro archivo
+    private AppDatabase database() {
+        return AppDatabase.getDatabase(context);
+    }
+    
+    private UserDao userDao() {
+        return database().userDao();
+    }
+    
     /**
      * Guarda temporalmente una contraseña asociada a un UID temporal.
      * Se usa para poder reintentar la creación de usuarios cuando la app se vuelve a abrir.
@@ -111,7 +116,8 @@ public class AdminRepositoryImpl implements AdminRepository {
     
     @Override
     public LiveData<List<UserEntity>> getAllUsers() {
-        return allUsersLiveData;
+        // Observar directamente desde Room (offline-first)
+        return userDao().getAllUsers();
     }
     
     @Override
@@ -153,7 +159,7 @@ public class AdminRepositoryImpl implements AdminRepository {
                 }
                 
                 // Guardar en Room inmediatamente (offline-first)
-                user.idLocal = userDao.insertUser(user);
+                user.idLocal = userDao().insertUser(user);
                 Log.d(TAG, "✅ Usuario guardado en Room con UID temporal: " + tempUid + " (syncState: PENDING)");
                 
                 // Guardar contraseña temporalmente para poder reintentar más tarde
@@ -242,13 +248,13 @@ public class AdminRepositoryImpl implements AdminRepository {
                 // Actualizar el usuario en Room con el UID real y syncState = "SYNCED"
                 executor.execute(() -> {
                     // Buscar el usuario por el UID temporal
-                    UserEntity existingUser = userDao.getUserByUidSync(tempUid);
+                    UserEntity existingUser = userDao().getUserByUidSync(tempUid);
                     if (existingUser != null) {
                         // Actualizar con el UID real
                         existingUser.uid = realUid;
                         existingUser.syncState = "SYNCED";
                         existingUser.updatedAt = DateTimeUtil.getCurrentEpochMillis();
-                        userDao.updateUser(existingUser);
+                        userDao().updateUser(existingUser);
                         Log.d(TAG, "✅ Usuario actualizado en Room con UID real: " + realUid);
                         
                         // Eliminar la contraseña temporal ya que la creación fue exitosa
@@ -258,7 +264,7 @@ public class AdminRepositoryImpl implements AdminRepository {
                         user.uid = realUid;
                         user.syncState = "SYNCED";
                         user.updatedAt = DateTimeUtil.getCurrentEpochMillis();
-                        user.idLocal = userDao.insertUser(user);
+                        user.idLocal = userDao().insertUser(user);
                         Log.d(TAG, "✅ Usuario creado en Room con UID real: " + realUid);
                         
                         // Eliminar la contraseña temporal
@@ -301,11 +307,11 @@ public class AdminRepositoryImpl implements AdminRepository {
                                             firestoreUserIds.add(user.uid);
                                             
                                             // Guardar en Room también
-                                            UserEntity existingUser = userDao.getUserByUidSync(user.uid);
+                                            UserEntity existingUser = userDao().getUserByUidSync(user.uid);
                                             
                                             // Si no se encuentra por uid, buscar por email (para usuarios creados en offline con UID temporal)
                                             if (existingUser == null && user.email != null && !user.email.isEmpty()) {
-                                                existingUser = userDao.findUserByEmail(user.email);
+                                                existingUser = userDao().findUserByEmail(user.email);
                                                 if (existingUser != null) {
                                                     Log.d(TAG, "Usuario encontrado por email (creado en offline): " + existingUser.email);
                                                 }
@@ -327,12 +333,12 @@ public class AdminRepositoryImpl implements AdminRepository {
                                                 }
                                                 user.deletedAt = null; // Asegurar que no esté marcado como eliminado
                                                 user.idLocal = existingUser.idLocal;
-                                                userDao.updateUser(user);
+                                                userDao().updateUser(user);
                                             } else {
                                                 // Insertar si no existe - viene del servidor, está sincronizado
                                                 user.syncState = "SYNCED";
                                                 user.deletedAt = null; // Asegurar que no esté marcado como eliminado
-                                                user.idLocal = userDao.insertUser(user);
+                                                user.idLocal = userDao().insertUser(user);
                                             }
                                             users.add(user);
                                         }
@@ -344,7 +350,7 @@ public class AdminRepositoryImpl implements AdminRepository {
                             
                             // Eliminar usuarios huérfanos (en Room pero no en Firestore)
                             try {
-                                List<UserEntity> localUsers = userDao.getAllUsersSync();
+                                List<UserEntity> localUsers = userDao().getAllUsersSync();
                                 int orphansRemoved = 0;
                                 for (UserEntity localUser : localUsers) {
                                     // Solo eliminar si:
@@ -357,7 +363,7 @@ public class AdminRepositoryImpl implements AdminRepository {
                                         (localUser.deletedAt == null || localUser.deletedAt == 0) &&
                                         (localUser.syncState == null || !localUser.syncState.equals("PENDING"))) {
                                         Log.w(TAG, "⚠️ Usuario huérfano detectado en refresh: " + localUser.uid + " (" + localUser.name + ") - Eliminando");
-                                        userDao.deleteUserByUid(localUser.uid);
+                                        userDao().deleteUserByUid(localUser.uid);
                                         orphansRemoved++;
                                     }
                                 }
@@ -417,7 +423,7 @@ public class AdminRepositoryImpl implements AdminRepository {
                 user.syncState = "PENDING"; // Marcar como pendiente de sincronización
                 
                 // Usar query explícita para asegurar que Room notifique cambios al LiveData
-                userDao.updateUserFields(
+                userDao().updateUserFields(
                     user.uid,
                     user.name,
                     user.email,
@@ -467,19 +473,7 @@ public class AdminRepositoryImpl implements AdminRepository {
         
         Log.d(TAG, "🔄 Sincronizando usuario con Firestore - UID: " + user.uid + ", Plan: " + user.planId);
         
-        Map<String, Object> updates = new HashMap<>();
-        updates.put("name", user.name);
-        updates.put("email", user.email);
-        updates.put("role", user.role);
-        updates.put("plan_id", user.planId);
-        if (user.planExpiresAt != null) {
-            updates.put("plan_expires_at", user.planExpiresAt);
-        } else {
-            updates.put("plan_expires_at", null);
-        }
-        updates.put("zona_horaria", user.zonaHoraria);
-        updates.put("is_active", user.isActive);
-        updates.put("updated_at", com.google.firebase.firestore.FieldValue.serverTimestamp());
+        Map<String, Object> updates = buildUserUpdates(user);
         
         Log.d(TAG, "📤 Datos a enviar a Firestore: plan_id=" + updates.get("plan_id"));
         
@@ -488,11 +482,11 @@ public class AdminRepositoryImpl implements AdminRepository {
                 Log.d(TAG, "✅ Usuario sincronizado con Firestore: " + user.uid);
                 // Actualizar estado de sincronización a SYNCED
                 executor.execute(() -> {
-                    UserEntity updatedUser = userDao.getUserByUidSync(user.uid);
+                    UserEntity updatedUser = userDao().getUserByUidSync(user.uid);
                     if (updatedUser != null) {
                         updatedUser.syncState = "SYNCED";
                         // Usar query explícita para asegurar que Room notifique cambios
-                        userDao.updateUserFields(
+                        userDao().updateUserFields(
                             updatedUser.uid,
                             updatedUser.name,
                             updatedUser.email,
@@ -519,7 +513,7 @@ public class AdminRepositoryImpl implements AdminRepository {
                     if (firestoreException.getCode() == com.google.firebase.firestore.FirebaseFirestoreException.Code.NOT_FOUND) {
                         Log.w(TAG, "⚠️ Usuario no existe en Firestore: " + user.uid + " - Eliminando usuario huérfano de Room");
                         executor.execute(() -> {
-                            userDao.deleteUserByUid(user.uid);
+                            userDao().deleteUserByUid(user.uid);
                             Log.d(TAG, "✅ Usuario huérfano eliminado de Room: " + user.uid);
                         });
                         return;
@@ -541,7 +535,7 @@ public class AdminRepositoryImpl implements AdminRepository {
                 long updatedAt = DateTimeUtil.getCurrentEpochMillis();
                 
                 // Soft delete en Room (no eliminar físicamente)
-                userDao.softDeleteUser(uid, deletedAt, updatedAt);
+                userDao().softDeleteUser(uid, deletedAt, updatedAt);
                 Log.d(TAG, "✅ Usuario marcado como eliminado en Room: " + uid + " (syncState: PENDING)");
                 
                 // El LiveData se actualizará automáticamente desde Room
@@ -606,10 +600,10 @@ public class AdminRepositoryImpl implements AdminRepository {
                 
                 // Actualizar syncState a SYNCED y eliminar físicamente de Room
                 executor.execute(() -> {
-                    UserEntity user = userDao.getUserByUidSync(uid);
+                    UserEntity user = userDao().getUserByUidSync(uid);
                     if (user != null && user.deletedAt != null) {
                         // Eliminar físicamente ahora que está sincronizado
-                        userDao.deleteUserByUid(uid);
+                        userDao().deleteUserByUid(uid);
                         Log.d(TAG, "✅ Usuario eliminado físicamente de Room tras sincronización exitosa");
                     }
                 });
@@ -626,76 +620,177 @@ public class AdminRepositoryImpl implements AdminRepository {
     /**
      * Sincroniza todos los usuarios con actualizaciones pendientes con Firestore.
      * Se usa desde SyncWorker para reintentos en segundo plano cuando la app se vuelve a abrir.
+     * La Task se completa cuando todos los batches terminaron y falla si alguno falló.
      */
-    public void syncPendingUsersWithFirestore() {
+    public Task<Integer> syncPendingUsersWithFirestore() {
+        TaskCompletionSource<Integer> result = new TaskCompletionSource<>();
         executor.execute(() -> {
             try {
-                List<UserEntity> pendingUsers = userDao.getPendingUsers();
-                Log.d(TAG, "Sincronizando " + pendingUsers.size() + " usuarios PENDING con Firestore");
-                
                 FirebaseUser currentUser = FirebaseAuth.getInstance().getCurrentUser();
                 if (currentUser == null) {
                     Log.w(TAG, "⚠️ No hay usuario autenticado, no se pueden sincronizar usuarios pendientes");
+                    result.setResult(0);
                     return;
                 }
                 
-                for (UserEntity user : pendingUsers) {
-                    // Si el usuario tiene un UID temporal (empieza con "temp_"), es una creación pendiente
-                    if (user.uid != null && user.uid.startsWith("temp_")) {
-                        // Intentar crear en el servidor usando la contraseña guardada temporalmente
-                        String savedPassword = getPendingPassword(user.uid);
-                        if (savedPassword != null) {
-                            Log.d(TAG, "Reintentando creación de usuario con UID temporal: " + user.uid);
-                            syncCreateUserWithServer(user, savedPassword);
+                // Recorrer pendientes por páginas (cursor sobre uid); las actualizaciones de cada página
+                // se suben en un único WriteBatch y las creaciones (UID temporal) siguen yendo una por una
+                List<Task<Void>> commits = new ArrayList<>();
+                int total = 0;
+                String afterUid = "";
+                List<UserEntity> pendingUsers;
+                do {
+                    pendingUsers = userDao().getPendingUsersPage(afterUid, FirestoreDataSource.MAX_BATCH_WRITES);
+                    List<UserEntity> updates = new ArrayList<>();
+                    for (UserEntity user : pendingUsers) {
+                        afterUid = user.uid;
+                        if (user.uid != null && user.uid.startsWith("temp_")) {
+                            syncPendingUser(user);
                         } else {
-                            Log.w(TAG, "⚠️ Usuario con UID temporal encontrado pero sin contraseña guardada: " + user.uid + 
-                                  " - No se puede reintentar la creación automáticamente");
+                            updates.add(user);
                         }
+                    }
+                    commits.add(pushUserUpdatesBatch(updates));
+                    total += pendingUsers.size();
+                } while (pendingUsers.size() == FirestoreDataSource.MAX_BATCH_WRITES);
+                Log.d(TAG, "Sincronizando " + total + " usuarios PENDING con Firestore");
+                
+                int pushedTotal = total;
+                Tasks.whenAll(commits).addOnCompleteListener(executor, task -> {
+                    if (task.isSuccessful()) {
+                        result.setResult(pushedTotal);
                     } else {
-                        // Es una actualización pendiente, sincronizar normalmente
-                        syncUserWithFirestore(user);
+                        result.setException(task.getException());
                     }
-                }
+                });
             } catch (Exception e) {
                 Log.e(TAG, "Error al obtener usuarios pendientes para sincronizar", e);
+                result.setException(e);
+            }
+        });
+        return result.getTask();
+    }
+    
+    /**
+     * Sube en un WriteBatch las actualizaciones pendientes de varios usuarios y, si se confirma,
+     * los marca SYNCED en una sola transacción. Si falla por algo distinto de conectividad se
+     * reintenta uno por uno (syncUserWithFirestore limpia los usuarios huérfanos con NOT_FOUND).
+     */
+    private Task<Void> pushUserUpdatesBatch(List<UserEntity> users) {
+        if (users.isEmpty()) {
+            return Tasks.forResult(null);
+        }
+        
+        WriteBatch batch = firestoreDataSource.batch();
+        for (UserEntity user : users) {
+            batch.update(firestoreDataSource.userRef(user.uid), buildUserUpdates(user));
+        }
+        
+        return batch.commit().continueWith(executor, task -> {
+            if (task.isSuccessful()) {
+                database().runInTransaction(() -> {
+                    for (UserEntity user : users) {
+                        userDao().updateSyncState(user.uid, "SYNCED");
+                    }
+                });
+                Log.d(TAG, "✅ Batch de " + users.size() + " usuarios sincronizado con Firestore");
+                // Recargar lista desde Firestore para obtener datos actualizados del servidor
+                loadUsersFromFirestore();
+                return null;
             }
+            
+            Exception e = task.getException();
+            Log.e(TAG, "Error al subir batch de " + users.size() + " usuarios", e);
+            if (!FirestoreDataSource.isUnavailable(e)) {
+                // Sin conexión siguen PENDING; con otro error se reintenta uno por uno
+                for (UserEntity user : users) {
+                    syncUserWithFirestore(user);
+                }
+            }
+            throw e;
         });
     }
     
+    private Map<String, Object> buildUserUpdates(UserEntity user) {
+        Map<String, Object> updates = new HashMap<>();
+        updates.put("name", user.name);
+        updates.put("email", user.email);
+        updates.put("role", user.role);
+        updates.put("plan_id", user.planId);
+        if (user.planExpiresAt != null) {
+            updates.put("plan_expires_at", user.planExpiresAt);
+        } else {
+            updates.put("plan_expires_at", null);
+        }
+        updates.put("zona_horaria", user.zonaHoraria);
+        updates.put("is_active", user.isActive);
+        updates.put("updated_at", com.google.firebase.firestore.FieldValue.serverTimestamp());
+        return updates;
+    }
+    
+    private void syncPendingUser(UserEntity user) {
+        // Si el usuario tiene un UID temporal (empieza con "temp_"), es una creación pendiente
+        if (user.uid != null && user.uid.startsWith("temp_")) {
+            // Intentar crear en el servidor usando la contraseña guardada temporalmente
+            String savedPassword = getPendingPassword(user.uid);
+            if (savedPassword != null) {
+                Log.d(TAG, "Reintentando creación de usuario con UID temporal: " + user.uid);
+                syncCreateUserWithServer(user, savedPassword);
+            } else {
+                Log.w(TAG, "⚠️ Usuario con UID temporal encontrado pero sin contraseña guardada: " + user.uid + 
+                      " - No se puede reintentar la creación automáticamente");
+            }
+        } else {
+            // Es una actualización pendiente, sincronizar normalmente
+            syncUserWithFirestore(user);
+        }
+    }
+    
     /**
      * Sincroniza todas las eliminaciones pendientes con el servidor.
      * Se usa desde SyncWorker para reintentos en segundo plano.
+     * La Task se completa cuando se intentaron todas las llamadas; las que fallan quedan PENDING.
      */
-    public void syncPendingDeletionsWithServer() {
+    public Task<Integer> syncPendingDeletionsWithServer() {
+        TaskCompletionSource<Integer> result = new TaskCompletionSource<>();
         executor.execute(() -> {
             try {
-                List<UserEntity> pendingDeletions = userDao.getPendingDeletions();
+                List<UserEntity> pendingDeletions = userDao().getPendingDeletions();
                 Log.d(TAG, "Sincronizando " + pendingDeletions.size() + " eliminaciones PENDING con el servidor");
                 
                 if (pendingDeletions.isEmpty()) {
+                    result.setResult(0);
                     return;
                 }
                 
                 FirebaseUser currentUser = FirebaseAuth.getInstance().getCurrentUser();
                 if (currentUser == null) {
                     Log.w(TAG, "⚠️ No hay usuario autenticado, no se pueden sincronizar eliminaciones");
+                    result.setResult(0);
                     return;
                 }
                 
                 currentUser.getIdToken(true)
-                    .addOnSuccessListener(result -> {
-                        String idToken = result.getToken();
-                        for (UserEntity user : pendingDeletions) {
-                            executor.execute(() -> callDeleteUserFunction(idToken, user.uid));
-                        }
+                    .addOnSuccessListener(tokenResult -> {
+                        String idToken = tokenResult.getToken();
+                        // El executor es de un solo hilo: las llamadas ya se hacían en serie
+                        executor.execute(() -> {
+                            for (UserEntity user : pendingDeletions) {
+                                callDeleteUserFunction(idToken, user.uid);
+                            }
+                            result.setResult(pendingDeletions.size());
+                        });
                     })
                     .addOnFailureListener(error -> {
                         Log.e(TAG, "Error obteniendo ID token para sincronizar eliminaciones", error);
+                        result.setException(error);
                     });
             } catch (Exception e) {
                 Log.e(TAG, "Error al obtener eliminaciones pendientes", e);
+                result.setException(e);
             }
         });
+        return result.getTask();
     }
 }
 
@@ -5,6 +5,7 @@ import android.util.Log;
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
 import com.example.gestorgastos.data.local.AppDatabase;
+import com.example.gestorgastos.data.local.ExpenseArchive;
 import com.example.gestorgastos.data.local.dao.UserDao;
 import com.example.gestorgastos.data.local.dao.CategoryDao;
 import com.example.gestorgastos.data.local.entity.UserEntity;
@@ -13,13 +14,16 @@ import com.example.gestorgastos.data.remote.FirebaseAuthDataSource;
 import com.example.gestorgastos.data.remote.FirestoreDataSource;
 import com.example.gestorgastos.domain.repository.AuthRepository;
 import com.example.gestorgastos.util.DateTimeUtil;
-import com.example.gestorgastos.util.SyncPrefs;
 import com.example.gestorgastos.util.ConnectionErrorNotifier;
+import com.example.gestorgastos.util.SyncPrefs;
+import com.example.gestorgastos.work.SyncRetryScheduler;
 import com.example.gestorgastos.data.repository.CategoryRepository;
 import com.example.gestorgastos.data.repository.CategoryRepositoryImpl;
 import com.example.gestorgastos.data.repository.ExpenseRepositoryImpl;
 import com.example.gestorgastos.data.repository.ExpenseRepository;
 import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+import com.google.android.gms.tasks.Tasks;
 import com.google.firebase.auth.FirebaseUser;
 import com.google.firebase.auth.GoogleAuthProvider;
 import com.google.firebase.firestore.FieldValue;
@@ -39,8 +43,6 @@ public class AuthRepositoryImpl implements AuthRepository {
     private final Context context;
     private final FirebaseAuthDataSource authDataSource;
     private final FirestoreDataSource firestoreDataSource;
-    private final UserDao userDao;
-    private final CategoryDao categoryDao;
     private final ExecutorService executor;
     private ListenerRegistration userListener; // Listener para cambios en tiempo real del usuario
     private MutableLiveData<UserEntity> userLiveData; // LiveData persistente para el usuario actual
@@ -51,11 +53,18 @@ public class AuthRepositoryImpl implements AuthRepository {
         this.context = context.getApplicationContext();
         this.authDataSource = new FirebaseAuthDataSource();
         this.firestoreDataSource = new FirestoreDataSource();
-        this.userDao = AppDatabase.getDatabase(context).userDao();
-        this.categoryDao = AppDatabase.getDatabase(context).categoryDao();
         this.executor = Executors.newSingleThreadExecutor();
     }
     
+    // Cada cuenta tiene su propio archivo (AppDatabase.openForUser): los DAO se piden a la base activa
+    private UserDao userDao() {
+        return AppDatabase.getDatabase(context).userDao();
+    }
+    
+    private CategoryDao categoryDao() {
+        return AppDatabase.getDatabase(context).categoryDao();
+    }
+    
     @Override
     public LiveData<String> getConnectionError() {
         return ConnectionErrorNotifier.getInstance().getConnectionError();
@@ -88,9 +97,9 @@ public class AuthRepositoryImpl implements AuthRepository {
             executor.execute(() -> {
                     // Verificar y expirar planes antes de obtener el usuario
                     long currentTime = DateTimeUtil.getCurrentEpochMillis();
-                    userDao.expirePlans(currentTime, currentTime);
+                    userDao().expirePlans(currentTime, currentTime);
                     
-                    UserEntity existingUser = userDao.getUserByUidSync(currentUid);
+                    UserEntity existingUser = userDao().getUserByUidSync(currentUid);
                 
                 if (existingUser != null) {
                         // Verificar si el plan expiró
@@ -99,7 +108,7 @@ public class AuthRepositoryImpl implements AuthRepository {
                             existingUser.planExpiresAt = null;
                             existingUser.updatedAt = currentTime;
                             // Usar query explícita para asegurar que Room notifique cambios
-                            userDao.updateUserFields(
+                            userDao().updateUserFields(
                                 existingUser.uid,
                                 existingUser.name,
                                 existingUser.email,
@@ -136,7 +145,7 @@ public class AuthRepositoryImpl implements AuthRepository {
                     userEntity.updatedAt = DateTimeUtil.getCurrentEpochMillis();
                     
                     // Guardar en Room
-                    long userId = userDao.insertUser(userEntity);
+                    long userId = userDao().insertUser(userEntity);
                     userEntity.idLocal = userId;
                     
                     Log.d(TAG, "Usuario creado y guardado en Room: " + userEntity.name + " (ID: " + userId + ")");
@@ -146,7 +155,9 @@ public class AuthRepositoryImpl implements AuthRepository {
 
                     userLiveData.postValue(userEntity);
                     
-                    // Sincronizar datos desde Firestore (dispositivo nuevo o primera vez)
+                    // Sincronizar datos desde Firestore (dispositivo nuevo o primera vez); si la cuenta
+                    // no tiene ninguna categoría, después de la descarga se crean las por defecto
+                    SyncPrefs.addDefaultCategoriesPending(context, currentUid);
                     checkAndSyncUserData(currentUid);
                 }
             });
@@ -231,7 +242,7 @@ public class AuthRepositoryImpl implements AuthRepository {
                         Log.d(TAG, "📋 Datos de Firestore - planId: " + planId + ", planExpiresAt: " + planExpiresAt);
                         
                         // Obtener usuario actual de Room
-                        UserEntity existingUser = userDao.getUserByUidSync(uid);
+                        UserEntity existingUser = userDao().getUserByUidSync(uid);
                         
                         if (existingUser != null) {
                             Log.d(TAG, "👤 Usuario encontrado en Room - planId actual: " + existingUser.planId);
@@ -278,7 +289,7 @@ public class AuthRepositoryImpl implements AuthRepository {
                             if (needsUpdate) {
                                 existingUser.updatedAt = DateTimeUtil.getCurrentEpochMillis();
                                 // Usar query explícita para asegurar que Room notifique cambios
-                                userDao.updateUserFields(
+                                userDao().updateUserFields(
                                     existingUser.uid,
                                     existingUser.name,
                                     existingUser.email,
@@ -391,6 +402,7 @@ public class AuthRepositoryImpl implements AuthRepository {
     public void signOut() {
         removeUserListener();
         authDataSource.signOut();
+        AppDatabase.closeForSignOut(context);
         if (userLiveData != null) {
             userLiveData.postValue(null);
         }
@@ -440,14 +452,14 @@ public class AuthRepositoryImpl implements AuthRepository {
                         deleteTask.addOnSuccessListener(aVoid2 -> {
                             // Limpiar datos locales
                             executor.execute(() -> {
-                                userDao.deleteUserByUid(currentUser.getUid());
+                                AppDatabase.deleteUserDatabase(context, currentUser.getUid());
                                 callback.onSuccess(null);
                             });
                         }).addOnFailureListener(callback::onError);
                     } else {
                         // Si no hay usuario para eliminar, solo limpiar datos locales
                         executor.execute(() -> {
-                            userDao.deleteUserByUid(currentUser.getUid());
+                            AppDatabase.deleteUserDatabase(context, currentUser.getUid());
                             callback.onSuccess(null);
                         });
                     }
@@ -457,13 +469,21 @@ public class AuthRepositoryImpl implements AuthRepository {
 
     @Override
     public void syncUserDataIfNeeded() {
+        pullUserData();
+    }
+    
+    /**
+     * Igual que syncUserDataIfNeeded, pero devuelve una Task que se completa cuando terminaron
+     * las descargas de categorías y gastos (la usa SyncWorker para esperar la etapa de pull).
+     */
+    public Task<Void> pullUserData() {
         String userUid = getCurrentUserUid();
         if (userUid == null || userUid.trim().isEmpty()) {
             Log.d(TAG, "syncUserDataIfNeeded: no hay usuario autenticado, se omite sincronización.");
-            return;
+            return Tasks.forResult(null);
         }
         Log.d(TAG, "syncUserDataIfNeeded: verificando sincronización para usuario " + userUid);
-        checkAndSyncUserData(userUid);
+        return checkAndSyncUserData(userUid);
     }
     
     private void checkAndCreateUser(FirebaseUser firebaseUser, AuthCallback callback) {
@@ -471,7 +491,8 @@ public class AuthRepositoryImpl implements AuthRepository {
         
         // Verificar si el usuario ya existe en Room
         executor.execute(() -> {
-            UserEntity existingUser = userDao.getUserByUidSync(uid);
+            AppDatabase.openForUser(context, uid);
+            UserEntity existingUser = userDao().getUserByUidSync(uid);
             
             if (existingUser != null) {
                 // Usuario ya existe, solo devolverlo y asegurarse de sincronizarlo en Firestore
@@ -491,13 +512,15 @@ public class AuthRepositoryImpl implements AuthRepository {
                 userEntity.updatedAt = DateTimeUtil.getCurrentEpochMillis();
                 
                 // Guardar usuario en Room
-                long userId = userDao.insertUser(userEntity);
+                long userId = userDao().insertUser(userEntity);
                 userEntity.idLocal = userId;
                 
                 Log.d(TAG, "Nuevo usuario creado: " + userEntity.name + " (ID: " + userId + ")");
                 
-                // Crear categorías por defecto para el nuevo usuario
-                createDefaultCategories(uid);
+                // Sin fila local no se sabe si la cuenta es nueva (puede venir de otro dispositivo o de una
+                // reinstalación): las categorías por defecto se deciden después de descargar las existentes
+                SyncPrefs.addDefaultCategoriesPending(context, uid);
+                checkAndSyncUserData(uid);
                 
                 callback.onSuccess(userEntity);
             }
@@ -537,7 +560,8 @@ public class AuthRepositoryImpl implements AuthRepository {
         
         // Guardar usuario en Room
         executor.execute(() -> {
-            long userId = userDao.insertUser(userEntity);
+            AppDatabase.openForUser(context, uid);
+            long userId = userDao().insertUser(userEntity);
             userEntity.idLocal = userId;
             
             Log.d(TAG, "Nuevo usuario registrado: " + userEntity.name + " (ID: " + userId + ")");
@@ -572,126 +596,132 @@ public class AuthRepositoryImpl implements AuthRepository {
         
         executor.execute(() -> {
             // Guardar usuario en Room
-            long userId = userDao.insertUser(userEntity);
+            long userId = userDao().insertUser(userEntity);
             
             // Llamar al callback directamente (Firestore se implementará más tarde)
             callback.onSuccess(userEntity);
         });
     }
     
+    // Solo para cuentas recién registradas (signUp): no pueden tener categorías en Firestore
     private void createDefaultCategories(String userUid) {
         Log.d(TAG, "Creando categorías por defecto para usuario: " + userUid);
         
-        // Crear categorías por defecto
-        String[] defaultCategories = {
-            "🛒 Supermercado", "☕ Café", "🚇 SUBE", "🚕 Taxi", "⛽ Combustible",
-            "💊 Farmacia", "🌐 Internet", "📺 TV", "💡 Luz", "🔥 Gas", "💧 Agua"
-        };
-        
         executor.execute(() -> {
             try {
-                for (String categoryData : defaultCategories) {
-                    String[] parts = categoryData.split(" ", 2);
-                    String icono = parts[0];
-                    String name = parts[1];
-                    
-                    CategoryEntity category = new CategoryEntity();
-                    category.userUid = userUid;
-                    category.name = name;
-                    category.icono = icono;
-                    category.isActive = true;
-                    category.updatedAt = DateTimeUtil.getCurrentEpochMillis();
-                    category.syncState = "PENDING";
-                    
-                    // Insertar en Room
-                    long categoryId = categoryDao.insertCategory(category);
-                    category.idLocal = categoryId;
-                    
-                    Log.d(TAG, "Categoría por defecto creada: " + name + " (ID: " + categoryId + ")");
-                }
-                Log.d(TAG, "Categorías por defecto creadas exitosamente para usuario: " + userUid);
+                // Filas y entradas de sync_outbox en una transacción: el push las sube como cualquier alta
+                List<CategoryEntity> created = DefaultCategories.insert(
+                        AppDatabase.getDatabase(context), userUid, DateTimeUtil.getCurrentEpochMillis());
+                Log.d(TAG, created.size() + " categorías por defecto creadas para usuario: " + userUid);
+                SyncRetryScheduler.scheduleNow(context);
             } catch (Exception e) {
                 Log.e(TAG, "Error al crear categorías por defecto", e);
             }
         });
     }
 
+    /**
+     * Crea las categorías por defecto de una cuenta marcada al iniciar sesión sin fila local
+     * (SyncPrefs.addDefaultCategoriesPending), solo si después de descargar las categorías de Firestore
+     * la cuenta no tiene ninguna. Se llama con la descarga de categorías ya terminada bien.
+     */
+    private void seedDefaultCategoriesIfPending(String userUid) {
+        if (!SyncPrefs.isDefaultCategoriesPending(context, userUid)) {
+            return;
+        }
+        try {
+            List<CategoryEntity> created = DefaultCategories.insertIfNoCategories(
+                    AppDatabase.getDatabase(context), userUid, DateTimeUtil.getCurrentEpochMillis());
+            SyncPrefs.clearDefaultCategoriesPending(context, userUid);
+            if (!created.isEmpty()) {
+                Log.d(TAG, created.size() + " categorías por defecto creadas para usuario: " + userUid);
+                SyncRetryScheduler.scheduleNow(context);
+            }
+        } catch (Exception e) {
+            // Queda marcada: se reintenta después de la próxima descarga
+            Log.e(TAG, "Error al crear categorías por defecto", e);
+        }
+    }
+
     /**
      * Verifica si los datos del usuario necesitan sincronización y los sincroniza si es necesario.
+     * La Task se completa cuando terminaron ambas descargas; si una ya estaba en curso no se espera.
      */
-    private void checkAndSyncUserData(String userUid) {
+    private Task<Void> checkAndSyncUserData(String userUid) {
+        TaskCompletionSource<Void> categoriesDone = new TaskCompletionSource<>();
+        TaskCompletionSource<Void> expensesDone = new TaskCompletionSource<>();
         executor.execute(() -> {
             try {
-                // Contar categorías y gastos locales
-                List<CategoryEntity> localCategories = categoryDao.getAllCategoriesByUserSync(userUid);
-                int categoryCount = localCategories != null ? localCategories.size() : 0;
+                // Verificar si hay categorías locales (una página de 1 fila basta, sin cargar la tabla)
+                int categoryCount = categoryDao().getCategoriesPageAfterId(userUid, 0, 1).size();
                 
-                // Sincronizar categorías inmediatamente (siempre incremental usando lastSync)
-                long lastCategoriesSync = SyncPrefs.getLastSyncCategoriesMillis(context, userUid);
-                if (categoryCount == 0) {
-                    lastCategoriesSync = 0L; // Forzar sincronización completa si no hay datos locales
-                }
+                // Sincronizar categorías inmediatamente (incremental desde la marca de agua guardada por el repositorio)
+                boolean fullCategoriesSync = categoryCount == 0; // Forzar sincronización completa si no hay datos locales
                 
                 if (categoriesSyncInProgress.compareAndSet(false, true)) {
-                    long finalLastCategoriesSync = lastCategoriesSync;
-                    Log.d(TAG, "Sincronizando categorías desde Firestore (lastSync: " + finalLastCategoriesSync + ")");
+                    Log.d(TAG, "Sincronizando categorías desde Firestore (completa: " + fullCategoriesSync + ")");
                     CategoryRepositoryImpl categoryRepo = new CategoryRepositoryImpl(context);
-                    categoryRepo.syncFromFirestore(userUid, finalLastCategoriesSync, new CategoryRepository.RepositoryCallback<Integer>() {
+                    categoryRepo.syncFromFirestore(userUid, fullCategoriesSync, new CategoryRepository.RepositoryCallback<Integer>() {
                         @Override
                         public void onSuccess(Integer count) {
                             Log.d(TAG, "Sincronización de categorías completada: " + count + " categorías");
-                            SyncPrefs.setLastSyncCategoriesMillis(context, userUid, System.currentTimeMillis());
                             categoriesSyncInProgress.set(false);
+                            executor.execute(() -> {
+                                seedDefaultCategoriesIfPending(userUid);
+                                categoriesDone.trySetResult(null);
+                            });
                         }
                         
                         @Override
                         public void onError(Exception error) {
                             Log.e(TAG, "Error al sincronizar categorías desde Firestore", error);
                             categoriesSyncInProgress.set(false);
+                            categoriesDone.trySetException(error);
                         }
                     });
                 } else {
                     Log.d(TAG, "Sincronización de categorías ya en progreso, se omite nueva solicitud.");
+                    categoriesDone.trySetResult(null);
                 }
                 
-                // Verificar si necesita sincronización de gastos
-                // Necesitamos obtener el ExpenseDao para contar gastos
+                // Verificar si necesita sincronización de gastos (una página de 1 fila basta)
                 com.example.gestorgastos.data.local.dao.ExpenseDao expenseDao = 
                     AppDatabase.getDatabase(context).expenseDao();
-                List<com.example.gestorgastos.data.local.entity.ExpenseEntity> localExpenses = 
-                    expenseDao.getExpensesByUserSync(userUid);
-                int expenseCount = localExpenses != null ? localExpenses.size() : 0;
+                int expenseCount = expenseDao.getExpensesPageBefore(userUid, Long.MAX_VALUE, Long.MAX_VALUE, 1).size();
                 
-                long lastExpensesSync = SyncPrefs.getLastSyncExpensesMillis(context, userUid);
-                if (expenseCount == 0) {
-                    lastExpensesSync = 0L; // Forzar sincronización completa si no hay datos locales
-                }
+                // Forzar sincronización completa si no hay datos locales (ni gastos archivados)
+                boolean fullExpensesSync = expenseCount == 0 && !ExpenseArchive.getInstance(context).isActive();
                 
                 if (expensesSyncInProgress.compareAndSet(false, true)) {
-                    long finalLastExpensesSync = lastExpensesSync;
-                    Log.d(TAG, "Sincronizando gastos desde Firestore (lastSync: " + finalLastExpensesSync + ")");
+                    Log.d(TAG, "Sincronizando gastos desde Firestore (completa: " + fullExpensesSync + ")");
                     ExpenseRepositoryImpl expenseRepo = new ExpenseRepositoryImpl(context);
-                    expenseRepo.syncFromFirestore(userUid, finalLastExpensesSync, new ExpenseRepository.RepositoryCallback<Integer>() {
+                    expenseRepo.syncFromFirestore(userUid, fullExpensesSync, new ExpenseRepository.RepositoryCallback<Integer>() {
                         @Override
                         public void onSuccess(Integer count) {
                             Log.d(TAG, "Sincronización de gastos completada: " + count + " gastos");
-                            SyncPrefs.setLastSyncExpensesMillis(context, userUid, System.currentTimeMillis());
                             expensesSyncInProgress.set(false);
+                            expensesDone.trySetResult(null);
                         }
                         
                         @Override
                         public void onError(Exception error) {
                             Log.e(TAG, "Error al sincronizar gastos desde Firestore", error);
                             expensesSyncInProgress.set(false);
+                            expensesDone.trySetException(error);
                         }
                     });
                 } else {
                     Log.d(TAG, "Sincronización de gastos ya en progreso, se omite nueva solicitud.");
+                    expensesDone.trySetResult(null);
                 }
             } catch (Exception e) {
                 Log.e(TAG, "Error al verificar sincronización de datos", e);
+                // trySet: alguna de las dos pudo haberse completado antes de la excepción
+                categoriesDone.trySetException(e);
+                expensesDone.trySetException(e);
             }
         });
+        return Tasks.whenAll(categoriesDone.getTask(), expensesDone.getTask());
     }
 
     /**
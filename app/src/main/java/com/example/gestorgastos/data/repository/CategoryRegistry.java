@@ -0,0 +1,114 @@
+package com.example.gestorgastos.data.repository;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MediatorLiveData;
+
+import com.example.gestorgastos.data.local.AppDatabase;
+import com.example.gestorgastos.data.local.dao.CategoryDao;
+import com.example.gestorgastos.data.local.entity.CategoryEntity;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registro en memoria de las categorías de cada usuario, compartido por toda la app.
+ * Se alimenta de la consulta LiveData de Room (que se vuelve a emitir cuando cambia la tabla categories),
+ * así el listado de gastos y el dashboard resuelven remoteId/idLocal con un lookup O(1) sobre el mismo
+ * snapshot en lugar de armar sus propios mapas en cada emisión.
+ */
+public final class CategoryRegistry {
+    private static final String TAG = "CategoryRegistry";
+
+    private static volatile CategoryRegistry INSTANCE;
+
+    private final AppDatabase database;
+    private final CategoryDao categoryDao;
+    // Un snapshot observable por usuario, compartido por todos los observadores
+    private final Map<String, MediatorLiveData<Snapshot>> snapshotsByUser = new ConcurrentHashMap<>();
+
+    private CategoryRegistry(Context context) {
+        this.database = AppDatabase.getDatabase(context);
+        this.categoryDao = database.categoryDao();
+    }
+
+    public static CategoryRegistry getInstance(Context context) {
+        // Se recrea si cambió la base activa (otra cuenta, ver AppDatabase.openForUser)
+        if (INSTANCE == null || INSTANCE.database != AppDatabase.getDatabase(context)) {
+            synchronized (CategoryRegistry.class) {
+                if (INSTANCE == null || INSTANCE.database != AppDatabase.getDatabase(context)) {
+                    INSTANCE = new CategoryRegistry(context.getApplicationContext());
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * Snapshot observable de las categorías del usuario. Incluye inactivas y eliminadas,
+     * porque los gastos pueden seguir referenciándolas. Debe llamarse desde el hilo principal.
+     */
+    public LiveData<Snapshot> observe(String userUid) {
+        return snapshotsByUser.computeIfAbsent(userUid, uid -> {
+            MediatorLiveData<Snapshot> snapshot = new MediatorLiveData<>();
+            snapshot.addSource(categoryDao.getAllCategoriesByUser(uid), categories -> {
+                snapshot.setValue(new Snapshot(categories));
+                Log.d(TAG, "Categorías del usuario " + uid + " actualizadas: " + (categories != null ? categories.size() : 0));
+            });
+            return snapshot;
+        });
+    }
+
+    /**
+     * Último snapshot publicado para el usuario, o uno vacío si todavía nadie lo observa.
+     */
+    public Snapshot current(String userUid) {
+        MediatorLiveData<Snapshot> snapshot = snapshotsByUser.get(userUid);
+        Snapshot value = snapshot != null ? snapshot.getValue() : null;
+        return value != null ? value : Snapshot.EMPTY;
+    }
+
+    /**
+     * Vista inmutable de las categorías de un usuario en un momento dado, indexada por remoteId e idLocal.
+     */
+    public static final class Snapshot {
+        public static final Snapshot EMPTY = new Snapshot(null);
+
+        private final List<CategoryEntity> categories;
+        private final Map<String, CategoryEntity> byRemoteId;
+        private final Map<Long, CategoryEntity> byIdLocal;
+
+        Snapshot(List<CategoryEntity> categories) {
+            this.categories = categories != null ? Collections.unmodifiableList(categories) : Collections.emptyList();
+            this.byRemoteId = new HashMap<>();
+            this.byIdLocal = new HashMap<>();
+            for (CategoryEntity category : this.categories) {
+                if (category.remoteId != null && !category.remoteId.isEmpty()) {
+                    byRemoteId.put(category.remoteId, category);
+                }
+                byIdLocal.put(category.idLocal, category);
+            }
+        }
+
+        public List<CategoryEntity> getAll() {
+            return categories;
+        }
+
+        public CategoryEntity getByRemoteId(String remoteId) {
+            return remoteId != null ? byRemoteId.get(remoteId) : null;
+        }
+
+        public CategoryEntity getByIdLocal(long idLocal) {
+            return byIdLocal.get(idLocal);
+        }
+
+        public int size() {
+            return categories.size();
+        }
+    }
+}
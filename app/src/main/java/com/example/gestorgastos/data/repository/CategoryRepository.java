@@ -31,10 +31,10 @@ public interface CategoryRepository {
     
     /**
      * Sincroniza categorías desde Firestore hacia Room.
-     * Si lastSyncMillis es 0, realiza sincronización completa.
-     * Si lastSyncMillis > 0, realiza sincronización incremental (solo cambios desde ese timestamp).
+     * Si fullSync es true, descarga la colección completa.
+     * Si no, descarga solo los cambios posteriores a la marca de agua guardada en SyncPrefs.
      */
-    void syncFromFirestore(String userUid, long lastSyncMillis, RepositoryCallback<Integer> callback);
+    void syncFromFirestore(String userUid, boolean fullSync, RepositoryCallback<Integer> callback);
     
     interface RepositoryCallback<T> {
         void onSuccess(T result);
@@ -7,70 +7,98 @@ import androidx.lifecycle.LiveData;
 
 import com.example.gestorgastos.data.local.AppDatabase;
 import com.example.gestorgastos.data.local.dao.CategoryDao;
-import com.example.gestorgastos.data.local.dao.ExpenseDao;
+import com.example.gestorgastos.data.local.dao.SyncOutboxDao;
 import com.example.gestorgastos.data.local.entity.CategoryEntity;
+import com.example.gestorgastos.data.local.entity.SyncOutboxEntity;
 import com.example.gestorgastos.data.remote.FirestoreDataSource;
 import com.example.gestorgastos.util.DateTimeUtil;
 import com.example.gestorgastos.util.ConnectionErrorNotifier;
+import com.example.gestorgastos.util.SyncPrefs;
+import com.example.gestorgastos.work.SyncRetryScheduler;
 import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+import com.google.android.gms.tasks.Tasks;
 import com.google.firebase.Timestamp;
 import com.google.firebase.firestore.DocumentSnapshot;
-import com.google.firebase.firestore.QuerySnapshot;
+import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.SetOptions;
+import com.google.firebase.firestore.WriteBatch;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 public class CategoryRepositoryImpl implements CategoryRepository {
-    private final CategoryDao categoryDao;
-    private final ExpenseDao expenseDao;
+    private final Context appContext;
     private final ExecutorService executor;
     private final FirestoreDataSource firestoreDataSource;
     
     public CategoryRepositoryImpl(Context context) {
-        AppDatabase database = AppDatabase.getDatabase(context);
-        this.categoryDao = database.categoryDao();
-        this.expenseDao = database.expenseDao();
+        this.appContext = context.getApplicationContext();
         this.executor = Executors.newFixedThreadPool(4);
         this.firestoreDataSource = new FirestoreDataSource();
     }
     
+    // Para instancias de vida acotada (RealtimeSync): libera los hilos del executor al terminar
+    void shutdown() {
+        executor.shutdown();
+    }
+    
+    // La base se resuelve en cada operación, como en ExpenseRepositoryImpl (un archivo por cuenta)
+    private AppDatabase database() {
+        return AppDatabase.getDatabase(appContext);
+    }
+    
+    private CategoryDao categoryDao() {
+        return database().categoryDao();
+    }
+    
+    private SyncOutboxDao syncOutboxDao() {
+        return database().syncOutboxDao();
+    }
+    
     @Override
     public LiveData<List<CategoryEntity>> getCategoriesByUser(String userUid) {
-        return categoryDao.getCategoriesByUser(userUid);
+        return categoryDao().getCategoriesByUser(userUid);
     }
     
     @Override
     public LiveData<List<CategoryEntity>> getAllCategoriesByUser(String userUid) {
         Log.d("CategoryRepositoryImpl", "getAllCategoriesByUser llamado para usuario: " + userUid);
-        return categoryDao.getAllCategoriesByUser(userUid);
+        return categoryDao().getAllCategoriesByUser(userUid);
     }
     
     @Override
     public LiveData<List<CategoryEntity>> getActiveCategoriesByUser(String userUid) {
-        return categoryDao.getActiveCategoriesByUser(userUid);
+        return categoryDao().getActiveCategoriesByUser(userUid);
     }
     
     @Override
     public List<CategoryEntity> getActiveCategoriesByUserSync(String userUid) {
-        return categoryDao.getActiveCategoriesByUserSync(userUid);
+        return categoryDao().getActiveCategoriesByUserSync(userUid);
     }
     
     @Override
     public CategoryEntity getCategoryByRemoteId(String remoteId) {
-        return categoryDao.getCategoryByRemoteId(remoteId);
+        return categoryDao().getCategoryByRemoteId(remoteId);
     }
     
     @Override
     public CategoryEntity getCategoryById(long idLocal) {
-        return categoryDao.getCategoryById(idLocal);
+        return categoryDao().getCategoryById(idLocal);
     }
     
     @Override
     public CategoryEntity getCategoryByIdIncludingInactive(long idLocal) {
-        return categoryDao.getCategoryByIdIncludingInactive(idLocal);
+        return categoryDao().getCategoryByIdIncludingInactive(idLocal);
     }
     
     @Override
@@ -80,13 +108,20 @@ public class CategoryRepositoryImpl implements CategoryRepository {
                 // Establecer valores por defecto
                 category.updatedAt = DateTimeUtil.getCurrentEpochMillis();
                 category.syncState = "PENDING";
+                if (category.remoteId == null || category.remoteId.trim().isEmpty()) {
+                    // Id del documento en Firestore decidido acá: los gastos pueden referenciarlo desde ya
+                    category.remoteId = FirestoreDataSource.newDocumentId();
+                }
                 
-                // Insertar en Room
-                long categoryId = categoryDao.insertCategory(category);
-                category.idLocal = categoryId;
+                // Insertar en Room y encolar en sync_outbox en la misma transacción
+                database().runInTransaction(() -> {
+                    category.idLocal = categoryDao().insertCategory(category);
+                    syncOutboxDao().enqueue(SyncOutboxEntity.TYPE_CATEGORY, category.idLocal, category.updatedAt,
+                            coalesceDeadline(), SyncOutboxEntity.DIRTY_ALL);
+                });
                 
-                // Lanzar sincronización con Firestore de forma asíncrona (offline-first)
-                syncCategoryWithFirestore(category);
+                // Lanzar sincronización con Firestore de forma asíncrona (offline-first), agrupada con los cambios que sigan
+                WriteCoalescer.getInstance().submit(appContext, SyncOutboxEntity.TYPE_CATEGORY, category.idLocal, true, executor, this::flushCategory);
                 
                 callback.onSuccess(category);
             } catch (Exception e) {
@@ -103,11 +138,17 @@ public class CategoryRepositoryImpl implements CategoryRepository {
                 category.updatedAt = DateTimeUtil.getCurrentEpochMillis();
                 category.syncState = "PENDING";
                 
-                // Actualizar en Room
-                categoryDao.updateCategory(category);
+                // Actualizar en Room y encolar en sync_outbox en la misma transacción
+                // Se encolan solo los campos que cambian respecto de la fila guardada
+                database().runInTransaction(() -> {
+                    CategoryEntity before = categoryDao().getCategoryById(category.idLocal);
+                    categoryDao().updateCategory(category);
+                    syncOutboxDao().enqueue(SyncOutboxEntity.TYPE_CATEGORY, category.idLocal, category.updatedAt,
+                            coalesceDeadline(), changedFields(before, category));
+                });
                 
                 // Lanzar sincronización con Firestore de forma asíncrona
-                syncCategoryWithFirestore(category);
+                WriteCoalescer.getInstance().submit(appContext, SyncOutboxEntity.TYPE_CATEGORY, category.idLocal, false, executor, this::flushCategory);
                 
                 callback.onSuccess(category);
             } catch (Exception e) {
@@ -123,18 +164,15 @@ public class CategoryRepositoryImpl implements CategoryRepository {
                 long deletedAt = DateTimeUtil.getCurrentEpochMillis();
                 long updatedAt = DateTimeUtil.getCurrentEpochMillis();
                 
-                // Soft delete en Room
-                categoryDao.softDeleteCategory(idLocal, deletedAt, updatedAt);
+                // Soft delete en Room y encolar en sync_outbox en la misma transacción
+                database().runInTransaction(() -> {
+                    categoryDao().softDeleteCategory(idLocal, deletedAt, updatedAt);
+                    syncOutboxDao().enqueue(SyncOutboxEntity.TYPE_CATEGORY, idLocal, updatedAt,
+                            coalesceDeadline(), CategoryEntity.FIELD_ACTIVE | CategoryEntity.FIELD_DELETED);
+                });
                 
-                // Obtener la categoría actualizada y sincronizar soft delete con Firestore
-                CategoryEntity deletedCategory = categoryDao.getCategoryById(idLocal);
-                if (deletedCategory != null) {
-                    deletedCategory.deletedAt = deletedAt;
-                    deletedCategory.updatedAt = updatedAt;
-                    deletedCategory.isActive = false;
-                    deletedCategory.syncState = "PENDING";
-                    syncCategoryWithFirestore(deletedCategory);
-                }
+                // Sincronizar soft delete con Firestore (o descartar la creación, si todavía no salió)
+                WriteCoalescer.getInstance().submit(appContext, SyncOutboxEntity.TYPE_CATEGORY, idLocal, false, executor, this::flushCategory);
                 
                 callback.onSuccess(null);
             } catch (Exception e) {
@@ -145,19 +183,19 @@ public class CategoryRepositoryImpl implements CategoryRepository {
     
     @Override
     public List<CategoryEntity> getPendingCategories() {
-        return categoryDao.getPendingCategories();
+        return categoryDao().getPendingCategories();
     }
     
     @Override
     public void updateSyncState(long idLocal, String syncState) {
         executor.execute(() -> {
-            categoryDao.updateSyncState(idLocal, syncState);
+            categoryDao().updateSyncState(idLocal, syncState);
         });
     }
     
     public void debugCategories(String userUid) {
         executor.execute(() -> {
-            List<CategoryEntity> allCategories = categoryDao.getAllCategoriesByUserDebug(userUid);
+            List<CategoryEntity> allCategories = categoryDao().getAllCategoriesByUserDebug(userUid);
             Log.d("CategoryRepositoryImpl", "=== DEBUG CATEGORÍAS ===");
             Log.d("CategoryRepositoryImpl", "Usuario: " + userUid);
             Log.d("CategoryRepositoryImpl", "Total categorías en BD: " + allCategories.size());
@@ -174,166 +212,489 @@ public class CategoryRepositoryImpl implements CategoryRepository {
     /**
      * Sincroniza todas las categorías pendientes con Firestore.
      * Se usa desde WorkManager para reintentos en segundo plano.
+     * Vacía sync_outbox en orden FIFO; cada entrada se borra solo cuando Firestore confirma.
+     * La Task se completa cuando todos los batches terminaron y falla si alguno falló.
      */
-    public void syncPendingCategoriesWithFirestore() {
+    public Task<Integer> syncPendingCategoriesWithFirestore() {
+        TaskCompletionSource<Integer> result = new TaskCompletionSource<>();
         executor.execute(() -> {
-            List<CategoryEntity> pending = categoryDao.getPendingCategories();
-            Log.d("CategoryRepositoryImpl", "Sincronizando " + pending.size() + " categorías PENDING con Firestore");
-            for (CategoryEntity category : pending) {
-                syncCategoryWithFirestore(category);
+            try {
+                // Cada página de la cola se sube en un único WriteBatch (un round trip por página)
+                List<Task<Void>> commits = new ArrayList<>();
+                long now = DateTimeUtil.getCurrentEpochMillis();
+                int total = 0;
+                long afterId = 0;
+                List<SyncOutboxEntity> page;
+                do {
+                    page = syncOutboxDao().getDuePage(SyncOutboxEntity.TYPE_CATEGORY, afterId, now, FirestoreDataSource.MAX_BATCH_WRITES);
+                    if (!page.isEmpty()) {
+                        afterId = page.get(page.size() - 1).id;
+                        commits.add(pushCategoriesBatch(page));
+                    }
+                    total += page.size();
+                } while (page.size() == FirestoreDataSource.MAX_BATCH_WRITES);
+                Log.d("CategoryRepositoryImpl", "Sincronizando " + total + " categorías PENDING con Firestore");
+                
+                // Completar cuando todos los batches estén confirmados (o alguno haya fallado)
+                int pushedTotal = total;
+                Tasks.whenAll(commits).addOnCompleteListener(executor, task -> {
+                    if (task.isSuccessful()) {
+                        result.setResult(pushedTotal);
+                    } else {
+                        result.setException(task.getException());
+                    }
+                });
+            } catch (Exception e) {
+                Log.e("CategoryRepositoryImpl", "Error al obtener categorías pendientes para sincronizar", e);
+                result.setException(e);
             }
         });
+        return result.getTask();
     }
 
     /**
-     * Sincroniza categorías desde Firestore hacia Room.
-     * Si lastSyncMillis es 0, realiza sincronización completa.
-     * Si lastSyncMillis > 0, realiza sincronización incremental (solo cambios desde ese timestamp).
+     * Sube en un WriteBatch las categorías de una página de sync_outbox.
+     * Si el commit se confirma, marca todas las filas SYNCED y vacía sus entradas en una sola transacción.
+     * Si falla por algo distinto de conectividad, se reintenta fila por fila.
+     */
+    private Task<Void> pushCategoriesBatch(List<SyncOutboxEntity> entries) {
+        WriteBatch batch = firestoreDataSource.batch();
+        List<CategoryEntity> pushed = new ArrayList<>();
+        List<SyncOutboxEntity> pushedEntries = new ArrayList<>();
+        
+        for (SyncOutboxEntity entry : entries) {
+            // getCategoryById no filtra soft-deleted: las eliminaciones también se suben
+            CategoryEntity category = categoryDao().getCategoryById(entry.entityIdLocal);
+            if (category == null || category.userUid == null || category.userUid.trim().isEmpty()
+                    || category.remoteId == null || category.remoteId.trim().isEmpty()) {
+                syncOutboxDao().delete(entry.id);
+                continue;
+            }
+            
+            // set con merge sobre el id generado en el cliente: crea o actualiza, y repetirlo no duplica.
+            // Con campos pendientes conocidos, update solo de esos (el documento ya existe)
+            Map<String, Object> payload = buildCategoryPayload(category, entry.dirtyFields);
+            if (entry.dirtyFields == SyncOutboxEntity.DIRTY_ALL) {
+                batch.set(firestoreDataSource.categoryRef(category.userUid, category.remoteId), payload, SetOptions.merge());
+            } else {
+                batch.update(firestoreDataSource.categoryRef(category.userUid, category.remoteId), payload);
+            }
+            pushed.add(category);
+            pushedEntries.add(entry);
+        }
+        
+        if (pushed.isEmpty()) {
+            return Tasks.forResult(null);
+        }
+        
+        return batch.commit().continueWith(executor, task -> {
+            if (task.isSuccessful()) {
+                database().runInTransaction(() -> {
+                    for (int i = 0; i < pushed.size(); i++) {
+                        categoryDao().updateSyncState(pushed.get(i).idLocal, "SYNCED");
+                        syncOutboxDao().delete(pushedEntries.get(i).id);
+                    }
+                });
+                Log.d("CategoryRepositoryImpl", "Batch de " + pushed.size() + " categorías sincronizado en Firestore");
+                return null;
+            }
+            
+            Exception e = task.getException();
+            Log.e("CategoryRepositoryImpl", "Error al subir batch de " + pushed.size() + " categorías", e);
+            ConnectionErrorNotifier.getInstance().notifyIfConnectionError(e);
+            if (FirestoreDataSource.isUnavailable(e)) {
+                // Sin conexión: las entradas siguen en sync_outbox con su próximo reintento (backoff)
+                for (SyncOutboxEntity entry : pushedEntries) {
+                    SyncRetryScheduler.recordFailure(appContext, syncOutboxDao(), entry.id);
+                }
+            } else {
+                // Otro error puede venir de una sola fila: se reintenta fila por fila
+                for (int i = 0; i < pushed.size(); i++) {
+                    syncCategoryWithFirestore(pushed.get(i), pushedEntries.get(i).id, pushedEntries.get(i).dirtyFields);
+                }
+            }
+            throw e;
+        });
+    }
+
+    /**
+     * Sincroniza categorías desde Firestore hacia Room en páginas de PULL_PAGE_SIZE documentos
+     * ordenadas por (updated_at, id). El cursor es la marca de agua de SyncPrefs (mayor updated_at
+     * visto en Firestore) y se guarda después de cada página.
+     * Si fullSync es true se descarga desde el principio.
      */
     @Override
-    public void syncFromFirestore(String userUid, long lastSyncMillis, RepositoryCallback<Integer> callback) {
+    public void syncFromFirestore(String userUid, boolean fullSync, RepositoryCallback<Integer> callback) {
         executor.execute(() -> {
             try {
-                Task<QuerySnapshot> task;
+                Timestamp afterUpdatedAt = null;
+                String afterDocId = null;
                 
-                if (lastSyncMillis == 0) {
-                    // Sincronización completa: obtener todas las categorías
+                if (fullSync) {
                     Log.d("CategoryRepositoryImpl", "Sincronización completa de categorías desde Firestore para usuario: " + userUid);
-                    task = firestoreDataSource.getCategories(userUid);
                 } else {
-                    // Sincronización incremental: solo cambios desde lastSyncMillis
-                    Timestamp lastSync = new Timestamp(
-                            lastSyncMillis / 1000,
-                            (int) ((lastSyncMillis % 1000) * 1_000_000)
-                    );
-                    Log.d("CategoryRepositoryImpl", "Sincronización incremental de categorías desde Firestore (desde: " + lastSyncMillis + ") para usuario: " + userUid);
-                    task = firestoreDataSource.getCategoriesAfter(userUid, lastSync);
+                    long watermarkSeconds = SyncPrefs.getPullWatermarkSeconds(appContext, userUid, SyncPrefs.COLLECTION_CATEGORIES);
+                    if (watermarkSeconds >= 0) {
+                        afterUpdatedAt = new Timestamp(watermarkSeconds,
+                                SyncPrefs.getPullWatermarkNanos(appContext, userUid, SyncPrefs.COLLECTION_CATEGORIES));
+                        afterDocId = SyncPrefs.getPullWatermarkDocId(appContext, userUid, SyncPrefs.COLLECTION_CATEGORIES);
+                    } else {
+                        // Versiones anteriores solo guardaban la hora local de la última sincronización
+                        long lastSyncMillis = SyncPrefs.getLastSyncCategoriesMillis(appContext, userUid);
+                        if (lastSyncMillis > 0) {
+                            afterUpdatedAt = new Timestamp(
+                                    lastSyncMillis / 1000,
+                                    (int) ((lastSyncMillis % 1000) * 1_000_000)
+                            );
+                        }
+                    }
+                    Log.d("CategoryRepositoryImpl", "Sincronización incremental de categorías desde Firestore (desde: " + afterUpdatedAt + ", " + afterDocId + ") para usuario: " + userUid);
                 }
                 
-                task.addOnSuccessListener(querySnapshot -> {
-                    executor.execute(() -> {
-                        try {
-                            int syncedCount = 0;
-                            
-                            if (querySnapshot != null && !querySnapshot.isEmpty()) {
-                                for (DocumentSnapshot doc : querySnapshot.getDocuments()) {
-                                    try {
-                                        String remoteId = doc.getId();
-                                        String name = doc.getString("name");
-                                        String icon = doc.getString("icon");
-                                        Boolean isActive = doc.getBoolean("is_active");
-                                        Timestamp updatedAt = doc.getTimestamp("updated_at");
-                                        Timestamp deletedAt = doc.getTimestamp("deleted_at");
-                                        
-                                        // Buscar si ya existe en Room por remoteId
-                                        CategoryEntity existing = categoryDao.getCategoryByRemoteId(remoteId);
-                                        
-                                        // Si no se encuentra por remoteId, buscar por atributos (para categorías creadas en offline)
-                                        if (existing == null && name != null && icon != null) {
-                                            existing = categoryDao.findCategoryByAttributes(userUid, name, icon);
-                                            if (existing != null) {
-                                                Log.d("CategoryRepositoryImpl", "Categoría encontrada por atributos (creada en offline): " + existing.name);
-                                            }
-                                        }
-                                        
-                                        if (existing != null) {
-                                            // Actualizar categoría existente
-                                            existing.name = name != null ? name : existing.name;
-                                            existing.icono = icon != null ? icon : existing.icono;
-                                            existing.isActive = isActive != null ? isActive : true;
-                                            if (updatedAt != null) {
-                                                existing.updatedAt = updatedAt.toDate().getTime();
-                                            }
-                                            if (deletedAt != null) {
-                                                existing.deletedAt = deletedAt.toDate().getTime();
-                                                existing.isActive = false;
-                                            } else {
-                                                existing.deletedAt = null;
-                                            }
-                                            existing.syncState = "SYNCED";
-                                            categoryDao.updateCategory(existing);
-                                            syncedCount++;
-                                        } else {
-                                            // Insertar nueva categoría
-                                            CategoryEntity category = new CategoryEntity();
-                                            category.remoteId = remoteId;
-                                            category.userUid = userUid;
-                                            category.name = name != null ? name : "Sin nombre";
-                                            category.icono = icon != null ? icon : "⭐";
-                                            category.isActive = isActive != null ? isActive : true;
-                                            if (updatedAt != null) {
-                                                category.updatedAt = updatedAt.toDate().getTime();
-                                            } else {
-                                                category.updatedAt = System.currentTimeMillis();
-                                            }
-                                            if (deletedAt != null) {
-                                                category.deletedAt = deletedAt.toDate().getTime();
-                                                category.isActive = false;
-                                            }
-                                            category.syncState = "SYNCED";
-                                            
-                                            long idLocal = categoryDao.insertCategory(category);
-                                            category.idLocal = idLocal;
-                                            syncedCount++;
-                                        }
-                                    } catch (Exception e) {
-                                        Log.e("CategoryRepositoryImpl", "Error al procesar categoría desde Firestore: " + doc.getId(), e);
-                                    }
-                                }
-                            }
-                            
-                            Log.d("CategoryRepositoryImpl", "Sincronización completada: " + syncedCount + " categorías procesadas");
-                            if (callback != null) {
-                                callback.onSuccess(syncedCount);
-                            }
-                        } catch (Exception e) {
-                            Log.e("CategoryRepositoryImpl", "Error al procesar categorías desde Firestore", e);
-                            if (callback != null) {
-                                callback.onError(e);
+                pullCategoriesPage(userUid, afterUpdatedAt, afterDocId, 0, callback);
+            } catch (Exception e) {
+                Log.e("CategoryRepositoryImpl", "Error al iniciar sincronización desde Firestore", e);
+                if (callback != null) {
+                    callback.onError(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Descarga y aplica una página de categorías después del cursor, guarda la marca de agua
+     * y sigue con la próxima página hasta recibir una incompleta.
+     */
+    private void pullCategoriesPage(String userUid, Timestamp afterUpdatedAt, String afterDocId,
+                                    int syncedSoFar, RepositoryCallback<Integer> callback) {
+        firestoreDataSource.getCategoriesPage(userUid, afterUpdatedAt, afterDocId, FirestoreDataSource.PULL_PAGE_SIZE)
+                .addOnSuccessListener(executor, querySnapshot -> {
+                    try {
+                        List<DocumentSnapshot> docs = querySnapshot.getDocuments();
+                        int syncedCount = syncedSoFar;
+                        if (!docs.isEmpty()) {
+                            syncedCount += database().runInTransaction(() -> applyRemoteCategories(userUid, docs));
+                        }
+                        
+                        Timestamp lastUpdatedAt = docs.isEmpty() ? null
+                                : docs.get(docs.size() - 1).getTimestamp("updated_at");
+                        if (lastUpdatedAt != null) {
+                            String lastDocId = docs.get(docs.size() - 1).getId();
+                            SyncPrefs.setPullWatermark(appContext, userUid, SyncPrefs.COLLECTION_CATEGORIES,
+                                    lastUpdatedAt.getSeconds(), lastUpdatedAt.getNanoseconds(), lastDocId);
+                            if (docs.size() == FirestoreDataSource.PULL_PAGE_SIZE) {
+                                pullCategoriesPage(userUid, lastUpdatedAt, lastDocId, syncedCount, callback);
+                                return;
                             }
                         }
-                    });
-                }).addOnFailureListener(e -> {
+                        
+                        Log.d("CategoryRepositoryImpl", "Sincronización completada: " + syncedCount + " categorías procesadas");
+                        if (callback != null) {
+                            callback.onSuccess(syncedCount);
+                        }
+                    } catch (Exception e) {
+                        Log.e("CategoryRepositoryImpl", "Error al procesar categorías desde Firestore", e);
+                        if (callback != null) {
+                            callback.onError(e);
+                        }
+                    }
+                })
+                .addOnFailureListener(executor, e -> {
                     Log.e("CategoryRepositoryImpl", "Error al obtener categorías desde Firestore", e);
                     if (callback != null) {
                         callback.onError(e);
                     }
                 });
-            } catch (Exception e) {
-                Log.e("CategoryRepositoryImpl", "Error al iniciar sincronización desde Firestore", e);
-                if (callback != null) {
-                    callback.onError(e);
+    }
+
+    /**
+     * Escucha en tiempo real las categorías posteriores a la marca de agua (ver RealtimeSync): cada snapshot
+     * aplica sus docChanges en una transacción, con el mismo merge que la descarga por páginas.
+     * Devuelve null si todavía no hay marca de agua; la primera descarga la hace syncFromFirestore.
+     */
+    public ListenerRegistration listenForRemoteChanges(String userUid, Executor callbackExecutor,
+                                                       RealtimeSync.ListenerStatus status) {
+        long watermarkSeconds = SyncPrefs.getPullWatermarkSeconds(appContext, userUid, SyncPrefs.COLLECTION_CATEGORIES);
+        if (watermarkSeconds < 0) {
+            return null;
+        }
+        Timestamp afterUpdatedAt = new Timestamp(watermarkSeconds,
+                SyncPrefs.getPullWatermarkNanos(appContext, userUid, SyncPrefs.COLLECTION_CATEGORIES));
+        String afterDocId = SyncPrefs.getPullWatermarkDocId(appContext, userUid, SyncPrefs.COLLECTION_CATEGORIES);
+        return firestoreDataSource.listenAfter(userUid, SyncPrefs.COLLECTION_CATEGORIES, afterUpdatedAt, afterDocId,
+                callbackExecutor, (snapshot, error) -> {
+                    status.onListenerResult(error);
+                    if (error != null) {
+                        Log.e("CategoryRepositoryImpl", "Error en el listener de categorías", error);
+                        return;
+                    }
+                    List<DocumentSnapshot> docs = RealtimeSync.changedDocuments(snapshot);
+                    if (docs.isEmpty()) {
+                        return;
+                    }
+                    try {
+                        int applied = database().runInTransaction(() -> applyRemoteCategories(userUid, docs));
+                        if (!snapshot.getMetadata().isFromCache()) {
+                            RealtimeSync.advanceWatermark(appContext, userUid, SyncPrefs.COLLECTION_CATEGORIES, docs);
+                        }
+                        Log.d("CategoryRepositoryImpl", "Tiempo real: " + applied + " categorías aplicadas");
+                    } catch (Exception e) {
+                        Log.e("CategoryRepositoryImpl", "Error al aplicar cambios en tiempo real de categorías", e);
+                    }
+                });
+    }
+
+    /**
+     * Aplica en Room una página de categorías descargada de Firestore. Debe correr dentro de una
+     * transacción: prefetch por remoteId con una consulta IN y escritura con un upsert en bloque.
+     * Devuelve la cantidad de categorías aplicadas.
+     */
+    private int applyRemoteCategories(String userUid, List<DocumentSnapshot> docs) {
+        List<String> remoteIds = new ArrayList<>(docs.size());
+        for (DocumentSnapshot doc : docs) {
+            remoteIds.add(doc.getId());
+        }
+        Map<String, CategoryEntity> existingByRemoteId = new HashMap<>();
+        List<Long> existingIdsLocal = new ArrayList<>();
+        for (CategoryEntity category : categoryDao().getCategoriesByRemoteIds(remoteIds)) {
+            existingByRemoteId.put(category.remoteId, category);
+            existingIdsLocal.add(category.idLocal);
+        }
+        Set<Long> queuedIdsLocal = existingIdsLocal.isEmpty() ? new HashSet<>()
+                : new HashSet<>(syncOutboxDao().getQueuedIds(SyncOutboxEntity.TYPE_CATEGORY, existingIdsLocal));
+        
+        List<CategoryEntity> toUpdate = new ArrayList<>();
+        List<CategoryEntity> toInsert = new ArrayList<>();
+        for (DocumentSnapshot doc : docs) {
+            try {
+                CategoryEntity existing = existingByRemoteId.get(doc.getId());
+                if (existing != null && queuedIdsLocal.contains(existing.idLocal)) {
+                    // Cambios locales pendientes de subir: el push posterior los lleva a Firestore y prevalecen
+                    Log.d("CategoryRepositoryImpl", "Categoría con cambios locales pendientes, se mantiene la versión local: " + existing.name);
+                    continue;
+                }
+                CategoryEntity category = mergeRemoteCategory(userUid, doc, existing);
+                if (existing != null) {
+                    toUpdate.add(category);
+                } else {
+                    toInsert.add(category);
                 }
+            } catch (Exception e) {
+                Log.e("CategoryRepositoryImpl", "Error al procesar categoría desde Firestore: " + doc.getId(), e);
             }
-        });
+        }
+        
+        categoryDao().upsertCategories(toUpdate, toInsert);
+        return toUpdate.size() + toInsert.size();
+    }
+
+    /**
+     * Combina una categoría descargada de Firestore con su fila local (existing, o null si no hay)
+     * y devuelve la entidad a escribir.
+     */
+    private CategoryEntity mergeRemoteCategory(String userUid, DocumentSnapshot doc, CategoryEntity existing) {
+        String remoteId = doc.getId();
+        String name = doc.getString("name");
+        String icon = doc.getString("icon");
+        Boolean isActive = doc.getBoolean("is_active");
+        Timestamp updatedAt = doc.getTimestamp("updated_at");
+        Timestamp deletedAt = doc.getTimestamp("deleted_at");
+        
+        if (existing != null) {
+            // Actualizar categoría existente
+            existing.name = name != null ? name : existing.name;
+            existing.icono = icon != null ? icon : existing.icono;
+            existing.isActive = isActive != null ? isActive : true;
+            if (updatedAt != null) {
+                existing.updatedAt = updatedAt.toDate().getTime();
+            }
+            if (deletedAt != null) {
+                existing.deletedAt = deletedAt.toDate().getTime();
+                existing.isActive = false;
+            } else {
+                existing.deletedAt = null;
+            }
+            existing.syncState = "SYNCED";
+            return existing;
+        } else {
+            // Insertar nueva categoría
+            CategoryEntity category = new CategoryEntity();
+            category.remoteId = remoteId;
+            category.userUid = userUid;
+            category.name = name != null ? name : "Sin nombre";
+            category.icono = icon != null ? icon : "⭐";
+            category.isActive = isActive != null ? isActive : true;
+            if (updatedAt != null) {
+                category.updatedAt = updatedAt.toDate().getTime();
+            } else {
+                category.updatedAt = System.currentTimeMillis();
+            }
+            if (deletedAt != null) {
+                category.deletedAt = deletedAt.toDate().getTime();
+                category.isActive = false;
+            }
+            category.syncState = "SYNCED";
+            return category;
+        }
+    }
+
+    /**
+     * Hasta cuándo el SyncWorker deja la entrada recién encolada para el envío agrupado del repositorio
+     */
+    private long coalesceDeadline() {
+        return DateTimeUtil.getCurrentEpochMillis() + SyncPrefs.getWriteCoalesceWindowMillis(appContext);
+    }
+
+    /**
+     * Envío agrupado de WriteCoalescer: sube el estado actual de la categoría con la entrada vigente de sync_outbox.
+     * Una categoría creada y eliminada dentro de la misma ventana nunca llegó a Firestore y se descarta el envío,
+     * salvo que haya gastos encolados apuntándola: esos esperan a que el documento exista.
+     */
+    private void flushCategory(long idLocal, boolean createdInWindow) {
+        if (SyncPrefs.isLastSyncBeyondServerPurge(appContext, DateTimeUtil.getCurrentEpochMillis())) {
+            // Sin sincronizar desde antes del purgado del servidor: primero el SyncWorker descarta lo que
+            // podría revivir documentos purgados (ver SyncWorker.resetIfStale)
+            SyncRetryScheduler.scheduleNow(appContext);
+            return;
+        }
+        SyncOutboxEntity entry = syncOutboxDao().getByEntity(SyncOutboxEntity.TYPE_CATEGORY, idLocal);
+        if (entry == null) {
+            // Ya la subió el SyncWorker
+            return;
+        }
+        CategoryEntity category = categoryDao().getCategoryById(idLocal);
+        if (category == null) {
+            syncOutboxDao().delete(entry.id);
+            return;
+        }
+        if (createdInWindow && category.deletedAt != null
+                && !syncOutboxDao().hasExpensesQueuedForCategory(category.remoteId)) {
+            database().runInTransaction(() -> {
+                categoryDao().updateSyncState(idLocal, "SYNCED");
+                syncOutboxDao().delete(entry.id);
+            });
+            Log.d("CategoryRepositoryImpl", "Categoría creada y eliminada antes de subirse, sin escritura: idLocal=" + idLocal);
+            return;
+        }
+        syncCategoryWithFirestore(category, entry.id, entry.dirtyFields);
+    }
+
+    /**
+     * Bits FIELD_* de los campos del documento que difieren entre la fila guardada y la nueva.
+     * Sin fila guardada no hay con qué comparar: todos.
+     */
+    static int changedFields(CategoryEntity before, CategoryEntity after) {
+        if (before == null) {
+            return SyncOutboxEntity.DIRTY_ALL;
+        }
+        int fields = 0;
+        if (!Objects.equals(before.name, after.name)) {
+            fields |= CategoryEntity.FIELD_NAME;
+        }
+        if (!Objects.equals(before.icono, after.icono)) {
+            fields |= CategoryEntity.FIELD_ICON;
+        }
+        if (before.isActive != after.isActive) {
+            fields |= CategoryEntity.FIELD_ACTIVE;
+        }
+        if (!Objects.equals(before.deletedAt, after.deletedAt)) {
+            fields |= CategoryEntity.FIELD_DELETED;
+        }
+        return fields;
     }
 
     /**
      * Sincroniza una categoría con Firestore de forma asíncrona.
      * Estrategia offline-first: la operación local ya se realizó;
-     * aquí solo intentamos reflejarla en la nube y actualizar syncState/remoteId.
+     * aquí solo intentamos reflejarla en la nube y actualizar syncState.
+     * outboxId es la entrada de sync_outbox que se borra cuando Firestore confirma.
+     * dirtyFields son los campos a subir (SyncOutboxEntity.DIRTY_ALL: el documento completo).
      */
-    public void syncCategoryWithFirestore(CategoryEntity category) {
+    public void syncCategoryWithFirestore(CategoryEntity category, long outboxId, int dirtyFields) {
         // Si no tenemos userUid no podemos sincronizar
         if (category.userUid == null || category.userUid.trim().isEmpty()) {
             Log.w("CategoryRepositoryImpl", "No se puede sincronizar categoría sin userUid");
+            executor.execute(() -> syncOutboxDao().delete(outboxId));
+            return;
+        }
+
+        if (category.remoteId == null || category.remoteId.trim().isEmpty()) {
+            Log.w("CategoryRepositoryImpl", "No se puede sincronizar categoría sin remoteId: " + category.name);
+            executor.execute(() -> syncOutboxDao().delete(outboxId));
             return;
         }
 
-        // Construir payload para Firestore
+        // Crear, actualizar y soft delete son la misma escritura sobre el id generado en el cliente;
+        // con campos pendientes conocidos se suben solo esos
+        Map<String, Object> payload = buildCategoryPayload(category, dirtyFields);
+        boolean partial = dirtyFields != SyncOutboxEntity.DIRTY_ALL;
+        Task<Void> write = partial
+                ? firestoreDataSource.updateCategory(category.userUid, category.remoteId, payload)
+                : firestoreDataSource.setCategory(category.userUid, category.remoteId, payload);
+        write
+                .addOnSuccessListener(unused -> {
+                    Log.d("CategoryRepositoryImpl", "Categoría sincronizada en Firestore. remoteId=" + category.remoteId);
+                    executor.execute(() -> {
+                        database().runInTransaction(() -> {
+                            categoryDao().updateSyncState(category.idLocal, "SYNCED");
+                            syncOutboxDao().delete(outboxId);
+                        });
+                        // Los gastos que esperaban a esta categoría ya pueden salir
+                        if (syncOutboxDao().hasExpensesQueuedForCategory(category.remoteId)) {
+                            SyncRetryScheduler.scheduleNow(appContext);
+                        }
+                    });
+                })
+                .addOnFailureListener(e -> {
+                    Log.e("CategoryRepositoryImpl", "Error al sincronizar categoría en Firestore", e);
+                    // Notificar error de conexión si aplica
+                    ConnectionErrorNotifier.getInstance().notifyIfConnectionError(e);
+                    executor.execute(() -> {
+                        categoryDao().updateSyncState(category.idLocal, "ERROR");
+                        int retryFields = dirtyFieldsForRetry(dirtyFields, e);
+                        if (retryFields != dirtyFields) {
+                            syncOutboxDao().updateDirtyFields(outboxId, retryFields);
+                        }
+                        SyncRetryScheduler.recordFailure(appContext, syncOutboxDao(), outboxId);
+                    });
+                });
+    }
+    
+    /**
+     * Campos a subir en el reintento de una escritura fallida. Un update parcial sobre un documento que
+     * no existe (NOT_FOUND, p. ej. se borró en el servidor) no puede funcionar: el reintento lo sube completo.
+     */
+    static int dirtyFieldsForRetry(int dirtyFields, Exception e) {
+        if (dirtyFields != SyncOutboxEntity.DIRTY_ALL && FirestoreDataSource.isNotFound(e)) {
+            return SyncOutboxEntity.DIRTY_ALL;
+        }
+        return dirtyFields;
+    }
+
+    /**
+     * Construye el documento de Firestore para una categoría: completo con DIRTY_ALL,
+     * o solo los campos de dirtyFields (más updated_at, que cambia en cada escritura).
+     */
+    static Map<String, Object> buildCategoryPayload(CategoryEntity category, int dirtyFields) {
+        boolean all = dirtyFields == SyncOutboxEntity.DIRTY_ALL;
         Map<String, Object> data = new HashMap<>();
-        data.put("name", category.name);
-        data.put("icon", category.icono);
-        data.put("is_active", category.isActive);
+        if (all || (dirtyFields & CategoryEntity.FIELD_NAME) != 0) {
+            data.put("name", category.name);
+        }
+        if (all || (dirtyFields & CategoryEntity.FIELD_ICON) != 0) {
+            data.put("icon", category.icono);
+        }
+        if (all || (dirtyFields & CategoryEntity.FIELD_ACTIVE) != 0) {
+            data.put("is_active", category.isActive);
+        }
 
-        // updated_at
-        Timestamp updatedAtTs = new Timestamp(
-                category.updatedAt / 1000,
-                (int) ((category.updatedAt % 1000) * 1_000_000)
-        );
-        data.put("updated_at", updatedAtTs);
+        // updated_at con hora del servidor: es el cursor de las descargas incrementales
+        data.put("updated_at", FieldValue.serverTimestamp());
 
         // deleted_at (soft delete)
+        if (!all && (dirtyFields & CategoryEntity.FIELD_DELETED) == 0) {
+            return data;
+        }
         if (category.deletedAt != null) {
             Timestamp deletedAtTs = new Timestamp(
                     category.deletedAt / 1000,
@@ -343,60 +704,7 @@ public class CategoryRepositoryImpl implements CategoryRepository {
         } else {
             data.put("deleted_at", null);
         }
-
-        // Si la categoría está eliminada, solo actualizamos flags en Firestore
-        boolean isSoftDeleted = category.deletedAt != null || !category.isActive;
-
-        if (category.remoteId == null || category.remoteId.trim().isEmpty()) {
-            if (isSoftDeleted) {
-                // No tiene sentido crear una categoría nueva en remoto ya eliminada
-                Log.d("CategoryRepositoryImpl", "Categoría soft-deleted sin remoteId, no se crea en Firestore");
-                return;
-            }
-
-            // Crear nueva categoría en Firestore
-            firestoreDataSource.createCategory(category.userUid, data)
-                    .addOnSuccessListener(docRef -> {
-                        String remoteId = docRef.getId();
-                        Log.d("CategoryRepositoryImpl", "Categoría sincronizada en Firestore. remoteId=" + remoteId);
-
-                        executor.execute(() -> {
-                            category.remoteId = remoteId;
-                            category.syncState = "SYNCED";
-                            categoryDao.updateCategory(category);
-
-                            // Actualizar todos los gastos que usaban el fallback local_X para esta categoría
-                            String oldLocalRef = "local_" + category.idLocal;
-                            expenseDao.migrateCategoryRemoteId(oldLocalRef, remoteId);
-                            Log.d("CategoryRepositoryImpl", "Migrados gastos con categoryRemoteId=" + oldLocalRef + " a remoteId=" + remoteId);
-                        });
-                    })
-                    .addOnFailureListener(e -> {
-                        Log.e("CategoryRepositoryImpl", "Error al crear categoría en Firestore", e);
-                        // Notificar error de conexión si aplica
-                        ConnectionErrorNotifier.getInstance().notifyIfConnectionError(e);
-                        executor.execute(() ->
-                                categoryDao.updateSyncState(category.idLocal, "ERROR")
-                        );
-                    });
-        } else {
-            // Actualizar categoría existente (incluye soft delete)
-            firestoreDataSource.updateCategory(category.userUid, category.remoteId, data)
-                    .addOnSuccessListener(unused -> {
-                        Log.d("CategoryRepositoryImpl", "Categoría actualizada en Firestore. remoteId=" + category.remoteId);
-                        executor.execute(() ->
-                                categoryDao.updateSyncState(category.idLocal, "SYNCED")
-                        );
-                    })
-                    .addOnFailureListener(e -> {
-                        Log.e("CategoryRepositoryImpl", "Error al actualizar categoría en Firestore", e);
-                        // Notificar error de conexión si aplica
-                        ConnectionErrorNotifier.getInstance().notifyIfConnectionError(e);
-                        executor.execute(() ->
-                                categoryDao.updateSyncState(category.idLocal, "ERROR")
-                        );
-                    });
-        }
+        return data;
     }
     
     /**
@@ -418,15 +726,7 @@ public class CategoryRepositoryImpl implements CategoryRepository {
                                 Timestamp deletedAt = documentSnapshot.getTimestamp("deleted_at");
                                 
                                 // Buscar si ya existe en Room por remoteId
-                                CategoryEntity existing = categoryDao.getCategoryByRemoteId(remoteId);
-                                
-                                // Si no se encuentra por remoteId, buscar por atributos (nombre e icono)
-                                if (existing == null && name != null && icon != null) {
-                                    existing = categoryDao.findCategoryByAttributes(userUid, name, icon);
-                                    if (existing != null) {
-                                        Log.d("CategoryRepositoryImpl", "Categoría encontrada por atributos (deduplicación): " + existing.name);
-                                    }
-                                }
+                                CategoryEntity existing = categoryDao().getCategoryByRemoteId(remoteId);
                                 
                                 if (existing != null) {
                                     // Actualizar categoría existente
@@ -443,7 +743,7 @@ public class CategoryRepositoryImpl implements CategoryRepository {
                                         existing.deletedAt = deletedAt.toDate().getTime();
                                     }
                                     
-                                    categoryDao.updateCategory(existing);
+                                    categoryDao().updateCategory(existing);
                                     Log.d("CategoryRepositoryImpl", "Categoría actualizada: " + existing.name);
                                     
                                     if (callback != null) {
@@ -461,7 +761,7 @@ public class CategoryRepositoryImpl implements CategoryRepository {
                                     newCategory.updatedAt = updatedAt != null ? updatedAt.toDate().getTime() : DateTimeUtil.getCurrentEpochMillis();
                                     newCategory.deletedAt = deletedAt != null ? deletedAt.toDate().getTime() : null;
                                     
-                                    long id = categoryDao.insertCategory(newCategory);
+                                    long id = categoryDao().insertCategory(newCategory);
                                     newCategory.idLocal = id;
                                     Log.d("CategoryRepositoryImpl", "Nueva categoría creada: " + newCategory.name + " (ID: " + id + ")");
                                     
@@ -0,0 +1,90 @@
+package com.example.gestorgastos.data.repository;
+
+import com.example.gestorgastos.data.local.AppDatabase;
+import com.example.gestorgastos.data.local.dao.CategoryDao;
+import com.example.gestorgastos.data.local.dao.SyncOutboxDao;
+import com.example.gestorgastos.data.local.entity.CategoryEntity;
+import com.example.gestorgastos.data.local.entity.SyncOutboxEntity;
+import com.example.gestorgastos.data.remote.FirestoreDataSource;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Categorías con las que empieza una cuenta nueva. Se insertan como cualquier categoría creada por el
+ * usuario: fila PENDING y su entrada en sync_outbox en la misma transacción, así las sube el SyncWorker
+ * y los gastos que las usan no quedan esperando a una categoría que nunca sale de la cola.
+ */
+final class DefaultCategories {
+    // Ícono y nombre separados por el primer espacio
+    static final String[] DEFAULTS = {
+        "🛒 Supermercado", "☕ Café", "🚇 SUBE", "🚕 Taxi", "⛽ Combustible",
+        "💊 Farmacia", "🌐 Internet", "📺 TV", "💡 Luz", "🔥 Gas", "💧 Agua"
+    };
+
+    private DefaultCategories() {
+    }
+
+    /**
+     * Inserta las categorías por defecto de userUid y las encola para subir (documento completo).
+     * Se saltea cada una que la cuenta ya tenga, por id o por nombre: las creadas por versiones anteriores
+     * tienen un id aleatorio y solo se reconocen por nombre.
+     * Devuelve las filas insertadas, con idLocal asignado.
+     */
+    static List<CategoryEntity> insert(AppDatabase database, String userUid, long now) {
+        return database.runInTransaction(() -> insertMissing(database, userUid, now));
+    }
+
+    /**
+     * Como insert, pero solo si la cuenta no tiene ninguna categoría (ni eliminada). Se usa al iniciar sesión
+     * en una cuenta que puede venir de otro dispositivo, después de descargar sus categorías.
+     */
+    static List<CategoryEntity> insertIfNoCategories(AppDatabase database, String userUid, long now) {
+        return database.runInTransaction(() -> {
+            // Incluye soft-deleted: una cuenta que borró las categorías por defecto no las recupera
+            if (!database.categoryDao().getCategoriesPageAfterId(userUid, 0, 1).isEmpty()) {
+                return Collections.<CategoryEntity>emptyList();
+            }
+            return insertMissing(database, userUid, now);
+        });
+    }
+
+    private static List<CategoryEntity> insertMissing(AppDatabase database, String userUid, long now) {
+        CategoryDao categoryDao = database.categoryDao();
+        SyncOutboxDao syncOutboxDao = database.syncOutboxDao();
+        Set<String> existingNames = new HashSet<>();
+        for (CategoryEntity existing : categoryDao.getAllCategoriesByUserSync(userUid)) {
+            existingNames.add(normalizeName(existing.name));
+        }
+        List<CategoryEntity> inserted = new ArrayList<>();
+        for (String categoryData : DEFAULTS) {
+            String[] parts = categoryData.split(" ", 2);
+            // Id determinístico por usuario y nombre: otro dispositivo de la misma cuenta crea el mismo
+            // documento, y la descarga lo reconoce por remoteId en lugar de duplicarlo
+            String remoteId = FirestoreDataSource.stableDocumentId(userUid, "default_category/" + parts[1]);
+            if (existingNames.contains(normalizeName(parts[1])) || categoryDao.getCategoryByRemoteId(remoteId) != null) {
+                continue;
+            }
+            CategoryEntity category = new CategoryEntity();
+            category.userUid = userUid;
+            category.remoteId = remoteId;
+            category.name = parts[1];
+            category.icono = parts[0];
+            category.isActive = true;
+            category.updatedAt = now;
+            category.syncState = "PENDING";
+            category.idLocal = categoryDao.insertCategory(category);
+            syncOutboxDao.enqueue(SyncOutboxEntity.TYPE_CATEGORY, category.idLocal, now);
+            inserted.add(category);
+        }
+        return inserted;
+    }
+
+    private static String normalizeName(String name) {
+        return name == null ? "" : name.trim().toLowerCase(Locale.ROOT);
+    }
+}
@@ -1,7 +1,9 @@
 package com.example.gestorgastos.data.repository;
 
 import androidx.lifecycle.LiveData;
+import androidx.paging.PagingSource;
 import com.example.gestorgastos.data.local.entity.ExpenseEntity;
+import com.example.gestorgastos.data.local.model.CategorySum;
 import java.util.List;
 
 public interface ExpenseRepository {
@@ -9,8 +11,38 @@ public interface ExpenseRepository {
     
     List<ExpenseEntity> getExpensesByUserSync(String userUid);
     
+    /**
+     * Fuente paginada de gastos no eliminados, ordenada por fecha descendente.
+     * Room la invalida automáticamente cuando cambia la tabla expenses.
+     */
+    PagingSource<Integer, ExpenseEntity> getExpensesPagingSource(String userUid);
+    
     ExpenseEntity getExpenseById(long idLocal);
     
+    /**
+     * Gastos no eliminados del rango [fromMillis, toMillis], más recientes primero.
+     * Si el rango cruza el límite del archivo frío, une la tabla caliente con el archivo (ExpenseArchive).
+     */
+    void getExpensesInRange(String userUid, long fromMillis, long toMillis, RepositoryCallback<List<ExpenseEntity>> callback);
+    
+    /**
+     * Totales por categoría del rango [monthStart, monthEnd], agregados en SQLite.
+     * Solo materializa una fila por categoría con gastos en el mes.
+     */
+    LiveData<List<CategorySum>> getCategorySumsForMonth(String userUid, long monthStart, long monthEnd);
+    
+    /**
+     * Total del rango en centavos.
+     */
+    LiveData<Long> getTotalForMonth(String userUid, long monthStart, long monthEnd);
+    
+    /**
+     * Totales por categoría del mes "yyyy-MM" leídos de la tabla pre-agregada expense_month_totals.
+     * El costo es O(categorías) sin importar cuántos gastos tenga el historial, y solo vuelve a emitir
+     * cuando cambia ese mes (MonthChangeTracker), no ante cualquier escritura en expenses.
+     */
+    LiveData<List<CategorySum>> getMonthCategorySums(String userUid, String yearMonth);
+    
     void insertExpense(ExpenseEntity expense, RepositoryCallback<ExpenseEntity> callback);
     
     void updateExpense(ExpenseEntity expense, RepositoryCallback<ExpenseEntity> callback);
@@ -23,10 +55,10 @@ public interface ExpenseRepository {
     
     /**
      * Sincroniza gastos desde Firestore hacia Room.
-     * Si lastSyncMillis es 0, realiza sincronización completa.
-     * Si lastSyncMillis > 0, realiza sincronización incremental (solo cambios desde ese timestamp).
+     * Si fullSync es true, descarga la colección completa.
+     * Si no, descarga solo los cambios posteriores a la marca de agua guardada en SyncPrefs.
      */
-    void syncFromFirestore(String userUid, long lastSyncMillis, RepositoryCallback<Integer> callback);
+    void syncFromFirestore(String userUid, boolean fullSync, RepositoryCallback<Integer> callback);
     
     interface RepositoryCallback<T> {
         void onSuccess(T result);
@@ -4,77 +4,168 @@ import android.content.Context;
 import android.util.Log;
 
 import androidx.lifecycle.LiveData;
+import androidx.paging.PagingSource;
 
 import com.example.gestorgastos.data.local.AppDatabase;
+import com.example.gestorgastos.data.local.ExpenseArchive;
 import com.example.gestorgastos.data.local.dao.ExpenseDao;
-import com.example.gestorgastos.data.local.dao.CategoryDao;
-import com.example.gestorgastos.data.local.entity.CategoryEntity;
+import com.example.gestorgastos.data.local.dao.SyncOutboxDao;
 import com.example.gestorgastos.data.local.entity.ExpenseEntity;
+import com.example.gestorgastos.data.local.entity.SyncOutboxEntity;
+import com.example.gestorgastos.data.local.model.CategorySum;
 import com.example.gestorgastos.data.remote.FirestoreDataSource;
+import com.example.gestorgastos.util.ContentHash;
 import com.example.gestorgastos.util.DateTimeUtil;
+import com.example.gestorgastos.util.Money;
+import com.example.gestorgastos.util.SyncPrefs;
 import com.example.gestorgastos.util.ConnectionErrorNotifier;
+import com.example.gestorgastos.work.SyncRetryScheduler;
 import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+import com.google.android.gms.tasks.Tasks;
 import com.google.firebase.Timestamp;
 import com.google.firebase.firestore.DocumentSnapshot;
-import com.google.firebase.firestore.QuerySnapshot;
+import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.SetOptions;
+import com.google.firebase.firestore.WriteBatch;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 public class ExpenseRepositoryImpl implements ExpenseRepository {
-    private final ExpenseDao expenseDao;
-    private final CategoryDao categoryDao;
+    private final Context appContext;
     private final ExecutorService executor;
     private final FirestoreDataSource firestoreDataSource;
     
     public ExpenseRepositoryImpl(Context context) {
-        AppDatabase database = AppDatabase.getDatabase(context);
-        this.expenseDao = database.expenseDao();
-        this.categoryDao = database.categoryDao();
+        this.appContext = context.getApplicationContext();
         this.executor = Executors.newFixedThreadPool(4);
         this.firestoreDataSource = new FirestoreDataSource();
     }
     
+    // Para instancias de vida acotada (RealtimeSync): libera los hilos del executor al terminar
+    void shutdown() {
+        executor.shutdown();
+    }
+    
+    // La base se resuelve en cada operación: al cambiar de cuenta AppDatabase abre otro archivo
+    // y una referencia guardada en el constructor apuntaría a la base cerrada de la cuenta anterior
+    private AppDatabase database() {
+        return AppDatabase.getDatabase(appContext);
+    }
+    
+    private ExpenseDao expenseDao() {
+        return database().expenseDao();
+    }
+    
+    private SyncOutboxDao syncOutboxDao() {
+        return database().syncOutboxDao();
+    }
+    
     @Override
     public LiveData<List<ExpenseEntity>> getExpensesByUser(String userUid) {
-        return expenseDao.getExpensesByUser(userUid);
+        return expenseDao().getExpensesByUser(userUid);
     }
     
     @Override
     public List<ExpenseEntity> getExpensesByUserSync(String userUid) {
-        return expenseDao.getExpensesByUserSync(userUid);
+        return expenseDao().getExpensesByUserSync(userUid);
+    }
+    
+    @Override
+    public PagingSource<Integer, ExpenseEntity> getExpensesPagingSource(String userUid) {
+        return expenseDao().getExpensesPagingSource(userUid);
     }
     
     @Override
     public ExpenseEntity getExpenseById(long idLocal) {
-        return expenseDao.getExpenseById(idLocal);
+        return expenseDao().getExpenseById(idLocal);
+    }
+    
+    @Override
+    public void getExpensesInRange(String userUid, long fromMillis, long toMillis, RepositoryCallback<List<ExpenseEntity>> callback) {
+        executor.execute(() -> {
+            try {
+                callback.onSuccess(ExpenseArchive.getInstance(appContext).getExpensesInRange(userUid, fromMillis, toMillis));
+            } catch (Exception e) {
+                Log.e("ExpenseRepositoryImpl", "Error al obtener gastos del rango", e);
+                callback.onError(e);
+            }
+        });
+    }
+    
+    @Override
+    public LiveData<List<CategorySum>> getCategorySumsForMonth(String userUid, long monthStart, long monthEnd) {
+        return expenseDao().sumByCategoryForMonth(userUid, monthStart, monthEnd);
+    }
+    
+    @Override
+    public LiveData<Long> getTotalForMonth(String userUid, long monthStart, long monthEnd) {
+        return expenseDao().getTotalForMonth(userUid, monthStart, monthEnd);
+    }
+    
+    @Override
+    public LiveData<List<CategorySum>> getMonthCategorySums(String userUid, String yearMonth) {
+        return MonthChangeTracker.getInstance(appContext).observeMonthCategorySums(userUid, yearMonth);
     }
     
     @Override
     public void insertExpense(ExpenseEntity expense, RepositoryCallback<ExpenseEntity> callback) {
         Log.d("ExpenseRepositoryImpl", "insertExpense - UserUid: " + expense.userUid + 
               ", CategoryRemoteId: " + expense.categoryRemoteId + 
-              ", Monto: " + expense.monto);
+              ", MontoCentavos: " + expense.montoCentavos);
         
         executor.execute(() -> {
             try {
                 // Establecer valores por defecto
                 expense.updatedAt = DateTimeUtil.getCurrentEpochMillis();
                 expense.syncState = "PENDING";
+                if (expense.remoteId == null || expense.remoteId.trim().isEmpty()) {
+                    // Id del documento en Firestore decidido acá: los reintentos escriben siempre el mismo documento
+                    expense.remoteId = FirestoreDataSource.newDocumentId();
+                }
+                if (expense.contentHash == null) {
+                    expense.contentHash = ContentHash.forExpense(expense.userUid, expense.categoryRemoteId,
+                            expense.montoCentavos, expense.fechaEpochMillis);
+                }
                 
                 Log.d("ExpenseRepositoryImpl", "Insertando en Room - Expense: " + expense.toString());
                 
-                // Insertar en Room
-                long expenseId = expenseDao.insertExpense(expense);
-                expense.idLocal = expenseId;
+                // Insertar en Room y encolar en sync_outbox en la misma transacción.
+                // La búsqueda por huella va en la misma transacción: dos toques seguidos no pueden pasar los dos
+                ExpenseEntity duplicate = database().runInTransaction(() -> {
+                    ExpenseEntity existing = expenseDao().findByContentHash(expense.userUid, expense.contentHash);
+                    if (existing != null && existing.deletedAt == null) {
+                        return existing;
+                    }
+                    if (existing != null) {
+                        // Un gasto eliminado no bloquea volver a cargarlo: la huella pasa al nuevo
+                        expenseDao().clearContentHash(existing.idLocal);
+                    }
+                    expense.idLocal = expenseDao().insertExpense(expense);
+                    syncOutboxDao().enqueue(SyncOutboxEntity.TYPE_EXPENSE, expense.idLocal, expense.updatedAt,
+                            coalesceDeadline(), SyncOutboxEntity.DIRTY_ALL);
+                    return null;
+                });
+                if (duplicate != null) {
+                    Log.d("ExpenseRepositoryImpl", "Gasto duplicado ignorado (misma huella que idLocal=" + duplicate.idLocal + ")");
+                    callback.onSuccess(duplicate);
+                    return;
+                }
                 
-                Log.d("ExpenseRepositoryImpl", "Gasto insertado exitosamente - ID: " + expenseId);
+                Log.d("ExpenseRepositoryImpl", "Gasto insertado exitosamente - ID: " + expense.idLocal);
                 
-                // Sincronizar con Firestore en segundo plano (offline-first)
-                syncExpenseWithFirestore(expense);
+                // Sincronizar con Firestore en segundo plano (offline-first), agrupado con los cambios que sigan
+                WriteCoalescer.getInstance().submit(appContext, SyncOutboxEntity.TYPE_EXPENSE, expense.idLocal, true, executor, this::flushExpense);
                 
                 callback.onSuccess(expense);
             } catch (Exception e) {
@@ -92,11 +183,17 @@ public class ExpenseRepositoryImpl implements ExpenseRepository {
                 expense.updatedAt = DateTimeUtil.getCurrentEpochMillis();
                 expense.syncState = "PENDING";
                 
-                // Actualizar en Room
-                expenseDao.updateExpense(expense);
+                // Actualizar en Room y encolar en sync_outbox en la misma transacción
+                // Se encolan solo los campos que cambian respecto de la fila guardada
+                database().runInTransaction(() -> {
+                    ExpenseEntity before = expenseDao().getExpenseById(expense.idLocal);
+                    expenseDao().updateExpense(expense);
+                    syncOutboxDao().enqueue(SyncOutboxEntity.TYPE_EXPENSE, expense.idLocal, expense.updatedAt,
+                            coalesceDeadline(), changedFields(before, expense));
+                });
                 
                 // Sincronizar con Firestore en segundo plano
-                syncExpenseWithFirestore(expense);
+                WriteCoalescer.getInstance().submit(appContext, SyncOutboxEntity.TYPE_EXPENSE, expense.idLocal, false, executor, this::flushExpense);
                 
                 callback.onSuccess(expense);
             } catch (Exception e) {
@@ -112,17 +209,15 @@ public class ExpenseRepositoryImpl implements ExpenseRepository {
                 long deletedAt = DateTimeUtil.getCurrentEpochMillis();
                 long updatedAt = DateTimeUtil.getCurrentEpochMillis();
                 
-                // Soft delete en Room
-                expenseDao.softDeleteExpense(idLocal, deletedAt, updatedAt);
+                // Soft delete en Room y encolar en sync_outbox en la misma transacción
+                database().runInTransaction(() -> {
+                    expenseDao().softDeleteExpense(idLocal, deletedAt, updatedAt);
+                    syncOutboxDao().enqueue(SyncOutboxEntity.TYPE_EXPENSE, idLocal, updatedAt,
+                            coalesceDeadline(), ExpenseEntity.FIELD_DELETED);
+                });
                 
-                // Obtener el gasto actualizado para sincronizar soft delete
-                ExpenseEntity deletedExpense = expenseDao.getExpenseById(idLocal);
-                if (deletedExpense != null) {
-                    deletedExpense.deletedAt = deletedAt;
-                    deletedExpense.updatedAt = updatedAt;
-                    deletedExpense.syncState = "PENDING";
-                    syncExpenseWithFirestore(deletedExpense);
-                }
+                // Sincronizar soft delete (o descartar la creación, si todavía no salió)
+                WriteCoalescer.getInstance().submit(appContext, SyncOutboxEntity.TYPE_EXPENSE, idLocal, false, executor, this::flushExpense);
                 
                 callback.onSuccess(null);
             } catch (Exception e) {
@@ -135,7 +230,7 @@ public class ExpenseRepositoryImpl implements ExpenseRepository {
     public void getPendingExpenses(RepositoryCallback<List<ExpenseEntity>> callback) {
         executor.execute(() -> {
             try {
-                List<ExpenseEntity> pending = expenseDao.getPendingExpenses();
+                List<ExpenseEntity> pending = expenseDao().getPendingExpenses();
                 callback.onSuccess(pending);
             } catch (Exception e) {
                 Log.e("ExpenseRepositoryImpl", "Error al obtener gastos pendientes", e);
@@ -147,206 +242,564 @@ public class ExpenseRepositoryImpl implements ExpenseRepository {
     @Override
     public void updateSyncState(long idLocal, String syncState) {
         executor.execute(() -> {
-            expenseDao.updateSyncState(idLocal, syncState);
+            expenseDao().updateSyncState(idLocal, syncState);
         });
     }
 
     /**
      * Sincroniza todos los gastos pendientes con Firestore.
      * Se usa desde WorkManager para reintentos en segundo plano.
+     * Vacía sync_outbox en orden FIFO; cada entrada se borra solo cuando Firestore confirma.
+     * La Task se completa cuando todos los batches terminaron y falla si alguno falló.
      */
-    public void syncPendingExpensesWithFirestore() {
-        getPendingExpenses(new RepositoryCallback<List<ExpenseEntity>>() {
-            @Override
-            public void onSuccess(List<ExpenseEntity> pending) {
-                Log.d("ExpenseRepositoryImpl", "Sincronizando " + pending.size() + " gastos PENDING con Firestore");
-                for (ExpenseEntity expense : pending) {
-                    syncExpenseWithFirestore(expense);
-                }
-            }
-            
-            @Override
-            public void onError(Exception error) {
-                Log.e("ExpenseRepositoryImpl", "Error al obtener gastos pendientes para sincronizar", error);
+    public Task<Integer> syncPendingExpensesWithFirestore() {
+        TaskCompletionSource<Integer> result = new TaskCompletionSource<>();
+        executor.execute(() -> {
+            try {
+                // Cada página de la cola se sube en un único WriteBatch (un round trip por página)
+                List<Task<Void>> commits = new ArrayList<>();
+                long now = DateTimeUtil.getCurrentEpochMillis();
+                int total = 0;
+                long afterId = 0;
+                List<SyncOutboxEntity> page;
+                do {
+                    // Los gastos cuya categoría sigue en la cola esperan: salen una vez confirmada la categoría
+                    page = syncOutboxDao().getDueExpensesPage(afterId, now, FirestoreDataSource.MAX_BATCH_WRITES);
+                    if (!page.isEmpty()) {
+                        afterId = page.get(page.size() - 1).id;
+                        commits.add(pushExpensesBatch(page));
+                    }
+                    total += page.size();
+                } while (page.size() == FirestoreDataSource.MAX_BATCH_WRITES);
+                Log.d("ExpenseRepositoryImpl", "Sincronizando " + total + " gastos PENDING con Firestore");
+                
+                // Completar cuando todos los batches estén confirmados (o alguno haya fallado)
+                int pushedTotal = total;
+                Tasks.whenAll(commits).addOnCompleteListener(executor, task -> {
+                    if (task.isSuccessful()) {
+                        result.setResult(pushedTotal);
+                    } else {
+                        result.setException(task.getException());
+                    }
+                });
+            } catch (Exception e) {
+                Log.e("ExpenseRepositoryImpl", "Error al obtener gastos pendientes para sincronizar", e);
+                result.setException(e);
             }
         });
+        return result.getTask();
     }
 
     /**
-     * Sincroniza gastos desde Firestore hacia Room.
-     * Si lastSyncMillis es 0, realiza sincronización completa.
-     * Si lastSyncMillis > 0, realiza sincronización incremental (solo cambios desde ese timestamp).
+     * Sincroniza gastos desde Firestore hacia Room en páginas de PULL_PAGE_SIZE documentos
+     * ordenadas por (updated_at, id). El cursor es la marca de agua de SyncPrefs: el mayor updated_at
+     * visto en Firestore, no el reloj del dispositivo. Se guarda después de cada página, así que una
+     * descarga interrumpida retoma donde quedó. Si fullSync es true se descarga desde el principio.
      */
     @Override
-    public void syncFromFirestore(String userUid, long lastSyncMillis, RepositoryCallback<Integer> callback) {
+    public void syncFromFirestore(String userUid, boolean fullSync, RepositoryCallback<Integer> callback) {
         executor.execute(() -> {
             try {
-                Task<QuerySnapshot> task;
+                Timestamp afterUpdatedAt = null;
+                String afterDocId = null;
                 
-                if (lastSyncMillis == 0) {
-                    // Sincronización completa: obtener todos los gastos
+                if (fullSync) {
                     Log.d("ExpenseRepositoryImpl", "Sincronización completa de gastos desde Firestore para usuario: " + userUid);
-                    task = firestoreDataSource.getExpenses(userUid);
                 } else {
-                    // Sincronización incremental: solo cambios desde lastSyncMillis
-                    Timestamp lastSync = new Timestamp(
-                            lastSyncMillis / 1000,
-                            (int) ((lastSyncMillis % 1000) * 1_000_000)
-                    );
-                    Log.d("ExpenseRepositoryImpl", "Sincronización incremental de gastos desde Firestore (desde: " + lastSyncMillis + ") para usuario: " + userUid);
-                    task = firestoreDataSource.getExpensesAfter(userUid, lastSync);
+                    long watermarkSeconds = SyncPrefs.getPullWatermarkSeconds(appContext, userUid, SyncPrefs.COLLECTION_EXPENSES);
+                    if (watermarkSeconds >= 0) {
+                        afterUpdatedAt = new Timestamp(watermarkSeconds,
+                                SyncPrefs.getPullWatermarkNanos(appContext, userUid, SyncPrefs.COLLECTION_EXPENSES));
+                        afterDocId = SyncPrefs.getPullWatermarkDocId(appContext, userUid, SyncPrefs.COLLECTION_EXPENSES);
+                    } else {
+                        // Versiones anteriores solo guardaban la hora local de la última sincronización
+                        long lastSyncMillis = SyncPrefs.getLastSyncExpensesMillis(appContext, userUid);
+                        if (lastSyncMillis > 0) {
+                            afterUpdatedAt = new Timestamp(
+                                    lastSyncMillis / 1000,
+                                    (int) ((lastSyncMillis % 1000) * 1_000_000)
+                            );
+                        }
+                    }
+                    Log.d("ExpenseRepositoryImpl", "Sincronización incremental de gastos desde Firestore (desde: " + afterUpdatedAt + ", " + afterDocId + ") para usuario: " + userUid);
                 }
                 
-                task.addOnSuccessListener(querySnapshot -> {
-                    executor.execute(() -> {
-                        try {
-                            int syncedCount = 0;
-                            
-                            if (querySnapshot != null && !querySnapshot.isEmpty()) {
-                                for (DocumentSnapshot doc : querySnapshot.getDocuments()) {
-                                    try {
-                                        String remoteId = doc.getId();
-                                        String categoryRemoteId = doc.getString("category_remote_id");
-                                        Double amount = doc.getDouble("amount");
-                                        Timestamp timestamp = doc.getTimestamp("timestamp");
-                                        Timestamp updatedAt = doc.getTimestamp("updated_at");
-                                        Timestamp deletedAt = doc.getTimestamp("deleted_at");
-                                        
-                                        // Buscar si ya existe en Room por remoteId
-                                        ExpenseEntity existing = expenseDao.getExpenseByRemoteId(remoteId);
-                                        
-                                        // Si no se encuentra por remoteId, buscar por atributos (para gastos creados en offline)
-                                        if (existing == null && categoryRemoteId != null && amount != null && timestamp != null) {
-                                            existing = expenseDao.findExpenseByAttributes(
-                                                userUid,
-                                                categoryRemoteId,
-                                                amount,
-                                                timestamp.toDate().getTime()
-                                            );
-                                            if (existing != null) {
-                                                Log.d("ExpenseRepositoryImpl", "Gasto encontrado por atributos (creado en offline): idLocal=" + existing.idLocal);
-                                            }
-                                        }
-                                        
-                                        if (existing != null) {
-                                            // Actualizar gasto existente
-                                            if (categoryRemoteId != null) {
-                                                existing.categoryRemoteId = categoryRemoteId;
-                                            }
-                                            if (amount != null) {
-                                                existing.monto = amount;
-                                            }
-                                            if (timestamp != null) {
-                                                existing.fechaEpochMillis = timestamp.toDate().getTime();
-                                            }
-                                            if (updatedAt != null) {
-                                                existing.updatedAt = updatedAt.toDate().getTime();
-                                            }
-                                            if (deletedAt != null) {
-                                                existing.deletedAt = deletedAt.toDate().getTime();
-                                            } else {
-                                                existing.deletedAt = null;
-                                            }
-                                            existing.syncState = "SYNCED";
-                                            expenseDao.updateExpense(existing);
-                                            syncedCount++;
-                                        } else {
-                                            // Insertar nuevo gasto
-                                            ExpenseEntity expense = new ExpenseEntity();
-                                            expense.remoteId = remoteId;
-                                            expense.userUid = userUid;
-                                            expense.categoryRemoteId = categoryRemoteId != null ? categoryRemoteId : "default";
-                                            expense.monto = amount != null ? amount : 0.0;
-                                            if (timestamp != null) {
-                                                expense.fechaEpochMillis = timestamp.toDate().getTime();
-                                            } else {
-                                                expense.fechaEpochMillis = System.currentTimeMillis();
-                                            }
-                                            if (updatedAt != null) {
-                                                expense.updatedAt = updatedAt.toDate().getTime();
-                                            } else {
-                                                expense.updatedAt = System.currentTimeMillis();
-                                            }
-                                            if (deletedAt != null) {
-                                                expense.deletedAt = deletedAt.toDate().getTime();
-                                            }
-                                            expense.syncState = "SYNCED";
-                                            
-                                            long idLocal = expenseDao.insertExpense(expense);
-                                            expense.idLocal = idLocal;
-                                            syncedCount++;
-                                        }
-                                    } catch (Exception e) {
-                                        Log.e("ExpenseRepositoryImpl", "Error al procesar gasto desde Firestore: " + doc.getId(), e);
-                                    }
-                                }
-                            }
-                            
-                            Log.d("ExpenseRepositoryImpl", "Sincronización completada: " + syncedCount + " gastos procesados");
-                            if (callback != null) {
-                                callback.onSuccess(syncedCount);
-                            }
-                        } catch (Exception e) {
-                            Log.e("ExpenseRepositoryImpl", "Error al procesar gastos desde Firestore", e);
-                            if (callback != null) {
-                                callback.onError(e);
+                pullExpensesPage(userUid, afterUpdatedAt, afterDocId, 0, callback);
+            } catch (Exception e) {
+                Log.e("ExpenseRepositoryImpl", "Error al iniciar sincronización desde Firestore", e);
+                if (callback != null) {
+                    callback.onError(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Descarga y aplica una página de gastos después del cursor, guarda la marca de agua
+     * y sigue con la próxima página hasta recibir una incompleta.
+     */
+    private void pullExpensesPage(String userUid, Timestamp afterUpdatedAt, String afterDocId,
+                                  int syncedSoFar, RepositoryCallback<Integer> callback) {
+        firestoreDataSource.getExpensesPage(userUid, afterUpdatedAt, afterDocId, FirestoreDataSource.PULL_PAGE_SIZE)
+                .addOnSuccessListener(executor, querySnapshot -> {
+                    try {
+                        List<DocumentSnapshot> docs = querySnapshot.getDocuments();
+                        int syncedCount = syncedSoFar;
+                        if (!docs.isEmpty()) {
+                            // Gastos archivados que cambiaron en Firestore vuelven a la tabla caliente antes del merge
+                            ExpenseArchive.getInstance(appContext).restoreByRemoteIds(remoteIdsOf(docs));
+                            syncedCount += database().runInTransaction(() -> applyRemoteExpenses(userUid, docs));
+                        }
+                        
+                        Timestamp lastUpdatedAt = docs.isEmpty() ? null
+                                : docs.get(docs.size() - 1).getTimestamp("updated_at");
+                        if (lastUpdatedAt != null) {
+                            String lastDocId = docs.get(docs.size() - 1).getId();
+                            SyncPrefs.setPullWatermark(appContext, userUid, SyncPrefs.COLLECTION_EXPENSES,
+                                    lastUpdatedAt.getSeconds(), lastUpdatedAt.getNanoseconds(), lastDocId);
+                            if (docs.size() == FirestoreDataSource.PULL_PAGE_SIZE) {
+                                pullExpensesPage(userUid, lastUpdatedAt, lastDocId, syncedCount, callback);
+                                return;
                             }
                         }
-                    });
-                }).addOnFailureListener(e -> {
+                        
+                        Log.d("ExpenseRepositoryImpl", "Sincronización completada: " + syncedCount + " gastos procesados");
+                        if (callback != null) {
+                            callback.onSuccess(syncedCount);
+                        }
+                    } catch (Exception e) {
+                        Log.e("ExpenseRepositoryImpl", "Error al procesar gastos desde Firestore", e);
+                        if (callback != null) {
+                            callback.onError(e);
+                        }
+                    }
+                })
+                .addOnFailureListener(executor, e -> {
                     Log.e("ExpenseRepositoryImpl", "Error al obtener gastos desde Firestore", e);
                     if (callback != null) {
                         callback.onError(e);
                     }
                 });
+    }
+
+    /**
+     * Escucha en tiempo real los gastos posteriores a la marca de agua (ver RealtimeSync): cada snapshot
+     * aplica sus docChanges en una transacción, con el mismo merge que la descarga por páginas.
+     * Devuelve null si todavía no hay marca de agua; la primera descarga la hace syncFromFirestore.
+     */
+    public ListenerRegistration listenForRemoteChanges(String userUid, Executor callbackExecutor,
+                                                       RealtimeSync.ListenerStatus status) {
+        long watermarkSeconds = SyncPrefs.getPullWatermarkSeconds(appContext, userUid, SyncPrefs.COLLECTION_EXPENSES);
+        if (watermarkSeconds < 0) {
+            return null;
+        }
+        Timestamp afterUpdatedAt = new Timestamp(watermarkSeconds,
+                SyncPrefs.getPullWatermarkNanos(appContext, userUid, SyncPrefs.COLLECTION_EXPENSES));
+        String afterDocId = SyncPrefs.getPullWatermarkDocId(appContext, userUid, SyncPrefs.COLLECTION_EXPENSES);
+        return firestoreDataSource.listenAfter(userUid, SyncPrefs.COLLECTION_EXPENSES, afterUpdatedAt, afterDocId,
+                callbackExecutor, (snapshot, error) -> {
+                    status.onListenerResult(error);
+                    if (error != null) {
+                        Log.e("ExpenseRepositoryImpl", "Error en el listener de gastos", error);
+                        return;
+                    }
+                    List<DocumentSnapshot> docs = RealtimeSync.changedDocuments(snapshot);
+                    if (docs.isEmpty()) {
+                        return;
+                    }
+                    try {
+                        ExpenseArchive.getInstance(appContext).restoreByRemoteIds(remoteIdsOf(docs));
+                        int applied = database().runInTransaction(() -> applyRemoteExpenses(userUid, docs));
+                        if (!snapshot.getMetadata().isFromCache()) {
+                            RealtimeSync.advanceWatermark(appContext, userUid, SyncPrefs.COLLECTION_EXPENSES, docs);
+                        }
+                        Log.d("ExpenseRepositoryImpl", "Tiempo real: " + applied + " gastos aplicados");
+                    } catch (Exception e) {
+                        Log.e("ExpenseRepositoryImpl", "Error al aplicar cambios en tiempo real de gastos", e);
+                    }
+                });
+    }
+
+    /**
+     * Aplica en Room una página de gastos descargada de Firestore. Debe correr dentro de una transacción:
+     * busca las filas existentes con una sola consulta IN y escribe todo con un upsert en bloque.
+     * Devuelve la cantidad de gastos aplicados.
+     */
+    private int applyRemoteExpenses(String userUid, List<DocumentSnapshot> docs) {
+        List<String> remoteIds = remoteIdsOf(docs);
+        Map<String, ExpenseEntity> existingByRemoteId = new HashMap<>();
+        List<Long> existingIdsLocal = new ArrayList<>();
+        for (ExpenseEntity expense : expenseDao().getExpensesByRemoteIds(remoteIds)) {
+            existingByRemoteId.put(expense.remoteId, expense);
+            existingIdsLocal.add(expense.idLocal);
+        }
+        Set<Long> queuedIdsLocal = existingIdsLocal.isEmpty() ? new HashSet<>()
+                : new HashSet<>(syncOutboxDao().getQueuedIds(SyncOutboxEntity.TYPE_EXPENSE, existingIdsLocal));
+        
+        List<ExpenseEntity> toUpdate = new ArrayList<>();
+        List<ExpenseEntity> toInsert = new ArrayList<>();
+        for (DocumentSnapshot doc : docs) {
+            try {
+                ExpenseEntity existing = existingByRemoteId.get(doc.getId());
+                if (existing != null && queuedIdsLocal.contains(existing.idLocal)) {
+                    // Cambios locales pendientes de subir: el push posterior los lleva a Firestore y prevalecen
+                    Log.d("ExpenseRepositoryImpl", "Gasto con cambios locales pendientes, se mantiene la versión local: idLocal=" + existing.idLocal);
+                    continue;
+                }
+                ExpenseEntity expense = mergeRemoteExpense(userUid, doc, existing);
+                if (existing != null) {
+                    toUpdate.add(expense);
+                } else {
+                    toInsert.add(expense);
+                }
             } catch (Exception e) {
-                Log.e("ExpenseRepositoryImpl", "Error al iniciar sincronización desde Firestore", e);
-                if (callback != null) {
-                    callback.onError(e);
+                Log.e("ExpenseRepositoryImpl", "Error al procesar gasto desde Firestore: " + doc.getId(), e);
+            }
+        }
+        
+        dropTakenContentHashes(userUid, toInsert);
+        expenseDao().upsertExpenses(toUpdate, toInsert);
+        return toUpdate.size() + toInsert.size();
+    }
+
+    /**
+     * Las huellas de gastos nuevos que ya tiene otra fila local (o se repiten en la página) se descartan:
+     * con el índice único, la inserción con REPLACE borraría la otra fila. Pasa con duplicados creados
+     * por clientes anteriores a la huella, que sí son gastos distintos en Firestore.
+     */
+    private void dropTakenContentHashes(String userUid, List<ExpenseEntity> toInsert) {
+        List<String> hashes = new ArrayList<>();
+        for (ExpenseEntity expense : toInsert) {
+            if (expense.contentHash != null) {
+                hashes.add(expense.contentHash);
+            }
+        }
+        if (hashes.isEmpty()) {
+            return;
+        }
+        Set<String> taken = new HashSet<>();
+        for (ExpenseEntity local : expenseDao().getExpensesByContentHashes(userUid, hashes)) {
+            taken.add(local.contentHash);
+        }
+        for (ExpenseEntity expense : toInsert) {
+            if (expense.contentHash != null && !taken.add(expense.contentHash)) {
+                Log.d("ExpenseRepositoryImpl", "Huella repetida, el gasto " + expense.remoteId + " se guarda sin huella");
+                expense.contentHash = null;
+            }
+        }
+    }
+
+    /**
+     * Combina un gasto descargado de Firestore con su fila local (existing, o null si no hay)
+     * y devuelve la entidad a escribir.
+     */
+    private ExpenseEntity mergeRemoteExpense(String userUid, DocumentSnapshot doc, ExpenseEntity existing) {
+        String remoteId = doc.getId();
+        String categoryRemoteId = doc.getString("category_remote_id");
+        Long amountCentavos = readAmountCentavos(doc);
+        Timestamp timestamp = doc.getTimestamp("timestamp");
+        Timestamp updatedAt = doc.getTimestamp("updated_at");
+        Timestamp deletedAt = doc.getTimestamp("deleted_at");
+        
+        if (existing != null) {
+            // Actualizar gasto existente
+            if (categoryRemoteId != null) {
+                existing.categoryRemoteId = categoryRemoteId;
+            }
+            if (amountCentavos != null) {
+                existing.montoCentavos = amountCentavos;
+            }
+            if (timestamp != null) {
+                existing.fechaEpochMillis = timestamp.toDate().getTime();
+            }
+            if (updatedAt != null) {
+                existing.updatedAt = updatedAt.toDate().getTime();
+            }
+            if (deletedAt != null) {
+                existing.deletedAt = deletedAt.toDate().getTime();
+            } else {
+                existing.deletedAt = null;
+            }
+            existing.syncState = "SYNCED";
+            return existing;
+        } else {
+            // Insertar nuevo gasto
+            ExpenseEntity expense = new ExpenseEntity();
+            expense.remoteId = remoteId;
+            expense.userUid = userUid;
+            expense.categoryRemoteId = categoryRemoteId != null ? categoryRemoteId : "default";
+            expense.montoCentavos = amountCentavos != null ? amountCentavos : 0L;
+            if (timestamp != null) {
+                expense.fechaEpochMillis = timestamp.toDate().getTime();
+            } else {
+                expense.fechaEpochMillis = System.currentTimeMillis();
+            }
+            if (updatedAt != null) {
+                expense.updatedAt = updatedAt.toDate().getTime();
+            } else {
+                expense.updatedAt = System.currentTimeMillis();
+            }
+            if (deletedAt != null) {
+                expense.deletedAt = deletedAt.toDate().getTime();
+            }
+            // La escriben los clientes con huella; en documentos anteriores queda null
+            expense.contentHash = doc.getString("content_hash");
+            expense.syncState = "SYNCED";
+            return expense;
+        }
+    }
+
+    private static List<String> remoteIdsOf(List<DocumentSnapshot> docs) {
+        List<String> remoteIds = new ArrayList<>(docs.size());
+        for (DocumentSnapshot doc : docs) {
+            remoteIds.add(doc.getId());
+        }
+        return remoteIds;
+    }
+    
+    /**
+     * Lee el monto de un documento en centavos: usa amount_minor si existe
+     * y si no convierte el amount decimal que escriben clientes anteriores.
+     */
+    private static Long readAmountCentavos(DocumentSnapshot doc) {
+        Long amountMinor = doc.getLong("amount_minor");
+        if (amountMinor != null) {
+            return amountMinor;
+        }
+        Double amount = doc.getDouble("amount");
+        return amount != null ? Money.fromDouble(amount) : null;
+    }
+
+    /**
+     * Sube en un WriteBatch los gastos de una página de sync_outbox.
+     * Si el commit se confirma, marca todas las filas SYNCED y vacía sus entradas en una sola transacción.
+     * Si falla por algo distinto de conectividad, se reintenta fila por fila para que un documento
+     * problemático (p. ej. rechazado por las reglas) no bloquee al resto del batch.
+     */
+    private Task<Void> pushExpensesBatch(List<SyncOutboxEntity> entries) {
+        WriteBatch batch = firestoreDataSource.batch();
+        List<ExpenseEntity> pushed = new ArrayList<>();
+        List<SyncOutboxEntity> pushedEntries = new ArrayList<>();
+        
+        for (SyncOutboxEntity entry : entries) {
+            ExpenseEntity expense = expenseDao().getExpenseById(entry.entityIdLocal);
+            if (expense == null || expense.userUid == null || expense.userUid.trim().isEmpty()
+                    || expense.remoteId == null || expense.remoteId.trim().isEmpty()) {
+                // La fila ya no existe o no se puede subir: no hay nada que sincronizar
+                syncOutboxDao().delete(entry.id);
+                continue;
+            }
+            
+            // set con merge sobre el id generado en el cliente: crea o actualiza, y repetirlo no duplica.
+            // Con campos pendientes conocidos, update solo de esos (el documento ya existe)
+            Map<String, Object> payload = buildExpensePayload(expense, entry.dirtyFields);
+            if (entry.dirtyFields == SyncOutboxEntity.DIRTY_ALL) {
+                batch.set(firestoreDataSource.expenseRef(expense.userUid, expense.remoteId), payload, SetOptions.merge());
+            } else {
+                batch.update(firestoreDataSource.expenseRef(expense.userUid, expense.remoteId), payload);
+            }
+            pushed.add(expense);
+            pushedEntries.add(entry);
+        }
+        
+        if (pushed.isEmpty()) {
+            return Tasks.forResult(null);
+        }
+        
+        return batch.commit().continueWith(executor, task -> {
+            if (task.isSuccessful()) {
+                database().runInTransaction(() -> {
+                    for (int i = 0; i < pushed.size(); i++) {
+                        expenseDao().updateSyncState(pushed.get(i).idLocal, "SYNCED");
+                        syncOutboxDao().delete(pushedEntries.get(i).id);
+                    }
+                });
+                Log.d("ExpenseRepositoryImpl", "Batch de " + pushed.size() + " gastos sincronizado en Firestore");
+                return null;
+            }
+            
+            Exception e = task.getException();
+            Log.e("ExpenseRepositoryImpl", "Error al subir batch de " + pushed.size() + " gastos", e);
+            ConnectionErrorNotifier.getInstance().notifyIfConnectionError(e);
+            if (FirestoreDataSource.isUnavailable(e)) {
+                // Sin conexión: las entradas siguen en sync_outbox con su próximo reintento (backoff)
+                for (SyncOutboxEntity entry : pushedEntries) {
+                    SyncRetryScheduler.recordFailure(appContext, syncOutboxDao(), entry.id);
+                }
+            } else {
+                // Otro error puede venir de una sola fila: se reintenta fila por fila
+                for (int i = 0; i < pushed.size(); i++) {
+                    syncExpenseWithFirestore(pushed.get(i), pushedEntries.get(i).id, pushedEntries.get(i).dirtyFields);
                 }
             }
+            throw e;
         });
     }
 
     /**
-     * Sincroniza un gasto con Firestore (offline-first).
+     * Hasta cuándo el SyncWorker deja la entrada recién encolada para el envío agrupado del repositorio
+     */
+    private long coalesceDeadline() {
+        return DateTimeUtil.getCurrentEpochMillis() + SyncPrefs.getWriteCoalesceWindowMillis(appContext);
+    }
+
+    /**
+     * Envío agrupado de WriteCoalescer: sube el estado actual del gasto con la entrada vigente de sync_outbox.
+     * Un gasto creado y eliminado dentro de la misma ventana nunca llegó a Firestore: se descarta el envío
+     * y la fila queda como lápida local ya sincronizada (la compactación la borra).
      */
-    private void syncExpenseWithFirestore(ExpenseEntity expense) {
+    private void flushExpense(long idLocal, boolean createdInWindow) {
+        if (SyncPrefs.isLastSyncBeyondServerPurge(appContext, DateTimeUtil.getCurrentEpochMillis())) {
+            // Sin sincronizar desde antes del purgado del servidor: primero el SyncWorker descarta lo que
+            // podría revivir documentos purgados (ver SyncWorker.resetIfStale)
+            SyncRetryScheduler.scheduleNow(appContext);
+            return;
+        }
+        SyncOutboxEntity entry = syncOutboxDao().getByEntity(SyncOutboxEntity.TYPE_EXPENSE, idLocal);
+        if (entry == null) {
+            // Ya lo subió el SyncWorker
+            return;
+        }
+        ExpenseEntity expense = expenseDao().getExpenseById(idLocal);
+        if (expense == null) {
+            syncOutboxDao().delete(entry.id);
+            return;
+        }
+        if (createdInWindow && expense.deletedAt != null) {
+            database().runInTransaction(() -> {
+                expenseDao().updateSyncState(idLocal, "SYNCED");
+                syncOutboxDao().delete(entry.id);
+            });
+            Log.d("ExpenseRepositoryImpl", "Gasto creado y eliminado antes de subirse, sin escritura: idLocal=" + idLocal);
+            return;
+        }
+        syncExpenseWithFirestore(expense, entry.id, entry.dirtyFields);
+    }
+
+    /**
+     * Bits FIELD_* de los campos del documento que difieren entre la fila guardada y la nueva.
+     * Sin fila guardada no hay con qué comparar: todos.
+     */
+    static int changedFields(ExpenseEntity before, ExpenseEntity after) {
+        if (before == null) {
+            return SyncOutboxEntity.DIRTY_ALL;
+        }
+        int fields = 0;
+        if (!before.categoryRemoteId.equals(after.categoryRemoteId)) {
+            fields |= ExpenseEntity.FIELD_CATEGORY;
+        }
+        if (before.montoCentavos != after.montoCentavos) {
+            fields |= ExpenseEntity.FIELD_AMOUNT;
+        }
+        if (before.fechaEpochMillis != after.fechaEpochMillis) {
+            fields |= ExpenseEntity.FIELD_FECHA;
+        }
+        if (!Objects.equals(before.deletedAt, after.deletedAt)) {
+            fields |= ExpenseEntity.FIELD_DELETED;
+        }
+        return fields;
+    }
+
+    /**
+     * Sincroniza un gasto con Firestore (offline-first). Debe llamarse fuera del hilo principal.
+     * outboxId es la entrada de sync_outbox que se confirma (borra) cuando Firestore acepta el cambio;
+     * si falla, la entrada queda en la cola y se reintenta con backoff (SyncRetryScheduler).
+     * dirtyFields son los campos a subir (SyncOutboxEntity.DIRTY_ALL: el documento completo).
+     */
+    private void syncExpenseWithFirestore(ExpenseEntity expense, long outboxId, int dirtyFields) {
         if (expense.userUid == null || expense.userUid.trim().isEmpty()) {
             Log.w("ExpenseRepositoryImpl", "No se puede sincronizar gasto sin userUid");
+            executor.execute(() -> syncOutboxDao().delete(outboxId));
             return;
         }
 
-        // Resolver remoteId real de la categoría si aún estamos usando el fallback "local_X"
-        String resolvedCategoryRemoteId = expense.categoryRemoteId;
-        if (resolvedCategoryRemoteId != null && resolvedCategoryRemoteId.startsWith("local_")) {
-            try {
-                long localId = Long.parseLong(resolvedCategoryRemoteId.replace("local_", ""));
-                CategoryEntity category = categoryDao.getCategoryByIdIncludingInactive(localId);
-                if (category != null && category.remoteId != null && !category.remoteId.trim().isEmpty()) {
-                    resolvedCategoryRemoteId = category.remoteId;
-                    Log.d("ExpenseRepositoryImpl", "Resuelto category_remote_id desde local_" + localId + " a remoteId=" + resolvedCategoryRemoteId);
-                }
-            } catch (NumberFormatException e) {
-                Log.w("ExpenseRepositoryImpl", "No se pudo parsear id local de categoría desde: " + resolvedCategoryRemoteId, e);
-            }
+        if (expense.remoteId == null || expense.remoteId.trim().isEmpty()) {
+            Log.w("ExpenseRepositoryImpl", "No se puede sincronizar gasto sin remoteId: idLocal=" + expense.idLocal);
+            executor.execute(() -> syncOutboxDao().delete(outboxId));
+            return;
         }
 
-        // Construir payload
+        if (syncOutboxDao().isCategoryQueued(expense.categoryRemoteId)) {
+            // La categoría todavía no está en Firestore: el gasto queda en la cola y sale una sola vez
+            // cuando se confirme la categoría (ver CategoryRepositoryImpl.syncCategoryWithFirestore)
+            Log.d("ExpenseRepositoryImpl", "Gasto espera a su categoría " + expense.categoryRemoteId + ": idLocal=" + expense.idLocal);
+            return;
+        }
+
+        // Crear, actualizar y soft delete son la misma escritura sobre el id generado en el cliente;
+        // con campos pendientes conocidos se suben solo esos
+        Map<String, Object> payload = buildExpensePayload(expense, dirtyFields);
+        boolean partial = dirtyFields != SyncOutboxEntity.DIRTY_ALL;
+        Task<Void> write = partial
+                ? firestoreDataSource.updateExpense(expense.userUid, expense.remoteId, payload)
+                : firestoreDataSource.setExpense(expense.userUid, expense.remoteId, payload);
+        write
+                .addOnSuccessListener(unused -> {
+                    Log.d("ExpenseRepositoryImpl", "Gasto sincronizado en Firestore. remoteId=" + expense.remoteId);
+                    executor.execute(() -> database().runInTransaction(() -> {
+                        expenseDao().updateSyncState(expense.idLocal, "SYNCED");
+                        syncOutboxDao().delete(outboxId);
+                    }));
+                })
+                .addOnFailureListener(e -> {
+                    Log.e("ExpenseRepositoryImpl", "Error al sincronizar gasto en Firestore", e);
+                    // Notificar error de conexión si aplica
+                    ConnectionErrorNotifier.getInstance().notifyIfConnectionError(e);
+                    executor.execute(() -> {
+                        expenseDao().updateSyncState(expense.idLocal, "ERROR");
+                        int retryFields = dirtyFieldsForRetry(dirtyFields, e);
+                        if (retryFields != dirtyFields) {
+                            syncOutboxDao().updateDirtyFields(outboxId, retryFields);
+                        }
+                        SyncRetryScheduler.recordFailure(appContext, syncOutboxDao(), outboxId);
+                    });
+                });
+    }
+
+    /**
+     * Campos a subir en el reintento de una escritura fallida. Un update parcial sobre un documento que
+     * no existe (NOT_FOUND, p. ej. se borró en el servidor) no puede funcionar: el reintento lo sube completo.
+     */
+    static int dirtyFieldsForRetry(int dirtyFields, Exception e) {
+        if (dirtyFields != SyncOutboxEntity.DIRTY_ALL && FirestoreDataSource.isNotFound(e)) {
+            return SyncOutboxEntity.DIRTY_ALL;
+        }
+        return dirtyFields;
+    }
+
+    /**
+     * Construye el documento de Firestore para un gasto: completo con DIRTY_ALL,
+     * o solo los campos de dirtyFields (más updated_at, que cambia en cada escritura).
+     */
+    static Map<String, Object> buildExpensePayload(ExpenseEntity expense, int dirtyFields) {
+        boolean all = dirtyFields == SyncOutboxEntity.DIRTY_ALL;
         Map<String, Object> data = new HashMap<>();
-        data.put("category_remote_id", resolvedCategoryRemoteId);
-        data.put("amount", expense.monto);
-        data.put("timestamp", new Timestamp(
-                expense.fechaEpochMillis / 1000,
-                (int) ((expense.fechaEpochMillis % 1000) * 1_000_000)
-        ));
+        if (all || (dirtyFields & ExpenseEntity.FIELD_CATEGORY) != 0) {
+            data.put("category_remote_id", expense.categoryRemoteId);
+        }
+        if (all || (dirtyFields & ExpenseEntity.FIELD_AMOUNT) != 0) {
+            // amount (decimal) se mantiene para clientes anteriores; amount_minor es la fuente exacta
+            data.put("amount", Money.toDouble(expense.montoCentavos));
+            data.put("amount_minor", expense.montoCentavos);
+        }
+        if (all || (dirtyFields & ExpenseEntity.FIELD_FECHA) != 0) {
+            data.put("timestamp", new Timestamp(
+                    expense.fechaEpochMillis / 1000,
+                    (int) ((expense.fechaEpochMillis % 1000) * 1_000_000)
+            ));
+        }
 
-        Timestamp updatedAtTs = new Timestamp(
-                expense.updatedAt / 1000,
-                (int) ((expense.updatedAt % 1000) * 1_000_000)
-        );
-        data.put("updated_at", updatedAtTs);
+        // La huella no cambia después de la creación
+        if (all && expense.contentHash != null) {
+            data.put("content_hash", expense.contentHash);
+        }
+
+        // Hora del servidor: es el cursor de las descargas incrementales y no depende del reloj del dispositivo
+        data.put("updated_at", FieldValue.serverTimestamp());
 
+        if (!all && (dirtyFields & ExpenseEntity.FIELD_DELETED) == 0) {
+            return data;
+        }
         if (expense.deletedAt != null) {
             Timestamp deletedAtTs = new Timestamp(
                     expense.deletedAt / 1000,
@@ -356,50 +809,6 @@ public class ExpenseRepositoryImpl implements ExpenseRepository {
         } else {
             data.put("deleted_at", null);
         }
-
-        boolean isSoftDeleted = expense.deletedAt != null;
-
-        if (expense.remoteId == null || expense.remoteId.trim().isEmpty()) {
-            if (isSoftDeleted) {
-                // No crear en remoto algo ya eliminado
-                Log.d("ExpenseRepositoryImpl", "Gasto soft-deleted sin remoteId, no se crea en Firestore");
-                return;
-            }
-
-            firestoreDataSource.createExpense(expense.userUid, data)
-                    .addOnSuccessListener(docRef -> {
-                        String remoteId = docRef.getId();
-                        Log.d("ExpenseRepositoryImpl", "Gasto sincronizado en Firestore. remoteId=" + remoteId);
-                        executor.execute(() -> {
-                            expense.remoteId = remoteId;
-                            expense.syncState = "SYNCED";
-                            expenseDao.updateExpense(expense);
-                        });
-                    })
-                    .addOnFailureListener(e -> {
-                        Log.e("ExpenseRepositoryImpl", "Error al crear gasto en Firestore", e);
-                        // Notificar error de conexión si aplica
-                        ConnectionErrorNotifier.getInstance().notifyIfConnectionError(e);
-                        executor.execute(() ->
-                                expenseDao.updateSyncState(expense.idLocal, "ERROR")
-                        );
-                    });
-        } else {
-            firestoreDataSource.updateExpense(expense.userUid, expense.remoteId, data)
-                    .addOnSuccessListener(unused -> {
-                        Log.d("ExpenseRepositoryImpl", "Gasto actualizado en Firestore. remoteId=" + expense.remoteId);
-                        executor.execute(() ->
-                                expenseDao.updateSyncState(expense.idLocal, "SYNCED")
-                        );
-                    })
-                    .addOnFailureListener(e -> {
-                        Log.e("ExpenseRepositoryImpl", "Error al actualizar gasto en Firestore", e);
-                        // Notificar error de conexión si aplica
-                        ConnectionErrorNotifier.getInstance().notifyIfConnectionError(e);
-                        executor.execute(() ->
-                                expenseDao.updateSyncState(expense.idLocal, "ERROR")
-                        );
-                    });
-        }
+        return data;
     }
 }
@@ -0,0 +1,121 @@
+package com.example.gestorgastos.data.repository;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.lifecycle.LiveData;
+import androidx.room.InvalidationTracker;
+
+import com.example.gestorgastos.data.local.AppDatabase;
+import com.example.gestorgastos.data.local.dao.ExpenseMonthTotalDao;
+import com.example.gestorgastos.data.local.model.CategorySum;
+import com.example.gestorgastos.data.local.model.MonthChange;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Consultas observables por mes sobre expense_month_totals.
+ * Room invalida por tabla: cualquier escritura en expenses (una edición de marzo, o la sincronización
+ * escribiendo gastos viejos) volvería a correr la consulta de todos los meses observados.
+ * Acá se escucha en cambio expense_month_changes, que los triggers llenan con el mes de cada fila
+ * de totales modificada, y solo se recarga el mes que realmente cambió.
+ */
+public final class MonthChangeTracker {
+    private static final String TAG = "MonthChangeTracker";
+
+    private static volatile MonthChangeTracker INSTANCE;
+
+    private final AppDatabase database;
+    private final ExpenseMonthTotalDao monthTotalDao;
+    // Un hilo: las recargas y el avance de lastSeq nunca corren en paralelo
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    // Observadores activos por clave usuario + mes
+    private final Map<String, Set<MonthSumsLiveData>> observersByMonth = new ConcurrentHashMap<>();
+    // Última secuencia procesada de expense_month_changes (solo se toca desde executor)
+    private long lastSeq = -1;
+
+    private MonthChangeTracker(Context context) {
+        this.database = AppDatabase.getDatabase(context);
+        this.monthTotalDao = database.expenseMonthTotalDao();
+        executor.execute(() -> lastSeq = monthTotalDao.getLastMonthChangeSeq());
+        database.getInvalidationTracker().addObserver(new InvalidationTracker.Observer("expense_month_changes") {
+            @Override
+            public void onInvalidated(@NonNull Set<String> tables) {
+                executor.execute(MonthChangeTracker.this::dispatchChanges);
+            }
+        });
+    }
+
+    public static MonthChangeTracker getInstance(Context context) {
+        // Se recrea si cambió la base activa (otra cuenta, ver AppDatabase.openForUser)
+        if (INSTANCE == null || INSTANCE.database != AppDatabase.getDatabase(context)) {
+            synchronized (MonthChangeTracker.class) {
+                if (INSTANCE == null || INSTANCE.database != AppDatabase.getDatabase(context)) {
+                    INSTANCE = new MonthChangeTracker(context.getApplicationContext());
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * Totales por categoría del mes "yyyy-MM" que solo vuelven a emitir cuando cambia ese mes.
+     */
+    public LiveData<List<CategorySum>> observeMonthCategorySums(String userUid, String yearMonth) {
+        return new MonthSumsLiveData(userUid, yearMonth);
+    }
+
+    private void dispatchChanges() {
+        List<MonthChange> changes = monthTotalDao.getMonthChangesAfter(lastSeq);
+        for (MonthChange change : changes) {
+            lastSeq = Math.max(lastSeq, change.seq);
+            Set<MonthSumsLiveData> observers = observersByMonth.get(keyOf(change.userUid, change.yearMonth));
+            if (observers == null) {
+                continue;
+            }
+            Log.d(TAG, "Mes modificado " + change.yearMonth + ", recargando " + observers.size() + " observadores");
+            for (MonthSumsLiveData observer : observers) {
+                observer.load();
+            }
+        }
+    }
+
+    private static String keyOf(String userUid, String yearMonth) {
+        return userUid + "|" + yearMonth;
+    }
+
+    private final class MonthSumsLiveData extends LiveData<List<CategorySum>> {
+        private final String userUid;
+        private final String yearMonth;
+
+        MonthSumsLiveData(String userUid, String yearMonth) {
+            this.userUid = userUid;
+            this.yearMonth = yearMonth;
+        }
+
+        @Override
+        protected void onActive() {
+            // Registrar antes de cargar: un cambio entre medio provoca una recarga de más, nunca una de menos
+            observersByMonth.computeIfAbsent(keyOf(userUid, yearMonth), key -> ConcurrentHashMap.newKeySet()).add(this);
+            executor.execute(this::load);
+        }
+
+        @Override
+        protected void onInactive() {
+            Set<MonthSumsLiveData> observers = observersByMonth.get(keyOf(userUid, yearMonth));
+            if (observers != null) {
+                observers.remove(this);
+            }
+        }
+
+        void load() {
+            postValue(monthTotalDao.getCategorySumsForMonthSync(userUid, yearMonth));
+        }
+    }
+}
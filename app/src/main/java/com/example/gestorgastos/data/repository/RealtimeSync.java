@@ -0,0 +1,209 @@
+package com.example.gestorgastos.data.repository;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.lifecycle.DefaultLifecycleObserver;
+import androidx.lifecycle.LifecycleOwner;
+
+import com.example.gestorgastos.util.SyncPrefs;
+import com.google.firebase.Timestamp;
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.auth.FirebaseUser;
+import com.google.firebase.firestore.DocumentChange;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestoreException;
+import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.QuerySnapshot;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Modo de sincronización en tiempo real, atado al ciclo de vida de la pantalla principal:
+ * mientras está visible (onStart..onStop) hay listeners de Firestore sobre los gastos y categorías
+ * del usuario posteriores a la marca de agua de descarga, y cada snapshot aplica en Room solo sus
+ * docChanges. Los cambios hechos en otro dispositivo aparecen en segundos, sin consultas periódicas.
+ * La marca de agua avanza con lo aplicado, así al volver a primer plano se retoma desde ahí;
+ * la descarga por páginas (syncFromFirestore, SyncWorker) sigue cubriendo lo que pase en segundo plano.
+ * Si un listener falla (red, servidor) se vuelve a escuchar con backoff exponencial mientras la pantalla siga visible.
+ */
+public final class RealtimeSync implements DefaultLifecycleObserver {
+    private static final String TAG = "RealtimeSync";
+    // Espera antes de volver a escuchar tras un error del listener: se duplica con cada error seguido
+    private static final long RETRY_BASE_DELAY_MS = 2_000L;
+    private static final long RETRY_MAX_DELAY_MS = 5 * 60_000L;
+
+    /**
+     * Resultado de cada evento de un listener: error null para un snapshot recibido. Se llama en el
+     * executor de los callbacks.
+     */
+    interface ListenerStatus {
+        void onListenerResult(@Nullable FirebaseFirestoreException error);
+    }
+
+    private final ExpenseRepositoryImpl expenseRepository;
+    private final CategoryRepositoryImpl categoryRepository;
+    // Un hilo: los snapshots se aplican en el orden en que llegan
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // Estado de los listeners: solo se toca en el hilo principal
+    private ListenerRegistration expensesListener;
+    private ListenerRegistration categoriesListener;
+    private boolean started;
+    private int expensesErrors;
+    private int categoriesErrors;
+
+    public RealtimeSync(Context context) {
+        Context appContext = context.getApplicationContext();
+        this.expenseRepository = new ExpenseRepositoryImpl(appContext);
+        this.categoryRepository = new CategoryRepositoryImpl(appContext);
+    }
+
+    @Override
+    public void onStart(@NonNull LifecycleOwner owner) {
+        started = true;
+        expensesErrors = 0;
+        categoriesErrors = 0;
+        attachCategories();
+        attachExpenses();
+        Log.d(TAG, "Listeners en tiempo real: categorías " + (categoriesListener != null) +
+              ", gastos " + (expensesListener != null));
+    }
+
+    @Override
+    public void onStop(@NonNull LifecycleOwner owner) {
+        started = false;
+        mainHandler.removeCallbacksAndMessages(null);
+        if (categoriesListener != null) {
+            categoriesListener.remove();
+            categoriesListener = null;
+        }
+        if (expensesListener != null) {
+            expensesListener.remove();
+            expensesListener = null;
+        }
+    }
+
+    @Override
+    public void onDestroy(@NonNull LifecycleOwner owner) {
+        // Cada pantalla crea su RealtimeSync: sin esto los hilos de los repositorios quedan vivos
+        executor.shutdown();
+        expenseRepository.shutdown();
+        categoryRepository.shutdown();
+    }
+
+    private void attachCategories() {
+        String userUid = currentUserUid();
+        if (!started || userUid == null) {
+            return;
+        }
+        categoriesListener = categoryRepository.listenForRemoteChanges(userUid, executor,
+                error -> mainHandler.post(() -> {
+                    if (error == null) {
+                        categoriesErrors = 0;
+                        return;
+                    }
+                    // Un listener que falla ya no recibe más snapshots
+                    categoriesListener = null;
+                    if (isRetryable(error)) {
+                        mainHandler.postDelayed(this::attachCategories, retryDelayMillis(++categoriesErrors));
+                    }
+                }));
+    }
+
+    private void attachExpenses() {
+        String userUid = currentUserUid();
+        if (!started || userUid == null) {
+            return;
+        }
+        expensesListener = expenseRepository.listenForRemoteChanges(userUid, executor,
+                error -> mainHandler.post(() -> {
+                    if (error == null) {
+                        expensesErrors = 0;
+                        return;
+                    }
+                    expensesListener = null;
+                    if (isRetryable(error)) {
+                        mainHandler.postDelayed(this::attachExpenses, retryDelayMillis(++expensesErrors));
+                    }
+                }));
+    }
+
+    @Nullable
+    private static String currentUserUid() {
+        FirebaseUser user = FirebaseAuth.getInstance().getCurrentUser();
+        return user != null ? user.getUid() : null;
+    }
+
+    // Sin permiso (sesión cerrada o reglas) reintentar no sirve; el resto suele ser transitorio
+    static boolean isRetryable(FirebaseFirestoreException error) {
+        return error.getCode() != FirebaseFirestoreException.Code.PERMISSION_DENIED
+                && error.getCode() != FirebaseFirestoreException.Code.UNAUTHENTICATED;
+    }
+
+    // Backoff exponencial por errores seguidos (1, 2, 3...), con tope
+    static long retryDelayMillis(int consecutiveErrors) {
+        int shift = Math.min(Math.max(consecutiveErrors - 1, 0), 20);
+        return Math.min(RETRY_BASE_DELAY_MS << shift, RETRY_MAX_DELAY_MS);
+    }
+
+    /**
+     * Documentos agregados o modificados del snapshot que ya están confirmados por el servidor.
+     * Los que tienen escrituras locales pendientes son cambios propios que sube sync_outbox;
+     * los REMOVED solo salen de la consulta si el servidor purgó la lápida (ver compactación).
+     */
+    static List<DocumentSnapshot> changedDocuments(QuerySnapshot snapshot) {
+        List<DocumentSnapshot> docs = new ArrayList<>();
+        for (DocumentChange change : snapshot.getDocumentChanges()) {
+            DocumentSnapshot doc = change.getDocument();
+            if (change.getType() != DocumentChange.Type.REMOVED && !doc.getMetadata().hasPendingWrites()) {
+                docs.add(doc);
+            }
+        }
+        return docs;
+    }
+
+    /**
+     * Avanza la marca de agua de la colección hasta el mayor (updated_at, id) de docs, si supera la guardada.
+     * Solo con snapshots del servidor: uno armado desde la caché puede no tener todo lo anterior.
+     */
+    static void advanceWatermark(Context context, String userUid, String collection, List<DocumentSnapshot> docs) {
+        Timestamp maxUpdatedAt = null;
+        String maxDocId = null;
+        for (DocumentSnapshot doc : docs) {
+            Timestamp updatedAt = doc.getTimestamp("updated_at");
+            if (updatedAt != null && isAfter(updatedAt, doc.getId(), maxUpdatedAt, maxDocId)) {
+                maxUpdatedAt = updatedAt;
+                maxDocId = doc.getId();
+            }
+        }
+        if (maxUpdatedAt == null) {
+            return;
+        }
+        long storedSeconds = SyncPrefs.getPullWatermarkSeconds(context, userUid, collection);
+        Timestamp stored = storedSeconds < 0 ? null
+                : new Timestamp(storedSeconds, SyncPrefs.getPullWatermarkNanos(context, userUid, collection));
+        if (isAfter(maxUpdatedAt, maxDocId, stored, SyncPrefs.getPullWatermarkDocId(context, userUid, collection))) {
+            SyncPrefs.setPullWatermark(context, userUid, collection,
+                    maxUpdatedAt.getSeconds(), maxUpdatedAt.getNanoseconds(), maxDocId);
+        }
+    }
+
+    private static boolean isAfter(Timestamp updatedAt, String docId, Timestamp otherUpdatedAt, String otherDocId) {
+        if (otherUpdatedAt == null) {
+            return true;
+        }
+        int byTime = updatedAt.compareTo(otherUpdatedAt);
+        if (byTime != 0) {
+            return byTime > 0;
+        }
+        return otherDocId == null || docId.compareTo(otherDocId) > 0;
+    }
+}
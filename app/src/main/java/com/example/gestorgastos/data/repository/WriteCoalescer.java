@@ -0,0 +1,119 @@
+package com.example.gestorgastos.data.repository;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.example.gestorgastos.util.SyncPrefs;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ventana corta entre un cambio local y su envío a Firestore, por fila (tipo + idLocal).
+ * sync_outbox ya guarda una sola entrada por fila y el envío lee el estado actual, así que
+ * varios cambios seguidos (editar el monto tres veces) terminan en una sola escritura si el envío
+ * espera a que la fila deje de cambiar. Si la fila se creó y se eliminó dentro de la misma ventana,
+ * nunca llegó a Firestore y el repositorio puede descartar el envío entero (ver FlushAction).
+ * Es compartida por todas las instancias de los repositorios: cada ViewModel crea la suya.
+ */
+final class WriteCoalescer {
+    private static final String TAG = "WriteCoalescer";
+
+    private static volatile WriteCoalescer INSTANCE;
+
+    /**
+     * Envío de la fila cuando vence su ventana. createdInWindow indica que entre los cambios
+     * agrupados está la creación: la fila todavía no existe en Firestore.
+     */
+    interface FlushAction {
+        void flush(long idLocal, boolean createdInWindow);
+    }
+
+    // Un hilo, solo para vencer ventanas: el envío en sí corre en el executor del repositorio,
+    // así un envío lento (red, Room) no demora el de las demás filas
+    private final ScheduledExecutorService scheduler;
+    private final Map<String, Pending> pending = new ConcurrentHashMap<>();
+
+    private WriteCoalescer() {
+        this(Executors.newSingleThreadScheduledExecutor());
+    }
+
+    // Los tests pasan un scheduler propio para controlar cuándo vence cada ventana
+    WriteCoalescer(ScheduledExecutorService scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    static WriteCoalescer getInstance() {
+        if (INSTANCE == null) {
+            synchronized (WriteCoalescer.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new WriteCoalescer();
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * Reinicia la ventana de la fila: un envío ya programado se cancela y lo reemplaza action.
+     * Con ventana 0 (ver SyncPrefs.getWriteCoalesceWindowMillis) el envío sale enseguida.
+     * action corre en flushExecutor (el executor del repositorio), nunca en el hilo de las ventanas.
+     */
+    void submit(Context context, String entityType, long idLocal, boolean isCreate,
+                Executor flushExecutor, FlushAction action) {
+        submit(entityType, idLocal, isCreate, SyncPrefs.getWriteCoalesceWindowMillis(context), flushExecutor, action);
+    }
+
+    synchronized void submit(String entityType, long idLocal, boolean isCreate, long windowMillis,
+                             Executor flushExecutor, FlushAction action) {
+        String key = entityType + ":" + idLocal;
+        Pending previous = pending.get(key);
+        boolean createdInWindow = isCreate;
+        if (previous != null) {
+            previous.future.cancel(false);
+            createdInWindow |= previous.createdInWindow;
+            Log.d(TAG, "Cambio agrupado con el anterior: " + key);
+        }
+        Pending next = new Pending(createdInWindow);
+        next.future = scheduler.schedule(() -> run(key, next, idLocal, flushExecutor, action),
+                windowMillis, TimeUnit.MILLISECONDS);
+        pending.put(key, next);
+    }
+
+    private void run(String key, Pending self, long idLocal, Executor flushExecutor, FlushAction action) {
+        synchronized (this) {
+            // Un submit posterior pudo reemplazarla justo cuando vencía
+            if (!pending.remove(key, self)) {
+                return;
+            }
+        }
+        try {
+            flushExecutor.execute(() -> {
+                try {
+                    action.flush(idLocal, self.createdInWindow);
+                } catch (Exception e) {
+                    // La entrada sigue en sync_outbox: la sube el SyncWorker
+                    Log.e(TAG, "Error al enviar " + key, e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Executor ya cerrado: la entrada sigue en sync_outbox y la sube el SyncWorker
+            Log.w(TAG, "Envío descartado, executor cerrado: " + key);
+        }
+    }
+
+    private static final class Pending {
+        final boolean createdInWindow;
+        ScheduledFuture<?> future;
+
+        Pending(boolean createdInWindow) {
+            this.createdInWindow = createdInWindow;
+        }
+    }
+}
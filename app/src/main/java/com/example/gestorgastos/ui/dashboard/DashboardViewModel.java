@@ -6,13 +6,15 @@ import androidx.lifecycle.AndroidViewModel;
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
 import androidx.lifecycle.MediatorLiveData;
+import androidx.lifecycle.Observer;
 import com.example.gestorgastos.data.local.entity.CategoryEntity;
-import com.example.gestorgastos.data.local.entity.ExpenseEntity;
-import com.example.gestorgastos.data.repository.CategoryRepository;
-import com.example.gestorgastos.data.repository.CategoryRepositoryImpl;
+import com.example.gestorgastos.data.local.model.CategorySum;
+import com.example.gestorgastos.data.repository.CategoryRegistry;
 import com.example.gestorgastos.data.repository.ExpenseRepository;
 import com.example.gestorgastos.data.repository.ExpenseRepositoryImpl;
 import com.example.gestorgastos.ui.dashboard.DashboardFragment.CategorySummary;
+import com.example.gestorgastos.util.DateTimeUtil;
+import com.example.gestorgastos.util.Money;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
@@ -23,7 +25,7 @@ import java.util.Locale;
 import java.util.Map;
 
 public class DashboardViewModel extends AndroidViewModel {
-    private final CategoryRepository categoryRepository;
+    private final CategoryRegistry categoryRegistry;
     private final ExpenseRepository expenseRepository;
     
     // Estados de la UI
@@ -39,10 +41,19 @@ public class DashboardViewModel extends AndroidViewModel {
     private final MutableLiveData<String> monthYearText = new MutableLiveData<>();
     private final MutableLiveData<Boolean> hasExpenses = new MutableLiveData<>(false);
     
+    // Fuentes: categorías del usuario y totales por categoría del mes seleccionado.
+    // La fuente del mes se reemplaza al navegar, lee la tabla pre-agregada expense_month_totals
+    // y solo emite cuando cambia ese mes (una sincronización de meses viejos no recalcula el dashboard).
+    private final MediatorLiveData<DashboardData> combinedData = new MediatorLiveData<>();
+    private final Observer<DashboardData> dashboardObserver = this::updateDashboardData;
+    private String currentUserUid;
+    private LiveData<CategoryRegistry.Snapshot> categoriesSource;
+    private LiveData<List<CategorySum>> monthSumsSource;
+    
     
     public DashboardViewModel(@NonNull Application application) {
         super(application);
-        this.categoryRepository = new CategoryRepositoryImpl(application);
+        this.categoryRegistry = CategoryRegistry.getInstance(application);
         this.expenseRepository = new ExpenseRepositoryImpl(application);
         
         // Inicializar con el mes actual
@@ -56,6 +67,16 @@ public class DashboardViewModel extends AndroidViewModel {
         
         // Observar cambios en el mes actual
         observeCurrentMonth();
+        
+        // Al cambiar de mes, re-suscribir la consulta agregada del nuevo rango
+        combinedData.addSource(currentMonth, this::attachMonthSource);
+        combinedData.observeForever(dashboardObserver);
+    }
+    
+    @Override
+    protected void onCleared() {
+        super.onCleared();
+        combinedData.removeObserver(dashboardObserver);
     }
     
     // Getters para LiveData
@@ -131,50 +152,63 @@ public class DashboardViewModel extends AndroidViewModel {
             return;
         }
         
+        // Las fuentes son LiveData de Room: si ya observamos a este usuario, los cambios llegan solos
+        if (userUid.equals(currentUserUid) && categoriesSource != null) {
+            android.util.Log.d("DashboardViewModel", "Dashboard ya suscrito para el usuario, no se recarga");
+            return;
+        }
+        
         isLoading.setValue(true);
+        currentUserUid = userUid;
         
-        // Obtener categorías y gastos
-        // Usar getAllCategoriesByUser para incluir categorías inactivas en el matching
+        // El registro incluye categorías inactivas en el matching
         // (los gastos pueden referenciar categorías que fueron desactivadas)
-        LiveData<List<CategoryEntity>> categoriesLiveData = categoryRepository.getAllCategoriesByUser(userUid);
-        LiveData<List<ExpenseEntity>> expensesLiveData = expenseRepository.getExpensesByUser(userUid);
-        
-        android.util.Log.d("DashboardViewModel", "LiveData de categorías obtenido: " + (categoriesLiveData != null));
-        android.util.Log.d("DashboardViewModel", "LiveData de gastos obtenido: " + (expensesLiveData != null));
-        
-        // Usar MediatorLiveData para combinar datos
-        MediatorLiveData<DashboardData> combinedData = new MediatorLiveData<>();
-        
-        // Agregar fuentes de datos
-        combinedData.addSource(categoriesLiveData, categories -> {
+        if (categoriesSource != null) {
+            combinedData.removeSource(categoriesSource);
+        }
+        categoriesSource = categoryRegistry.observe(userUid);
+        combinedData.addSource(categoriesSource, categories -> {
             android.util.Log.d("DashboardViewModel", "Categorías actualizadas: " + (categories != null ? categories.size() : "null"));
-            List<ExpenseEntity> expenses = expensesLiveData.getValue();
-            Calendar month = currentMonth.getValue();
-            DashboardData data = processDashboardData(categories, expenses, month);
-            combinedData.setValue(data);
+            publishDashboardData();
         });
         
-        combinedData.addSource(expensesLiveData, expenses -> {
-            android.util.Log.d("DashboardViewModel", "Gastos actualizados: " + (expenses != null ? expenses.size() : "null"));
-            List<CategoryEntity> categories = categoriesLiveData.getValue();
-            Calendar month = currentMonth.getValue();
-            DashboardData data = processDashboardData(categories, expenses, month);
-            combinedData.setValue(data);
-        });
+        attachMonthSource(currentMonth.getValue());
         
-        // Agregar el mes actual como fuente para que se actualice cuando cambie
-        combinedData.addSource(currentMonth, month -> {
-            android.util.Log.d("DashboardViewModel", "Mes actualizado: " + (month != null ? month.getTime() : "null"));
-            List<CategoryEntity> categories = categoriesLiveData.getValue();
-            List<ExpenseEntity> expenses = expensesLiveData.getValue();
-            DashboardData data = processDashboardData(categories, expenses, month);
-            combinedData.setValue(data);
-        });
+        android.util.Log.d("DashboardViewModel", "=== FIN INICIALIZACIÓN DE CARGA ===");
+    }
+    
+    /**
+     * Reemplaza la fuente de totales por la del mes indicado.
+     * Lee O(categorías) filas de expense_month_totals, por lo que navegar entre meses
+     * no depende del tamaño del historial del usuario.
+     */
+    private void attachMonthSource(Calendar month) {
+        if (currentUserUid == null || month == null) {
+            return;
+        }
         
-        // Observar los datos combinados
-        combinedData.observeForever(this::updateDashboardData);
+        if (monthSumsSource != null) {
+            combinedData.removeSource(monthSumsSource);
+        }
         
-        android.util.Log.d("DashboardViewModel", "=== FIN INICIALIZACIÓN DE CARGA ===");
+        String yearMonth = DateTimeUtil.getYearMonthKey(month.get(Calendar.YEAR), month.get(Calendar.MONTH) + 1);
+        android.util.Log.d("DashboardViewModel", "Mes seleccionado: " + yearMonth);
+        
+        monthSumsSource = expenseRepository.getMonthCategorySums(currentUserUid, yearMonth);
+        combinedData.addSource(monthSumsSource, sums -> {
+            android.util.Log.d("DashboardViewModel", "Totales del mes actualizados: " + (sums != null ? sums.size() : "null"));
+            publishDashboardData();
+        });
+    }
+    
+    private void publishDashboardData() {
+        List<CategorySum> sums = monthSumsSource != null ? monthSumsSource.getValue() : null;
+        if (sums == null) {
+            // La consulta del mes aún no emitió
+            return;
+        }
+        CategoryRegistry.Snapshot categories = categoriesSource != null ? categoriesSource.getValue() : null;
+        combinedData.setValue(processDashboardData(categories, sums));
     }
     
     private void observeCurrentMonth() {
@@ -187,52 +221,31 @@ public class DashboardViewModel extends AndroidViewModel {
         });
     }
     
-    private DashboardData processDashboardData(List<CategoryEntity> categories, List<ExpenseEntity> expenses, Calendar month) {
-        if (categories == null) categories = new ArrayList<>();
-        if (expenses == null) expenses = new ArrayList<>();
+    private DashboardData processDashboardData(CategoryRegistry.Snapshot categories, List<CategorySum> sums) {
+        if (categories == null) categories = CategoryRegistry.Snapshot.EMPTY;
+        if (sums == null) sums = new ArrayList<>();
         
         android.util.Log.d("DashboardViewModel", "=== PROCESANDO DATOS DEL DASHBOARD ===");
         android.util.Log.d("DashboardViewModel", "Categorías recibidas: " + categories.size());
-        android.util.Log.d("DashboardViewModel", "Gastos recibidos: " + expenses.size());
+        android.util.Log.d("DashboardViewModel", "Totales por categoría recibidos: " + sums.size());
         
-        // Log de categorías
-        for (CategoryEntity category : categories) {
-            android.util.Log.d("DashboardViewModel", "Categoría: " + category.name + " (ID: " + category.remoteId + ")");
-        }
+        // Calcular total del mes (en centavos, suma entera)
+        long totalMonthCentavos = calculateTotalExpenses(sums);
         
-        // Log de gastos
-        for (ExpenseEntity expense : expenses) {
-            android.util.Log.d("DashboardViewModel", "Gasto: $" + expense.monto + " - Categoría ID: " + expense.categoryRemoteId);
-        }
-        
-        // Calcular rangos de fechas
-        long monthStart = getMonthStart(month);
-        long monthEnd = getMonthEnd(month);
-        
-        android.util.Log.d("DashboardViewModel", "Rango del mes: " + new java.util.Date(monthStart) + " - " + new java.util.Date(monthEnd));
-        
-        // Filtrar gastos del mes
-        List<ExpenseEntity> monthExpenses = filterExpensesByDateRange(expenses, monthStart, monthEnd);
-        
-        android.util.Log.d("DashboardViewModel", "Gastos del mes filtrados: " + monthExpenses.size());
-        
-        // Calcular total del mes
-        double totalMonth = calculateTotalExpenses(monthExpenses);
-        
-        android.util.Log.d("DashboardViewModel", "Total del mes: $" + totalMonth);
+        android.util.Log.d("DashboardViewModel", "Total del mes (centavos): " + totalMonthCentavos);
         
         // Crear resúmenes por categoría
-        List<CategorySummary> summaries = createCategorySummaries(categories, monthExpenses, totalMonth);
+        List<CategorySummary> summaries = createCategorySummaries(categories, sums, totalMonthCentavos);
         
         android.util.Log.d("DashboardViewModel", "Resúmenes creados: " + summaries.size());
         
-        // Determinar si hay gastos
-        boolean hasExpenses = !monthExpenses.isEmpty();
+        // Determinar si hay gastos (la consulta solo devuelve categorías con gastos en el mes)
+        boolean hasExpenses = !sums.isEmpty();
         
         android.util.Log.d("DashboardViewModel", "Tiene gastos: " + hasExpenses);
         android.util.Log.d("DashboardViewModel", "=== FIN PROCESAMIENTO ===");
         
-        return new DashboardData(summaries, totalMonth, hasExpenses);
+        return new DashboardData(summaries, Money.toDouble(totalMonthCentavos), hasExpenses);
     }
     
     private void updateDashboardData(DashboardData data) {
@@ -243,86 +256,67 @@ public class DashboardViewModel extends AndroidViewModel {
     }
     
     private List<CategorySummary> createCategorySummaries(
-            List<CategoryEntity> categories, List<ExpenseEntity> expenses, double totalMonth) {
+            CategoryRegistry.Snapshot categories, List<CategorySum> sums, long totalMonthCentavos) {
         
         android.util.Log.d("DashboardViewModel", "=== CREANDO RESUMENES DE CATEGORÍAS ===");
-        android.util.Log.d("DashboardViewModel", "Total del mes para porcentajes: $" + totalMonth);
+        android.util.Log.d("DashboardViewModel", "Total del mes para porcentajes (centavos): " + totalMonthCentavos);
         android.util.Log.d("DashboardViewModel", "Categorías recibidas: " + categories.size());
-        android.util.Log.d("DashboardViewModel", "Gastos recibidos: " + expenses.size());
+        android.util.Log.d("DashboardViewModel", "Totales recibidos: " + sums.size());
         
-        // Crear un mapa de categorías por diferentes identificadores para búsqueda rápida
-        Map<String, CategoryEntity> categoryByRemoteId = new HashMap<>();
-        Map<String, CategoryEntity> categoryByLocalId = new HashMap<>();
-        
-        for (CategoryEntity category : categories) {
-            if (category.remoteId != null && !category.remoteId.isEmpty()) {
-                categoryByRemoteId.put(category.remoteId, category);
-                android.util.Log.d("DashboardViewModel", "Categoría mapeada por remoteId: " + category.remoteId + " -> " + category.name);
-            }
-            // También mapear por fallback local_X
-            String localFallback = "local_" + category.idLocal;
-            categoryByLocalId.put(localFallback, category);
-            android.util.Log.d("DashboardViewModel", "Categoría mapeada por localId: " + localFallback + " -> " + category.name);
-        }
-        
-        // Calcular totales por categoría - usar el idLocal de la categoría como clave única
-        Map<Long, Double> categoryTotals = new HashMap<>();
+        // Calcular totales por categoría (centavos) - usar el idLocal de la categoría como clave única
+        Map<Long, Long> categoryTotals = new HashMap<>();
         Map<Long, CategoryEntity> categoryMap = new HashMap<>();
         
         // Crear un mapa temporal para categorías no encontradas (usando remoteId como clave)
-        Map<String, Double> unknownCategoryTotals = new HashMap<>();
+        Map<String, Long> unknownCategoryTotals = new HashMap<>();
         Map<String, String> unknownCategoryIds = new HashMap<>();
         
         List<CategorySummary> summaries = new ArrayList<>();
         
-        for (ExpenseEntity expense : expenses) {
-            String expenseCategoryId = expense.categoryRemoteId;
+        for (CategorySum sum : sums) {
+            String expenseCategoryId = sum.categoryRemoteId;
             CategoryEntity matchedCategory = null;
             
             // Intentar encontrar la categoría correspondiente
             if (expenseCategoryId != null && !expenseCategoryId.isEmpty()) {
-                // Método 1: Buscar por remoteId en el mapa
-                matchedCategory = categoryByRemoteId.get(expenseCategoryId);
-                
-                // Método 2: Si no se encuentra, buscar por fallback local_X
-                if (matchedCategory == null) {
-                    matchedCategory = categoryByLocalId.get(expenseCategoryId);
-                }
+                // Buscar por remoteId en el snapshot del registro (ya indexado)
+                matchedCategory = categories.getByRemoteId(expenseCategoryId);
             }
             
             if (matchedCategory != null) {
                 long categoryLocalId = matchedCategory.idLocal;
-                double currentTotal = categoryTotals.getOrDefault(categoryLocalId, 0.0);
-                double newTotal = currentTotal + expense.monto;
+                long currentTotal = categoryTotals.getOrDefault(categoryLocalId, 0L);
+                long newTotal = currentTotal + sum.totalCentavos;
                 categoryTotals.put(categoryLocalId, newTotal);
                 categoryMap.put(categoryLocalId, matchedCategory);
                 
-                android.util.Log.d("DashboardViewModel", "Gasto $" + expense.monto + 
+                android.util.Log.d("DashboardViewModel", "Total (centavos) " + sum.totalCentavos + 
                     " agregado a categoría " + matchedCategory.name + 
                     " (categoryRemoteId: " + expenseCategoryId + 
-                    ", total: $" + newTotal + ")");
+                    ", total: " + newTotal + ")");
             } else {
                 // Agrupar gastos con categorías no encontradas por su remoteId
-                double currentTotal = unknownCategoryTotals.getOrDefault(expenseCategoryId, 0.0);
-                double newTotal = currentTotal + expense.monto;
+                long currentTotal = unknownCategoryTotals.getOrDefault(expenseCategoryId, 0L);
+                long newTotal = currentTotal + sum.totalCentavos;
                 unknownCategoryTotals.put(expenseCategoryId, newTotal);
                 unknownCategoryIds.put(expenseCategoryId, expenseCategoryId);
                 android.util.Log.w("DashboardViewModel", "⚠️ No se encontró categoría para gasto con categoryRemoteId: " + expenseCategoryId + 
-                    " - Agregado a categorías desconocidas (total: $" + newTotal + ")");
+                    " - Agregado a categorías desconocidas (total centavos: " + newTotal + ")");
             }
         }
         
         // Agregar categorías desconocidas como resúmenes genéricos
-        for (Map.Entry<String, Double> entry : unknownCategoryTotals.entrySet()) {
+        for (Map.Entry<String, Long> entry : unknownCategoryTotals.entrySet()) {
             String categoryId = entry.getKey();
-            double amount = entry.getValue();
+            long amountCentavos = entry.getValue();
+            double amount = Money.toDouble(amountCentavos);
             
             // Crear un resumen genérico para categorías no encontradas
             CategorySummary unknownSummary = new CategorySummary(
                 "❓", // Icono genérico
                 "Categoría desconocida (" + categoryId.substring(0, Math.min(8, categoryId.length())) + "...)",
                 amount,
-                totalMonth > 0 ? (amount / totalMonth) * 100 : 0,
+                percentageOf(amountCentavos, totalMonthCentavos),
                 0
             );
             summaries.add(unknownSummary);
@@ -330,18 +324,19 @@ public class DashboardViewModel extends AndroidViewModel {
         }
         
         android.util.Log.d("DashboardViewModel", "Total de categorías con gastos: " + categoryTotals.size());
-        for (Map.Entry<Long, Double> entry : categoryTotals.entrySet()) {
+        for (Map.Entry<Long, Long> entry : categoryTotals.entrySet()) {
             CategoryEntity cat = categoryMap.get(entry.getKey());
             android.util.Log.d("DashboardViewModel", "Categoría " + (cat != null ? cat.name : "desconocida") + 
                 " (idLocal: " + entry.getKey() + "): $" + entry.getValue());
         }
         
         // Crear resúmenes solo para categorías que tienen gastos
-        for (Map.Entry<Long, Double> entry : categoryTotals.entrySet()) {
+        for (Map.Entry<Long, Long> entry : categoryTotals.entrySet()) {
             CategoryEntity category = categoryMap.get(entry.getKey());
             if (category != null) {
-                double amount = entry.getValue();
-                double percentage = totalMonth > 0 ? (amount / totalMonth) * 100 : 0;
+                long amountCentavos = entry.getValue();
+                double amount = Money.toDouble(amountCentavos);
+                double percentage = percentageOf(amountCentavos, totalMonthCentavos);
                 
                 CategorySummary summary = new CategorySummary(
                     category.icono,
@@ -365,57 +360,22 @@ public class DashboardViewModel extends AndroidViewModel {
         return summaries;
     }
     
-    private List<ExpenseEntity> filterExpensesByDateRange(List<ExpenseEntity> expenses, long start, long end) {
-        List<ExpenseEntity> filtered = new ArrayList<>();
-        android.util.Log.d("DashboardViewModel", "Filtrando gastos entre " + new java.util.Date(start) + " y " + new java.util.Date(end));
-        
-        for (ExpenseEntity expense : expenses) {
-            android.util.Log.d("DashboardViewModel", "Evaluando gasto: $" + expense.monto + " - Fecha: " + new java.util.Date(expense.fechaEpochMillis));
-            if (expense.fechaEpochMillis >= start && expense.fechaEpochMillis <= end) {
-                filtered.add(expense);
-                android.util.Log.d("DashboardViewModel", "Gasto incluido: $" + expense.monto);
-            } else {
-                android.util.Log.d("DashboardViewModel", "Gasto excluido: $" + expense.monto + " (fuera del rango)");
-            }
-        }
-        
-        android.util.Log.d("DashboardViewModel", "Total gastos filtrados: " + filtered.size() + " de " + expenses.size());
-        return filtered;
-    }
-    
-    private double calculateTotalExpenses(List<ExpenseEntity> expenses) {
-        if (expenses == null || expenses.isEmpty()) {
-            return 0.0;
+    private long calculateTotalExpenses(List<CategorySum> sums) {
+        if (sums == null || sums.isEmpty()) {
+            return 0L;
         }
         
-        double total = 0.0;
-        for (ExpenseEntity expense : expenses) {
-            total += expense.monto;
+        long total = 0L;
+        for (CategorySum sum : sums) {
+            total += sum.totalCentavos;
         }
         return total;
     }
     
-    private long getMonthStart(Calendar month) {
-        Calendar calendar = (Calendar) month.clone();
-        calendar.set(Calendar.DAY_OF_MONTH, 1);
-        calendar.set(Calendar.HOUR_OF_DAY, 0);
-        calendar.set(Calendar.MINUTE, 0);
-        calendar.set(Calendar.SECOND, 0);
-        calendar.set(Calendar.MILLISECOND, 0);
-        return calendar.getTimeInMillis();
+    private static double percentageOf(long amountCentavos, long totalCentavos) {
+        return totalCentavos > 0 ? (amountCentavos * 100.0) / totalCentavos : 0;
     }
     
-    private long getMonthEnd(Calendar month) {
-        Calendar calendar = (Calendar) month.clone();
-        calendar.set(Calendar.DAY_OF_MONTH, calendar.getActualMaximum(Calendar.DAY_OF_MONTH));
-        calendar.set(Calendar.HOUR_OF_DAY, 23);
-        calendar.set(Calendar.MINUTE, 59);
-        calendar.set(Calendar.SECOND, 59);
-        calendar.set(Calendar.MILLISECOND, 999);
-        return calendar.getTimeInMillis();
-    }
-    
-    
     public void clearMessages() {
         errorMessage.setValue(null);
     }
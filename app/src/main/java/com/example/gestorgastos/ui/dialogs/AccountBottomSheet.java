@@ -16,6 +16,7 @@ import com.example.gestorgastos.ui.main.MainViewModel;
 import com.example.gestorgastos.util.SyncPrefs;
 import com.example.gestorgastos.work.SyncWorker;
 
+import androidx.work.ExistingWorkPolicy;
 import androidx.work.OneTimeWorkRequest;
 import androidx.work.WorkManager;
 import com.google.android.material.bottomsheet.BottomSheetDialogFragment;
@@ -184,7 +185,11 @@ public class AccountBottomSheet extends BottomSheetDialogFragment {
 
             OneTimeWorkRequest request =
                     new OneTimeWorkRequest.Builder(SyncWorker.class).build();
-            WorkManager.getInstance(context).enqueue(request);
+            WorkManager.getInstance(context).enqueueUniqueWork(
+                    SyncWorker.UNIQUE_ONE_TIME_WORK,
+                    ExistingWorkPolicy.KEEP,
+                    request
+            );
 
             // Actualizar mensaje inmediatamente
             binding.tvLastSyncValue.setText("Sincronizando ahora...");
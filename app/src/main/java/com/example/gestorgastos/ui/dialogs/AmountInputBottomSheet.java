@@ -12,6 +12,7 @@ import com.example.gestorgastos.data.local.entity.CategoryEntity;
 import android.util.Log;
 import com.example.gestorgastos.data.local.entity.ExpenseEntity;
 import com.example.gestorgastos.util.DateTimeUtil;
+import com.example.gestorgastos.util.Money;
 import com.example.gestorgastos.ui.main.MainViewModel;
 import androidx.lifecycle.ViewModelProvider;
 import com.google.android.material.bottomsheet.BottomSheetDialogFragment;
@@ -238,23 +239,21 @@ public class AmountInputBottomSheet extends BottomSheetDialogFragment {
             
             // Manejar categoría seleccionada
             if (selectedCategory != null && selectedCategory.remoteId != null && !selectedCategory.remoteId.isEmpty()) {
+                // El remoteId se asigna al crear la categoría en Room, antes de subirla
                 expense.categoryRemoteId = selectedCategory.remoteId;
-            } else if (selectedCategory != null && selectedCategory.idLocal > 0) {
-                // Si no hay remoteId, usar idLocal como fallback
-                expense.categoryRemoteId = "local_" + selectedCategory.idLocal;
             } else {
                 // Categoría por defecto
                 expense.categoryRemoteId = "default";
             }
             
-            expense.monto = amount;
+            expense.montoCentavos = Money.fromDouble(amount);
             expense.fechaEpochMillis = selectedDateMillis;
             expense.updatedAt = System.currentTimeMillis();
             expense.syncState = "PENDING";
             
             Log.d("AmountInputBottomSheet", "Gasto creado - UserUid: " + expense.userUid + 
                   ", CategoryRemoteId: " + expense.categoryRemoteId + 
-                  ", Monto: " + expense.monto + 
+                  ", MontoCentavos: " + expense.montoCentavos + 
                   ", Fecha: " + expense.fechaEpochMillis);
             
             if (listener != null) {
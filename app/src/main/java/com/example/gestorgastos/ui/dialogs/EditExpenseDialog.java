@@ -18,6 +18,7 @@ import com.example.gestorgastos.R;
 import com.example.gestorgastos.data.local.entity.ExpenseEntity;
 import com.example.gestorgastos.data.local.entity.CategoryEntity;
 import com.example.gestorgastos.ui.dialogs.CategorySelectionBottomSheet;
+import com.example.gestorgastos.util.Money;
 import com.google.android.material.button.MaterialButton;
 import com.google.android.material.textfield.TextInputEditText;
 import com.google.android.material.textfield.TextInputLayout;
@@ -67,8 +68,9 @@ public class EditExpenseDialog extends DialogFragment {
         args.putString(ARG_EXPENSE + "_remoteId", expense.remoteId);
         args.putString(ARG_EXPENSE + "_userUid", expense.userUid);
         args.putString(ARG_EXPENSE + "_categoryId", expense.categoryRemoteId);
-        args.putDouble(ARG_EXPENSE + "_monto", expense.monto);
+        args.putLong(ARG_EXPENSE + "_montoCentavos", expense.montoCentavos);
         args.putLong(ARG_EXPENSE + "_fecha", expense.fechaEpochMillis);
+        args.putString(ARG_EXPENSE + "_contentHash", expense.contentHash);
         args.putSerializable(ARG_CATEGORIES, (java.io.Serializable) categories);
         dialog.setArguments(args);
         return dialog;
@@ -86,8 +88,9 @@ public class EditExpenseDialog extends DialogFragment {
             expense.remoteId = getArguments().getString(ARG_EXPENSE + "_remoteId");
             expense.userUid = getArguments().getString(ARG_EXPENSE + "_userUid");
             expense.categoryRemoteId = getArguments().getString(ARG_EXPENSE + "_categoryId");
-            expense.monto = getArguments().getDouble(ARG_EXPENSE + "_monto");
+            expense.montoCentavos = getArguments().getLong(ARG_EXPENSE + "_montoCentavos");
             expense.fechaEpochMillis = getArguments().getLong(ARG_EXPENSE + "_fecha");
+            expense.contentHash = getArguments().getString(ARG_EXPENSE + "_contentHash");
             
             categories = (List<CategoryEntity>) getArguments().getSerializable(ARG_CATEGORIES);
         }
@@ -180,11 +183,6 @@ public class EditExpenseDialog extends DialogFragment {
                         selectedCategory = category;
                         break;
                     }
-                    // Buscar por formato "local_" + idLocal
-                    if (("local_" + category.idLocal).equals(expense.categoryRemoteId)) {
-                        selectedCategory = category;
-                        break;
-                    }
                     // Buscar por idLocal como string (compatibilidad)
                     if (String.valueOf(category.idLocal).equals(expense.categoryRemoteId)) {
                         selectedCategory = category;
@@ -202,7 +200,7 @@ public class EditExpenseDialog extends DialogFragment {
             
             // Formatear el monto
             NumberFormat formatter = NumberFormat.getNumberInstance(Locale.US);
-            String amountText = formatter.format(expense.monto);
+            String amountText = formatter.format(Money.toDouble(expense.montoCentavos));
             etAmount.setText(amountText);
             
             // Formatear la fecha
@@ -295,8 +293,10 @@ public class EditExpenseDialog extends DialogFragment {
             editedExpense.idLocal = expense.idLocal;
             editedExpense.remoteId = expense.remoteId;
             editedExpense.userUid = expense.userUid;
-            editedExpense.monto = Double.parseDouble(amountText);
-            editedExpense.categoryRemoteId = "local_" + selectedCategory.idLocal;
+            // La huella identifica la creación: se conserva aunque cambien monto, categoría o fecha
+            editedExpense.contentHash = expense.contentHash;
+            editedExpense.montoCentavos = Money.fromDouble(Double.parseDouble(amountText));
+            editedExpense.categoryRemoteId = selectedCategory.remoteId;
             editedExpense.fechaEpochMillis = selectedDateMillis; // Usar la fecha seleccionada
             editedExpense.updatedAt = System.currentTimeMillis();
             editedExpense.syncState = "PENDING";
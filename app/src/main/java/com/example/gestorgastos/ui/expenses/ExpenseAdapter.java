@@ -7,24 +7,27 @@ import android.view.animation.Animation;
 import android.view.animation.AnimationUtils;
 import android.widget.TextView;
 import androidx.annotation.NonNull;
+import androidx.paging.PagingDataAdapter;
 import androidx.recyclerview.widget.DiffUtil;
-import androidx.recyclerview.widget.ListAdapter;
 import androidx.recyclerview.widget.RecyclerView;
 import com.example.gestorgastos.R;
 import com.example.gestorgastos.data.local.entity.ExpenseEntity;
 import com.example.gestorgastos.data.local.entity.CategoryEntity;
+import com.example.gestorgastos.data.repository.CategoryRegistry;
 import com.example.gestorgastos.util.DateTimeUtil;
+import com.example.gestorgastos.util.Money;
 import android.util.Log;
 import java.text.NumberFormat;
-import java.util.List;
 import java.util.Locale;
-import java.util.Map;
-import java.util.HashMap;
 
-public class ExpenseAdapter extends ListAdapter<ExpenseEntity, ExpenseAdapter.ExpenseViewHolder> {
+/**
+ * Adapter paginado de gastos. Con placeholders habilitados, las posiciones aún no cargadas
+ * llegan como null y se muestran vacías hasta que Paging entrega la página.
+ */
+public class ExpenseAdapter extends PagingDataAdapter<ExpenseEntity, ExpenseAdapter.ExpenseViewHolder> {
     
     private OnExpenseClickListener listener;
-    private Map<String, CategoryEntity> categoryCache = new HashMap<>();
+    private CategoryRegistry.Snapshot categoryCache = CategoryRegistry.Snapshot.EMPTY;
     private int lastAnimatedPosition = -1;
     private boolean animateItems = true;
     
@@ -44,7 +47,7 @@ public class ExpenseAdapter extends ListAdapter<ExpenseEntity, ExpenseAdapter.Ex
             
             @Override
             public boolean areContentsTheSame(@NonNull ExpenseEntity oldItem, @NonNull ExpenseEntity newItem) {
-                return oldItem.monto == newItem.monto &&
+                return oldItem.montoCentavos == newItem.montoCentavos &&
                        oldItem.fechaEpochMillis == newItem.fechaEpochMillis &&
                        oldItem.categoryRemoteId.equals(newItem.categoryRemoteId);
             }
@@ -55,19 +58,12 @@ public class ExpenseAdapter extends ListAdapter<ExpenseEntity, ExpenseAdapter.Ex
         this.listener = listener;
     }
     
-            public void updateCategoryCache(List<CategoryEntity> categories) {
-            categoryCache.clear();
-            for (CategoryEntity category : categories) {
-                if (category.remoteId != null && !category.remoteId.isEmpty()) {
-                    categoryCache.put(category.remoteId, category);
-                }
-                // También cachear por idLocal para categorías locales
-                categoryCache.put("local_" + category.idLocal, category);
-            }
-            Log.d("ExpenseAdapter", "Cache actualizado con " + categories.size() + " categorías");
-            for (CategoryEntity cat : categories) {
-                Log.d("ExpenseAdapter", "Categoría en cache: " + cat.name + " (ID: " + cat.idLocal + ", Activa: " + cat.isActive + ")");
-            }
+            public void updateCategoryCache(CategoryRegistry.Snapshot categories) {
+            // Snapshot compartido de CategoryRegistry: ya viene indexado por remoteId
+            categoryCache = categories != null ? categories : CategoryRegistry.Snapshot.EMPTY;
+            Log.d("ExpenseAdapter", "Cache actualizado con " + categoryCache.size() + " categorías");
+            // Re-enlazar las filas para reflejar nombres/iconos nuevos
+            notifyItemRangeChanged(0, getItemCount());
         }
     
     @NonNull
@@ -81,6 +77,11 @@ public class ExpenseAdapter extends ListAdapter<ExpenseEntity, ExpenseAdapter.Ex
     @Override
     public void onBindViewHolder(@NonNull ExpenseViewHolder holder, int position) {
         ExpenseEntity expense = getItem(position);
+        if (expense == null) {
+            // Placeholder: la página todavía no se cargó
+            holder.bindPlaceholder();
+            return;
+        }
         holder.bind(expense);
         
         // Aplicar animación de entrada si es necesario
@@ -198,30 +199,40 @@ public class ExpenseAdapter extends ListAdapter<ExpenseEntity, ExpenseAdapter.Ex
             // Configurar click listeners
             itemView.setOnClickListener(v -> {
                 int position = getAdapterPosition();
-                if (position != RecyclerView.NO_POSITION && listener != null) {
-                    listener.onExpenseClick(getItem(position));
+                ExpenseEntity expense = position != RecyclerView.NO_POSITION ? getItem(position) : null;
+                if (expense != null && listener != null) {
+                    listener.onExpenseClick(expense);
                 }
             });
             
             btnEdit.setOnClickListener(v -> {
                 int position = getAdapterPosition();
-                if (position != RecyclerView.NO_POSITION && listener != null) {
-                    listener.onExpenseEdit(getItem(position));
+                ExpenseEntity expense = position != RecyclerView.NO_POSITION ? getItem(position) : null;
+                if (expense != null && listener != null) {
+                    listener.onExpenseEdit(expense);
                 }
             });
             
             btnDelete.setOnClickListener(v -> {
                 int position = getAdapterPosition();
-                if (position != RecyclerView.NO_POSITION && listener != null) {
-                    listener.onExpenseDelete(getItem(position));
+                ExpenseEntity expense = position != RecyclerView.NO_POSITION ? getItem(position) : null;
+                if (expense != null && listener != null) {
+                    listener.onExpenseDelete(expense);
                 }
             });
         }
         
+        public void bindPlaceholder() {
+            tvAmount.setText("");
+            tvDate.setText("");
+            tvCategory.setText("");
+            tvCategoryIcon.setText("");
+        }
+        
         public void bind(ExpenseEntity expense) {
             // Formatear monto
             NumberFormat formatter = NumberFormat.getCurrencyInstance(new Locale("es", "MX"));
-            tvAmount.setText(formatter.format(expense.monto));
+            tvAmount.setText(formatter.format(Money.toDouble(expense.montoCentavos)));
             
             // Formatear fecha y hora
             String formattedDateTime = DateTimeUtil.formatDateTime(expense.fechaEpochMillis, DateTimeUtil.getCurrentZoneId());
@@ -264,7 +275,7 @@ public class ExpenseAdapter extends ListAdapter<ExpenseEntity, ExpenseAdapter.Ex
         // Método mejorado para obtener nombre de categoría
         private String getCategoryNameFromId(String categoryId) {
             // Primero buscar en el cache de categorías reales
-            CategoryEntity category = categoryCache.get(categoryId);
+            CategoryEntity category = categoryCache.getByRemoteId(categoryId);
             if (category != null) {
                 Log.d("ExpenseAdapter", "Categoría encontrada en cache: " + category.name + " (ID: " + categoryId + ")");
                 return category.name;
@@ -286,7 +297,7 @@ public class ExpenseAdapter extends ListAdapter<ExpenseEntity, ExpenseAdapter.Ex
         // Método mejorado para obtener icono de categoría
         private String getCategoryIconFromId(String categoryId) {
             // Primero buscar en el cache de categorías reales
-            CategoryEntity category = categoryCache.get(categoryId);
+            CategoryEntity category = categoryCache.getByRemoteId(categoryId);
             if (category != null && category.icono != null && !category.icono.isEmpty() && !category.icono.equals("default")) {
                 return category.icono;
             }
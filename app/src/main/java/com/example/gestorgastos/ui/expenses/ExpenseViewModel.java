@@ -5,18 +5,31 @@ import androidx.annotation.NonNull;
 import androidx.lifecycle.AndroidViewModel;
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
+import androidx.lifecycle.ViewModelKt;
+import androidx.paging.Pager;
+import androidx.paging.PagingConfig;
+import androidx.paging.PagingData;
+import androidx.paging.PagingLiveData;
 import com.example.gestorgastos.data.local.entity.ExpenseEntity;
 import com.example.gestorgastos.data.repository.ExpenseRepository;
 import com.example.gestorgastos.data.repository.ExpenseRepositoryImpl;
+import com.example.gestorgastos.util.Money;
 import android.util.Log;
 import java.util.List;
 
 public class ExpenseViewModel extends AndroidViewModel {
+    // Tamaño de página de la lista de gastos; Room carga 3 páginas en la carga inicial
+    private static final int PAGE_SIZE = 30;
+    
     private final ExpenseRepository expenseRepository;
     private final MutableLiveData<Boolean> isLoading = new MutableLiveData<>(false);
     private final MutableLiveData<String> errorMessage = new MutableLiveData<>();
     private final MutableLiveData<String> successMessage = new MutableLiveData<>();
     
+    // PagingData cacheado en el scope del ViewModel para sobrevivir a recreaciones de la vista
+    private LiveData<PagingData<ExpenseEntity>> pagedExpenses;
+    private String pagedExpensesUserUid;
+    
     public ExpenseViewModel(@NonNull Application application) {
         super(application);
         this.expenseRepository = new ExpenseRepositoryImpl(application);
@@ -27,6 +40,25 @@ public class ExpenseViewModel extends AndroidViewModel {
         return expenseRepository.getExpensesByUser(userUid);
     }
     
+    /**
+     * Gastos del usuario paginados con placeholders: la memoria y el costo de DiffUtil
+     * quedan acotados a las páginas cargadas alrededor de lo visible.
+     */
+    public LiveData<PagingData<ExpenseEntity>> getPagedExpensesByUser(String userUid) {
+        if (pagedExpenses == null || !userUid.equals(pagedExpensesUserUid)) {
+            Pager<Integer, ExpenseEntity> pager = new Pager<>(
+                    new PagingConfig(PAGE_SIZE, PAGE_SIZE, true),
+                    () -> expenseRepository.getExpensesPagingSource(userUid)
+            );
+            pagedExpenses = PagingLiveData.cachedIn(
+                    PagingLiveData.getLiveData(pager),
+                    ViewModelKt.getViewModelScope(this)
+            );
+            pagedExpensesUserUid = userUid;
+        }
+        return pagedExpenses;
+    }
+    
     // Estados de la UI
     public LiveData<Boolean> getIsLoading() {
         return isLoading;
@@ -42,7 +74,7 @@ public class ExpenseViewModel extends AndroidViewModel {
     
     // Operaciones CRUD
     public void insertExpense(ExpenseEntity expense) {
-        Log.d("ExpenseViewModel", "insertExpense - Monto: " + expense.monto + ", Categoría: " + expense.categoryRemoteId);
+        Log.d("ExpenseViewModel", "insertExpense - MontoCentavos: " + expense.montoCentavos + ", Categoría: " + expense.categoryRemoteId);
         isLoading.setValue(true);
         errorMessage.setValue(null);
         successMessage.setValue(null);
@@ -65,7 +97,7 @@ public class ExpenseViewModel extends AndroidViewModel {
     }
     
     public void updateExpense(ExpenseEntity expense) {
-        Log.d("ExpenseViewModel", "updateExpense - ID: " + expense.idLocal + ", Monto: " + expense.monto);
+        Log.d("ExpenseViewModel", "updateExpense - ID: " + expense.idLocal + ", MontoCentavos: " + expense.montoCentavos);
         isLoading.setValue(true);
         errorMessage.setValue(null);
         successMessage.setValue(null);
@@ -117,7 +149,7 @@ public class ExpenseViewModel extends AndroidViewModel {
         ExpenseEntity expense = new ExpenseEntity();
         expense.userUid = userUid;
         expense.categoryRemoteId = categoryRemoteId;
-        expense.monto = monto;
+        expense.montoCentavos = Money.fromDouble(monto);
         expense.fechaEpochMillis = fechaEpochMillis;
         return expense;
     }
@@ -17,6 +17,7 @@ import androidx.core.content.ContextCompat;
 
 import com.example.gestorgastos.R;
 import com.example.gestorgastos.databinding.FragmentExpensesBinding;
+import com.example.gestorgastos.data.local.DatabaseStartup;
 import com.example.gestorgastos.data.local.entity.ExpenseEntity;
 import com.example.gestorgastos.data.local.entity.CategoryEntity;
 import com.example.gestorgastos.ui.dialogs.CategorySelectionBottomSheet;
@@ -26,7 +27,9 @@ import com.example.gestorgastos.ui.dialogs.AuthMessageDialog;
 import com.example.gestorgastos.ui.categories.CategoryViewModel;
 import com.example.gestorgastos.ui.main.MainViewModel;
 import com.example.gestorgastos.ui.main.MainActivity;
+import com.example.gestorgastos.data.repository.CategoryRegistry;
 import com.example.gestorgastos.data.repository.CategoryRepositoryImpl;
+import com.example.gestorgastos.util.Money;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -37,9 +40,9 @@ public class ExpensesFragment extends Fragment implements CategorySelectionBotto
     private MainViewModel mainViewModel;
     private ExpenseAdapter adapter;
     private List<CategoryEntity> categories = new ArrayList<>();
-    private List<ExpenseEntity> pendingExpenses = new ArrayList<>();
     private boolean categoriesLoaded = false;
-    private boolean expensesLoaded = false;
+    private boolean databaseReady = false;
+    private String pagedExpensesUserUid = null;
     private boolean syncInProgress = false;
     private java.util.Set<String> unknownCategoriesDetected = new java.util.HashSet<>();
     private String currentUserUid = null;
@@ -75,7 +78,7 @@ public class ExpensesFragment extends Fragment implements CategorySelectionBotto
             @Override
             public void onExpenseClick(ExpenseEntity expense) {
                 // TODO: Mostrar detalles del gasto
-                Toast.makeText(requireContext(), getString(R.string.toast_expense_value, expense.monto), Toast.LENGTH_SHORT).show();
+                Toast.makeText(requireContext(), getString(R.string.toast_expense_value, Money.toDouble(expense.montoCentavos)), Toast.LENGTH_SHORT).show();
             }
             
             @Override
@@ -154,34 +157,31 @@ public class ExpensesFragment extends Fragment implements CategorySelectionBotto
                 // Debug: ver todas las categorías en la base de datos
                 ((CategoryRepositoryImpl) categoryViewModel.getCategoryRepository()).debugCategories(user.uid);
                 
-                // Observar categorías del usuario actual (reactivo automático)
-                categoryViewModel.getAllCategoriesByUser(user.uid).observe(getViewLifecycleOwner(), categories -> {
-                    this.categories = categories != null ? categories : new ArrayList<>();
-                    adapter.updateCategoryCache(this.categories);
+                // Observar categorías del usuario actual desde el registro compartido (reactivo automático)
+                CategoryRegistry.getInstance(requireContext()).observe(user.uid).observe(getViewLifecycleOwner(), snapshot -> {
+                    this.categories = snapshot.getAll();
+                    adapter.updateCategoryCache(snapshot);
                     categoriesLoaded = true;
                     Log.d("ExpensesFragment", "Categorías actualizadas reactivamente: " + this.categories.size());
                     
-                    // Intentar mostrar gastos si ya están cargados
-                    tryShowExpenses();
-                });
-                
-                // Observar lista de gastos del usuario actual (reactivo automático)
-                viewModel.getExpensesByUser(user.uid).observe(getViewLifecycleOwner(), expenses -> {
-                    pendingExpenses = expenses != null ? expenses : new ArrayList<>();
-                    expensesLoaded = true;
-                    Log.d("ExpensesFragment", "Gastos actualizados reactivamente: " + pendingExpenses.size());
-                    
-                    // Intentar mostrar gastos si las categorías ya están cargadas
-                    tryShowExpenses();
+                    // Empezar a mostrar gastos una vez que las categorías están cargadas
+                    tryShowExpenses(user.uid);
                 });
             }
         });
         
-        // Observar estados de carga
-        viewModel.getIsLoading().observe(getViewLifecycleOwner(), isLoading -> {
-            binding.progressBar.setVisibility(isLoading ? View.VISIBLE : View.GONE);
+        // La primera página se pide recién cuando la base está abierta y precalentada (DatabaseStartup)
+        DatabaseStartup.isReady().observe(getViewLifecycleOwner(), ready -> {
+            databaseReady = Boolean.TRUE.equals(ready);
+            updateProgressBar();
+            if (databaseReady && currentUserUid != null) {
+                tryShowExpenses(currentUserUid);
+            }
         });
         
+        // Observar estados de carga
+        viewModel.getIsLoading().observe(getViewLifecycleOwner(), isLoading -> updateProgressBar());
+        
         // Observar mensajes de error
         viewModel.getErrorMessage().observe(getViewLifecycleOwner(), errorMessage -> {
             if (errorMessage != null && !errorMessage.isEmpty()) {
@@ -220,7 +220,7 @@ public class ExpensesFragment extends Fragment implements CategorySelectionBotto
     // Implementación de AmountInputBottomSheet.OnExpenseSavedListener
     @Override
     public void onExpenseSaved(ExpenseEntity expense) {
-        Log.d("ExpensesFragment", "onExpenseSaved - ID: " + expense.idLocal + ", Monto: " + expense.monto);
+        Log.d("ExpensesFragment", "onExpenseSaved - ID: " + expense.idLocal + ", MontoCentavos: " + expense.montoCentavos);
         Log.d("ExpensesFragment", "Insertando nuevo gasto");
         viewModel.insertExpense(expense);
         
@@ -268,21 +268,26 @@ public class ExpensesFragment extends Fragment implements CategorySelectionBotto
     }
     
     /**
-     * Busca la posición de un gasto específico en la lista actual
+     * Busca la posición de un gasto específico entre las páginas ya cargadas
      */
     private int findExpensePosition(ExpenseEntity targetExpense) {
-        if (pendingExpenses == null || pendingExpenses.isEmpty()) {
+        List<ExpenseEntity> loadedExpenses = adapter.snapshot();
+        if (loadedExpenses.isEmpty()) {
             return -1;
         }
         
-        for (int i = 0; i < pendingExpenses.size(); i++) {
-            ExpenseEntity expense = pendingExpenses.get(i);
+        for (int i = 0; i < loadedExpenses.size(); i++) {
+            ExpenseEntity expense = loadedExpenses.get(i);
+            if (expense == null) {
+                // Placeholder de una página no cargada
+                continue;
+            }
             // Comparar por ID local si está disponible, o por monto y fecha como fallback
             if (expense.idLocal == targetExpense.idLocal && expense.idLocal > 0) {
                 return i;
             } else if (expense.idLocal == 0 && targetExpense.idLocal == 0) {
                 // Para gastos nuevos sin ID, comparar por monto y fecha
-                if (expense.monto == targetExpense.monto && 
+                if (expense.montoCentavos == targetExpense.montoCentavos && 
                     expense.fechaEpochMillis == targetExpense.fechaEpochMillis &&
                     expense.categoryRemoteId.equals(targetExpense.categoryRemoteId)) {
                     return i;
@@ -294,24 +299,44 @@ public class ExpensesFragment extends Fragment implements CategorySelectionBotto
     }
     
     /**
-     * Intenta mostrar los gastos solo cuando tanto las categorías como los gastos estén cargados
+     * Indicador de carga visible mientras la base arranca o hay una operación en curso
      */
-    private void tryShowExpenses() {
-        if (categoriesLoaded && expensesLoaded && adapter != null) {
-            Log.d("ExpensesFragment", "Mostrando gastos - Categorías: " + categories.size() + ", Gastos: " + pendingExpenses.size());
-            
-            // Desactivar animaciones para la carga inicial
-            adapter.setAnimateItems(false);
-            adapter.submitList(pendingExpenses);
-            
-            // Reactivar animaciones después de un breve delay
-            binding.recyclerViewExpenses.postDelayed(() -> {
+    private void updateProgressBar() {
+        if (binding == null) {
+            return;
+        }
+        boolean loading = Boolean.TRUE.equals(viewModel.getIsLoading().getValue());
+        binding.progressBar.setVisibility(loading || !databaseReady ? View.VISIBLE : View.GONE);
+    }
+    
+    /**
+     * Empieza a observar los gastos paginados solo cuando las categorías están cargadas,
+     * para no reportar categorías desconocidas durante la carga inicial
+     */
+    private void tryShowExpenses(String userUid) {
+        if (!categoriesLoaded || !databaseReady || adapter == null) {
+            Log.d("ExpensesFragment", "Esperando datos - Categorías cargadas: " + categoriesLoaded + ", base lista: " + databaseReady);
+            return;
+        }
+        if (userUid.equals(pagedExpensesUserUid)) {
+            // Ya observando: Paging aplica los cambios de Room por sí solo
+            return;
+        }
+        pagedExpensesUserUid = userUid;
+        Log.d("ExpensesFragment", "Mostrando gastos paginados - Categorías: " + categories.size());
+        
+        // Desactivar animaciones para la carga inicial
+        adapter.setAnimateItems(false);
+        viewModel.getPagedExpensesByUser(userUid).observe(getViewLifecycleOwner(), pagingData ->
+                adapter.submitData(getViewLifecycleOwner().getLifecycle(), pagingData));
+        
+        // Reactivar animaciones después de un breve delay
+        binding.recyclerViewExpenses.postDelayed(() -> {
+            if (adapter != null) {
                 adapter.setAnimateItems(true);
                 adapter.resetAnimationState();
-            }, 100);
-        } else {
-            Log.d("ExpensesFragment", "Esperando datos - Categorías cargadas: " + categoriesLoaded + ", Gastos cargados: " + expensesLoaded);
-        }
+            }
+        }, 100);
     }
     
     /**
@@ -429,6 +454,10 @@ public class ExpensesFragment extends Fragment implements CategorySelectionBotto
     @Override
     public void onDestroyView() {
         super.onDestroyView();
+        // La vista nueva debe volver a suscribirse a los gastos paginados
+        pagedExpensesUserUid = null;
+        categoriesLoaded = false;
+        databaseReady = false;
         binding = null;
     }
 }
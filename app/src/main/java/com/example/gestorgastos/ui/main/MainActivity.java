@@ -31,6 +31,8 @@ import com.example.gestorgastos.ui.admin.AdminFragment;
 import com.example.gestorgastos.ui.dialogs.AccountBottomSheet;
 import com.example.gestorgastos.ui.dialogs.AuthMessageDialog;
 import com.example.gestorgastos.data.local.entity.CategoryEntity;
+import com.example.gestorgastos.data.local.DatabaseStartup;
+import com.example.gestorgastos.data.repository.RealtimeSync;
 import java.util.List;
 import java.util.ArrayList;
 
@@ -47,6 +49,9 @@ public class MainActivity extends AppCompatActivity implements AccountBottomShee
     // Variable para rastrear el fragmento actual
     private int currentFragment = FRAGMENT_EXPENSES;
     
+    // El fragmento inicial y RealtimeSync ya se crearon (una sola vez, cuando la base quedó abierta)
+    private boolean databaseStarted;
+    
     
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -92,11 +97,22 @@ public class MainActivity extends AppCompatActivity implements AccountBottomShee
         
         // Iniciar monitoreo de red
         com.example.gestorgastos.util.NetworkMonitor.getInstance().startMonitoring(this);
-        
-        // Cargar fragmento inicial
-        if (savedInstanceState == null) {
-            loadFragment(new ExpensesFragment());
-        }
+
+        // La base de la cuenta se abre en segundo plano (DatabaseStartup): lo que la consulta espera a que esté lista
+        boolean firstCreate = savedInstanceState == null;
+        DatabaseStartup.isReady().observe(this, ready -> {
+            if (!Boolean.TRUE.equals(ready) || databaseStarted) {
+                return;
+            }
+            databaseStarted = true;
+            // Cambios de otros dispositivos en tiempo real mientras la pantalla está visible
+            getLifecycle().addObserver(new RealtimeSync(getApplicationContext()));
+            
+            // Cargar fragmento inicial
+            if (firstCreate) {
+                loadFragment(new ExpensesFragment());
+            }
+        });
         
         // Configurar comportamiento del BottomNavigationView
         setupBottomNavigationBehavior();
@@ -1,5 +1,6 @@
 package com.example.gestorgastos.ui.settings;
 
+import android.content.Intent;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.os.Bundle;
@@ -13,15 +14,20 @@ import androidx.annotation.Nullable;
 import androidx.fragment.app.Fragment;
 
 import com.example.gestorgastos.R;
+import com.example.gestorgastos.data.local.QueryStats;
 import com.example.gestorgastos.databinding.FragmentSettingsBinding;
 import com.example.gestorgastos.util.ThemeManager;
 
 /**
  * Fragment de configuración de la aplicación.
  * Permite al usuario cambiar el tema (claro, oscuro, o seguir el sistema).
+ * En builds depurables muestra además las estadísticas de consultas a la base local.
  */
 public class SettingsFragment extends Fragment {
     
+    // Consultas que se listan en pantalla (las de mayor tiempo total)
+    private static final int QUERY_STATS_SHOWN = 15;
+    
     private FragmentSettingsBinding binding;
     
     @Nullable
@@ -37,6 +43,37 @@ public class SettingsFragment extends Fragment {
         
         setupViews();
         loadCurrentTheme();
+        setupQueryStats();
+    }
+    
+    @Override
+    public void onResume() {
+        super.onResume();
+        if (QueryStats.isEnabled()) {
+            binding.tvQueryStats.setText(QueryStats.dump(QUERY_STATS_SHOWN));
+        }
+    }
+    
+    /**
+     * Sección de diagnóstico: latencias de las consultas a Room (solo en builds depurables).
+     * Muestra las más costosas; "Exportar" comparte el volcado completo como texto.
+     */
+    private void setupQueryStats() {
+        if (!QueryStats.isEnabled()) {
+            return;
+        }
+        binding.layoutQueryStats.setVisibility(View.VISIBLE);
+        binding.btnResetQueryStats.setOnClickListener(v -> {
+            QueryStats.reset();
+            binding.tvQueryStats.setText(QueryStats.dump(QUERY_STATS_SHOWN));
+        });
+        binding.btnShareQueryStats.setOnClickListener(v -> {
+            Intent intent = new Intent(Intent.ACTION_SEND);
+            intent.setType("text/plain");
+            intent.putExtra(Intent.EXTRA_SUBJECT, "Estadísticas de consultas");
+            intent.putExtra(Intent.EXTRA_TEXT, QueryStats.dump(0));
+            startActivity(Intent.createChooser(intent, "Exportar estadísticas"));
+        });
     }
     
     private void setupViews() {
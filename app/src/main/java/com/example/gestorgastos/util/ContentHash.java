@@ -0,0 +1,35 @@
+package com.example.gestorgastos.util;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Huella determinística del contenido de un gasto al crearlo (ExpenseEntity.contentHash).
+ * Dos inserciones con el mismo usuario, categoría, monto y fecha (al milisegundo, que es lo que guarda
+ * el selector de fecha) son el mismo gasto enviado dos veces, p. ej. un doble toque en Guardar.
+ * La huella no cambia al editar el gasto: identifica la creación, no el contenido actual.
+ */
+public final class ContentHash {
+
+    // 128 bits en hexadecimal: suficiente contra colisiones entre los gastos de un usuario
+    private static final int HEX_LENGTH = 32;
+
+    private ContentHash() {}
+
+    public static String forExpense(String userUid, String categoryRemoteId, long montoCentavos, long fechaEpochMillis) {
+        String content = userUid + '|' + categoryRemoteId + '|' + montoCentavos + '|' + fechaEpochMillis;
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(content.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(HEX_LENGTH);
+            for (int i = 0; i < HEX_LENGTH / 2; i++) {
+                hex.append(Character.forDigit((digest[i] >> 4) & 0xF, 16));
+                hex.append(Character.forDigit(digest[i] & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-256 es obligatorio en todas las versiones de Android
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -43,6 +43,13 @@ public class DateTimeUtil {
         return endOfMonth.atZone(ZoneId.of(zoneId)).toInstant().toEpochMilli();
     }
     
+    /**
+     * Clave "yyyy-MM" usada por expense_month_totals (month es 1-12).
+     */
+    public static String getYearMonthKey(int year, int month) {
+        return String.format(Locale.US, "%04d-%02d", year, month);
+    }
+    
     public static long getCurrentEpochMillis() {
         return Instant.now().toEpochMilli();
     }
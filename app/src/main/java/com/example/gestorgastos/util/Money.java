@@ -0,0 +1,40 @@
+package com.example.gestorgastos.util;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Montos de dinero como enteros en centavos (unidades menores).
+ * Las sumas y comparaciones se hacen con long primitivos, sin boxing ni error de punto flotante;
+ * solo se convierte a double en los bordes (UI y compatibilidad con Firestore).
+ */
+public final class Money {
+    
+    public static final int CENTAVOS_POR_UNIDAD = 100;
+    
+    private Money() {}
+    
+    /**
+     * Convierte un monto decimal (por ejemplo 12.5) a centavos, redondeando al centavo más cercano
+     * (las mitades se alejan del cero, igual para montos negativos).
+     * Parte del texto decimal del double: amount * 100 da 100.49999... para 1.005 y redondearía hacia abajo.
+     */
+    public static long fromDouble(double amount) {
+        // NaN, infinitos y montos fuera de rango: Math.round los lleva a 0 o al extremo de long
+        if (!(Math.abs(amount) < Long.MAX_VALUE / CENTAVOS_POR_UNIDAD)) {
+            return Math.round(amount * CENTAVOS_POR_UNIDAD);
+        }
+        return BigDecimal.valueOf(amount).movePointRight(2).setScale(0, RoundingMode.HALF_UP).longValueExact();
+    }
+    
+    /**
+     * Convierte centavos a un monto decimal, solo para mostrar o para payloads heredados.
+     */
+    public static double toDouble(long centavos) {
+        return (double) centavos / CENTAVOS_POR_UNIDAD;
+    }
+    
+    public static String format(long centavos) {
+        return CurrencyFormatter.format(toDouble(centavos));
+    }
+}
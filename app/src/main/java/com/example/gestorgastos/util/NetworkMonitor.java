@@ -7,6 +7,7 @@ import android.net.NetworkCapabilities;
 import android.net.NetworkRequest;
 import android.util.Log;
 import androidx.annotation.NonNull;
+import androidx.work.ExistingWorkPolicy;
 import androidx.work.OneTimeWorkRequest;
 import androidx.work.WorkManager;
 import com.example.gestorgastos.work.SyncWorker;
@@ -307,8 +308,12 @@ public class NetworkMonitor {
                     .addTag("auto_sync_on_reconnect")
                     .build();
             
-            // Encolar el trabajo
-            WorkManager.getInstance(appContext).enqueue(syncRequest);
+            // Encolar el trabajo (KEEP: si ya hay una sincronización puntual pendiente o en curso, no se duplica)
+            WorkManager.getInstance(appContext).enqueueUniqueWork(
+                    SyncWorker.UNIQUE_ONE_TIME_WORK,
+                    ExistingWorkPolicy.KEEP,
+                    syncRequest
+            );
             
             Log.d(TAG, "✅ Sincronización automática encolada - SyncWorker se ejecutará pronto");
         } catch (Exception e) {
@@ -3,12 +3,41 @@ package com.example.gestorgastos.util;
 import android.content.Context;
 import android.content.SharedPreferences;
 
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
 public class SyncPrefs {
 
     private static final String PREFS_NAME = "gestor_gastos_prefs";
     private static final String KEY_LAST_SYNC_MILLIS = "last_sync_millis";
     private static final String KEY_LAST_SYNC_CATEGORIES = "last_sync_categories_";
     private static final String KEY_LAST_SYNC_EXPENSES = "last_sync_expenses_";
+    // Sin sufijo: valor global de versiones anteriores (un solo archivo de base); con sufijo, por base
+    private static final String KEY_MONTH_TOTALS_ZONE_ID = "month_totals_zone_id";
+    private static final String KEY_PULL_WATERMARK_SECONDS = "pull_watermark_seconds_";
+    private static final String KEY_PULL_WATERMARK_NANOS = "pull_watermark_nanos_";
+    private static final String KEY_PULL_WATERMARK_DOC_ID = "pull_watermark_doc_id_";
+    private static final String KEY_TOMBSTONE_RETENTION_DAYS = "tombstone_retention_days";
+    private static final String KEY_ARCHIVE_AFTER_MONTHS = "archive_after_months";
+    private static final String KEY_ARCHIVE_BOUNDARY_MILLIS = "archive_boundary_millis_";
+    private static final String KEY_ACTIVE_DATABASE_UID = "active_database_uid";
+    private static final String KEY_SHARED_DATABASE_ADOPTED = "shared_database_adopted";
+    private static final String KEY_PRUNE_PENDING_UIDS = "prune_pending_uids";
+    private static final String KEY_DEFAULT_CATEGORIES_PENDING_UIDS = "default_categories_pending_uids";
+    private static final String KEY_WRITE_COALESCE_WINDOW_MILLIS = "write_coalesce_window_millis";
+
+    // Debe ser menor que la retención del purgado en el servidor (functions/index.js, TOMBSTONE_RETENTION_DAYS)
+    public static final int DEFAULT_TOMBSTONE_RETENTION_DAYS = 30;
+
+    // Igual a TOMBSTONE_RETENTION_DAYS de functions/index.js: pasado ese plazo el servidor borra las lápidas
+    public static final int SERVER_TOMBSTONE_RETENTION_DAYS = 90;
+
+    public static final long DEFAULT_WRITE_COALESCE_WINDOW_MILLIS = 1500L;
+
+    public static final String COLLECTION_CATEGORIES = "categories";
+    public static final String COLLECTION_EXPENSES = "expenses";
 
     public static void setLastSyncMillis(Context context, long millis) {
         SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
@@ -21,15 +50,17 @@ public class SyncPrefs {
     }
 
     /**
-     * Guarda el timestamp de la última sincronización de categorías para un usuario específico
+     * true si hubo una sincronización completa y es más vieja que el purgado de lápidas del servidor:
+     * los cambios encolados desde entonces pueden apuntar a documentos que ya no existen (ver SyncWorker)
      */
-    public static void setLastSyncCategoriesMillis(Context context, String userUid, long millis) {
-        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-        prefs.edit().putLong(KEY_LAST_SYNC_CATEGORIES + userUid, millis).apply();
+    public static boolean isLastSyncBeyondServerPurge(Context context, long nowMillis) {
+        long lastSync = getLastSyncMillis(context);
+        return lastSync > 0 && nowMillis - lastSync > TimeUnit.DAYS.toMillis(SERVER_TOMBSTONE_RETENTION_DAYS);
     }
 
     /**
-     * Obtiene el timestamp de la última sincronización de categorías para un usuario específico
+     * Obtiene la hora local de la última sincronización de categorías que guardaban versiones anteriores.
+     * Solo se usa como cursor inicial hasta que exista la marca de agua (getPullWatermarkSeconds).
      */
     public static long getLastSyncCategoriesMillis(Context context, String userUid) {
         SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
@@ -37,21 +68,232 @@ public class SyncPrefs {
     }
 
     /**
-     * Guarda el timestamp de la última sincronización de gastos para un usuario específico
+     * Obtiene la hora local de la última sincronización de gastos que guardaban versiones anteriores.
+     * Solo se usa como cursor inicial hasta que exista la marca de agua (getPullWatermarkSeconds).
      */
-    public static void setLastSyncExpensesMillis(Context context, String userUid, long millis) {
+    public static long getLastSyncExpensesMillis(Context context, String userUid) {
         SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-        prefs.edit().putLong(KEY_LAST_SYNC_EXPENSES + userUid, millis).apply();
+        return prefs.getLong(KEY_LAST_SYNC_EXPENSES + userUid, 0L);
     }
 
     /**
-     * Obtiene el timestamp de la última sincronización de gastos para un usuario específico
+     * Días que se conservan en Room las filas eliminadas (soft delete) ya sincronizadas antes de compactarlas
      */
-    public static long getLastSyncExpensesMillis(Context context, String userUid) {
+    public static void setTombstoneRetentionDays(Context context, int days) {
         SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-        return prefs.getLong(KEY_LAST_SYNC_EXPENSES + userUid, 0L);
+        prefs.edit().putInt(KEY_TOMBSTONE_RETENTION_DAYS, days).apply();
     }
 
-}
+    public static int getTombstoneRetentionDays(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        return prefs.getInt(KEY_TOMBSTONE_RETENTION_DAYS, DEFAULT_TOMBSTONE_RETENTION_DAYS);
+    }
+
+    /**
+     * Espera entre un cambio local y su envío a Firestore; los cambios sobre la misma fila dentro
+     * de la ventana salen en una sola escritura (ver WriteCoalescer). 0 envía cada cambio enseguida.
+     */
+    public static void setWriteCoalesceWindowMillis(Context context, long millis) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        prefs.edit().putLong(KEY_WRITE_COALESCE_WINDOW_MILLIS, millis).apply();
+    }
+
+    public static long getWriteCoalesceWindowMillis(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        return Math.max(0L, prefs.getLong(KEY_WRITE_COALESCE_WINDOW_MILLIS, DEFAULT_WRITE_COALESCE_WINDOW_MILLIS));
+    }
+
+    /**
+     * Modo archivo: los gastos con más de esta cantidad de meses se mueven al archivo frío (ExpenseArchive).
+     * 0 desactiva el modo archivo.
+     */
+    public static void setArchiveAfterMonths(Context context, int months) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        prefs.edit().putInt(KEY_ARCHIVE_AFTER_MONTHS, months).apply();
+    }
+
+    public static int getArchiveAfterMonths(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        return prefs.getInt(KEY_ARCHIVE_AFTER_MONTHS, 0);
+    }
+
+    /**
+     * Fecha (epoch millis) por debajo de la cual puede haber gastos en el archivo frío archiveName
+     * (hay uno por base de cuenta). Se escribe con commit() porque las consultas deciden con este valor
+     * si hace falta leer el archivo.
+     */
+    public static void setArchiveBoundaryMillis(Context context, String archiveName, long millis) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        prefs.edit().putLong(KEY_ARCHIVE_BOUNDARY_MILLIS + archiveName, millis).commit();
+    }
+
+    /**
+     * Límite del archivo frío archiveName, o 0 si nunca se archivó nada
+     */
+    public static long getArchiveBoundaryMillis(Context context, String archiveName) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        return prefs.getLong(KEY_ARCHIVE_BOUNDARY_MILLIS + archiveName, 0L);
+    }
+
+    public static void clearArchiveBoundary(Context context, String archiveName) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        prefs.edit().remove(KEY_ARCHIVE_BOUNDARY_MILLIS + archiveName).commit();
+    }
+
+    /**
+     * UID de la cuenta cuya base local (AppDatabase.openForUser) se abre al arrancar, o null sin sesión.
+     * Se escribe con commit(): un proceso que arranca en segundo plano (SyncWorker) debe abrir el mismo archivo.
+     */
+    public static void setActiveDatabaseUid(Context context, String userUid) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        prefs.edit().putString(KEY_ACTIVE_DATABASE_UID, userUid).commit();
+    }
+
+    public static String getActiveDatabaseUid(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        return prefs.getString(KEY_ACTIVE_DATABASE_UID, null);
+    }
+
+    /**
+     * Si ya se resolvió a qué cuenta pasa el archivo compartido de versiones anteriores
+     */
+    public static void setSharedDatabaseAdopted(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        prefs.edit().putBoolean(KEY_SHARED_DATABASE_ADOPTED, true).commit();
+    }
+
+    public static boolean isSharedDatabaseAdopted(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        return prefs.getBoolean(KEY_SHARED_DATABASE_ADOPTED, false);
+    }
+
+    /**
+     * Cuentas cuya base salió del archivo compartido y todavía tiene filas de otras cuentas:
+     * se podan la próxima vez que se abre (AppDatabase.openForUser). Se escribe con commit()
+     * porque la poda se decide al abrir, quizá en otro proceso.
+     */
+    public static void addPrunePending(Context context, String userUid) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        Set<String> uids = new HashSet<>(prefs.getStringSet(KEY_PRUNE_PENDING_UIDS, Collections.emptySet()));
+        uids.add(userUid);
+        prefs.edit().putStringSet(KEY_PRUNE_PENDING_UIDS, uids).commit();
+    }
+
+    public static boolean isPrunePending(Context context, String userUid) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        return prefs.getStringSet(KEY_PRUNE_PENDING_UIDS, Collections.emptySet()).contains(userUid);
+    }
+
+    public static void clearPrunePending(Context context, String userUid) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        Set<String> uids = new HashSet<>(prefs.getStringSet(KEY_PRUNE_PENDING_UIDS, Collections.emptySet()));
+        uids.remove(userUid);
+        prefs.edit().putStringSet(KEY_PRUNE_PENDING_UIDS, uids).commit();
+    }
+
+    /**
+     * Cuentas que iniciaron sesión sin fila local de usuario y todavía no saben si necesitan las
+     * categorías por defecto: se decide después de la primera descarga de categorías que termine bien
+     */
+    public static void addDefaultCategoriesPending(Context context, String userUid) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        Set<String> uids = new HashSet<>(prefs.getStringSet(KEY_DEFAULT_CATEGORIES_PENDING_UIDS, Collections.emptySet()));
+        uids.add(userUid);
+        prefs.edit().putStringSet(KEY_DEFAULT_CATEGORIES_PENDING_UIDS, uids).commit();
+    }
 
+    public static boolean isDefaultCategoriesPending(Context context, String userUid) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        return prefs.getStringSet(KEY_DEFAULT_CATEGORIES_PENDING_UIDS, Collections.emptySet()).contains(userUid);
+    }
+
+    public static void clearDefaultCategoriesPending(Context context, String userUid) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        Set<String> uids = new HashSet<>(prefs.getStringSet(KEY_DEFAULT_CATEGORIES_PENDING_UIDS, Collections.emptySet()));
+        uids.remove(userUid);
+        prefs.edit().putStringSet(KEY_DEFAULT_CATEGORIES_PENDING_UIDS, uids).commit();
+    }
+
+    /**
+     * Guarda la zona horaria con la que se calcularon los totales mensuales (expense_month_totals)
+     * de la base databaseName (hay una por cuenta)
+     */
+    public static void setMonthTotalsZoneId(Context context, String databaseName, String zoneId) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        prefs.edit().putString(KEY_MONTH_TOTALS_ZONE_ID + "_" + databaseName, zoneId).apply();
+    }
+
+    /**
+     * Obtiene la zona horaria con la que se calcularon los totales mensuales de databaseName, o null si nunca se guardó.
+     * Las bases que salieron del archivo compartido heredan el valor global que se guardaba antes
+     */
+    public static String getMonthTotalsZoneId(Context context, String databaseName) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        return prefs.getString(KEY_MONTH_TOTALS_ZONE_ID + "_" + databaseName,
+                prefs.getString(KEY_MONTH_TOTALS_ZONE_ID, null));
+    }
 
+    public static void clearMonthTotalsZoneId(Context context, String databaseName) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        prefs.edit().remove(KEY_MONTH_TOTALS_ZONE_ID + "_" + databaseName).apply();
+    }
+
+    /**
+     * Guarda la marca de agua de descarga de una colección para un usuario: el mayor updated_at
+     * (segundos + nanos, tal como está en Firestore) y el id del último documento procesado con ese valor.
+     * Se escribe después de cada página para poder retomar la descarga si el proceso muere.
+     */
+    public static void setPullWatermark(Context context, String userUid, String collection,
+                                        long seconds, int nanos, String docId) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        String suffix = collection + "_" + userUid;
+        prefs.edit()
+                .putLong(KEY_PULL_WATERMARK_SECONDS + suffix, seconds)
+                .putInt(KEY_PULL_WATERMARK_NANOS + suffix, nanos)
+                .putString(KEY_PULL_WATERMARK_DOC_ID + suffix, docId)
+                .apply();
+    }
+
+    /**
+     * Segundos de la marca de agua de descarga, o -1 si todavía no se descargó ninguna página
+     */
+    public static long getPullWatermarkSeconds(Context context, String userUid, String collection) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        return prefs.getLong(KEY_PULL_WATERMARK_SECONDS + collection + "_" + userUid, -1L);
+    }
+
+    /**
+     * Nanosegundos de la marca de agua de descarga
+     */
+    public static int getPullWatermarkNanos(Context context, String userUid, String collection) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        return prefs.getInt(KEY_PULL_WATERMARK_NANOS + collection + "_" + userUid, 0);
+    }
+
+    /**
+     * Id del último documento procesado con el updated_at de la marca de agua, o null si no hay
+     */
+    public static String getPullWatermarkDocId(Context context, String userUid, String collection) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        return prefs.getString(KEY_PULL_WATERMARK_DOC_ID + collection + "_" + userUid, null);
+    }
+
+    /**
+     * Olvida las marcas de agua (y los cursores heredados) de un usuario: su próxima descarga es completa.
+     * Para cuando sus filas locales se borraron sin pasar por Firestore.
+     */
+    public static void clearPullWatermarks(Context context, String userUid) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        SharedPreferences.Editor editor = prefs.edit()
+                .remove(KEY_LAST_SYNC_CATEGORIES + userUid)
+                .remove(KEY_LAST_SYNC_EXPENSES + userUid);
+        for (String collection : new String[] {COLLECTION_CATEGORIES, COLLECTION_EXPENSES}) {
+            String suffix = collection + "_" + userUid;
+            editor.remove(KEY_PULL_WATERMARK_SECONDS + suffix)
+                    .remove(KEY_PULL_WATERMARK_NANOS + suffix)
+                    .remove(KEY_PULL_WATERMARK_DOC_ID + suffix);
+        }
+        editor.commit();
+    }
+
+}
@@ -0,0 +1,137 @@
+package com.example.gestorgastos.work;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.work.Constraints;
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.NetworkType;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.WorkInfo;
+import androidx.work.WorkManager;
+
+import com.example.gestorgastos.data.local.dao.SyncOutboxDao;
+import com.example.gestorgastos.data.local.entity.SyncOutboxEntity;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Backoff exponencial por entrada de sync_outbox y programación del SyncWorker
+ * para el próximo reintento vencido (en lugar de esperar al periódico de 15 minutos).
+ * Los métodos que tocan la base deben llamarse fuera del hilo principal.
+ */
+public final class SyncRetryScheduler {
+    private static final String TAG = "SyncRetryScheduler";
+
+    public static final String UNIQUE_RETRY_WORK = "firestore_sync_retry";
+
+    private static final long BASE_DELAY_MS = TimeUnit.SECONDS.toMillis(30);
+    private static final long MAX_DELAY_MS = TimeUnit.HOURS.toMillis(6);
+
+    private SyncRetryScheduler() {
+    }
+
+    /**
+     * Espera antes del intento número attemptCount + 1: 30 s, 1 min, 2 min... hasta 6 h,
+     * con hasta un 20% de jitter para que los reintentos de muchas filas no coincidan.
+     */
+    public static long backoffDelayMillis(int attemptCount) {
+        int exponent = Math.max(0, Math.min(attemptCount - 1, 20));
+        long delay = Math.min(MAX_DELAY_MS, BASE_DELAY_MS << exponent);
+        return delay + ThreadLocalRandom.current().nextLong(delay / 5 + 1);
+    }
+
+    /**
+     * Registra un intento fallido de la entrada y programa el próximo despertar del SyncWorker.
+     * Si la entrada ya no existe (se confirmó o la reemplazó un cambio más nuevo) no hace nada.
+     */
+    public static void recordFailure(Context context, SyncOutboxDao syncOutboxDao, long outboxId) {
+        SyncOutboxEntity entry = syncOutboxDao.getById(outboxId);
+        if (entry == null) {
+            return;
+        }
+        int attempts = entry.attemptCount + 1;
+        long nextAttemptAt = System.currentTimeMillis() + backoffDelayMillis(attempts);
+        syncOutboxDao.updateAttempt(outboxId, attempts, nextAttemptAt);
+        Log.d(TAG, "Entrada " + outboxId + " (" + entry.entityType + " " + entry.entityIdLocal + ") falló " +
+              attempts + " veces, próximo intento en " + (nextAttemptAt - System.currentTimeMillis()) + " ms");
+        // Si el SyncWorker está corriendo, él mismo programa el próximo reintento al terminar;
+        // reemplazar el trabajo ahora podría cancelar la ejecución en curso
+        if (!SyncWorker.isRunning()) {
+            scheduleNextRetry(context, syncOutboxDao);
+        }
+    }
+
+    /**
+     * Pide una sincronización inmediata (p. ej. gastos que esperaban a una categoría recién confirmada).
+     * Si el SyncWorker está corriendo no hace nada: su etapa push_expenses o el próximo reintento
+     * que programa al terminar se encargan.
+     */
+    public static void scheduleNow(Context context) {
+        if (SyncWorker.isRunning()) {
+            return;
+        }
+        Constraints constraints = new Constraints.Builder()
+                .setRequiredNetworkType(NetworkType.CONNECTED)
+                .build();
+        OneTimeWorkRequest request = new OneTimeWorkRequest.Builder(SyncWorker.class)
+                .setConstraints(constraints)
+                .build();
+        WorkManager.getInstance(context.getApplicationContext()).enqueueUniqueWork(
+                SyncWorker.UNIQUE_ONE_TIME_WORK,
+                ExistingWorkPolicy.KEEP,
+                request
+        );
+        Log.d(TAG, "Sincronización inmediata solicitada");
+    }
+
+    /**
+     * Programa un SyncWorker para el reintento más próximo de la cola.
+     * Un reintento que todavía espera se reemplaza (así se puede adelantar); uno que está corriendo
+     * no se cancela: el nuevo se encadena detrás (APPEND_OR_REPLACE).
+     */
+    public static void scheduleNextRetry(Context context, SyncOutboxDao syncOutboxDao) {
+        Long nextAttemptAt = syncOutboxDao.getNextAttemptAt();
+        if (nextAttemptAt == null) {
+            return;
+        }
+        // Piso de BASE_DELAY_MS: las entradas recién encoladas ya tienen un envío en camino desde
+        // el repositorio (tras la ventana de WriteCoalescer) y no conviene duplicarlo
+        long delay = Math.max(BASE_DELAY_MS, nextAttemptAt - System.currentTimeMillis());
+
+        Constraints constraints = new Constraints.Builder()
+                .setRequiredNetworkType(NetworkType.CONNECTED)
+                .build();
+        OneTimeWorkRequest request = new OneTimeWorkRequest.Builder(SyncWorker.class)
+                .setConstraints(constraints)
+                .setInitialDelay(delay, TimeUnit.MILLISECONDS)
+                .build();
+
+        WorkManager workManager = WorkManager.getInstance(context.getApplicationContext());
+        ExistingWorkPolicy policy = isRetryRunning(workManager)
+                ? ExistingWorkPolicy.APPEND_OR_REPLACE
+                : ExistingWorkPolicy.REPLACE;
+        workManager.enqueueUniqueWork(UNIQUE_RETRY_WORK, policy, request);
+        Log.d(TAG, "Próximo reintento de sincronización programado en " + delay + " ms (" + policy + ")");
+    }
+
+    private static boolean isRetryRunning(WorkManager workManager) {
+        try {
+            for (WorkInfo info : workManager.getWorkInfosForUniqueWork(UNIQUE_RETRY_WORK).get()) {
+                if (info.getState() == WorkInfo.State.RUNNING) {
+                    return true;
+                }
+            }
+            return false;
+        } catch (ExecutionException | InterruptedException e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            // Sin saberlo, encadenar es lo seguro: nunca cancela una ejecución en curso
+            Log.w(TAG, "No se pudo consultar el estado del reintento", e);
+            return true;
+        }
+    }
+}
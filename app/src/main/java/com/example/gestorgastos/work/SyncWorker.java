@@ -1,68 +1,189 @@
 package com.example.gestorgastos.work;
 
 import android.content.Context;
+import android.os.SystemClock;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
-import androidx.work.Worker;
+import androidx.concurrent.futures.CallbackToFutureAdapter;
+import androidx.work.Data;
+import androidx.work.ListenableWorker;
 import androidx.work.WorkerParameters;
 
+import com.example.gestorgastos.data.local.AppDatabase;
 import com.example.gestorgastos.data.repository.CategoryRepositoryImpl;
 import com.example.gestorgastos.data.repository.ExpenseRepositoryImpl;
 import com.example.gestorgastos.data.repository.AdminRepositoryImpl;
 import com.example.gestorgastos.util.SyncPrefs;
 import com.example.gestorgastos.data.repository.AuthRepositoryImpl;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.auth.FirebaseUser;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Worker encargado de sincronizar con Firestore todas las entidades pendientes.
- * Sincroniza:
- * - Categorías con syncState = "PENDING" (creaciones, actualizaciones, eliminaciones)
- * - Gastos con syncState = "PENDING" (creaciones, actualizaciones, eliminaciones)
- * - Usuarios con syncState = "PENDING" (actualizaciones)
- * - Eliminaciones de usuarios pendientes (soft deletes)
+ * Corre como pipeline por etapas y solo termina cuando terminó la última:
+ * 0. reset_stale: si la última sincronización es más vieja que el purgado de lápidas del servidor,
+ *    descarta los cambios sobre documentos existentes y fuerza una descarga completa (ver resetIfStale)
+ * 1. push_categories: categorías encoladas en sync_outbox (antes que los gastos que las referencian)
+ * 2. push_expenses: gastos encolados en sync_outbox
+ * 3. push_users: usuarios con syncState = "PENDING" y eliminaciones pendientes
+ * 4. pull: cambios de categorías y gastos desde Firestore hacia Room
+ * Si una etapa falla se devuelve Result.retry() para que WorkManager aplique el backoff.
+ * Al terminar se programa el próximo despertar según los reintentos pendientes (SyncRetryScheduler).
+ * La duración de cada etapa (ms) queda en los datos de salida con la clave "stage_ms_" + etapa.
  */
-public class SyncWorker extends Worker {
+public class SyncWorker extends ListenableWorker {
 
     public static final String TAG = "SyncWorker";
 
+    // Nombres de trabajo único: evitan que dos ejecuciones del mismo tipo se encolen a la vez
+    public static final String UNIQUE_PERIODIC_WORK = "firestore_sync_work";
+    public static final String UNIQUE_ONE_TIME_WORK = "firestore_sync_now";
+
+    public static final String KEY_STAGE_MS_PREFIX = "stage_ms_";
+
+    // La periódica y la puntual son trabajos únicos distintos: este flag evita que se solapen entre sí.
+    // Solo se libera cuando termina el pipeline, no cuando WorkManager detiene el worker
+    private static final AtomicBoolean RUNNING = new AtomicBoolean(false);
+
     public SyncWorker(@NonNull Context context, @NonNull WorkerParameters workerParams) {
         super(context, workerParams);
     }
 
+    static boolean isRunning() {
+        return RUNNING.get();
+    }
+
     @NonNull
     @Override
-    public Result doWork() {
-        try {
+    public ListenableFuture<Result> startWork() {
+        return CallbackToFutureAdapter.getFuture(completer -> {
+            if (!RUNNING.compareAndSet(false, true)) {
+                Log.d(TAG, "Ya hay una sincronización en curso, se omite esta ejecución");
+                completer.set(Result.success());
+                return "SyncWorker omitido";
+            }
+
             Log.d(TAG, "Iniciando sincronización en segundo plano con Firestore");
 
-            Context appContext = getApplicationContext();
+            // Si algo falla antes de enganchar addOnCompleteListener (un constructor, o el start() de la
+            // primera etapa), nadie liberaría RUNNING y ninguna sincronización volvería a correr en este proceso
+            try {
+                Context appContext = getApplicationContext();
+                Executor executor = getBackgroundExecutor();
+                Data.Builder timings = new Data.Builder();
 
-            // Repositorios (cada uno maneja sus propios hilos internos)
-            CategoryRepositoryImpl categoryRepository = new CategoryRepositoryImpl(appContext);
-            ExpenseRepositoryImpl expenseRepository = new ExpenseRepositoryImpl(appContext);
-            AdminRepositoryImpl adminRepository = new AdminRepositoryImpl(appContext);
+                // Repositorios (cada uno maneja sus propios hilos internos)
+                CategoryRepositoryImpl categoryRepository = new CategoryRepositoryImpl(appContext);
+                ExpenseRepositoryImpl expenseRepository = new ExpenseRepositoryImpl(appContext);
+                AdminRepositoryImpl adminRepository = new AdminRepositoryImpl(appContext);
+                AuthRepositoryImpl authRepository = new AuthRepositoryImpl(appContext);
 
-            // Lanzar sincronización de pendientes (fire-and-forget)
-            categoryRepository.syncPendingCategoriesWithFirestore();
-            expenseRepository.syncPendingExpensesWithFirestore();
-            adminRepository.syncPendingUsersWithFirestore(); // Actualizaciones pendientes
-            adminRepository.syncPendingDeletionsWithServer(); // Eliminaciones pendientes
+                runStage("reset_stale", () -> Tasks.call(executor, () -> {
+                            resetIfStale(appContext);
+                            return null;
+                        }), executor, timings)
+                        .onSuccessTask(executor, unused -> runStage("push_categories",
+                                categoryRepository::syncPendingCategoriesWithFirestore, executor, timings))
+                        .onSuccessTask(executor, unused -> runStageUnlessStopped("push_expenses",
+                                expenseRepository::syncPendingExpensesWithFirestore, executor, timings))
+                        .onSuccessTask(executor, unused -> runStageUnlessStopped("push_users",
+                                () -> Tasks.whenAll(
+                                        adminRepository.syncPendingUsersWithFirestore(), // Actualizaciones pendientes
+                                        adminRepository.syncPendingDeletionsWithServer()), // Eliminaciones pendientes
+                                executor, timings))
+                        .onSuccessTask(executor, unused -> runStageUnlessStopped("pull",
+                                authRepository::pullUserData, executor, timings))
+                        .addOnCompleteListener(executor, task -> {
+                            RUNNING.set(false);
+                            if (task.isSuccessful()) {
+                                // Guardar la hora de la última sincronización completa
+                                SyncPrefs.setLastSyncMillis(appContext, System.currentTimeMillis());
+                                Log.d(TAG, "SyncWorker completado correctamente");
+                                completer.set(Result.success(timings.build()));
+                            } else {
+                                Log.e(TAG, "Error en SyncWorker, se reintentará", task.getException());
+                                completer.set(Result.retry());
+                            }
+                            // Despertar de nuevo cuando venza el próximo reintento de sync_outbox (si queda alguno)
+                            SyncRetryScheduler.scheduleNextRetry(appContext,
+                                    AppDatabase.getDatabase(appContext).syncOutboxDao());
+                        });
+            } catch (Exception e) {
+                RUNNING.set(false);
+                Log.e(TAG, "Error al preparar SyncWorker, se reintentará", e);
+                completer.set(Result.retry());
+                return "SyncWorker fallido al iniciar";
+            }
+
+            return "SyncWorker pipeline";
+        });
+    }
 
-            // Además, sincronizar datos desde Firestore hacia Room para el usuario actual
-            AuthRepositoryImpl authRepository = new AuthRepositoryImpl(appContext);
-            authRepository.syncUserDataIfNeeded();
+    @Override
+    public void onStopped() {
+        // WorkManager canceló el trabajo (restricciones, timeout). La etapa en curso no se puede cortar:
+        // termina sola, no se inicia la siguiente (runStageUnlessStopped) y el pipeline libera RUNNING al cerrar.
+        // Liberarlo acá dejaría que otro SyncWorker corra a la par de esa etapa
+        Log.d(TAG, "SyncWorker detenido, se cortará después de la etapa en curso");
+    }
 
-            // Guardar la hora del último intento de sincronización
-            SyncPrefs.setLastSyncMillis(appContext, System.currentTimeMillis());
+    /**
+     * Como runStage, pero falla sin empezar la etapa si WorkManager ya detuvo este worker.
+     */
+    private Task<Void> runStageUnlessStopped(String name, Stage stage, Executor executor, Data.Builder timings) {
+        if (isStopped()) {
+            return Tasks.forException(new CancellationException("SyncWorker detenido antes de la etapa " + name));
+        }
+        return runStage(name, stage, executor, timings);
+    }
 
-            Log.d(TAG, "SyncWorker ejecutado correctamente (sincronización lanzada y timestamp guardado)");
-            return Result.success();
-        } catch (Exception e) {
-            Log.e(TAG, "Error en SyncWorker", e);
-            // Permitir reintento en caso de fallo
-            return Result.retry();
+    /**
+     * Un dispositivo que no sincronizó en más de SyncPrefs.SERVER_TOMBSTONE_RETENTION_DAYS puede tener en
+     * sync_outbox cambios sobre documentos que otro dispositivo eliminó y el servidor ya purgó: el update
+     * fallaría con NOT_FOUND y el reintento con el documento completo (set merge) lo reviviría.
+     * Se descartan esas entradas (las altas se conservan: su id es nuevo y no pisa nada) y se olvidan
+     * las marcas de agua, así la etapa pull trae de nuevo el estado del servidor para esas filas.
+     * Se repite en cada corrida hasta que una termine bien y actualice getLastSyncMillis.
+     */
+    private static void resetIfStale(Context context) {
+        if (!SyncPrefs.isLastSyncBeyondServerPurge(context, System.currentTimeMillis())) {
+            return;
+        }
+        int dropped = AppDatabase.getDatabase(context).syncOutboxDao().deleteUpdatesOfExistingDocuments();
+        FirebaseUser user = FirebaseAuth.getInstance().getCurrentUser();
+        if (user != null) {
+            SyncPrefs.clearPullWatermarks(context, user.getUid());
         }
+        Log.w(TAG, "Última sincronización anterior al purgado del servidor: " + dropped +
+                " cambios descartados y descarga completa");
     }
-}
 
+    private interface Stage {
+        Task<?> start();
+    }
 
+    /**
+     * Ejecuta una etapa y registra su duración. La Task resultante falla si la etapa falló.
+     */
+    private static Task<Void> runStage(String name, Stage stage, Executor executor, Data.Builder timings) {
+        long startedAt = SystemClock.elapsedRealtime();
+        return stage.start().continueWith(executor, task -> {
+            long elapsed = SystemClock.elapsedRealtime() - startedAt;
+            timings.putLong(KEY_STAGE_MS_PREFIX + name, elapsed);
+            Log.d(TAG, "Etapa " + name + " terminada en " + elapsed + " ms (ok=" + task.isSuccessful() + ")");
+            if (!task.isSuccessful()) {
+                Exception e = task.getException();
+                throw e != null ? e : new CancellationException("Etapa " + name + " cancelada");
+            }
+            return null;
+        });
+    }
+}
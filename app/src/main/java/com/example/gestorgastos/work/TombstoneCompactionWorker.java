@@ -0,0 +1,66 @@
+package com.example.gestorgastos.work;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+import com.example.gestorgastos.data.local.AppDatabase;
+import com.example.gestorgastos.data.local.ExpenseArchive;
+import com.example.gestorgastos.util.DateTimeUtil;
+import com.example.gestorgastos.util.SyncPrefs;
+
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Worker periódico que borra definitivamente de Room los gastos y categorías eliminados (soft delete)
+ * cuando la eliminación ya está confirmada en Firestore (syncState = "SYNCED", sin entrada en sync_outbox)
+ * y pasó el período de retención (SyncPrefs.getTombstoneRetentionDays).
+ * Los gastos se compactan antes que las categorías para que las categorías que solo referenciaban
+ * gastos eliminados también puedan borrarse en la misma pasada.
+ * Con el modo archivo activo (SyncPrefs.getArchiveAfterMonths), después mueve al archivo frío
+ * los gastos de meses anteriores al límite (ExpenseArchive).
+ */
+public class TombstoneCompactionWorker extends Worker {
+
+    public static final String TAG = "TombstoneCompaction";
+
+    public static final String UNIQUE_PERIODIC_WORK = "tombstone_compaction_work";
+
+    public TombstoneCompactionWorker(@NonNull Context context, @NonNull WorkerParameters workerParams) {
+        super(context, workerParams);
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        Context appContext = getApplicationContext();
+        AppDatabase database = AppDatabase.getDatabase(appContext);
+        int retentionDays = SyncPrefs.getTombstoneRetentionDays(appContext);
+        long deletedBefore = DateTimeUtil.getCurrentEpochMillis() - TimeUnit.DAYS.toMillis(retentionDays);
+
+        try {
+            int[] purged = database.runInTransaction(() -> new int[] {
+                    database.expenseDao().purgeSyncedTombstones(deletedBefore),
+                    database.categoryDao().purgeSyncedTombstones(deletedBefore)
+            });
+            Log.d(TAG, "Compactación terminada: " + purged[0] + " gastos y " + purged[1] +
+                  " categorías eliminados hace más de " + retentionDays + " días");
+
+            int archiveAfterMonths = SyncPrefs.getArchiveAfterMonths(appContext);
+            if (archiveAfterMonths > 0) {
+                // Se archiva por meses completos: un mes queda entero en la base caliente o en el archivo
+                LocalDate firstHotMonth = LocalDate.now().withDayOfMonth(1).minusMonths(archiveAfterMonths);
+                ExpenseArchive.getInstance(appContext).archiveOlderThan(DateTimeUtil.getMonthStartEpoch(
+                        firstHotMonth.getYear(), firstHotMonth.getMonthValue(), DateTimeUtil.getCurrentZoneId()));
+            }
+            return Result.success();
+        } catch (Exception e) {
+            Log.e(TAG, "Error en el mantenimiento de la base local", e);
+            return Result.retry();
+        }
+    }
+}
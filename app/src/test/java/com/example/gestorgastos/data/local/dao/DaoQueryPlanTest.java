@@ -0,0 +1,416 @@
+package com.example.gestorgastos.data.local.dao;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Looper;
+
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.Observer;
+import androidx.paging.PagingSource;
+import androidx.room.Room;
+import androidx.sqlite.db.SimpleSQLiteQuery;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.example.gestorgastos.data.local.AppDatabase;
+import com.example.gestorgastos.data.local.entity.CategoryEntity;
+import com.example.gestorgastos.data.local.entity.ExpenseEntity;
+import com.example.gestorgastos.data.local.entity.PlanEntity;
+import com.example.gestorgastos.data.local.entity.UserEntity;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import kotlin.coroutines.EmptyCoroutineContext;
+import kotlinx.coroutines.BuildersKt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Regresión de planes y latencia de las consultas de ExpenseDao, CategoryDao, UserDao y PlanDao
+ * sobre una base en memoria con 100k gastos. Cada método de los DAO se invoca de verdad: el SQL
+ * que Room ejecuta se captura con QueryCallback y se pasa por EXPLAIN QUERY PLAN con sus argumentos.
+ * Falla si algún paso recorre entera una de las tablas grandes o si la mediana pasa del presupuesto.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DaoQueryPlanTest {
+    private static final int USERS = 1000;
+    private static final int USERS_WITH_EXPENSES = 50;
+    private static final int EXPENSES_PER_USER = 2000; // 50 x 2000 = 100k gastos
+    private static final int CATEGORIES_PER_USER = 10;
+    private static final int PLANS = 20;
+    private static final long BASE_MILLIS = 1_700_000_000_000L;
+    private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    private static final int RUNS = 5;
+    private static final long BUDGET_MILLIS = 50;
+    private static final long FULL_TABLE_BUDGET_MILLIS = 250;
+
+    private static final Pattern FULL_SCAN = Pattern.compile("^SCAN (TABLE )?(expenses|categories|users|plans)\\b");
+    private static final Pattern DATA_STATEMENT = Pattern.compile("^(SELECT|WITH|INSERT|UPDATE|DELETE)\\b", Pattern.CASE_INSENSITIVE);
+
+    // Consultas que por definición leen la tabla entera (o casi): quedan fuera del chequeo de SCAN, no del de latencia
+    private static final Map<String, String> FULL_TABLE_ALLOWED = new LinkedHashMap<>();
+
+    static {
+        FULL_TABLE_ALLOWED.put("UserDao.getAllUsers", "lista de administración: devuelve todos los usuarios");
+        FULL_TABLE_ALLOWED.put("UserDao.getAllUsersSync", "igual que getAllUsers, para el SyncWorker");
+        FULL_TABLE_ALLOWED.put("UserDao.expirePlans", "barrido de planes vencidos sobre todos los usuarios");
+        FULL_TABLE_ALLOWED.put("PlanDao.getAllPlans", "catálogo de planes, unas pocas filas");
+        FULL_TABLE_ALLOWED.put("PlanDao.getActivePlans", "catálogo de planes, unas pocas filas");
+        FULL_TABLE_ALLOWED.put("ExpenseDao.purgeSyncedTombstones", "compactación en segundo plano, una vez por sync");
+        FULL_TABLE_ALLOWED.put("CategoryDao.purgeSyncedTombstones", "compactación en segundo plano, una vez por sync");
+    }
+
+    private static AppDatabase database;
+    private static final List<CapturedQuery> captured = Collections.synchronizedList(new ArrayList<>());
+    private static final AtomicLong sequence = new AtomicLong();
+
+    @BeforeClass
+    public static void createAndSeedDb() {
+        Context context = ApplicationProvider.getApplicationContext();
+        database = Room.inMemoryDatabaseBuilder(context, AppDatabase.class)
+                .allowMainThreadQueries()
+                .setQueryExecutor(Runnable::run)
+                .setTransactionExecutor(Runnable::run)
+                .setQueryCallback((sql, args) -> captured.add(new CapturedQuery(sql, args)), Runnable::run)
+                .build();
+        database.runInTransaction(DaoQueryPlanTest::seed);
+        captured.clear();
+    }
+
+    @AfterClass
+    public static void closeDb() {
+        database.close();
+    }
+
+    @Test
+    public void seedTieneCienMilGastos() {
+        try (Cursor cursor = database.query(new SimpleSQLiteQuery("SELECT COUNT(*) FROM expenses"))) {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(USERS_WITH_EXPENSES * EXPENSES_PER_USER, cursor.getLong(0));
+        }
+    }
+
+    @Test
+    public void todosLosMetodosDeLosDaoEstanCubiertos() {
+        TreeSet<String> missing = new TreeSet<>();
+        Map<String, DaoCall> calls = daoCalls();
+        for (Class<?> dao : Arrays.asList(ExpenseDao.class, CategoryDao.class, UserDao.class, PlanDao.class)) {
+            for (Method method : dao.getDeclaredMethods()) {
+                String key = dao.getSimpleName() + "." + method.getName();
+                if (!method.isDefault() && !calls.containsKey(key)) {
+                    missing.add(key);
+                }
+            }
+        }
+        assertTrue("Métodos de DAO sin caso en esta suite: " + missing, missing.isEmpty());
+    }
+
+    @Test
+    public void ningunaConsultaRecorreTablasCompletasNiPasaDelPresupuesto() throws Exception {
+        List<String> failures = new ArrayList<>();
+        for (Map.Entry<String, DaoCall> call : daoCalls().entrySet()) {
+            String name = call.getKey();
+            boolean fullTableAllowed = FULL_TABLE_ALLOWED.containsKey(name);
+
+            long[] elapsed = new long[RUNS];
+            List<CapturedQuery> queries = new ArrayList<>();
+            call.getValue().run(); // calentamiento: compila la sentencia y llena la caché de páginas
+            for (int i = 0; i < RUNS; i++) {
+                captured.clear();
+                long start = System.nanoTime();
+                call.getValue().run();
+                elapsed[i] = System.nanoTime() - start;
+                if (i == 0) {
+                    queries.addAll(captured);
+                }
+            }
+            if (queries.isEmpty()) {
+                failures.add(name + ": no ejecutó ninguna consulta");
+            }
+
+            if (!fullTableAllowed) {
+                for (CapturedQuery query : queries) {
+                    List<String> scans = fullScans(query);
+                    if (!scans.isEmpty()) {
+                        failures.add(name + ": " + scans + " en " + query.sql);
+                    }
+                }
+            }
+
+            Arrays.sort(elapsed);
+            long medianMillis = TimeUnit.NANOSECONDS.toMillis(elapsed[RUNS / 2]);
+            long budget = fullTableAllowed ? FULL_TABLE_BUDGET_MILLIS : BUDGET_MILLIS;
+            if (medianMillis > budget) {
+                failures.add(name + ": mediana " + medianMillis + " ms > " + budget + " ms");
+            }
+        }
+        assertTrue(String.join("\n", failures), failures.isEmpty());
+    }
+
+    private static List<String> fullScans(CapturedQuery query) {
+        List<String> scans = new ArrayList<>();
+        if (!DATA_STATEMENT.matcher(query.sql.trim()).find()) {
+            return scans;
+        }
+        SimpleSQLiteQuery explain = new SimpleSQLiteQuery("EXPLAIN QUERY PLAN " + query.sql, query.args);
+        try (Cursor cursor = database.getOpenHelper().getReadableDatabase().query(explain)) {
+            int detail = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                String step = cursor.getString(detail);
+                if (FULL_SCAN.matcher(step).find()) {
+                    scans.add(step);
+                }
+            }
+        }
+        return scans;
+    }
+
+    /**
+     * Un caso por método de DAO (clave "Dao.metodo"), con argumentos que aciertan datos sembrados
+     */
+    private static Map<String, DaoCall> daoCalls() {
+        ExpenseDao expenses = database.expenseDao();
+        CategoryDao categories = database.categoryDao();
+        UserDao users = database.userDao();
+        PlanDao plans = database.planDao();
+        String uid = userUid(7);
+        long monthStart = BASE_MILLIS + 30 * DAY_MILLIS;
+        long monthEnd = monthStart + 30 * DAY_MILLIS;
+        long now = BASE_MILLIS + 400 * DAY_MILLIS;
+
+        Map<String, DaoCall> calls = new LinkedHashMap<>();
+
+        calls.put("ExpenseDao.getExpensesByUser", () -> observe(expenses.getExpensesByUser(uid)));
+        calls.put("ExpenseDao.getExpensesByUserSync", () -> expenses.getExpensesByUserSync(uid));
+        calls.put("ExpenseDao.getExpensesPagingSource", () -> loadFirstPage(expenses.getExpensesPagingSource(uid)));
+        calls.put("ExpenseDao.getExpensesPageBefore", () -> expenses.getExpensesPageBefore(uid, monthEnd, Long.MAX_VALUE, 50));
+        calls.put("ExpenseDao.getExpensesInRange", () -> expenses.getExpensesInRange(uid, monthStart, monthEnd));
+        calls.put("ExpenseDao.getExpensesPageAfterId", () -> expenses.getExpensesPageAfterId(uid, 5000, 200));
+        calls.put("ExpenseDao.getExpenseById", () -> expenses.getExpenseById(12345));
+        calls.put("ExpenseDao.getExpenseByRemoteId", () -> expenses.getExpenseByRemoteId(expenseRemoteId(7, 100)));
+        calls.put("ExpenseDao.findByContentHash", () -> expenses.findByContentHash(uid, contentHash(7, 100)));
+        calls.put("ExpenseDao.getExpensesByContentHashes", () ->
+                expenses.getExpensesByContentHashes(uid, Arrays.asList(contentHash(7, 1), contentHash(7, 2), contentHash(7, 3))));
+        calls.put("ExpenseDao.clearContentHash", () -> expenses.clearContentHash(Long.MAX_VALUE));
+        calls.put("ExpenseDao.getExpensesByRemoteIds", () ->
+                expenses.getExpensesByRemoteIds(Arrays.asList(expenseRemoteId(3, 1), expenseRemoteId(4, 2), expenseRemoteId(5, 3))));
+        calls.put("ExpenseDao.insertExpense", () -> expenses.insertExpense(newExpense(uid)));
+        calls.put("ExpenseDao.insertExpenses", () -> expenses.insertExpenses(Arrays.asList(newExpense(uid), newExpense(uid))));
+        calls.put("ExpenseDao.updateExpense", () -> expenses.updateExpense(expenses.getExpenseById(200)));
+        calls.put("ExpenseDao.updateExpenses", () ->
+                expenses.updateExpenses(Arrays.asList(expenses.getExpenseById(201), expenses.getExpenseById(202))));
+        calls.put("ExpenseDao.softDeleteExpense", () -> expenses.softDeleteExpense(300, now, now));
+        calls.put("ExpenseDao.purgeSyncedTombstones", () -> expenses.purgeSyncedTombstones(BASE_MILLIS));
+        calls.put("ExpenseDao.getPendingExpenses", () -> expenses.getPendingExpenses());
+        calls.put("ExpenseDao.updateSyncState", () -> expenses.updateSyncState(400, "SYNCED"));
+        calls.put("ExpenseDao.sumByCategoryForMonth", () -> observe(expenses.sumByCategoryForMonth(uid, monthStart, monthEnd)));
+        calls.put("ExpenseDao.getTotalForMonth", () -> observe(expenses.getTotalForMonth(uid, monthStart, monthEnd)));
+
+        calls.put("CategoryDao.getCategoriesByUser", () -> observe(categories.getCategoriesByUser(uid)));
+        calls.put("CategoryDao.getAllCategoriesByUser", () -> observe(categories.getAllCategoriesByUser(uid)));
+        calls.put("CategoryDao.getAllCategoriesByUserSync", () -> categories.getAllCategoriesByUserSync(uid));
+        calls.put("CategoryDao.getActiveCategoriesByUser", () -> observe(categories.getActiveCategoriesByUser(uid)));
+        calls.put("CategoryDao.getActiveCategoriesByUserSync", () -> categories.getActiveCategoriesByUserSync(uid));
+        calls.put("CategoryDao.getCategoriesPageAfterId", () -> categories.getCategoriesPageAfterId(uid, 0, 200));
+        calls.put("CategoryDao.getCategoryByRemoteId", () -> categories.getCategoryByRemoteId(categoryRemoteId(7, 3)));
+        calls.put("CategoryDao.getCategoryById", () -> categories.getCategoryById(42));
+        calls.put("CategoryDao.getCategoryByIdIncludingInactive", () -> categories.getCategoryByIdIncludingInactive(42));
+        calls.put("CategoryDao.getCategoriesByRemoteIds", () ->
+                categories.getCategoriesByRemoteIds(Arrays.asList(categoryRemoteId(1, 1), categoryRemoteId(2, 2))));
+        calls.put("CategoryDao.insertCategory", () -> categories.insertCategory(newCategory(uid)));
+        calls.put("CategoryDao.insertCategories", () -> categories.insertCategories(Arrays.asList(newCategory(uid), newCategory(uid))));
+        calls.put("CategoryDao.updateCategory", () -> categories.updateCategory(categories.getCategoryByIdIncludingInactive(43)));
+        calls.put("CategoryDao.updateCategories", () -> categories.updateCategories(Arrays.asList(
+                categories.getCategoryByIdIncludingInactive(44), categories.getCategoryByIdIncludingInactive(45))));
+        calls.put("CategoryDao.softDeleteCategory", () -> categories.softDeleteCategory(46, now, now));
+        calls.put("CategoryDao.purgeSyncedTombstones", () -> categories.purgeSyncedTombstones(BASE_MILLIS));
+        calls.put("CategoryDao.getPendingCategories", () -> categories.getPendingCategories());
+        calls.put("CategoryDao.updateSyncState", () -> categories.updateSyncState(47, "SYNCED"));
+        calls.put("CategoryDao.getAllCategoriesByUserDebug", () -> categories.getAllCategoriesByUserDebug(uid));
+
+        calls.put("UserDao.getUserByUid", () -> observe(users.getUserByUid(uid)));
+        calls.put("UserDao.getUserByUidSync", () -> users.getUserByUidSync(uid));
+        calls.put("UserDao.insertUser", () -> users.insertUser(newUser("nuevo_" + sequence.incrementAndGet())));
+        calls.put("UserDao.updateUser", () -> users.updateUser(users.getUserByUidSync(userUid(8))));
+        calls.put("UserDao.updateUserFields", () -> users.updateUserFields(userUid(9), "Nombre", "u9@example.com",
+                "user", "free", null, "America/Mexico_City", true, "PENDING", now));
+        calls.put("UserDao.deleteUserByUid", () -> users.deleteUserByUid(userUid(USERS - 1)));
+        calls.put("UserDao.updateSyncState", () -> users.updateSyncState(userUid(10), "SYNCED"));
+        calls.put("UserDao.softDeleteUser", () -> users.softDeleteUser(userUid(USERS - 2), now, now));
+        calls.put("UserDao.getAllUsers", () -> observe(users.getAllUsers()));
+        calls.put("UserDao.getAllUsersSync", () -> users.getAllUsersSync());
+        calls.put("UserDao.getUsersPageAfter", () -> users.getUsersPageAfter(userUid(100), 200));
+        calls.put("UserDao.getPendingUsers", () -> users.getPendingUsers());
+        calls.put("UserDao.getPendingUsersPage", () -> users.getPendingUsersPage("", 200));
+        calls.put("UserDao.getPendingDeletions", () -> users.getPendingDeletions());
+        calls.put("UserDao.findUserByEmail", () -> users.findUserByEmail(userEmail(11)));
+        calls.put("UserDao.expirePlans", () -> users.expirePlans(now, now));
+
+        calls.put("PlanDao.getPlanByRemoteId", () -> observe(plans.getPlanByRemoteId(planRemoteId(3))));
+        calls.put("PlanDao.getPlanByRemoteIdSync", () -> plans.getPlanByRemoteIdSync(planRemoteId(3)));
+        calls.put("PlanDao.insertPlan", () -> plans.insertPlan(newPlan("nuevo_" + sequence.incrementAndGet())));
+        calls.put("PlanDao.updatePlan", () -> plans.updatePlan(plans.getPlanByRemoteIdSync(planRemoteId(4))));
+        calls.put("PlanDao.getActivePlans", () -> observe(plans.getActivePlans()));
+        calls.put("PlanDao.getAllPlans", () -> observe(plans.getAllPlans()));
+        return calls;
+    }
+
+    // Con el executor de consultas síncrono, observar dispara la consulta; idle() entrega el postValue
+    private static <T> void observe(LiveData<T> liveData) {
+        Observer<T> observer = value -> { };
+        liveData.observeForever(observer);
+        shadowOf(Looper.getMainLooper()).idle();
+        liveData.removeObserver(observer);
+    }
+
+    private static void loadFirstPage(PagingSource<Integer, ExpenseEntity> source) throws InterruptedException {
+        PagingSource.LoadParams<Integer> params = new PagingSource.LoadParams.Refresh<>(null, 30, false);
+        BuildersKt.<PagingSource.LoadResult<Integer, ExpenseEntity>>runBlocking(EmptyCoroutineContext.INSTANCE, (scope, continuation) -> source.load(params, continuation));
+    }
+
+    private static void seed() {
+        PlanDao plans = database.planDao();
+        for (int p = 0; p < PLANS; p++) {
+            plans.insertPlan(newPlan(planRemoteId(p)));
+        }
+        UserDao users = database.userDao();
+        for (int u = 0; u < USERS; u++) {
+            UserEntity user = newUser(userUid(u));
+            user.email = userEmail(u);
+            user.syncState = u % 10 == 0 ? "PENDING" : "SYNCED";
+            user.planExpiresAt = u % 3 == 0 ? BASE_MILLIS + u * DAY_MILLIS : null;
+            users.insertUser(user);
+        }
+        CategoryDao categories = database.categoryDao();
+        ExpenseDao expenses = database.expenseDao();
+        for (int u = 0; u < USERS_WITH_EXPENSES; u++) {
+            List<CategoryEntity> userCategories = new ArrayList<>();
+            for (int c = 0; c < CATEGORIES_PER_USER; c++) {
+                CategoryEntity category = newCategory(userUid(u));
+                category.remoteId = categoryRemoteId(u, c);
+                category.syncState = "SYNCED";
+                userCategories.add(category);
+            }
+            categories.insertCategories(userCategories);
+
+            List<ExpenseEntity> batch = new ArrayList<>(EXPENSES_PER_USER);
+            for (int e = 0; e < EXPENSES_PER_USER; e++) {
+                ExpenseEntity expense = new ExpenseEntity();
+                expense.userUid = userUid(u);
+                expense.remoteId = expenseRemoteId(u, e);
+                expense.categoryRemoteId = categoryRemoteId(u, e % CATEGORIES_PER_USER);
+                expense.montoCentavos = 100 + e;
+                expense.fechaEpochMillis = BASE_MILLIS + (e % 365) * DAY_MILLIS + e;
+                expense.updatedAt = expense.fechaEpochMillis;
+                expense.contentHash = contentHash(u, e);
+                // Unos pocos pendientes y tombstones, como una base real después de sincronizar
+                expense.syncState = e % 100 == 0 ? "PENDING" : "SYNCED";
+                expense.deletedAt = e % 50 == 0 ? expense.fechaEpochMillis : null;
+                batch.add(expense);
+            }
+            expenses.insertExpenses(batch);
+        }
+    }
+
+    private static ExpenseEntity newExpense(String userUid) {
+        long n = sequence.incrementAndGet();
+        ExpenseEntity expense = new ExpenseEntity();
+        expense.userUid = userUid;
+        expense.categoryRemoteId = categoryRemoteId(7, 0);
+        expense.montoCentavos = 1234;
+        expense.fechaEpochMillis = BASE_MILLIS + n;
+        expense.updatedAt = expense.fechaEpochMillis;
+        expense.contentHash = "nuevo_" + n;
+        return expense;
+    }
+
+    private static CategoryEntity newCategory(String userUid) {
+        CategoryEntity category = new CategoryEntity();
+        category.userUid = userUid;
+        category.remoteId = "cat_nueva_" + sequence.incrementAndGet();
+        category.name = "Categoría";
+        category.icono = "🛒";
+        category.updatedAt = BASE_MILLIS;
+        return category;
+    }
+
+    private static UserEntity newUser(String uid) {
+        UserEntity user = new UserEntity();
+        user.uid = uid;
+        user.name = "Usuario " + uid;
+        user.email = uid + "@example.com";
+        user.role = "user";
+        user.planId = "premium";
+        user.zonaHoraria = "America/Mexico_City";
+        user.isActive = true;
+        user.updatedAt = BASE_MILLIS;
+        return user;
+    }
+
+    private static PlanEntity newPlan(String remoteId) {
+        PlanEntity plan = new PlanEntity();
+        plan.remoteId = remoteId;
+        plan.name = "Plan " + remoteId;
+        plan.price = 99.0;
+        plan.isActive = true;
+        plan.updatedAt = BASE_MILLIS;
+        return plan;
+    }
+
+    private static String userUid(int u) {
+        return String.format(Locale.ROOT, "uid_%04d", u);
+    }
+
+    private static String userEmail(int u) {
+        return "usuario" + u + "@example.com";
+    }
+
+    private static String planRemoteId(int p) {
+        return "plan_" + p;
+    }
+
+    private static String categoryRemoteId(int u, int c) {
+        return "cat_" + u + "_" + c;
+    }
+
+    private static String expenseRemoteId(int u, int e) {
+        return "exp_" + u + "_" + e;
+    }
+
+    private static String contentHash(int u, int e) {
+        return String.format(Locale.ROOT, "%032x", (long) u * EXPENSES_PER_USER + e);
+    }
+
+    private interface DaoCall {
+        void run() throws Exception;
+    }
+
+    private static final class CapturedQuery {
+        final String sql;
+        final Object[] args;
+
+        CapturedQuery(String sql, List<?> args) {
+            this.sql = sql;
+            this.args = args.toArray();
+        }
+    }
+}
@@ -42,7 +42,7 @@ public class ExpenseDaoTest {
         ExpenseEntity expense = new ExpenseEntity();
         expense.userUid = "test_user";
         expense.categoryRemoteId = "test_category";
-        expense.monto = 100.0;
+        expense.montoCentavos = 10000;
         expense.fechaEpochMillis = System.currentTimeMillis();
         expense.updatedAt = System.currentTimeMillis();
         expense.syncState = "PENDING";
@@ -53,7 +53,7 @@ public class ExpenseDaoTest {
         
         // Then
         assertEquals(1, expenses.size());
-        assertEquals(100.0, expenses.get(0).monto, 0.01);
+        assertEquals(10000L, expenses.get(0).montoCentavos);
         assertEquals("test_user", expenses.get(0).userUid);
     }
     
@@ -63,7 +63,7 @@ public class ExpenseDaoTest {
         ExpenseEntity expense = new ExpenseEntity();
         expense.userUid = "test_user";
         expense.categoryRemoteId = "test_category";
-        expense.monto = 100.0;
+        expense.montoCentavos = 10000;
         expense.fechaEpochMillis = System.currentTimeMillis();
         expense.updatedAt = System.currentTimeMillis();
         expense.syncState = "PENDING";
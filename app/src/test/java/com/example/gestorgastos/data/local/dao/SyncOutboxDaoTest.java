@@ -0,0 +1,122 @@
+package com.example.gestorgastos.data.local.dao;
+
+import android.content.Context;
+
+import androidx.room.Room;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.example.gestorgastos.data.local.AppDatabase;
+import com.example.gestorgastos.data.local.entity.CategoryEntity;
+import com.example.gestorgastos.data.local.entity.ExpenseEntity;
+import com.example.gestorgastos.data.local.entity.SyncOutboxEntity;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Gastos encolados que esperan a su categoría (solo los frena el alta sin confirmar de la categoría)
+ * y descarte de cambios de un dispositivo que no sincronizó desde antes del purgado del servidor
+ */
+@RunWith(AndroidJUnit4.class)
+public class SyncOutboxDaoTest {
+    private static final String USER = "test_user";
+    private static final String CATEGORY = "cat_1";
+    private static final long NOW = 1_700_000_000_000L;
+
+    private AppDatabase database;
+    private SyncOutboxDao syncOutboxDao;
+    private long categoryId;
+    private long expenseId;
+
+    @Before
+    public void createDb() {
+        Context context = ApplicationProvider.getApplicationContext();
+        database = Room.inMemoryDatabaseBuilder(context, AppDatabase.class).allowMainThreadQueries().build();
+        syncOutboxDao = database.syncOutboxDao();
+
+        CategoryEntity category = new CategoryEntity();
+        category.userUid = USER;
+        category.remoteId = CATEGORY;
+        category.name = "Comida";
+        category.icono = "🍔";
+        category.isActive = true;
+        category.updatedAt = NOW;
+        category.syncState = "PENDING";
+        categoryId = database.categoryDao().insertCategory(category);
+
+        ExpenseEntity expense = new ExpenseEntity();
+        expense.userUid = USER;
+        expense.remoteId = "exp_1";
+        expense.categoryRemoteId = CATEGORY;
+        expense.montoCentavos = 10000;
+        expense.fechaEpochMillis = NOW;
+        expense.updatedAt = NOW;
+        expense.syncState = "PENDING";
+        expenseId = database.expenseDao().insertExpense(expense);
+        syncOutboxDao.enqueue(SyncOutboxEntity.TYPE_EXPENSE, expenseId, NOW);
+    }
+
+    @After
+    public void closeDb() {
+        database.close();
+    }
+
+    @Test
+    public void altaDeCategoriaSinConfirmar_frenaSusGastos() {
+        syncOutboxDao.enqueue(SyncOutboxEntity.TYPE_CATEGORY, categoryId, NOW);
+
+        assertTrue(syncOutboxDao.isCategoryQueued(CATEGORY));
+        assertTrue(syncOutboxDao.getDueExpensesPage(0, NOW, 100).isEmpty());
+    }
+
+    @Test
+    public void edicionDeCategoria_noFrenaSusGastos() {
+        syncOutboxDao.enqueue(SyncOutboxEntity.TYPE_CATEGORY, categoryId, NOW, 0L, CategoryEntity.FIELD_NAME);
+
+        assertFalse(syncOutboxDao.isCategoryQueued(CATEGORY));
+        List<SyncOutboxEntity> due = syncOutboxDao.getDueExpensesPage(0, NOW, 100);
+        assertEquals(1, due.size());
+        assertEquals(expenseId, due.get(0).entityIdLocal);
+    }
+
+    @Test
+    public void edicionDeCategoriaEnEspera_noFrenaNiDemoraSusGastos() {
+        // La edición de la categoría está en backoff: el gasto sale igual y su reintento es el que vence primero
+        long categoryEntry = syncOutboxDao.enqueue(SyncOutboxEntity.TYPE_CATEGORY, categoryId, NOW, 0L,
+                CategoryEntity.FIELD_ICON);
+        syncOutboxDao.updateAttempt(categoryEntry, 3, NOW + 60_000L);
+
+        assertEquals(1, syncOutboxDao.getDueExpensesPage(0, NOW, 100).size());
+        assertEquals(Long.valueOf(0L), syncOutboxDao.getNextAttemptAt());
+    }
+
+    @Test
+    public void descartarCambiosDeDocumentosExistentes_conservaLasAltas() {
+        // El gasto del setUp es un alta; la categoría tiene una edición sobre un documento ya subido
+        syncOutboxDao.enqueue(SyncOutboxEntity.TYPE_CATEGORY, categoryId, NOW, 0L, CategoryEntity.FIELD_NAME);
+
+        assertEquals(1, syncOutboxDao.deleteUpdatesOfExistingDocuments());
+        assertNull(syncOutboxDao.getByEntity(SyncOutboxEntity.TYPE_CATEGORY, categoryId));
+        assertEquals(SyncOutboxEntity.DIRTY_ALL,
+                syncOutboxDao.getByEntity(SyncOutboxEntity.TYPE_EXPENSE, expenseId).dirtyFields);
+    }
+
+    @Test
+    public void edicionSobreAltaPendiente_sigueFrenando() {
+        syncOutboxDao.enqueue(SyncOutboxEntity.TYPE_CATEGORY, categoryId, NOW);
+        // El cambio se suma a los campos pendientes de la entrada que reemplaza: sigue siendo un alta
+        syncOutboxDao.enqueue(SyncOutboxEntity.TYPE_CATEGORY, categoryId, NOW, 0L, CategoryEntity.FIELD_NAME);
+
+        assertTrue(syncOutboxDao.getDueExpensesPage(0, NOW, 100).isEmpty());
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.gestorgastos.data.repository;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.example.gestorgastos.data.local.entity.CategoryEntity;
+import com.example.gestorgastos.data.local.entity.SyncOutboxEntity;
+import com.google.firebase.Timestamp;
+import com.google.firebase.firestore.FirebaseFirestoreException;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Documento que sube CategoryRepositoryImpl según los campos pendientes de sync_outbox
+ */
+@RunWith(AndroidJUnit4.class)
+public class CategoryRepositoryImplTest {
+
+    private static CategoryEntity category() {
+        CategoryEntity category = new CategoryEntity();
+        category.idLocal = 1;
+        category.remoteId = "cat_1";
+        category.userUid = "test_user";
+        category.name = "Comida";
+        category.icono = "🍔";
+        category.updatedAt = 1_700_000_000_000L;
+        return category;
+    }
+
+    @Test
+    public void renombrar_subeSoloElNombre() {
+        CategoryEntity before = category();
+        CategoryEntity after = category();
+        after.name = "Supermercado";
+
+        int dirtyFields = CategoryRepositoryImpl.changedFields(before, after);
+        assertEquals(CategoryEntity.FIELD_NAME, dirtyFields);
+
+        Map<String, Object> payload = CategoryRepositoryImpl.buildCategoryPayload(after, dirtyFields);
+        assertEquals(new HashSet<>(Arrays.asList("name", "updated_at")), payload.keySet());
+        assertEquals("Supermercado", payload.get("name"));
+    }
+
+    @Test
+    public void lapida_subeSoloDeletedAt() {
+        CategoryEntity before = category();
+        CategoryEntity after = category();
+        after.deletedAt = 1_700_000_500_250L;
+
+        int dirtyFields = CategoryRepositoryImpl.changedFields(before, after);
+        assertEquals(CategoryEntity.FIELD_DELETED, dirtyFields);
+
+        Map<String, Object> payload = CategoryRepositoryImpl.buildCategoryPayload(after, dirtyFields);
+        assertEquals(new HashSet<>(Arrays.asList("deleted_at", "updated_at")), payload.keySet());
+        assertEquals(new Timestamp(1_700_000_500L, 250_000_000), payload.get("deleted_at"));
+    }
+
+    @Test
+    public void changedFields_combinaLosCampos() {
+        assertEquals(SyncOutboxEntity.DIRTY_ALL, CategoryRepositoryImpl.changedFields(null, category()));
+        assertEquals(0, CategoryRepositoryImpl.changedFields(category(), category()));
+
+        CategoryEntity after = category();
+        after.icono = "🛒";
+        after.isActive = false;
+        assertEquals(CategoryEntity.FIELD_ICON | CategoryEntity.FIELD_ACTIVE,
+                CategoryRepositoryImpl.changedFields(category(), after));
+    }
+
+    @Test
+    public void notFoundEnUpdateParcial_reintentaConDocumentoCompleto() {
+        FirebaseFirestoreException notFound = new FirebaseFirestoreException("no existe", FirebaseFirestoreException.Code.NOT_FOUND);
+
+        int retryFields = CategoryRepositoryImpl.dirtyFieldsForRetry(CategoryEntity.FIELD_NAME, notFound);
+        assertEquals(SyncOutboxEntity.DIRTY_ALL, retryFields);
+
+        Map<String, Object> payload = CategoryRepositoryImpl.buildCategoryPayload(category(), retryFields);
+        assertEquals(new HashSet<>(Arrays.asList("name", "icon", "is_active", "updated_at", "deleted_at")), payload.keySet());
+    }
+}
@@ -0,0 +1,107 @@
+package com.example.gestorgastos.data.repository;
+
+import android.content.Context;
+
+import androidx.room.Room;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.example.gestorgastos.data.local.AppDatabase;
+import com.example.gestorgastos.data.local.dao.SyncOutboxDao;
+import com.example.gestorgastos.data.local.entity.CategoryEntity;
+import com.example.gestorgastos.data.local.entity.SyncOutboxEntity;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class DefaultCategoriesTest {
+    private static final String USER = "test_user";
+
+    private AppDatabase database;
+
+    @Before
+    public void createDb() {
+        Context context = ApplicationProvider.getApplicationContext();
+        database = Room.inMemoryDatabaseBuilder(context, AppDatabase.class).allowMainThreadQueries().build();
+    }
+
+    @After
+    public void closeDb() {
+        database.close();
+    }
+
+    @Test
+    public void usuarioNuevo_unaEntradaDeOutboxPorCategoria() {
+        List<CategoryEntity> created = DefaultCategories.insert(database, USER, 1_700_000_000_000L);
+
+        assertEquals(DefaultCategories.DEFAULTS.length, created.size());
+        assertEquals(DefaultCategories.DEFAULTS.length, database.categoryDao().getAllCategoriesByUserSync(USER).size());
+
+        SyncOutboxDao outbox = database.syncOutboxDao();
+        for (CategoryEntity category : created) {
+            SyncOutboxEntity entry = outbox.getByEntity(SyncOutboxEntity.TYPE_CATEGORY, category.idLocal);
+            assertNotNull("sin entrada en sync_outbox: " + category.name, entry);
+            assertEquals(SyncOutboxEntity.DIRTY_ALL, entry.dirtyFields);
+        }
+        // Ya vencidas: las toma la próxima corrida del SyncWorker
+        List<SyncOutboxEntity> due = outbox.getDuePage(SyncOutboxEntity.TYPE_CATEGORY, 0, 1_700_000_000_000L, 100);
+        assertEquals(DefaultCategories.DEFAULTS.length, due.size());
+    }
+
+    @Test
+    public void categoriaConIdAntiguo_noSeDuplicaPorNombre() {
+        insertLegacy("Café", null);
+
+        List<CategoryEntity> created = DefaultCategories.insert(database, USER, 1_700_000_000_000L);
+
+        assertEquals(DefaultCategories.DEFAULTS.length - 1, created.size());
+        int cafes = 0;
+        for (CategoryEntity category : database.categoryDao().getAllCategoriesByUserSync(USER)) {
+            if (category.name.equalsIgnoreCase("café")) {
+                cafes++;
+            }
+        }
+        assertEquals(1, cafes);
+    }
+
+    @Test
+    public void inicioDeSesion_cuentaConCategorias_noCreaLasPorDefecto() {
+        // Una categoría eliminada también cuenta: la cuenta ya existía
+        insertLegacy("Viajes", 1_600_000_000_000L);
+
+        assertTrue(DefaultCategories.insertIfNoCategories(database, USER, 1_700_000_000_000L).isEmpty());
+        assertEquals(1, database.categoryDao().getAllCategoriesByUserSync(USER).size());
+        assertTrue(database.syncOutboxDao().getDuePage(SyncOutboxEntity.TYPE_CATEGORY, 0, Long.MAX_VALUE, 100).isEmpty());
+    }
+
+    @Test
+    public void inicioDeSesion_cuentaSinCategorias_creaLasPorDefecto() {
+        assertEquals(DefaultCategories.DEFAULTS.length,
+                DefaultCategories.insertIfNoCategories(database, USER, 1_700_000_000_000L).size());
+        // Una segunda llamada (otra descarga) no agrega nada
+        assertTrue(DefaultCategories.insertIfNoCategories(database, USER, 1_700_000_000_000L).isEmpty());
+    }
+
+    // Categoría ya sincronizada con un id aleatorio, como las creaba una versión anterior
+    private void insertLegacy(String name, Long deletedAt) {
+        CategoryEntity category = new CategoryEntity();
+        category.userUid = USER;
+        category.remoteId = "legacyRandomId" + name.hashCode();
+        category.name = name;
+        category.icono = "☕";
+        category.isActive = deletedAt == null;
+        category.deletedAt = deletedAt;
+        category.updatedAt = 1_600_000_000_000L;
+        category.syncState = "SYNCED";
+        database.categoryDao().insertCategory(category);
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.gestorgastos.data.repository;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.example.gestorgastos.data.local.entity.ExpenseEntity;
+import com.example.gestorgastos.data.local.entity.SyncOutboxEntity;
+import com.google.firebase.Timestamp;
+import com.google.firebase.firestore.FirebaseFirestoreException;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Documento que sube ExpenseRepositoryImpl según los campos pendientes de sync_outbox
+ */
+@RunWith(AndroidJUnit4.class)
+public class ExpenseRepositoryImplTest {
+
+    private static ExpenseEntity expense() {
+        ExpenseEntity expense = new ExpenseEntity();
+        expense.idLocal = 1;
+        expense.remoteId = "exp_1";
+        expense.userUid = "test_user";
+        expense.categoryRemoteId = "test_category";
+        expense.montoCentavos = 10000;
+        expense.fechaEpochMillis = 1_700_000_000_123L;
+        expense.updatedAt = expense.fechaEpochMillis;
+        expense.contentHash = "0123456789abcdef0123456789abcdef";
+        return expense;
+    }
+
+    @Test
+    public void editarSoloElMonto_subeSoloElMonto() {
+        ExpenseEntity before = expense();
+        ExpenseEntity after = expense();
+        after.montoCentavos = 12550;
+
+        int dirtyFields = ExpenseRepositoryImpl.changedFields(before, after);
+        assertEquals(ExpenseEntity.FIELD_AMOUNT, dirtyFields);
+
+        Map<String, Object> payload = ExpenseRepositoryImpl.buildExpensePayload(after, dirtyFields);
+        assertEquals(new HashSet<>(Arrays.asList("amount", "amount_minor", "updated_at")), payload.keySet());
+        assertEquals(12550L, payload.get("amount_minor"));
+        assertEquals(125.5, (double) payload.get("amount"), 0.0);
+    }
+
+    @Test
+    public void lapida_subeSoloDeletedAt() {
+        ExpenseEntity before = expense();
+        ExpenseEntity after = expense();
+        after.deletedAt = 1_700_000_500_250L;
+
+        int dirtyFields = ExpenseRepositoryImpl.changedFields(before, after);
+        assertEquals(ExpenseEntity.FIELD_DELETED, dirtyFields);
+
+        Map<String, Object> payload = ExpenseRepositoryImpl.buildExpensePayload(after, dirtyFields);
+        assertEquals(new HashSet<>(Arrays.asList("deleted_at", "updated_at")), payload.keySet());
+        assertEquals(new Timestamp(1_700_000_500L, 250_000_000), payload.get("deleted_at"));
+    }
+
+    @Test
+    public void restaurar_subeDeletedAtNulo() {
+        ExpenseEntity before = expense();
+        before.deletedAt = 1_700_000_500_250L;
+        ExpenseEntity after = expense();
+
+        Map<String, Object> payload = ExpenseRepositoryImpl.buildExpensePayload(after,
+                ExpenseRepositoryImpl.changedFields(before, after));
+        assertTrue(payload.containsKey("deleted_at"));
+        assertNull(payload.get("deleted_at"));
+    }
+
+    @Test
+    public void changedFields_sinFilaGuardadaOSinCambios() {
+        assertEquals(SyncOutboxEntity.DIRTY_ALL, ExpenseRepositoryImpl.changedFields(null, expense()));
+        assertEquals(0, ExpenseRepositoryImpl.changedFields(expense(), expense()));
+
+        ExpenseEntity after = expense();
+        after.categoryRemoteId = "otra";
+        after.fechaEpochMillis += 1;
+        assertEquals(ExpenseEntity.FIELD_CATEGORY | ExpenseEntity.FIELD_FECHA,
+                ExpenseRepositoryImpl.changedFields(expense(), after));
+    }
+
+    @Test
+    public void notFoundEnUpdateParcial_reintentaConDocumentoCompleto() {
+        FirebaseFirestoreException notFound = new FirebaseFirestoreException("no existe", FirebaseFirestoreException.Code.NOT_FOUND);
+        FirebaseFirestoreException unavailable = new FirebaseFirestoreException("sin red", FirebaseFirestoreException.Code.UNAVAILABLE);
+
+        int retryFields = ExpenseRepositoryImpl.dirtyFieldsForRetry(ExpenseEntity.FIELD_AMOUNT, notFound);
+        assertEquals(SyncOutboxEntity.DIRTY_ALL, retryFields);
+        // Otros errores reintentan lo mismo
+        assertEquals(ExpenseEntity.FIELD_AMOUNT, ExpenseRepositoryImpl.dirtyFieldsForRetry(ExpenseEntity.FIELD_AMOUNT, unavailable));
+        assertEquals(SyncOutboxEntity.DIRTY_ALL, ExpenseRepositoryImpl.dirtyFieldsForRetry(SyncOutboxEntity.DIRTY_ALL, notFound));
+
+        // El reintento es un set(merge) del documento completo, con la huella de creación
+        ExpenseEntity expense = expense();
+        Map<String, Object> payload = ExpenseRepositoryImpl.buildExpensePayload(expense, retryFields);
+        assertEquals(new HashSet<>(Arrays.asList("category_remote_id", "amount", "amount_minor", "timestamp",
+                "content_hash", "updated_at", "deleted_at")), payload.keySet());
+        assertEquals(expense.contentHash, payload.get("content_hash"));
+        assertEquals(new Timestamp(1_700_000_000L, 123_000_000), payload.get("timestamp"));
+        assertNull(payload.get("deleted_at"));
+    }
+}
@@ -0,0 +1,38 @@
+package com.example.gestorgastos.data.repository;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.google.firebase.firestore.FirebaseFirestoreException;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Reintento de los listeners en tiempo real después de un error
+ */
+@RunWith(AndroidJUnit4.class)
+public class RealtimeSyncTest {
+
+    @Test
+    public void errorTransitorio_seReintenta_sinPermiso_no() {
+        assertTrue(RealtimeSync.isRetryable(new FirebaseFirestoreException("sin red",
+                FirebaseFirestoreException.Code.UNAVAILABLE)));
+        assertFalse(RealtimeSync.isRetryable(new FirebaseFirestoreException("reglas",
+                FirebaseFirestoreException.Code.PERMISSION_DENIED)));
+        assertFalse(RealtimeSync.isRetryable(new FirebaseFirestoreException("sin sesión",
+                FirebaseFirestoreException.Code.UNAUTHENTICATED)));
+    }
+
+    @Test
+    public void esperaSeDuplicaHastaElTope() {
+        assertEquals(2_000L, RealtimeSync.retryDelayMillis(1));
+        assertEquals(4_000L, RealtimeSync.retryDelayMillis(2));
+        assertEquals(8_000L, RealtimeSync.retryDelayMillis(3));
+        assertEquals(5 * 60_000L, RealtimeSync.retryDelayMillis(9));
+        assertEquals(5 * 60_000L, RealtimeSync.retryDelayMillis(1_000));
+    }
+}
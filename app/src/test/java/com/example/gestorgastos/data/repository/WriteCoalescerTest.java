@@ -0,0 +1,258 @@
+package com.example.gestorgastos.data.repository;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class WriteCoalescerTest {
+    private static final String TYPE = "EXPENSE";
+    // Corre el envío en el hilo que vence la ventana: alcanza para los tests de agrupado
+    private static final Executor DIRECT = Runnable::run;
+
+    private final List<String> flushes = Collections.synchronizedList(new ArrayList<>());
+
+    private WriteCoalescer.FlushAction recorder() {
+        return (idLocal, createdInWindow) -> flushes.add(idLocal + ":" + createdInWindow);
+    }
+
+    @Test
+    public void variosCambiosEnLaVentana_unSoloEnvio() throws Exception {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        try {
+            WriteCoalescer coalescer = new WriteCoalescer(scheduler);
+            CountDownLatch flushed = new CountDownLatch(1);
+            WriteCoalescer.FlushAction action = (idLocal, createdInWindow) -> {
+                recorder().flush(idLocal, createdInWindow);
+                flushed.countDown();
+            };
+
+            coalescer.submit(TYPE, 1, true, 200, DIRECT, action);
+            coalescer.submit(TYPE, 1, false, 200, DIRECT, action);
+            coalescer.submit(TYPE, 1, false, 200, DIRECT, action);
+
+            assertTrue(flushed.await(2, TimeUnit.SECONDS));
+            // Vacía la cola del scheduler: un envío de más ya habría corrido
+            scheduler.submit(() -> { }).get();
+            assertEquals(Collections.singletonList("1:true"), flushes);
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+
+    @Test
+    public void ventanaCero_enviaEnseguida() throws Exception {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        try {
+            WriteCoalescer coalescer = new WriteCoalescer(scheduler);
+            CountDownLatch flushed = new CountDownLatch(1);
+            coalescer.submit(TYPE, 5, false, 0, DIRECT, (idLocal, createdInWindow) -> {
+                recorder().flush(idLocal, createdInWindow);
+                flushed.countDown();
+            });
+
+            assertTrue(flushed.await(2, TimeUnit.SECONDS));
+            assertEquals(Collections.singletonList("5:false"), flushes);
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+
+    @Test
+    public void envioLento_noDemoraOtrasFilas() throws Exception {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        ExecutorService flushExecutor = Executors.newFixedThreadPool(2);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            WriteCoalescer coalescer = new WriteCoalescer(scheduler);
+            CountDownLatch otherFlushed = new CountDownLatch(1);
+            // El envío de la fila 1 queda bloqueado (red lenta) hasta el final del test
+            coalescer.submit(TYPE, 1, false, 0, flushExecutor, (idLocal, createdInWindow) -> {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            coalescer.submit(TYPE, 2, false, 10, flushExecutor, (idLocal, createdInWindow) -> otherFlushed.countDown());
+
+            assertTrue("la fila 2 esperó al envío de la fila 1", otherFlushed.await(2, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            flushExecutor.shutdownNow();
+            scheduler.shutdownNow();
+        }
+    }
+
+    @Test
+    public void crearYEliminarEnLaVentana_marcaCreatedInWindow() {
+        ManualScheduler scheduler = new ManualScheduler();
+        WriteCoalescer coalescer = new WriteCoalescer(scheduler);
+
+        coalescer.submit(TYPE, 1, true, 1000, DIRECT, recorder());  // insert
+        coalescer.submit(TYPE, 1, false, 1000, DIRECT, recorder()); // soft delete
+        scheduler.runPending();
+
+        // El repositorio ve createdInWindow y descarta el envío: la fila nunca llegó a Firestore
+        assertEquals(Collections.singletonList("1:true"), flushes);
+    }
+
+    @Test
+    public void createdInWindow_esElOrDeLosCambiosAgrupados() {
+        ManualScheduler scheduler = new ManualScheduler();
+        WriteCoalescer coalescer = new WriteCoalescer(scheduler);
+
+        coalescer.submit(TYPE, 1, false, 1000, DIRECT, recorder());
+        coalescer.submit(TYPE, 1, true, 1000, DIRECT, recorder());
+        coalescer.submit(TYPE, 1, false, 1000, DIRECT, recorder());
+        coalescer.submit(TYPE, 2, false, 1000, DIRECT, recorder());
+        coalescer.submit(TYPE, 2, false, 1000, DIRECT, recorder());
+        scheduler.runPending();
+
+        assertEquals(2, flushes.size());
+        assertTrue(flushes.contains("1:true"));
+        assertTrue(flushes.contains("2:false"));
+    }
+
+    @Test
+    public void filasDistintas_noSeAgrupan() {
+        ManualScheduler scheduler = new ManualScheduler();
+        WriteCoalescer coalescer = new WriteCoalescer(scheduler);
+
+        coalescer.submit(TYPE, 1, false, 1000, DIRECT, recorder());
+        coalescer.submit("CATEGORY", 1, false, 1000, DIRECT, recorder());
+        scheduler.runPending();
+
+        assertEquals(2, flushes.size());
+    }
+
+    @Test
+    public void envioReemplazadoCuandoYaVencia_noSeEjecuta() {
+        ManualScheduler scheduler = new ManualScheduler();
+        WriteCoalescer coalescer = new WriteCoalescer(scheduler);
+
+        coalescer.submit(TYPE, 1, true, 1000, DIRECT, recorder());
+        // La primera ventana ya venció: cancel(false) llega tarde y su tarea corre igual
+        scheduler.failCancellations = true;
+        coalescer.submit(TYPE, 1, false, 1000, DIRECT, recorder());
+        scheduler.runTask(0);
+        assertTrue("la tarea reemplazada no debe enviar", flushes.isEmpty());
+
+        scheduler.runTask(1);
+        assertEquals(Collections.singletonList("1:true"), flushes);
+        assertFalse(scheduler.hasPending());
+    }
+
+    /**
+     * Scheduler manual: guarda las tareas y las corre cuando el test lo pide, sin esperar la ventana.
+     * Con failCancellations simula una tarea que ya arrancó cuando llega el cancel.
+     */
+    private static final class ManualScheduler extends ScheduledThreadPoolExecutor {
+        private final List<ManualFuture> tasks = new ArrayList<>();
+        boolean failCancellations;
+
+        ManualScheduler() {
+            super(1);
+        }
+
+        @Override
+        public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+            ManualFuture future = new ManualFuture(command);
+            tasks.add(future);
+            return future;
+        }
+
+        void runPending() {
+            for (ManualFuture task : new ArrayList<>(tasks)) {
+                if (!task.cancelled && !task.done) {
+                    task.run();
+                }
+            }
+        }
+
+        void runTask(int index) {
+            tasks.get(index).run();
+        }
+
+        boolean hasPending() {
+            for (ManualFuture task : tasks) {
+                if (!task.cancelled && !task.done) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private final class ManualFuture implements ScheduledFuture<Object> {
+            private final Runnable command;
+            boolean cancelled;
+            boolean done;
+
+            ManualFuture(Runnable command) {
+                this.command = command;
+            }
+
+            void run() {
+                done = true;
+                command.run();
+            }
+
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                if (failCancellations || done) {
+                    return false;
+                }
+                cancelled = true;
+                return true;
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return cancelled;
+            }
+
+            @Override
+            public boolean isDone() {
+                return done || cancelled;
+            }
+
+            @Override
+            public Object get() {
+                return null;
+            }
+
+            @Override
+            public Object get(long timeout, TimeUnit unit) {
+                return null;
+            }
+
+            @Override
+            public long getDelay(TimeUnit unit) {
+                return 0;
+            }
+
+            @Override
+            public int compareTo(Delayed other) {
+                return Long.compare(getDelay(TimeUnit.NANOSECONDS), other.getDelay(TimeUnit.NANOSECONDS));
+            }
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.example.gestorgastos.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ContentHashTest {
+    private static final String USER = "uid_1";
+    private static final String CATEGORY = "cat_1";
+    private static final long CENTAVOS = 1999L;
+    private static final long MILLIS = 1_700_000_000_000L;
+
+    @Test
+    public void forExpense_esEstable() {
+        String hash = ContentHash.forExpense(USER, CATEGORY, CENTAVOS, MILLIS);
+        assertEquals(hash, ContentHash.forExpense(USER, CATEGORY, CENTAVOS, MILLIS));
+        // Valor fijo: las huellas ya guardadas en la base y en Firestore deben seguir coincidiendo
+        assertEquals("4c24820c591638ce13871a378d705188", hash);
+    }
+
+    @Test
+    public void forExpense_son32CaracteresHex() {
+        String hash = ContentHash.forExpense(USER, CATEGORY, CENTAVOS, MILLIS);
+        assertEquals(32, hash.length());
+        assertTrue(hash, hash.matches("[0-9a-f]{32}"));
+    }
+
+    @Test
+    public void forExpense_cambiaConCadaCampo() {
+        String base = ContentHash.forExpense(USER, CATEGORY, CENTAVOS, MILLIS);
+        assertNotEquals(base, ContentHash.forExpense("uid_2", CATEGORY, CENTAVOS, MILLIS));
+        assertNotEquals(base, ContentHash.forExpense(USER, "cat_2", CENTAVOS, MILLIS));
+        assertNotEquals(base, ContentHash.forExpense(USER, CATEGORY, CENTAVOS + 1, MILLIS));
+        assertNotEquals(base, ContentHash.forExpense(USER, CATEGORY, CENTAVOS, MILLIS + 1));
+    }
+}
@@ -0,0 +1,44 @@
+package com.example.gestorgastos.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class MoneyTest {
+
+    @Test
+    public void fromDouble_sumaConErrorDePuntoFlotante() {
+        // 0.1 + 0.2 = 0.30000000000000004
+        assertEquals(30L, Money.fromDouble(0.1 + 0.2));
+        assertEquals(1999L, Money.fromDouble(19.99));
+    }
+
+    @Test
+    public void fromDouble_negativos() {
+        assertEquals(-1250L, Money.fromDouble(-12.5));
+        assertEquals(-30L, Money.fromDouble(-(0.1 + 0.2)));
+    }
+
+    @Test
+    public void fromDouble_mitadesSeAlejanDelCero() {
+        assertEquals(101L, Money.fromDouble(1.005));
+        assertEquals(1L, Money.fromDouble(0.005));
+        assertEquals(-1L, Money.fromDouble(-0.005));
+        assertEquals(-101L, Money.fromDouble(-1.005));
+        assertEquals(0L, Money.fromDouble(0.004));
+    }
+
+    @Test
+    public void fromDouble_valoresNoFinitos() {
+        assertEquals(0L, Money.fromDouble(Double.NaN));
+        assertEquals(Long.MAX_VALUE, Money.fromDouble(Double.POSITIVE_INFINITY));
+    }
+
+    @Test
+    public void toDouble_idaYVuelta() {
+        for (long centavos : new long[] {0L, 1L, -1L, 30L, 1999L, -1250L, 123456789L}) {
+            assertEquals(centavos, Money.fromDouble(Money.toDouble(centavos)));
+        }
+        assertEquals(12.5, Money.toDouble(1250L), 0d);
+    }
+}
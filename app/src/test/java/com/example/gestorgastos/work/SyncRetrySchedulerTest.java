@@ -0,0 +1,79 @@
+package com.example.gestorgastos.work;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertTrue;
+
+public class SyncRetrySchedulerTest {
+    private static final long BASE_MS = TimeUnit.SECONDS.toMillis(30);
+    private static final long CAP_MS = TimeUnit.HOURS.toMillis(6);
+    // El jitter es aleatorio: cada caso se muestrea varias veces
+    private static final int SAMPLES = 2000;
+
+    @Test
+    public void primerIntentoUsaLaBase() {
+        assertWithinJitter(BASE_MS, 0);
+        assertWithinJitter(BASE_MS, 1);
+        // Valores fuera de rango se tratan como el primer intento
+        assertWithinJitter(BASE_MS, -5);
+    }
+
+    @Test
+    public void creceAlDobleHastaElTope() {
+        long expected = BASE_MS;
+        for (int attempt = 1; expected < CAP_MS; attempt++) {
+            assertWithinJitter(expected, attempt);
+            expected *= 2;
+        }
+    }
+
+    @Test
+    public void nuncaEsperaMenosQueElIntentoAnterior() {
+        for (int attempt = 1; attempt <= 70; attempt++) {
+            long previousNominal = nominalDelay(attempt);
+            for (int i = 0; i < SAMPLES; i++) {
+                long delay = SyncRetryScheduler.backoffDelayMillis(attempt + 1);
+                assertTrue("intento " + (attempt + 1) + ": " + delay, delay >= previousNominal);
+            }
+        }
+    }
+
+    @Test
+    public void topeDeSeisHorasSinDesbordar() {
+        // 30 s << 10 ya supera 6 h; los exponentes grandes no deben desbordar el shift
+        for (int attempt : new int[] {11, 12, 21, 22, 63, 64, 65, 1000, Integer.MAX_VALUE}) {
+            assertWithinJitter(CAP_MS, attempt);
+        }
+    }
+
+    @Test
+    public void jitterAlcanzaPeroNoSuperaElVeintePorCiento() {
+        long max = 0;
+        for (int i = 0; i < SAMPLES * 10; i++) {
+            max = Math.max(max, SyncRetryScheduler.backoffDelayMillis(1));
+        }
+        assertTrue(max <= BASE_MS + BASE_MS / 5);
+        // Con 20000 muestras uniformes sobre 6001 valores, el máximo queda cerca del tope
+        assertTrue(max > BASE_MS + BASE_MS / 10);
+    }
+
+    private static void assertWithinJitter(long expectedDelay, int attempt) {
+        for (int i = 0; i < SAMPLES; i++) {
+            long delay = SyncRetryScheduler.backoffDelayMillis(attempt);
+            assertTrue("intento " + attempt + ": " + delay + " < " + expectedDelay, delay >= expectedDelay);
+            assertTrue("intento " + attempt + ": " + delay + " > " + expectedDelay + " + 20%",
+                    delay <= expectedDelay + expectedDelay / 5);
+        }
+    }
+
+    // Base duplicada por intento hasta el tope, calculada sin shifts
+    private static long nominalDelay(int attempt) {
+        long delay = BASE_MS;
+        for (int i = 1; i < attempt && delay < CAP_MS; i++) {
+            delay *= 2;
+        }
+        return Math.min(delay, CAP_MS);
+    }
+}
@@ -1,4 +1,5 @@
 const {onRequest} = require("firebase-functions/v2/https");
+const {onSchedule} = require("firebase-functions/v2/scheduler");
 const admin = require("firebase-admin");
 const axios = require("axios");
 const functions = require("firebase-functions/v1");
@@ -467,4 +468,73 @@ exports.onAuthUserCreated = functions.auth.user().onCreate(async (user) => {
   }
 });
 
+// Días que se conservan en Firestore los documentos con deleted_at antes de purgarlos.
+// Debe ser mayor que la retención local de la app (SyncPrefs.DEFAULT_TOMBSTONE_RETENTION_DAYS):
+// un dispositivo que no descargó la eliminación antes del purgado conservaría la fila para siempre.
+// La app lo replica en SyncPrefs.SERVER_TOMBSTONE_RETENTION_DAYS: si no sincronizó en ese plazo descarta
+// sus cambios encolados sobre documentos existentes, que revivirían los purgados, y descarga todo de nuevo.
+const TOMBSTONE_RETENTION_DAYS = 90;
+const PURGE_PAGE_SIZE = 500;
 
+/**
+ * Tarea programada: borra definitivamente los gastos y categorías eliminados (deleted_at)
+ * hace más de TOMBSTONE_RETENTION_DAYS, para que la descarga incremental no los arrastre.
+ * Las categorías solo se borran si ningún gasto del usuario las sigue referenciando.
+ * Usa consultas de grupo de colecciones sobre deleted_at (ver firestore.indexes.json).
+ */
+exports.purgeDeletedTombstones = onSchedule("every day 03:00", async () => {
+  const cutoff = admin.firestore.Timestamp.fromMillis(
+    Date.now() - TOMBSTONE_RETENTION_DAYS * 24 * 60 * 60 * 1000
+  );
+  try {
+    const expenses = await purgeTombstones("expenses", cutoff, async () => true);
+    const categories = await purgeTombstones("categories", cutoff, async (docSnap) => {
+      const userRef = docSnap.ref.parent.parent;
+      const referencing = await userRef.collection("expenses")
+        .where("category_remote_id", "==", docSnap.id)
+        .limit(1)
+        .get();
+      return referencing.empty;
+    });
+    console.log(`Purgado de eliminados: ${expenses} gastos y ${categories} categorías`);
+  } catch (error) {
+    console.error("❌ Error en purgeDeletedTombstones:", error);
+    throw error;
+  }
+});
+
+async function purgeTombstones(collectionId, cutoff, canDelete) {
+  const firestore = admin.firestore();
+  let purged = 0;
+  let lastDoc = null;
+  for (;;) {
+    let query = firestore.collectionGroup(collectionId)
+      .where("deleted_at", "<", cutoff)
+      .orderBy("deleted_at")
+      .limit(PURGE_PAGE_SIZE);
+    if (lastDoc) {
+      query = query.startAfter(lastDoc);
+    }
+    const page = await query.get();
+    if (page.empty) {
+      return purged;
+    }
+
+    const batch = firestore.batch();
+    let batchSize = 0;
+    for (const docSnap of page.docs) {
+      if (await canDelete(docSnap)) {
+        batch.delete(docSnap.ref);
+        batchSize++;
+      }
+    }
+    if (batchSize > 0) {
+      await batch.commit();
+      purged += batchSize;
+    }
+    if (page.size < PURGE_PAGE_SIZE) {
+      return purged;
+    }
+    lastDoc = page.docs[page.docs.length - 1];
+  }
+}